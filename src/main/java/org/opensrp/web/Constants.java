@@ -22,6 +22,10 @@ public interface Constants {
     public static final String RETURN_COUNT= "return_count";
     public static final String TOTAL_RECORDS = "total_records";
 
+    public static final String STREAM = "stream";
+    public static final String CONTINUATION_TOKEN = "continuation_token";
+    public static final String ASYNC = "async";
+
     public static final String PAGE_NUMBER = "pageNumber";
 
     public static final String PAGE_SIZE = "pageSize";
@@ -0,0 +1,25 @@
+package org.opensrp.web;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A response content coding that can be negotiated by {@link GZipCompressionFilter}
+ */
+public interface ContentEncoder {
+
+	/**
+	 * @return the content coding token used in the Accept-Encoding and Content-Encoding headers
+	 */
+	String getEncoding();
+
+	/**
+	 * Wraps the output in a compressing stream. Flushing the stream sends the data compressed so
+	 * far to the output, closing it finishes the compressed data and closes the output.
+	 *
+	 * @param output the response output
+	 * @return the compressing stream
+	 * @throws IOException if the stream could not be created
+	 */
+	OutputStream encode(OutputStream output) throws IOException;
+}
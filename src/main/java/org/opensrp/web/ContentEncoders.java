@@ -0,0 +1,205 @@
+package org.opensrp.web;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.github.luben.zstd.ZstdOutputStream;
+import com.github.luben.zstd.util.Native;
+
+/**
+ * The content codings supported by {@link GZipCompressionFilter} and the Accept-Encoding
+ * negotiation between them.
+ */
+public final class ContentEncoders {
+
+	private static final Logger logger = LogManager.getLogger(ContentEncoders.class.toString());
+
+	public static final String GZIP = "gzip";
+
+	public static final String DEFLATE = "deflate";
+
+	public static final String ZSTD = "zstd";
+
+	private static final String WILDCARD = "*";
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private ContentEncoders() {
+	}
+
+	/**
+	 * Creates the encoder for a content coding
+	 *
+	 * @param encoding the content coding
+	 * @param level the compression level, null for the codec default
+	 * @return the encoder, or null if the coding is not supported or its codec is not available
+	 */
+	public static ContentEncoder create(String encoding, Integer level) {
+		switch (encoding.toLowerCase(Locale.ENGLISH)) {
+			case GZIP:
+				return new GzipEncoder(level == null ? Deflater.DEFAULT_COMPRESSION : level);
+			case DEFLATE:
+				return new DeflateEncoder(level == null ? Deflater.DEFAULT_COMPRESSION : level);
+			case ZSTD:
+				return isZstdAvailable() ? new ZstdEncoder(level == null ? 3 : level) : null;
+			default:
+				return null;
+		}
+	}
+
+	/**
+	 * Selects the encoder with the highest q-value in the Accept-Encoding header. Encoders with the
+	 * same q-value are chosen in the order they are listed, codings with q=0 are never chosen.
+	 *
+	 * @param acceptEncoding the Accept-Encoding header value
+	 * @param encoders the supported encoders in order of preference
+	 * @return the selected encoder or null if the response should not be compressed
+	 */
+	public static ContentEncoder negotiate(String acceptEncoding, List<ContentEncoder> encoders) {
+		if (acceptEncoding == null || acceptEncoding.trim().isEmpty()) {
+			return null;
+		}
+		Map<String, Float> qValues = parseAcceptEncoding(acceptEncoding);
+		ContentEncoder selected = null;
+		float selectedQValue = 0;
+		for (ContentEncoder encoder : encoders) {
+			Float qValue = qValues.get(encoder.getEncoding());
+			if (qValue == null) {
+				qValue = qValues.get(WILDCARD);
+			}
+			if (qValue != null && qValue > selectedQValue) {
+				selected = encoder;
+				selectedQValue = qValue;
+			}
+		}
+		return selected;
+	}
+
+	static Map<String, Float> parseAcceptEncoding(String acceptEncoding) {
+		Map<String, Float> qValues = new HashMap<>();
+		for (String element : acceptEncoding.split(",")) {
+			String[] parts = element.split(";");
+			String coding = parts[0].trim().toLowerCase(Locale.ENGLISH);
+			if (coding.isEmpty()) {
+				continue;
+			}
+			float qValue = 1;
+			for (int i = 1; i < parts.length; i++) {
+				String parameter = parts[i].trim();
+				if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+					try {
+						qValue = Math.max(0, Math.min(1, Float.parseFloat(parameter.substring(2).trim())));
+					}
+					catch (NumberFormatException e) {
+						qValue = 0;
+					}
+				}
+			}
+			if ("x-gzip".equals(coding)) {
+				qValues.putIfAbsent(GZIP, qValue);
+			} else {
+				qValues.put(coding, qValue);
+			}
+		}
+		return qValues;
+	}
+
+	private static boolean isZstdAvailable() {
+		try {
+			Native.load();
+			return true;
+		}
+		catch (LinkageError e) {
+			logger.warn("zstd native library could not be loaded, zstd compression disabled", e);
+			return false;
+		}
+	}
+
+	static final class GzipEncoder implements ContentEncoder {
+
+		private final int level;
+
+		GzipEncoder(int level) {
+			this.level = level;
+		}
+
+		@Override
+		public String getEncoding() {
+			return GZIP;
+		}
+
+		@Override
+		public OutputStream encode(OutputStream output) throws IOException {
+			return new GZIPOutputStream(output, BUFFER_SIZE, true) {
+
+				{
+					def.setLevel(level);
+				}
+			};
+		}
+	}
+
+	static final class DeflateEncoder implements ContentEncoder {
+
+		private final int level;
+
+		DeflateEncoder(int level) {
+			this.level = level;
+		}
+
+		@Override
+		public String getEncoding() {
+			return DEFLATE;
+		}
+
+		/**
+		 * The deflate content coding is the zlib format, so the deflater is created with the zlib
+		 * header and checksum
+		 */
+		@Override
+		public OutputStream encode(OutputStream output) {
+			Deflater deflater = new Deflater(level);
+			return new DeflaterOutputStream(output, deflater, BUFFER_SIZE, true) {
+
+				@Override
+				public void close() throws IOException {
+					try {
+						super.close();
+					}
+					finally {
+						deflater.end();
+					}
+				}
+			};
+		}
+	}
+
+	static final class ZstdEncoder implements ContentEncoder {
+
+		private final int level;
+
+		ZstdEncoder(int level) {
+			this.level = level;
+		}
+
+		@Override
+		public String getEncoding() {
+			return ZSTD;
+		}
+
+		@Override
+		public OutputStream encode(OutputStream output) throws IOException {
+			return new ZstdOutputStream(output, level);
+		}
+	}
+}
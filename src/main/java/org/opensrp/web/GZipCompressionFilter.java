@@ -1,6 +1,12 @@
 package org.opensrp.web;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.Deflater;
 
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
@@ -12,17 +18,50 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 /**
+ * Compresses responses while they are being written, using the content coding negotiated from the
+ * Accept-Encoding header of the request. Compressed data is sent to the client as it is produced
+ * using chunked transfer, responses smaller than {@code minSize} bytes are sent uncompressed and
+ * content types that are already compressed are passed through. Supported init parameters are
+ * {@code encodings}, the content codings to offer in order of preference (zstd, gzip and deflate by
+ * default), {@code compressionLevel} (0-9) for gzip and deflate, {@code zstdCompressionLevel}
+ * (1-22), {@code minSize} and {@code excludedContentTypes}, a comma separated list of content type
+ * prefixes.
+ *
  * @author samuelgithengi
  */
 public class GZipCompressionFilter implements Filter {
-	
+
+	public static final String ENCODINGS = "encodings";
+
+	public static final String COMPRESSION_LEVEL = "compressionLevel";
+
+	public static final String ZSTD_COMPRESSION_LEVEL = "zstdCompressionLevel";
+
+	public static final String MIN_SIZE = "minSize";
+
+	public static final String EXCLUDED_CONTENT_TYPES = "excludedContentTypes";
+
+	private static final List<String> DEFAULT_EXCLUDED_CONTENT_TYPES = Arrays.asList("image/", "video/", "audio/",
+			"application/zip", "application/gzip", "application/x-gzip", "application/pdf");
+
+	private static final String DEFAULT_ENCODINGS = ContentEncoders.ZSTD + "," + ContentEncoders.GZIP + ","
+			+ ContentEncoders.DEFLATE;
+
+	private List<ContentEncoder> encoders = Collections
+			.singletonList(ContentEncoders.create(ContentEncoders.GZIP, Deflater.DEFAULT_COMPRESSION));
+
+	private int minSize = 1024;
+
+	private List<String> excludedContentTypes = DEFAULT_EXCLUDED_CONTENT_TYPES;
+
 	public void doFilter(ServletRequest req, ServletResponse res, FilterChain chain) throws IOException, ServletException {
 		if (req instanceof HttpServletRequest) {
 			HttpServletRequest request = (HttpServletRequest) req;
 			HttpServletResponse response = (HttpServletResponse) res;
-			String ae = request.getHeader("accept-encoding");
-			if (ae != null && ae.indexOf("gzip") != -1) {
-				GzipResponseWrapper wrappedResponse = new GzipResponseWrapper(response);
+			ContentEncoder encoder = ContentEncoders.negotiate(request.getHeader("accept-encoding"), encoders);
+			if (encoder != null) {
+				GzipResponseWrapper wrappedResponse = new GzipResponseWrapper(response, encoder, minSize,
+						excludedContentTypes);
 				chain.doFilter(req, wrappedResponse);
 				wrappedResponse.finishResponse();
 				return;
@@ -30,10 +69,51 @@ public class GZipCompressionFilter implements Filter {
 			chain.doFilter(req, res);
 		}
 	}
-	
-	public void init(FilterConfig filterConfig) {//do nothing
+
+	public void init(FilterConfig filterConfig) {
+		Integer compressionLevel = getLevel(filterConfig, COMPRESSION_LEVEL, Deflater.DEFAULT_COMPRESSION,
+				Deflater.BEST_COMPRESSION);
+		Integer zstdCompressionLevel = getLevel(filterConfig, ZSTD_COMPRESSION_LEVEL, 1, 22);
+		String encodingNames = filterConfig.getInitParameter(ENCODINGS);
+		encoders = new ArrayList<>();
+		for (String encoding : (encodingNames != null ? encodingNames : DEFAULT_ENCODINGS).split(",")) {
+			encoding = encoding.trim().toLowerCase(Locale.ENGLISH);
+			if (encoding.isEmpty()) {
+				continue;
+			}
+			ContentEncoder encoder = ContentEncoders.create(encoding,
+					ContentEncoders.ZSTD.equals(encoding) ? zstdCompressionLevel : compressionLevel);
+			if (encoder != null) {
+				encoders.add(encoder);
+			}
+		}
+		String size = filterConfig.getInitParameter(MIN_SIZE);
+		if (size != null) {
+			minSize = Math.max(0, Integer.parseInt(size.trim()));
+		}
+		String contentTypes = filterConfig.getInitParameter(EXCLUDED_CONTENT_TYPES);
+		if (contentTypes != null) {
+			excludedContentTypes = new ArrayList<>();
+			for (String contentType : contentTypes.split(",")) {
+				if (!contentType.trim().isEmpty()) {
+					excludedContentTypes.add(contentType.trim().toLowerCase(Locale.ENGLISH));
+				}
+			}
+		}
 	}
-	
+
+	private static Integer getLevel(FilterConfig filterConfig, String name, int min, int max) {
+		String level = filterConfig.getInitParameter(name);
+		if (level == null) {
+			return null;
+		}
+		int compressionLevel = Integer.parseInt(level.trim());
+		if (compressionLevel < min || compressionLevel > max) {
+			throw new IllegalArgumentException("Invalid " + name + " " + level);
+		}
+		return compressionLevel;
+	}
+
 	public void destroy() {//do nothing
 	}
 }
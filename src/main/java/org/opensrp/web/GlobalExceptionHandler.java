@@ -6,11 +6,14 @@ import java.net.ConnectException;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.opensrp.web.GzipBodyDecompressFilter.InflatedSizeExceededException;
 import org.opensrp.web.dto.ResponseDto;
 import org.opensrp.web.exceptions.MissingTeamAssignmentException;
+import org.opensrp.web.exceptions.ResponseAbortedException;
 import org.opensrp.web.exceptions.UploadValidationException;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.http.converter.HttpMessageNotReadableException;
 import org.springframework.security.access.AccessDeniedException;
 import org.springframework.validation.BindException;
@@ -28,10 +31,19 @@ public class GlobalExceptionHandler {
 	
 	@ResponseBody
 	@ExceptionHandler(HttpMessageNotReadableException.class)
-	@ResponseStatus(HttpStatus.BAD_REQUEST)
-	public ResponseDto<?> exceptionHandler(HttpMessageNotReadableException exception) {
+	public ResponseEntity<ResponseDto<?>> exceptionHandler(HttpMessageNotReadableException exception) {
+		if (isInflatedSizeExceeded(exception)) {
+			return payloadTooLarge(exception);
+		}
 		logger.error("HttpMessageNotReadableException occurred : ", exception);
-		return buildErrorResponseForBadRequest(HttpStatus.BAD_REQUEST, "");
+		return new ResponseEntity<>(buildErrorResponseForBadRequest(HttpStatus.BAD_REQUEST, ""),
+				HttpStatus.BAD_REQUEST);
+	}
+
+	@ResponseBody
+	@ExceptionHandler(InflatedSizeExceededException.class)
+	public ResponseEntity<ResponseDto<?>> exceptionHandler(InflatedSizeExceededException exception) {
+		return payloadTooLarge(exception);
 	}
 	
 	@ResponseBody
@@ -78,10 +90,23 @@ public class GlobalExceptionHandler {
 	
 	@ResponseBody
 	@ExceptionHandler(RuntimeException.class)
-	@ResponseStatus(HttpStatus.INTERNAL_SERVER_ERROR)
-	public ResponseDto<?> exceptionHandler(RuntimeException exception) {
+	public ResponseEntity<ResponseDto<?>> exceptionHandler(RuntimeException exception) {
+		if (isInflatedSizeExceeded(exception)) {
+			return payloadTooLarge(exception);
+		}
 		logger.error("Runtime Exception occurred : ", exception);
-		return buildErrorResponse(HttpStatus.INTERNAL_SERVER_ERROR);
+		return new ResponseEntity<>(buildErrorResponse(HttpStatus.INTERNAL_SERVER_ERROR),
+				HttpStatus.INTERNAL_SERVER_ERROR);
+	}
+
+	/**
+	 * Rethrows the exception so that it is not written into the committed response, the servlet
+	 * container aborts the connection instead
+	 */
+	@ExceptionHandler(ResponseAbortedException.class)
+	public void exceptionHandler(ResponseAbortedException exception) {
+		logger.error("Aborting committed response : ", exception);
+		throw exception;
 	}
 
 	@ResponseBody
@@ -130,6 +155,25 @@ public class GlobalExceptionHandler {
 		return buildErrorResponse(HttpStatus.INTERNAL_SERVER_ERROR);
 	}
 	
+	/**
+	 * Spring wraps failures reading the body, such as a gzipped body inflating beyond the limit of
+	 * {@link GzipBodyDecompressFilter}, so the cause chain is searched for the size being exceeded
+	 */
+	private static boolean isInflatedSizeExceeded(Throwable exception) {
+		for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+			if (cause instanceof InflatedSizeExceededException) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private ResponseEntity<ResponseDto<?>> payloadTooLarge(Exception exception) {
+		logger.warn("Request body too large : " + exception.getMessage());
+		return new ResponseEntity<>(buildErrorResponseForBadRequest(HttpStatus.PAYLOAD_TOO_LARGE,
+				"Request body inflates to more than the allowed size"), HttpStatus.PAYLOAD_TOO_LARGE);
+	}
+
 	public ResponseDto<Object> buildErrorResponse(HttpStatus status) {
 		ResponseDto<Object> dto = new ResponseDto<>().makeFailureResponse(status);
 		dto.setData(null);
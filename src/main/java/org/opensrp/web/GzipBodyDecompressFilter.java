@@ -1,13 +1,18 @@
 
 package org.opensrp.web;
 
+import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.zip.GZIPInputStream;
@@ -42,15 +47,28 @@ public class GzipBodyDecompressFilter implements Filter {
 	
 	private static Logger logger = LogManager.getLogger(GzipBodyDecompressFilter.class.toString());
 	
+	public static final String MAX_INFLATED_SIZE = "maxInflatedSize";
+	
+	private static final int BUFFER_SIZE = 8192;
+	
+	private long maxInflatedSize = 512L * 1024 * 1024;
+	
 	@Override
-	public void init(FilterConfig filterConfig) throws ServletException {//do nothing
+	public void init(FilterConfig filterConfig) throws ServletException {
+		String size = filterConfig.getInitParameter(MAX_INFLATED_SIZE);
+		if (size != null) {
+			maxInflatedSize = Long.parseLong(size.trim());
+		}
 	}
 	
 	/**
 	 * Analyzes servlet request for possible gzipped body. When Content-Encoding header has "gzip"
-	 * value and request method is POST we read all the gzipped stream and is it haz any data unzip
-	 * it. In case when gzip Content-Encoding header specified but body is not actually in gzip
-	 * format we will throw ZipException.
+	 * value and request method is POST or PUT the request input stream is wrapped so that the body is
+	 * unzipped while it is read. In case when gzip Content-Encoding header specified but body is not
+	 * actually in gzip format reading the body will throw ZipException. Reading stops with an
+	 * {@link InflatedSizeExceededException} once the body inflates to more than
+	 * {@code maxInflatedSize} bytes. {@link GlobalExceptionHandler} returns 413 for it when it is
+	 * thrown while a controller reads the body, this filter when it is thrown before or after.
 	 *
 	 * @param servletRequest servlet request
 	 * @param servletResponse servlet response
@@ -73,12 +91,31 @@ public class GzipBodyDecompressFilter implements Filter {
 			        + " Only POST requests are currently supported.");
 		}
 		if (isGzipped && requestTypeSupported) {
-			request = new GzippedInputStreamWrapper((HttpServletRequest) servletRequest);
+			request = new GzippedInputStreamWrapper((HttpServletRequest) servletRequest, maxInflatedSize);
+		}
+		try {
+			chain.doFilter(request, response);
+		}
+		catch (IOException | ServletException | RuntimeException e) {
+			if (!isGzipped || !isInflatedSizeExceeded(e) || response.isCommitted()) {
+				throw e;
+			}
+			logger.warn("Rejected gzipped request to " + request.getRequestURI() + " inflating to more than "
+			        + maxInflatedSize + " bytes");
+			response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
 		}
-		chain.doFilter(request, response);
 		
 	}
 	
+	private static boolean isInflatedSizeExceeded(Throwable e) {
+		for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+			if (cause instanceof InflatedSizeExceededException) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
 	/**
 	 * @inheritDoc
 	 */
@@ -87,7 +124,89 @@ public class GzipBodyDecompressFilter implements Filter {
 	}
 	
 	/**
-	 * Wrapper class that detects if the request is gzipped and ungzipps it.
+	 * Thrown when a gzipped body inflates to more than the configured maximum size.
+	 */
+	public static class InflatedSizeExceededException extends IOException {
+		
+		private static final long serialVersionUID = 1L;
+		
+		public InflatedSizeExceededException(long maxInflatedSize) {
+			super("Gzipped request body inflates to more than " + maxInflatedSize + " bytes");
+		}
+	}
+	
+	/**
+	 * Servlet input stream that unzips the wrapped stream while it is read. The gzip header is only
+	 * read on the first read so that requests with an empty body have an empty stream.
+	 */
+	static final class InflatingServletInputStream extends ServletInputStream {
+		
+		private final InputStream source;
+		
+		private final long maxInflatedSize;
+		
+		private InputStream inflater;
+		
+		private long inflatedSize;
+		
+		private boolean finished;
+		
+		InflatingServletInputStream(InputStream source, long maxInflatedSize) {
+			this.source = source;
+			this.maxInflatedSize = maxInflatedSize;
+		}
+		
+		@Override
+		public int read() throws IOException {
+			byte[] single = new byte[1];
+			int read = read(single, 0, 1);
+			return read == -1 ? -1 : single[0] & 0xff;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (finished) {
+				return -1;
+			}
+			if (inflater == null) {
+				try {
+					inflater = new GZIPInputStream(source, BUFFER_SIZE);
+				}
+				catch (EOFException e) {
+					finished = true;
+					return -1;
+				}
+			}
+			int read = inflater.read(b, off, len);
+			if (read == -1) {
+				finished = true;
+				return -1;
+			}
+			inflatedSize += read;
+			if (inflatedSize > maxInflatedSize) {
+				throw new InflatedSizeExceededException(maxInflatedSize);
+			}
+			return read;
+		}
+		
+		@Override
+		public int available() throws IOException {
+			return inflater == null || finished ? 0 : inflater.available();
+		}
+		
+		@Override
+		public void close() throws IOException {
+			finished = true;
+			if (inflater != null) {
+				inflater.close();
+			} else {
+				source.close();
+			}
+		}
+	}
+	
+	/**
+	 * Wrapper class that ungzipps the request body while it is read.
 	 */
 	final class GzippedInputStreamWrapper extends HttpServletRequestWrapper {
 		
@@ -96,77 +215,161 @@ public class GzipBodyDecompressFilter implements Filter {
 		 */
 		public static final String DEFAULT_ENCODING = "UTF-8";
 		
+		private final long maxInflatedSize;
+		
 		/**
-		 * Serialized bytes array that is a result of unzipping gzipped body.
+		 * Unzipped body, only set when it has been buffered to parse form parameters.
 		 */
 		private byte[] bytes;
 		
+		private ServletInputStream inputStream;
+		
+		private BufferedReader reader;
+		
 		/**
-		 * Constructs a request object wrapping the given request. In case if Content-Encoding
-		 * contains "gzip" we wrap the input stream into byte array to original input stream has
-		 * nothing in it but hew wrapped input stream always returns reproducible ungzipped input
-		 * stream.
+		 * Parameters of the query string and the unzipped form body, parsed on the first call to
+		 * {@link #getParameterMap()}.
+		 */
+		private Map<String, String[]> parameters;
+		
+		/**
+		 * Failure reading the form body, thrown again by every later call to
+		 * {@link #getParameterMap()}.
+		 */
+		private UncheckedIOException parametersFailure;
+		
+		/**
+		 * Constructs a request object wrapping the given request. Nothing is read until the body is
+		 * requested, the input stream then unzips the original input stream as it is read.
 		 *
 		 * @param request request which input stream will be wrapped.
-		 * @throws java.io.IOException when input stream reqtieval failed.
+		 * @param maxInflatedSize maximum number of bytes the body may inflate to
 		 */
-		public GzippedInputStreamWrapper(final HttpServletRequest request) throws IOException {
+		public GzippedInputStreamWrapper(final HttpServletRequest request, long maxInflatedSize) {
 			super(request);
-			try {
-				final InputStream in = new GZIPInputStream(request.getInputStream());
-				bytes = ByteStreams.toByteArray(in);
-			}
-			catch (EOFException e) {
-				bytes = new byte[0];
-			}
+			this.maxInflatedSize = maxInflatedSize;
 		}
 		
 		/**
-		 * @return reproduceable input stream that is either equal to initial servlet input
-		 *         stream(if it was not zipped) or returns unzipped input stream.
+		 * @return input stream returning the unzipped body, or the buffered body if it was already
+		 *         read to parse form parameters.
 		 * @throws IOException if fails.
 		 */
 		@Override
 		public ServletInputStream getInputStream() throws IOException {
-			final ByteArrayInputStream sourceStream = new ByteArrayInputStream(bytes);
-			return new ServletInputStream() {
-				
-				public int read() throws IOException {
-					return sourceStream.read();
+			if (reader != null) {
+				throw new IllegalStateException("getReader() has already been called");
+			}
+			return getBodyStream();
+		}
+		
+		@Override
+		public BufferedReader getReader() throws IOException {
+			if (reader == null) {
+				if (inputStream != null) {
+					throw new IllegalStateException("getInputStream() has already been called");
 				}
-				
-				public void close() throws IOException {
-					super.close();
-					sourceStream.close();
+				String characterEncoding = getCharacterEncoding();
+				reader = new BufferedReader(new InputStreamReader(getBodyStream(),
+				        characterEncoding != null ? characterEncoding : DEFAULT_ENCODING));
+			}
+			return reader;
+		}
+		
+		private ServletInputStream getBodyStream() throws IOException {
+			if (inputStream == null) {
+				if (bytes != null) {
+					final ByteArrayInputStream sourceStream = new ByteArrayInputStream(bytes);
+					inputStream = new ServletInputStream() {
+						
+						public int read() throws IOException {
+							return sourceStream.read();
+						}
+						
+						public int read(byte[] b, int off, int len) throws IOException {
+							return sourceStream.read(b, off, len);
+						}
+					};
+				} else {
+					inputStream = new InflatingServletInputStream(super.getInputStream(), maxInflatedSize);
 				}
-			};
+			}
+			return inputStream;
 		}
 		
 		/**
-		 * Need to override getParametersMap because we initially read the whole input stream and
-		 * servlet container won't have access to the input stream data.
+		 * Need to override getParametersMap because the servlet container would parse the gzipped
+		 * body. The unzipped body is buffered before the container parameters are read, the
+		 * container then only parses the query string as the body has already been consumed.
 		 *
 		 * @return parsed parameters list. Parameters get parsed only when Content-Type
 		 *         "application/x-www-form-urlencoded" is set.
+		 * @throws UncheckedIOException if the form body could not be read, including when it
+		 *             inflates to more than the maximum size
 		 */
-		@SuppressWarnings({ "unchecked", "rawtypes" })
 		@Override
-		public Map getParameterMap() {
+		public Map<String, String[]> getParameterMap() {
 			String contentEncodingHeader = getHeader(HttpHeaders.CONTENT_TYPE);
-			if (!Strings.isNullOrEmpty(contentEncodingHeader)
-			        && contentEncodingHeader.contains("application/x-www-form-urlencoded")) {
-				
-				Map params = new HashMap(super.getParameterMap());
+			if (Strings.isNullOrEmpty(contentEncodingHeader)
+			        || !contentEncodingHeader.contains("application/x-www-form-urlencoded")) {
+				return super.getParameterMap();
+			}
+			if (parametersFailure != null) {
+				throw parametersFailure;
+			}
+			if (parameters == null) {
 				try {
-					params.putAll(parseParams(new String(bytes)));
+					byte[] body = getBufferedBody();
+					Map<String, String[]> params = new HashMap<>(super.getParameterMap());
+					params.putAll(parseParams(new String(body, getCharacterEncodingOrDefault())));
+					parameters = Collections.unmodifiableMap(params);
 				}
-				catch (UnsupportedEncodingException e) {
-					logger.error(e.getMessage(), e);
+				catch (IOException e) {
+					parametersFailure = new UncheckedIOException("Failed to read gzipped form parameters", e);
+					throw parametersFailure;
 				}
-				return params;
-			} else {
-				return super.getParameterMap();
 			}
+			return parameters;
+		}
+		
+		@Override
+		public String getParameter(String name) {
+			String[] values = getParameterValues(name);
+			return values == null || values.length == 0 ? null : values[0];
+		}
+		
+		@Override
+		public String[] getParameterValues(String name) {
+			return getParameterMap().get(name);
+		}
+		
+		@Override
+		public Enumeration<String> getParameterNames() {
+			return Collections.enumeration(getParameterMap().keySet());
+		}
+		
+		private String getCharacterEncodingOrDefault() {
+			String characterEncoding = getCharacterEncoding();
+			return characterEncoding != null ? characterEncoding : DEFAULT_ENCODING;
+		}
+		
+		/**
+		 * Reads the whole unzipped body into memory, subsequent calls to {@link #getInputStream()}
+		 * return the buffered body.
+		 *
+		 * @return the unzipped body
+		 * @throws IOException if the body could not be read
+		 */
+		private byte[] getBufferedBody() throws IOException {
+			if (bytes == null) {
+				if (inputStream != null || reader != null) {
+					throw new IOException("Request body has already been read");
+				}
+				try (InputStream in = new InflatingServletInputStream(super.getInputStream(), maxInflatedSize)) {
+					bytes = ByteStreams.toByteArray(in);
+				}
+			}
+			return bytes;
 		}
 		
 		/**
@@ -177,10 +380,7 @@ public class GzipBodyDecompressFilter implements Filter {
 		 * @throws UnsupportedEncodingException if encoding provided is not supported.
 		 */
 		private Map<String, String[]> parseParams(final String body) throws UnsupportedEncodingException {
-			String characterEncoding = getCharacterEncoding();
-			if (null == characterEncoding) {
-				characterEncoding = DEFAULT_ENCODING;
-			}
+			String characterEncoding = getCharacterEncodingOrDefault();
 			final Multimap<String, String> parameters = ArrayListMultimap.create();
 			for (String pair : body.split("&")) {
 				if (Strings.isNullOrEmpty(pair)) {
@@ -1,63 +1,102 @@
 package org.opensrp.web;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.zip.GZIPOutputStream;
+import java.io.OutputStream;
 
 import javax.servlet.ServletOutputStream;
-import javax.servlet.http.HttpServletResponse;
+
+import org.opensrp.web.metrics.Metrics;
+
+import com.google.common.io.CountingOutputStream;
 
 /**
+ * Holds back the first bytes of the response until the minimum size for compression is reached,
+ * then either streams them through the negotiated {@link ContentEncoder} or, if the response is not
+ * compressible, writes them to the client as is. Responses closed before reaching the minimum size
+ * are sent uncompressed. The number of responses and of bytes before and after compression are
+ * recorded in {@link Metrics} for every content coding and published at /rest/metrics/compression.
+ *
  * @author samuelgithengi
  */
 public class GzipResponseStream extends ServletOutputStream {
 
-	protected ByteArrayOutputStream baos = null;
+	public static final String COMPRESSION_METRIC = "compression";
+
+	protected byte[] buffer;
+
+	protected int count;
 
-	protected GZIPOutputStream gzipstream = null;
+	protected OutputStream stream = null;
 
 	protected boolean closed = false;
 
-	protected HttpServletResponse response = null;
+	protected GzipResponseWrapper response = null;
 
 	protected ServletOutputStream output = null;
 
-	public GzipResponseStream(HttpServletResponse response) throws IOException {
+	protected final ContentEncoder encoder;
+
+	protected final int minSize;
+
+	protected boolean compressing = false;
+
+	protected CountingOutputStream compressedOutput;
+
+	protected long uncompressedLength;
+
+	public GzipResponseStream(GzipResponseWrapper response, ServletOutputStream output, ContentEncoder encoder,
+			int minSize) {
 		super();
-		closed = false;
 		this.response = response;
-		this.output = response.getOutputStream();
-		baos = new ByteArrayOutputStream();
-		gzipstream = new GZIPOutputStream(baos);
+		this.output = output;
+		this.encoder = encoder;
+		this.minSize = minSize;
+		this.buffer = new byte[minSize];
 	}
 
 	public void close() throws IOException {
 		if (closed) {
-			throw new IOException("This output stream has already been closed");
+			return;
+		}
+		if (stream == null) {
+			start(false);
 		}
-		gzipstream.finish();
-
-		byte[] bytes = baos.toByteArray();
-
-		response.addHeader("Content-Length", Integer.toString(bytes.length));
-		response.addHeader("Content-Encoding", "gzip");
-		output.write(bytes);
-		output.flush();
-		output.close();
 		closed = true;
+		if (compressing) {
+			stream.close();
+			String prefix = COMPRESSION_METRIC + "." + encoder.getEncoding();
+			Metrics.increment(prefix + ".responses");
+			Metrics.add(prefix + ".bytes_in", uncompressedLength);
+			Metrics.add(prefix + ".bytes_out", compressedOutput.getCount());
+		} else {
+			output.flush();
+			output.close();
+		}
 	}
 
+	/**
+	 * Flushes compressed data to the client. Flushes while the minimum size has not been reached are
+	 * ignored so that small responses are not committed before deciding whether to compress them.
+	 */
 	public void flush() throws IOException {
-		if (!closed) {
-			gzipstream.flush();
+		if (!closed && stream != null) {
+			stream.flush();
 		}
-
 	}
 
 	public void write(int b) throws IOException {
-		if (!closed) {
-			gzipstream.write((byte) b);
+		if (closed) {
+			return;
+		}
+		if (stream == null && count < minSize) {
+			buffer[count++] = (byte) b;
+			return;
 		}
+		if (stream == null) {
+			start(true);
+		}
+		uncompressedLength++;
+		stream.write(b);
 	}
 
 	public void write(byte b[]) throws IOException {
@@ -65,14 +104,53 @@ public class GzipResponseStream extends ServletOutputStream {
 	}
 
 	public void write(byte b[], int off, int len) throws IOException {
-		if (!closed) {
-			gzipstream.write(b, off, len);
+		if (closed) {
+			return;
 		}
+		if (stream == null && count + len <= minSize) {
+			System.arraycopy(b, off, buffer, count, len);
+			count += len;
+			return;
+		}
+		if (stream == null) {
+			start(true);
+		}
+		uncompressedLength += len;
+		stream.write(b, off, len);
+	}
 
+	/**
+	 * Discards the bytes held back, used when the response buffer is reset before being committed
+	 */
+	public void reset() {
+		if (stream == null) {
+			count = 0;
+		}
 	}
 
 	public boolean closed() {
 		return (this.closed);
 	}
 
+	public boolean isCompressing() {
+		return compressing;
+	}
+
+	private void start(boolean minSizeReached) throws IOException {
+		if (minSizeReached && response.isCompressible()) {
+			response.startCompression();
+			compressing = true;
+			compressedOutput = new CountingOutputStream(output);
+			stream = encoder.encode(compressedOutput);
+		} else {
+			response.startIdentity(minSizeReached ? -1 : count);
+			stream = output;
+		}
+		if (count > 0) {
+			uncompressedLength += count;
+			stream.write(buffer, 0, count);
+		}
+		buffer = null;
+	}
+
 }
@@ -3,31 +3,60 @@ package org.opensrp.web;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.util.List;
+import java.util.Locale;
 
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpServletResponseWrapper;
 
 /**
+ * Response wrapper for {@link GZipCompressionFilter}, compressing with the negotiated
+ * {@link ContentEncoder}. Content-Length set by the application is held
+ * back until it is known whether the response is compressed, compressed responses have no
+ * Content-Length and are sent with chunked transfer.
+ *
  * @author samuelgithengi
  */
 public class GzipResponseWrapper extends HttpServletResponseWrapper {
-	
+
+	private static final String CONTENT_LENGTH = "Content-Length";
+
+	private static final String CONTENT_ENCODING = "Content-Encoding";
+
 	protected HttpServletResponse origResponse = null;
-	
-	protected ServletOutputStream stream = null;
-	
+
+	protected GzipResponseStream stream = null;
+
 	protected PrintWriter writer = null;
-	
-	public GzipResponseWrapper(HttpServletResponse response) {
+
+	private final ContentEncoder encoder;
+
+	private final int minSize;
+
+	private final List<String> excludedContentTypes;
+
+	private String contentLength;
+
+	private boolean encoded;
+
+	private boolean started;
+
+	private boolean compressing;
+
+	public GzipResponseWrapper(HttpServletResponse response, ContentEncoder encoder, int minSize,
+			List<String> excludedContentTypes) {
 		super(response);
 		origResponse = response;
+		this.encoder = encoder;
+		this.minSize = minSize;
+		this.excludedContentTypes = excludedContentTypes;
 	}
-	
+
 	public ServletOutputStream createOutputStream() throws IOException {
-		return (new GzipResponseStream(origResponse));
+		return (new GzipResponseStream(this, origResponse.getOutputStream(), encoder, minSize));
 	}
-	
+
 	public void finishResponse() {
 		try {
 			if (writer != null) {
@@ -40,35 +69,155 @@ public class GzipResponseWrapper extends HttpServletResponseWrapper {
 		}
 		catch (IOException e) {}
 	}
-	
-	public void flushBuffer() throws IOException {
+
+	/**
+	 * @return true if the response is not already encoded and its content type is not excluded
+	 */
+	public boolean isCompressible() {
+		if (encoded) {
+			return false;
+		}
+		String contentType = getContentType();
+		if (contentType == null) {
+			return true;
+		}
+		contentType = contentType.toLowerCase(Locale.ENGLISH);
+		for (String excludedContentType : excludedContentTypes) {
+			if (contentType.startsWith(excludedContentType)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	protected void startCompression() {
+		started = true;
+		compressing = true;
+		origResponse.setHeader(CONTENT_ENCODING, encoder.getEncoding());
+		origResponse.addHeader("Vary", "Accept-Encoding");
+	}
+
+	/**
+	 * Starts an uncompressed response, applying the Content-Length held back
+	 *
+	 * @param length the length of the complete response, or -1 if the response is not complete
+	 */
+	protected void startIdentity(int length) {
+		started = true;
+		if (contentLength != null) {
+			origResponse.setHeader(CONTENT_LENGTH, contentLength);
+		} else if (length > 0) {
+			origResponse.setContentLength(length);
+		}
+	}
+
+	public boolean isCompressing() {
+		return compressing;
+	}
+
+	@Override
+	public void setContentLength(int len) {
+		setContentLengthHeader(String.valueOf(len));
+	}
+
+	@Override
+	public void setHeader(String name, String value) {
+		if (CONTENT_LENGTH.equalsIgnoreCase(name)) {
+			setContentLengthHeader(value);
+			return;
+		}
+		if (CONTENT_ENCODING.equalsIgnoreCase(name)) {
+			encoded = true;
+		}
+		super.setHeader(name, value);
+	}
+
+	@Override
+	public void addHeader(String name, String value) {
+		if (CONTENT_LENGTH.equalsIgnoreCase(name)) {
+			setContentLengthHeader(value);
+			return;
+		}
+		if (CONTENT_ENCODING.equalsIgnoreCase(name)) {
+			encoded = true;
+		}
+		super.addHeader(name, value);
+	}
+
+	@Override
+	public void setIntHeader(String name, int value) {
+		if (CONTENT_LENGTH.equalsIgnoreCase(name)) {
+			setContentLengthHeader(String.valueOf(value));
+			return;
+		}
+		super.setIntHeader(name, value);
+	}
+
+	@Override
+	public void addIntHeader(String name, int value) {
+		if (CONTENT_LENGTH.equalsIgnoreCase(name)) {
+			setContentLengthHeader(String.valueOf(value));
+			return;
+		}
+		super.addIntHeader(name, value);
+	}
+
+	private void setContentLengthHeader(String value) {
+		if (!started) {
+			contentLength = value;
+		} else if (!compressing) {
+			origResponse.setHeader(CONTENT_LENGTH, value);
+		}
+	}
+
+	@Override
+	public void resetBuffer() {
+		super.resetBuffer();
+		if (stream != null) {
+			stream.reset();
+		}
+	}
+
+	@Override
+	public void reset() {
+		super.reset();
+		contentLength = null;
+		encoded = false;
 		if (stream != null) {
+			stream.reset();
+		}
+	}
+
+	public void flushBuffer() throws IOException {
+		if (writer != null) {
+			writer.flush();
+		} else if (stream != null) {
 			stream.flush();
 		}
 	}
-	
+
 	public ServletOutputStream getOutputStream() throws IOException {
 		if (writer != null) {
 			throw new IllegalStateException("getWriter() has already been called!");
 		}
-		
+
 		if (stream == null)
-			stream = createOutputStream();
+			stream = (GzipResponseStream) createOutputStream();
 		return (stream);
 	}
-	
+
 	public PrintWriter getWriter() throws IOException {
 		if (writer != null) {
 			return (writer);
 		}
-		
+
 		if (stream != null) {
 			throw new IllegalStateException("getOutputStream() has already been called!");
 		}
-		
-		stream = createOutputStream();
+
+		stream = (GzipResponseStream) createOutputStream();
 		writer = new PrintWriter(new OutputStreamWriter(stream, "UTF-8"));
 		return (writer);
 	}
-	
+
 }
@@ -0,0 +1,187 @@
+package org.opensrp.web.acl;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.opensrp.domain.AssignedLocations;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Two tier cache of the locations assigned to users. Lookups are served from a bounded in memory
+ * cache, then from Redis and finally from the database. Entries are stored in Redis as compact JSON
+ * arrays of {@code [jurisdictionId, organizationId, planId]} and expire in both tiers. When
+ * assignments change the affected users are evicted from Redis and an invalidation message is
+ * published so that every node evicts them from its in memory cache.
+ */
+@Component
+public class AssignedLocationsCache implements MessageListener {
+
+	private static final Logger logger = LogManager.getLogger(AssignedLocationsCache.class.toString());
+
+	public static final String KEY_PREFIX = "opensrp:acl:assigned_locations:";
+
+	public static final String INVALIDATION_CHANNEL = "opensrp:acl:assigned_locations:invalidate";
+
+	private static final TypeReference<List<String[]>> ENTRY_TYPE = new TypeReference<List<String[]>>() {};
+
+	private static final TypeReference<List<String>> USERNAMES_TYPE = new TypeReference<List<String>>() {};
+
+	@Value("#{opensrp['opensrp.acl.assigned.locations.cache.size'] ?: 10000}")
+	private long maximumSize;
+
+	@Value("#{opensrp['opensrp.acl.assigned.locations.cache.ttl.seconds'] ?: 60}")
+	private long localTtlSeconds;
+
+	@Value("#{opensrp['opensrp.acl.assigned.locations.redis.ttl.seconds'] ?: 900}")
+	private long redisTtlSeconds;
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	private StringRedisTemplate redisTemplate;
+
+	private RedisMessageListenerContainer listenerContainer;
+
+	private Cache<String, List<AssignedLocations>> localCache;
+
+	@PostConstruct
+	public void init() {
+		localCache = CacheBuilder.newBuilder().maximumSize(maximumSize)
+				.expireAfterWrite(localTtlSeconds, TimeUnit.SECONDS).build();
+		if (listenerContainer != null) {
+			listenerContainer.addMessageListener(this, new ChannelTopic(INVALIDATION_CHANNEL));
+		}
+	}
+
+	/**
+	 * Gets the locations assigned to a user
+	 *
+	 * @param username the user
+	 * @param loader   loads the assigned locations from the database when they are not cached
+	 * @return the assigned locations
+	 */
+	public List<AssignedLocations> get(String username, Function<String, List<AssignedLocations>> loader) {
+		try {
+			return localCache.get(username, () -> load(username, loader));
+		}
+		catch (ExecutionException e) {
+			throw new IllegalStateException("Failed to load assigned locations for " + username, e.getCause());
+		}
+	}
+
+	private List<AssignedLocations> load(String username, Function<String, List<AssignedLocations>> loader) {
+		String key = KEY_PREFIX + username;
+		if (redisTemplate != null) {
+			try {
+				String value = redisTemplate.opsForValue().get(key);
+				if (value != null) {
+					return deserialize(value);
+				}
+			}
+			catch (RuntimeException | IOException e) {
+				logger.warn("Failed to read assigned locations of " + username + " from redis", e);
+			}
+		}
+		List<AssignedLocations> assignedLocations = loader.apply(username);
+		assignedLocations = assignedLocations == null ? Collections.emptyList()
+				: Collections.unmodifiableList(new ArrayList<>(assignedLocations));
+		if (redisTemplate != null) {
+			try {
+				redisTemplate.opsForValue().set(key, serialize(assignedLocations), redisTtlSeconds, TimeUnit.SECONDS);
+			}
+			catch (RuntimeException | IOException e) {
+				logger.warn("Failed to write assigned locations of " + username + " to redis", e);
+			}
+		}
+		return assignedLocations;
+	}
+
+	/**
+	 * Evicts the assigned locations of users on all nodes
+	 *
+	 * @param usernames the users whose assignments changed
+	 */
+	public void invalidate(Collection<String> usernames) {
+		List<String> keys = usernames.stream().distinct().collect(Collectors.toList());
+		if (keys.isEmpty()) {
+			return;
+		}
+		localCache.invalidateAll(keys);
+		if (redisTemplate != null) {
+			try {
+				redisTemplate.delete(keys.stream().map(username -> KEY_PREFIX + username).collect(Collectors.toList()));
+				redisTemplate.convertAndSend(INVALIDATION_CHANNEL, objectMapper.writeValueAsString(keys));
+			}
+			catch (RuntimeException | IOException e) {
+				logger.error("Failed to publish assigned locations invalidation", e);
+			}
+		}
+	}
+
+	@Override
+	public void onMessage(Message message, byte[] pattern) {
+		String body = new String(message.getBody(), StandardCharsets.UTF_8);
+		try {
+			localCache.invalidateAll(objectMapper.readValue(body, USERNAMES_TYPE));
+		}
+		catch (IOException e) {
+			logger.warn("Ignoring invalid assigned locations invalidation " + body, e);
+		}
+	}
+
+	private String serialize(List<AssignedLocations> assignedLocations) throws IOException {
+		List<String[]> entries = new ArrayList<>(assignedLocations.size());
+		for (AssignedLocations assignedLocation : assignedLocations) {
+			entries.add(new String[] { assignedLocation.getJurisdictionId(), assignedLocation.getOrganizationId(),
+					assignedLocation.getPlanId() });
+		}
+		return objectMapper.writeValueAsString(entries);
+	}
+
+	private List<AssignedLocations> deserialize(String value) throws IOException {
+		List<String[]> entries = objectMapper.readValue(value, ENTRY_TYPE);
+		List<AssignedLocations> assignedLocations = new ArrayList<>(entries.size());
+		for (String[] entry : entries) {
+			AssignedLocations assignedLocation = new AssignedLocations();
+			assignedLocation.setJurisdictionId(entry[0]);
+			assignedLocation.setOrganizationId(entry[1]);
+			assignedLocation.setPlanId(entry[2]);
+			assignedLocations.add(assignedLocation);
+		}
+		return Collections.unmodifiableList(assignedLocations);
+	}
+
+	@Autowired(required = false)
+	public void setConnectionFactory(RedisConnectionFactory connectionFactory) {
+		this.redisTemplate = new StringRedisTemplate(connectionFactory);
+	}
+
+	@Autowired(required = false)
+	public void setListenerContainer(RedisMessageListenerContainer listenerContainer) {
+		this.listenerContainer = listenerContainer;
+	}
+}
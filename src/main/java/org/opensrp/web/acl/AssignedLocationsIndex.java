@@ -0,0 +1,70 @@
+package org.opensrp.web.acl;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.opensrp.domain.AssignedLocations;
+
+/**
+ * Hashed view of the jurisdictions, organizations and plans assigned to a user, so that permission
+ * checks are set lookups instead of scans of the assigned locations.
+ */
+public class AssignedLocationsIndex {
+
+	private final Set<String> jurisdictionIds = new HashSet<>();
+
+	private final Set<String> organizationIds = new HashSet<>();
+
+	private final Set<String> planIds = new HashSet<>();
+
+	/**
+	 * @param assignedLocations the locations assigned to the user
+	 */
+	public AssignedLocationsIndex(List<AssignedLocations> assignedLocations) {
+		for (AssignedLocations assignedLocation : assignedLocations) {
+			jurisdictionIds.add(assignedLocation.getJurisdictionId());
+			organizationIds.add(assignedLocation.getOrganizationId());
+			planIds.add(assignedLocation.getPlanId());
+		}
+	}
+
+	public boolean hasJurisdiction(String jurisdictionId) {
+		return jurisdictionId != null && jurisdictionIds.contains(jurisdictionId);
+	}
+
+	public boolean hasOrganization(String organizationId) {
+		return organizationId != null && organizationIds.contains(organizationId);
+	}
+
+	public boolean hasPlan(String planId) {
+		return planId != null && planIds.contains(planId);
+	}
+
+	/**
+	 * @param jurisdictionIdentifiers the jurisdictions to check
+	 * @return true if any of the jurisdictions is assigned
+	 */
+	public boolean hasAnyJurisdiction(Collection<String> jurisdictionIdentifiers) {
+		for (String jurisdictionId : jurisdictionIdentifiers) {
+			if (hasJurisdiction(jurisdictionId)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public Set<String> getJurisdictionIds() {
+		return Collections.unmodifiableSet(jurisdictionIds);
+	}
+
+	public Set<String> getOrganizationIds() {
+		return Collections.unmodifiableSet(organizationIds);
+	}
+
+	public Set<String> getPlanIds() {
+		return Collections.unmodifiableSet(planIds);
+	}
+}
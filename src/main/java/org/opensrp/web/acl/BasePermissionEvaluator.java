@@ -13,8 +13,9 @@ import org.opensrp.domain.AssignedLocations;
 import org.smartregister.domain.Jurisdiction;
 import org.opensrp.service.PhysicalLocationService;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.cache.annotation.Cacheable;
 import org.springframework.security.core.Authentication;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
 
 /**
  * @author Samuel Githengi created on 06/05/20
@@ -25,11 +26,43 @@ public abstract class BasePermissionEvaluator<T> implements PermissionContract<T
 	@Autowired
 	private PhysicalLocationService locationService;
 
-	@Cacheable(value = "locationCache", key = "#username")
+	private AssignedLocationsCache assignedLocationsCache;
+
+	private static final String ASSIGNED_LOCATIONS_INDEX_ATTRIBUTE = AssignedLocationsIndex.class.getName() + ".";
+
 	protected List<AssignedLocations> getAssignedLocations(String username) {
+		if (assignedLocationsCache != null) {
+			return assignedLocationsCache.get(username, locationService::getAssignedLocations);
+		}
 		return locationService.getAssignedLocations(username);
 	}
 	
+	/**
+	 * Gets the index of the locations assigned to a user. Within a request the index is built once
+	 * and shared by all the permission evaluators.
+	 *
+	 * @param username the user
+	 * @return the assigned locations index
+	 */
+	protected AssignedLocationsIndex getAssignedLocationsIndex(String username) {
+		RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+		if (requestAttributes == null) {
+			return buildAssignedLocationsIndex(username);
+		}
+		String attribute = ASSIGNED_LOCATIONS_INDEX_ATTRIBUTE + username;
+		AssignedLocationsIndex index = (AssignedLocationsIndex) requestAttributes.getAttribute(attribute,
+		    RequestAttributes.SCOPE_REQUEST);
+		if (index == null) {
+			index = buildAssignedLocationsIndex(username);
+			requestAttributes.setAttribute(attribute, index, RequestAttributes.SCOPE_REQUEST);
+		}
+		return index;
+	}
+	
+	protected AssignedLocationsIndex buildAssignedLocationsIndex(String username) {
+		return new AssignedLocationsIndex(getAssignedLocations(username));
+	}
+	
 	protected boolean hasPermissionOnJurisdictions(Authentication authentication, List<Jurisdiction> jurisdictions) {
 		/* @formatter:off */
 		Set<String> jurisdictionIdentifiers = jurisdictions
@@ -42,24 +75,11 @@ public abstract class BasePermissionEvaluator<T> implements PermissionContract<T
 	
 	protected boolean hasPermissionOnJurisdictions(Authentication authentication,
 	        Collection<String> jurisdictionIdentifiers) {
-		/* @formatter:off */
-		return getAssignedLocations(authentication.getName())
-				.stream()
-				.anyMatch((a) -> {
-					return jurisdictionIdentifiers.contains(a.getJurisdictionId());
-					});
-		/* @formatter:on */
+		return getAssignedLocationsIndex(authentication.getName()).hasAnyJurisdiction(jurisdictionIdentifiers);
 	}
 	
 	protected boolean hasPermissionOnJurisdiction(Authentication authentication, String jurisdiction) {
-		/* @formatter:off */
-		
-		return getAssignedLocations(authentication.getName())
-				.stream()
-				.anyMatch((a) -> {
-					return jurisdiction.equals(a.getOrganizationId());
-					});
-		/* @formatter:on */
+		return getAssignedLocationsIndex(authentication.getName()).hasOrganization(jurisdiction);
 	}
 	
 	@SuppressWarnings("rawtypes")
@@ -77,4 +97,9 @@ public abstract class BasePermissionEvaluator<T> implements PermissionContract<T
 	public void setLocationService(PhysicalLocationService locationService) {
 		this.locationService = locationService;
 	}
+
+	@Autowired(required = false)
+	public void setAssignedLocationsCache(AssignedLocationsCache assignedLocationsCache) {
+		this.assignedLocationsCache = assignedLocationsCache;
+	}
 }
@@ -6,8 +6,6 @@ import org.springframework.stereotype.Component;
 
 import java.io.Serializable;
 import java.util.Collection;
-import java.util.HashSet;
-import java.util.Set;
 
 @Component
 public class ClientPermissionEvaluator extends BasePermissionEvaluator<Client> {
@@ -17,44 +15,23 @@ public class ClientPermissionEvaluator extends BasePermissionEvaluator<Client> {
 	}
 
 	private boolean hasPermissionOnClient(Authentication authentication, Client client) {
-		/* @formatter:off */
-		return getAssignedLocations(authentication.getName())
-				.stream()
-				.anyMatch( (a) -> {
-							return a.getJurisdictionId().equals(client.getLocationId()) ||
-							a.getOrganizationId().equals(client.getTeamId());
-				});
-		/* @formatter:on */
+		return hasPermissionOnClient(getAssignedLocationsIndex(authentication.getName()), client);
+	}
+
+	private boolean hasPermissionOnClient(AssignedLocationsIndex index, Client client) {
+		return index.hasJurisdiction(client.getLocationId()) || index.hasOrganization(client.getTeamId());
 	}
 
 	public boolean hasObjectPermission(Authentication authentication, Serializable targetId, Object permission) {
 		if (targetId instanceof Client) {
-			Client client = (Client) targetId;
-			/* @formatter:off */
-			return getAssignedLocations(authentication.getName())
-					.stream()
-					.anyMatch((assignedLocation) -> {
-						return assignedLocation.getJurisdictionId().equals(client.getLocationId()) ||
-								assignedLocation.getOrganizationId().equals(client.getTeamId());
-					});
-			/* @formatter:on */
+			return hasPermissionOnClient(authentication, (Client) targetId);
 		} else if (isCollectionOfResources(targetId, Client.class)) {
 			Collection<Client> clients = (Collection<Client>) targetId;
-			Set<String> organizationIdentifiers = new HashSet<>();
-			Set<String> jurisdictionIdentifiers = new HashSet<>();
+			AssignedLocationsIndex index = getAssignedLocationsIndex(authentication.getName());
 			/* @formatter:off */
-			getAssignedLocations(authentication.getName())
-					.stream()
-					.forEach((assignedLocation) -> {
-						organizationIdentifiers.add(assignedLocation.getOrganizationId());
-						jurisdictionIdentifiers.add(assignedLocation.getJurisdictionId());
-					});
 			return clients
 					.stream()
-					.allMatch((client) -> {
-						return jurisdictionIdentifiers.contains(client.getLocationId()) ||
-								organizationIdentifiers.contains(client.getTeamId());
-					});
+					.allMatch(client -> hasPermissionOnClient(index, client));
 			/* @formatter:on */
 		}
 		return false;
@@ -6,8 +6,6 @@ import org.springframework.stereotype.Component;
 
 import java.io.Serializable;
 import java.util.Collection;
-import java.util.HashSet;
-import java.util.Set;
 
 @Component
 public class EventPermissionEvaluator extends BasePermissionEvaluator<Event> {
@@ -17,41 +15,23 @@ public class EventPermissionEvaluator extends BasePermissionEvaluator<Event> {
 	}
 
 	private boolean hasPermissionOnEvent(Authentication authentication, String identifier) {
-		/* @formatter:off */
-		return getAssignedLocations(authentication.getName())
-				.stream()
-				.anyMatch(a -> a.getJurisdictionId().equals(identifier));
-		/* @formatter:on */
+		return getAssignedLocationsIndex(authentication.getName()).hasJurisdiction(identifier);
+	}
+
+	private boolean hasPermissionOnEvent(AssignedLocationsIndex index, Event event) {
+		return index.hasJurisdiction(event.getLocationId()) || index.hasOrganization(event.getTeamId());
 	}
 
 	public boolean hasObjectPermission(Authentication authentication, Serializable targetId, Object permission) {
 		if (targetId instanceof Event) {
-			Event event = (Event) targetId;
-			/* @formatter:off */
-			return getAssignedLocations(authentication.getName())
-					.stream()
-					.anyMatch((assignedLocation) -> {
-						return assignedLocation.getJurisdictionId().equals(event.getLocationId()) ||
-								assignedLocation.getOrganizationId().equals(event.getTeamId());
-					});
-			/* @formatter:on */
+			return hasPermissionOnEvent(getAssignedLocationsIndex(authentication.getName()), (Event) targetId);
 		} else if (isCollectionOfResources(targetId, Event.class)) {
 			Collection<Event> events = (Collection<Event>) targetId;
-			Set<String> organizationIdentifiers = new HashSet<>();
-			Set<String> jurisdictionIdentifiers = new HashSet<>();
+			AssignedLocationsIndex index = getAssignedLocationsIndex(authentication.getName());
 			/* @formatter:off */
-			getAssignedLocations(authentication.getName())
-					.stream()
-					.forEach((assignedLocation) -> {
-						organizationIdentifiers.add(assignedLocation.getOrganizationId());
-						jurisdictionIdentifiers.add(assignedLocation.getJurisdictionId());
-					});
 			return events
 					.stream()
-					.allMatch((event) -> {
-						return jurisdictionIdentifiers.contains(event.getLocationId()) ||
-								organizationIdentifiers.contains(event.getTeamId());
-					});
+					.allMatch(event -> hasPermissionOnEvent(index, event));
 			/* @formatter:on */
 		}
 		return false;
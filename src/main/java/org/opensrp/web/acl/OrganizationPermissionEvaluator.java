@@ -5,8 +5,8 @@ package org.opensrp.web.acl;
 
 import java.io.Serializable;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 import org.opensrp.domain.Organization;
 import org.springframework.security.core.Authentication;
@@ -22,34 +22,19 @@ public class OrganizationPermissionEvaluator extends BasePermissionEvaluator<Org
 	@Override
 	public boolean hasObjectPermission(Authentication authentication, Serializable targetId, Object permission) {
 		if (targetId instanceof String) {
-			/* @formatter:off */
-			return getAssignedLocations(authentication.getName())
-					.stream()
-			        .anyMatch(assignedLocation -> assignedLocation.getOrganizationId().equals(targetId));
-			/* @formatter:on */
+			return getAssignedLocationsIndex(authentication.getName()).hasOrganization((String) targetId);
 		} else if (isCollectionOfString(targetId)) {
-			Collection<String> identifiers = (Collection<String>) targetId;
-			/* @formatter:off */
-			return getAssignedLocations(authentication.getName())
-					.stream()
-					.allMatch((assignedLocation) -> {
-						return identifiers.contains(assignedLocation.getOrganizationId());
-						});
-			/* @formatter:on */
+			Set<String> identifiers = new HashSet<>((Collection<String>) targetId);
+			return identifiers.containsAll(getAssignedLocationsIndex(authentication.getName()).getOrganizationIds());
 		} else if (targetId instanceof Organization) {
 			return hasPermission(authentication, (Organization) targetId);
 		} else if (isCollectionOfResources(targetId, Organization.class)) {
 			Collection<Organization> organizations = (Collection<Organization>) targetId;
+			AssignedLocationsIndex index = getAssignedLocationsIndex(authentication.getName());
 			/* @formatter:off */
-			Set<String> identifiers=getAssignedLocations(authentication.getName())
-					.stream()
-					.map(assignedLocation-> assignedLocation.getOrganizationId())
-					.collect(Collectors.toSet());
 			return organizations
 					.stream()
-					.allMatch((organization) -> {
-						return identifiers.contains(organization.getIdentifier());
-					});
+					.allMatch(organization -> index.hasOrganization(organization.getIdentifier()));
 			/* @formatter:on */
 		}
 		return false;
@@ -57,12 +42,7 @@ public class OrganizationPermissionEvaluator extends BasePermissionEvaluator<Org
 	
 	@Override
 	public boolean hasPermission(Authentication authentication, Organization organization) {
-		/* @formatter:off */
-		return getAssignedLocations(authentication.getName())
-				.stream()
-				.anyMatch(a->a.getOrganizationId().equals(organization.getIdentifier()));
-		
-		/* @formatter:on */
+		return getAssignedLocationsIndex(authentication.getName()).hasOrganization(organization.getIdentifier());
 	}
 	
 }
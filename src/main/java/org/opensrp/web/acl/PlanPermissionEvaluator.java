@@ -33,10 +33,15 @@ public class PlanPermissionEvaluator extends BasePermissionEvaluator<PlanDefinit
 	}
 	
 	private boolean hasPermissiononPlan(Authentication authentication, String identifier) {
+		return getAssignedLocationsIndex(authentication.getName()).hasPlan(identifier);
+	}
+	
+	private boolean hasPermissionOnPlan(AssignedLocationsIndex index, PlanDefinition plan) {
 		/* @formatter:off */
-		return getAssignedLocations(authentication.getName())
+		return index.hasPlan(plan.getIdentifier())
+				|| plan.getJurisdiction() != null && plan.getJurisdiction()
 				.stream()
-				.anyMatch(a -> a.getPlanId().equals(identifier));
+				.anyMatch(jurisdiction -> index.hasJurisdiction(jurisdiction.getCode()));
 		/* @formatter:on */
 	}
 	
@@ -49,53 +54,19 @@ public class PlanPermissionEvaluator extends BasePermissionEvaluator<PlanDefinit
 	@SuppressWarnings("unchecked")
 	public boolean hasObjectPermission(Authentication authentication, Serializable targetId, Object permission) {
 		if (targetId instanceof String) {
-			/* @formatter:off */
-			return getAssignedLocations(authentication.getName())
-					.stream()
-			        .anyMatch(assignedLocation -> assignedLocation.getPlanId().equals(targetId));
-			/* @formatter:on */
+			return getAssignedLocationsIndex(authentication.getName()).hasPlan((String) targetId);
 		} else if (isCollectionOfString(targetId)) {
-			Collection<String> identifiers = (Collection<String>) targetId;
-			/* @formatter:off */
-			return getAssignedLocations(authentication.getName())
-					.stream()
-					.allMatch((assignedLocation) -> {
-						return identifiers.contains(assignedLocation.getPlanId());
-						});
-			/* @formatter:on */
+			Set<String> identifiers = new HashSet<>((Collection<String>) targetId);
+			return identifiers.containsAll(getAssignedLocationsIndex(authentication.getName()).getPlanIds());
 		} else if (targetId instanceof PlanDefinition) {
-			PlanDefinition plan = (PlanDefinition) targetId;
-			/* @formatter:off */
-			return getAssignedLocations(authentication.getName())
-					.stream()
-					.anyMatch((assignedLocation) -> {
-						return assignedLocation.getPlanId().equals(plan.getIdentifier()) 
-								|| plan.getJurisdiction()
-								.stream()
-								.anyMatch(judisdiction -> judisdiction.getCode().equals(assignedLocation.getJurisdictionId()));
-						});
-			/* @formatter:on */
+			return hasPermissionOnPlan(getAssignedLocationsIndex(authentication.getName()), (PlanDefinition) targetId);
 		} else if (isCollectionOfResources(targetId, PlanDefinition.class)) {
 			Collection<PlanDefinition> plans = (Collection<PlanDefinition>) targetId;
-			Set<String> planIdentifiers = new HashSet<>();
-			Set<String> jurisdictionIdentifiers = new HashSet<>();
+			AssignedLocationsIndex index = getAssignedLocationsIndex(authentication.getName());
 			/* @formatter:off */
-			getAssignedLocations(authentication.getName())
-			.stream()
-			.forEach((assignedLocation) -> {
-				planIdentifiers.add(assignedLocation.getPlanId());
-				jurisdictionIdentifiers.add(assignedLocation.getJurisdictionId());
-			});
 			return plans
 					.stream()
-					.allMatch((plan) -> {
-						return planIdentifiers.contains(plan.getIdentifier())
-								|| plan.getJurisdiction()
-								.stream()
-								.anyMatch((judisdiction) -> {
-									return jurisdictionIdentifiers.contains(judisdiction.getCode());
-									});
-						});
+					.allMatch(plan -> hasPermissionOnPlan(index, plan));
 			/* @formatter:on */
 		}
 		return false;
@@ -1,5 +1,6 @@
 package org.opensrp.web.bean;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import java.util.List;
 import org.smartregister.domain.Client;
@@ -19,6 +20,9 @@ public class EventSyncBean {
 	@JsonProperty("total_records")
 	private Long totalRecords;
 	
+	@JsonIgnore
+	private String continuationToken;
+	
 	public List<Event> getEvents() {
 		return events;
 	}
@@ -61,5 +65,13 @@ public class EventSyncBean {
 		this.totalRecords = totalRecords;
 	}
 	
+	public String getContinuationToken() {
+		return continuationToken;
+	}
+	
+	public void setContinuationToken(String continuationToken) {
+		this.continuationToken = continuationToken;
+	}
+	
 	
 }
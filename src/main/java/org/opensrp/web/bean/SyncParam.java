@@ -18,6 +18,9 @@ public class SyncParam {
 	private Integer limit;
 	@JsonProperty("return_count")
 	private boolean returnCount;
+	private boolean stream;
+	@JsonProperty("continuation_token")
+	private String continuationToken;
 
 	public String getProviderId() {
 		return providerId;
@@ -82,5 +85,20 @@ public class SyncParam {
 	public void setReturnCount(boolean returnCount) {
 		this.returnCount = returnCount;
 	}
+
+	public boolean isStream() {
+		return stream;
+	}
+
+	public void setStream(boolean stream) {
+		this.stream = stream;
+	}
 	
+	public String getContinuationToken() {
+		return continuationToken;
+	}
+
+	public void setContinuationToken(String continuationToken) {
+		this.continuationToken = continuationToken;
+	}
 }
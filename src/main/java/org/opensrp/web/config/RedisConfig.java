@@ -19,6 +19,7 @@ import org.springframework.data.redis.connection.lettuce.LettuceClientConfigurat
 import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
 import org.springframework.data.redis.connection.lettuce.LettucePoolingClientConfiguration;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 
 /**
  * @author Samuel Githengi created on 05/11/20
@@ -91,6 +92,22 @@ public class RedisConfig {
 		return template;
 	}
 
+	@Profile("lettuce")
+	@Bean(name = "redisMessageListenerContainer")
+	public RedisMessageListenerContainer lettuceMessageListenerContainer() {
+		RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+		container.setConnectionFactory(lettuceConnectionFactory());
+		return container;
+	}
+	
+	@Profile("jedis")
+	@Bean(name = "redisMessageListenerContainer")
+	public RedisMessageListenerContainer jedisMessageListenerContainer() {
+		RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+		container.setConnectionFactory(jedisConnectionFactory());
+		return container;
+	}
+
 	@Profile("lettuce")
 	@Bean
 	public CacheManager lettuceCacheManager() {
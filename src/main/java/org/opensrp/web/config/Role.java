@@ -17,4 +17,6 @@ public interface Role {
 	String OPENSRP_GENERATE_QR_CODE = "opensrp-generate-qr-code";
 	
 	String PII_DATA_MASK = "PII_DATA_MASK";
+	
+	String VIEW_METRICS = "VIEW_METRICS";
 }
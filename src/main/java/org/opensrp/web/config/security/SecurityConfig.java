@@ -96,6 +96,7 @@ public class SecurityConfig extends KeycloakWebSecurityConfigurerAdapter {
 			.mvcMatchers("/rest/viewconfiguration/**").permitAll()
 			.mvcMatchers("/rest/config/keycloak").permitAll()
 			.mvcMatchers("/rest/*/getAll").hasRole(Role.ALL_EVENTS)
+			.mvcMatchers("/rest/metrics/**").hasRole(Role.VIEW_METRICS)
 			.mvcMatchers(OPTIONS,"/**").permitAll()
 			.mvcMatchers("/rest/**").hasRole(Role.OPENMRS)
 			.anyRequest().authenticated()
@@ -18,16 +18,23 @@ public class CrossSiteScriptingPreventionFilter implements Filter {
 
 	private static Logger logger = LogManager.getLogger(CrossSiteScriptingPreventionFilter.class);
 
+	public static final String MAX_BUFFERED_SIZE = "maxBufferedSize";
+
+	private int maxBufferedSize = XssPreventionRequestWrapper.DEFAULT_MAX_BUFFERED_SIZE;
+
 	@Override
 	public void init(FilterConfig filterConfig) throws ServletException {
-     // do nothing
+		String size = filterConfig.getInitParameter(MAX_BUFFERED_SIZE);
+		if (size != null) {
+			maxBufferedSize = Integer.parseInt(size.trim());
+		}
 	}
 	
 	public void doFilter(ServletRequest request, ServletResponse response,
 			FilterChain chain) throws IOException, ServletException {
 		logger.debug("Inside CrossSiteScriptingPreventionFilter  ...............");
 		XssPreventionRequestWrapper wrappedRequest = new XssPreventionRequestWrapper(
-				(HttpServletRequest) request);
+				(HttpServletRequest) request, maxBufferedSize);
 
 		if ((wrappedRequest.getMethod().equals(HttpMethod.POST.name()) || wrappedRequest.getMethod()
 				.equals(HttpMethod.PUT.name()))
@@ -1,13 +1,11 @@
 package org.opensrp.web.config.security.filter;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.databind.node.JsonNodeFactory;
-import com.fasterxml.jackson.databind.node.JsonNodeType;
-import com.fasterxml.jackson.databind.node.ObjectNode;
-import org.apache.commons.io.IOUtils;
+import com.fasterxml.jackson.core.JsonToken;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.owasp.encoder.Encode;
@@ -17,106 +15,250 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletRequestWrapper;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
-import java.util.Iterator;
-import java.util.Map;
 
+/**
+ * Html encodes the string values and field names of JSON request bodies. The body is sanitized in a
+ * single pass over the Jackson token stream while it is being read, without building a tree.
+ * <p>
+ * Up to {@code maxBufferedSize} bytes of the body are read ahead before anything is returned, so
+ * that bodies that turn out not to be valid JSON within that size are passed through unchanged.
+ * Larger bodies are streamed once the limit is reached, a JSON syntax error after that point fails
+ * the read.
+ */
 public class XssPreventionRequestWrapper extends HttpServletRequestWrapper {
 
 	private static Logger logger = LogManager.getLogger(XssPreventionRequestWrapper.class);
 
-	private static ObjectMapper mapper = new ObjectMapper();
+	public static final int DEFAULT_MAX_BUFFERED_SIZE = 1024 * 1024;
 
-	private byte[] rawData;
+	private static final int TOKENS_PER_CHUNK = 512;
 
-	private HttpServletRequest request;
+	private static final JsonFactory jsonFactory = new JsonFactory()
+			.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE)
+			.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
 
-	private ResettableServletInputStream servletStream;
+	private final int maxBufferedSize;
+
+	private ServletInputStream servletStream;
+
+	private BufferedReader reader;
 
 	public XssPreventionRequestWrapper(HttpServletRequest request) {
+		this(request, DEFAULT_MAX_BUFFERED_SIZE);
+	}
+
+	public XssPreventionRequestWrapper(HttpServletRequest request, int maxBufferedSize) {
 		super(request);
-		this.request = request;
-		this.servletStream = new ResettableServletInputStream();
+		this.maxBufferedSize = maxBufferedSize;
 	}
-	
+
 	@Override
 	public ServletInputStream getInputStream() throws IOException {
-		if (rawData == null) {
-			rawData = IOUtils.toByteArray(this.request.getInputStream());
-			servletStream.stream = new ByteArrayInputStream(rawData);
+		if (servletStream == null) {
+			servletStream = new BodyServletInputStream(sanitize(super.getInputStream()));
 		}
-		updateParameters();
 		return servletStream;
 	}
 
 	@Override
 	public BufferedReader getReader() throws IOException {
-		if (rawData == null) {
-			rawData = IOUtils.toByteArray(this.request.getReader(),StandardCharsets.UTF_8);
-			servletStream.stream = new ByteArrayInputStream(rawData);
+		if (reader == null) {
+			reader = new BufferedReader(new InputStreamReader(getInputStream(), StandardCharsets.UTF_8));
 		}
-		updateParameters();
-		return new BufferedReader(new InputStreamReader(servletStream));
+		return reader;
 	}
 
-	private void updateParameters() throws IOException {
-		String requestBody = new String(rawData, StandardCharsets.UTF_8);
-		if (isValidJSON(requestBody)) {
-			JsonNode jsonNode = mapper.readTree(requestBody);
-			JsonNode updatedJsonNode = encode(jsonNode);
-			String encodedJsonString = updatedJsonNode.toString();
-			rawData = encodedJsonString.getBytes();
-			servletStream.stream = new ByteArrayInputStream(rawData);
+	private InputStream sanitize(InputStream source) throws IOException {
+		RecordingInputStream recordingStream = new RecordingInputStream(source, maxBufferedSize);
+		SanitizingInputStream sanitizingStream = new SanitizingInputStream(recordingStream);
+		try {
+			while (recordingStream.isRecording() && sanitizingStream.sanitizeChunk()) {
+				// read ahead until the body is sanitized or the buffering limit is reached
+			}
+		}
+		catch (JsonProcessingException e) {
+			if (!recordingStream.isRecording()) {
+				throw e;
+			}
+			logger.debug("Request body is not valid JSON, passing it through unchanged");
+			return new SequenceInputStream(new ByteArrayInputStream(recordingStream.getRecorded()), source);
 		}
+		recordingStream.stopRecording();
+		return sanitizingStream;
 	}
 
-	private static JsonNode encode(JsonNode node) {
-		if (node.isValueNode()) {
-			if (JsonNodeType.STRING == node.getNodeType()) {
-				return JsonNodeFactory.instance.textNode(Encode.forHtmlContent(node.asText()));
-			} else if (JsonNodeType.NULL == node.getNodeType()) {
-				return null;
-			} else {
-				return node;
-			}
-		} else if (node.isNull()) {
-			return null;
-		} else if (node.isArray()) {
-			ArrayNode arrayNode = (ArrayNode) node;
-			ArrayNode cleanedNewArrayNode = mapper.createArrayNode();
-			for (JsonNode jsonNode : arrayNode) {
-				cleanedNewArrayNode.add(encode(jsonNode));
+	/**
+	 * Parses JSON from the source and returns it with html encoded string values and field names.
+	 * Tokens are sanitized in chunks as the sanitized output is read.
+	 */
+	private static class SanitizingInputStream extends InputStream {
+
+		private final JsonParser parser;
+
+		private final JsonGenerator generator;
+
+		private final OutputBuffer output = new OutputBuffer();
+
+		private int position;
+
+		private boolean done;
+
+		SanitizingInputStream(InputStream source) throws IOException {
+			parser = jsonFactory.createParser(source);
+			generator = jsonFactory.createGenerator(output, JsonEncoding.UTF8);
+		}
+
+		/**
+		 * Sanitizes the next tokens of the body into the output buffer
+		 *
+		 * @return false once the whole root value has been sanitized
+		 * @throws IOException if the body could not be read or is not valid JSON
+		 */
+		boolean sanitizeChunk() throws IOException {
+			for (int i = 0; i < TOKENS_PER_CHUNK && !done; i++) {
+				JsonToken token = parser.nextToken();
+				if (token == null) {
+					done = true;
+					break;
+				}
+				switch (token) {
+					case FIELD_NAME:
+						generator.writeFieldName(Encode.forHtmlContent(parser.getCurrentName()));
+						break;
+					case VALUE_STRING:
+						generator.writeString(Encode.forHtmlContent(parser.getText()));
+						break;
+					default:
+						generator.copyCurrentEvent(parser);
+				}
+				done = parser.getParsingContext().inRoot();
 			}
-			return cleanedNewArrayNode;
-		} else {
-			ObjectNode encodedObjectNode = mapper.createObjectNode();
-			for (Iterator<Map.Entry<String, JsonNode>> it = node.fields(); it.hasNext(); ) {
-				Map.Entry<String, JsonNode> entry = it.next();
-				encodedObjectNode.set(Encode.forHtmlContent(entry.getKey()), encode(entry.getValue()));
+			generator.flush();
+			return !done;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] single = new byte[1];
+			int read = read(single, 0, 1);
+			return read == -1 ? -1 : single[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			while (position == output.size()) {
+				output.reset();
+				position = 0;
+				if (done) {
+					return -1;
+				}
+				sanitizeChunk();
 			}
-			return encodedObjectNode;
+			int read = Math.min(len, output.size() - position);
+			System.arraycopy(output.buffer(), position, b, off, read);
+			position += read;
+			return read;
+		}
+
+		@Override
+		public int available() {
+			return output.size() - position;
+		}
+
+		@Override
+		public void close() throws IOException {
+			done = true;
+			parser.close();
 		}
 	}
 
-	private static boolean isValidJSON(final String json) throws IOException {
-		boolean valid = true;
-		try {
-			mapper.readTree(json);
+	/**
+	 * Keeps a copy of the bytes read until more than the limit has been read
+	 */
+	private static class RecordingInputStream extends FilterInputStream {
+
+		private final int limit;
+
+		private ByteArrayOutputStream recorded = new ByteArrayOutputStream();
+
+		RecordingInputStream(InputStream in, int limit) {
+			super(in);
+			this.limit = limit;
 		}
-		catch (JsonProcessingException e) {
-			logger.error("Error while processing JSON", e);
-			valid = false;
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b != -1 && recorded != null) {
+				record(new byte[] { (byte) b }, 0, 1);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, len);
+			if (read > 0 && recorded != null) {
+				record(b, off, read);
+			}
+			return read;
+		}
+
+		private void record(byte[] b, int off, int len) {
+			if (recorded.size() + len > limit) {
+				stopRecording();
+			} else {
+				recorded.write(b, off, len);
+			}
+		}
+
+		boolean isRecording() {
+			return recorded != null;
+		}
+
+		void stopRecording() {
+			recorded = null;
+		}
+
+		byte[] getRecorded() {
+			return recorded.toByteArray();
 		}
-		return valid;
 	}
 
-	private class ResettableServletInputStream extends ServletInputStream {
+	private static class OutputBuffer extends ByteArrayOutputStream {
+
+		byte[] buffer() {
+			return buf;
+		}
+	}
 
-		private InputStream stream;
+	private static class BodyServletInputStream extends ServletInputStream {
+
+		private final InputStream stream;
+
+		BodyServletInputStream(InputStream stream) {
+			this.stream = stream;
+		}
 
 		@Override
 		public int read() throws IOException {
 			return stream.read();
 		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			return stream.read(b, off, len);
+		}
+
+		@Override
+		public int available() throws IOException {
+			return stream.available();
+		}
+
+		@Override
+		public void close() throws IOException {
+			stream.close();
+		}
 	}
 
 }
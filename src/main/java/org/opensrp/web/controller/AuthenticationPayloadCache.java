@@ -0,0 +1,193 @@
+package org.opensrp.web.controller;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+/**
+ * Caches the part of the {@code /security/authenticate} response that only changes when the
+ * organization, practitioner, location or plan assignments of a user change. Payloads are versioned
+ * by a hash of their content, which is used as the ETag of the response. Payloads are evicted when
+ * assignments change, on all nodes through a Redis channel, and expire after {@code ttl} seconds so
+ * that changes not tracked, such as edits of jurisdictions, are picked up.
+ */
+@Component
+public class AuthenticationPayloadCache implements MessageListener {
+
+	private static final Logger logger = LogManager.getLogger(AuthenticationPayloadCache.class.toString());
+
+	public static final String INVALIDATION_CHANNEL = "opensrp:authentication:payload:invalidate";
+
+	public static final String ALL_USERS = "*";
+
+	private static final TypeReference<List<String>> USERNAMES_TYPE = new TypeReference<List<String>>() {};
+
+	@Value("#{opensrp['opensrp.authentication.payload.cache.size'] ?: 10000}")
+	private long maximumSize;
+
+	@Value("#{opensrp['opensrp.authentication.payload.cache.ttl.seconds'] ?: 300}")
+	private long ttlSeconds;
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	private StringRedisTemplate redisTemplate;
+
+	private RedisMessageListenerContainer listenerContainer;
+
+	private Cache<String, Payload> cache;
+
+	@PostConstruct
+	public void init() {
+		cache = CacheBuilder.newBuilder().maximumSize(maximumSize).expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+				.build();
+		if (listenerContainer != null) {
+			listenerContainer.addMessageListener(this, new ChannelTopic(INVALIDATION_CHANNEL));
+		}
+	}
+
+	/**
+	 * Gets the payload of a user, computing it if it is not cached
+	 *
+	 * @param username the user
+	 * @param loader   computes the JSON payload of the user
+	 * @return the payload
+	 */
+	public Payload get(String username, Callable<String> loader) {
+		try {
+			return cache.get(username, () -> new Payload(loader.call()));
+		}
+		catch (ExecutionException | UncheckedExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/**
+	 * Evicts the payloads of users on all nodes
+	 *
+	 * @param usernames the users whose assignments changed
+	 */
+	public void invalidate(Collection<String> usernames) {
+		List<String> keys = usernames.stream().distinct().collect(Collectors.toList());
+		if (keys.isEmpty()) {
+			return;
+		}
+		cache.invalidateAll(keys);
+		try {
+			publish(objectMapper.writeValueAsString(keys));
+		}
+		catch (IOException e) {
+			logger.error("Failed to publish authentication payload invalidation", e);
+		}
+	}
+
+	/**
+	 * Evicts the payloads of all users on all nodes
+	 */
+	public void invalidateAll() {
+		cache.invalidateAll();
+		publish(ALL_USERS);
+	}
+
+	private void publish(String message) {
+		if (redisTemplate != null) {
+			try {
+				redisTemplate.convertAndSend(INVALIDATION_CHANNEL, message);
+			}
+			catch (RuntimeException e) {
+				logger.error("Failed to publish authentication payload invalidation", e);
+			}
+		}
+	}
+
+	@Override
+	public void onMessage(Message message, byte[] pattern) {
+		String body = new String(message.getBody(), StandardCharsets.UTF_8);
+		if (ALL_USERS.equals(body)) {
+			cache.invalidateAll();
+			return;
+		}
+		try {
+			cache.invalidateAll(objectMapper.readValue(body, USERNAMES_TYPE));
+		}
+		catch (IOException e) {
+			logger.warn("Ignoring invalid authentication payload invalidation " + body, e);
+		}
+	}
+
+	@Autowired(required = false)
+	public void setConnectionFactory(RedisConnectionFactory connectionFactory) {
+		this.redisTemplate = new StringRedisTemplate(connectionFactory);
+	}
+
+	@Autowired(required = false)
+	public void setListenerContainer(RedisMessageListenerContainer listenerContainer) {
+		this.listenerContainer = listenerContainer;
+	}
+
+	/**
+	 * A JSON object payload and its version
+	 */
+	public static class Payload {
+
+		private static final Gson GSON = new Gson();
+
+		private final String json;
+
+		private final String version;
+
+		private final JsonObject tree;
+
+		public Payload(String json) {
+			this.json = json;
+			this.version = DigestUtils.sha1Hex(json);
+			this.tree = GSON.fromJson(json, JsonObject.class);
+		}
+
+		public String getJson() {
+			return json;
+		}
+
+		/**
+		 * @return the payload parsed once, its members are added to each response and must not be
+		 *         modified
+		 */
+		public JsonObject getTree() {
+			return tree;
+		}
+
+		public String getVersion() {
+			return version;
+		}
+	}
+}
@@ -9,6 +9,7 @@ import java.net.MalformedURLException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -25,14 +26,13 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.joda.time.DateTime;
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 import org.keycloak.KeycloakPrincipal;
 import org.keycloak.KeycloakSecurityContext;
 import org.keycloak.adapters.KeycloakDeployment;
@@ -50,6 +50,7 @@ import org.opensrp.service.PhysicalLocationService;
 import org.opensrp.service.PlanService;
 import org.opensrp.service.PractitionerService;
 import org.opensrp.web.exceptions.MissingTeamAssignmentException;
+import org.opensrp.web.location.LocationTreeService;
 import org.opensrp.web.rest.RestUtils;
 import org.slf4j.LoggerFactory;
 import org.smartregister.domain.Jurisdiction;
@@ -57,16 +58,20 @@ import org.smartregister.domain.PhysicalLocation;
 import org.smartregister.domain.PlanDefinition.PlanStatus;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 
 import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 
 @Controller
 public class UserController {
@@ -77,6 +82,8 @@ public class UserController {
 	
 	public static final String STATUS="status";
 	
+	public static final String SERVER_TIME = "server_time";
+	
 	@Value("#{opensrp['opensrp.cors.allowed.source']}")
 	private String opensrpAllowedSources;
 	
@@ -88,6 +95,10 @@ public class UserController {
 	
 	private PlanService planService;
 	
+	private LocationTreeService locationTreeService;
+	
+	private AuthenticationPayloadCache authenticationPayloadCache;
+	
 	@Value("#{opensrp['openmrs.version']}")
 	protected String OPENMRS_VERSION;
 	
@@ -136,6 +147,22 @@ public class UserController {
 		this.planService = planService;
 	}
 	
+	/**
+	 * @param locationTreeService the locationTreeService to set
+	 */
+	@Autowired(required = false)
+	public void setLocationTreeService(LocationTreeService locationTreeService) {
+		this.locationTreeService = locationTreeService;
+	}
+	
+	/**
+	 * @param authenticationPayloadCache the authenticationPayloadCache to set
+	 */
+	@Autowired(required = false)
+	public void setAuthenticationPayloadCache(AuthenticationPayloadCache authenticationPayloadCache) {
+		this.authenticationPayloadCache = authenticationPayloadCache;
+	}
+	
 	@RequestMapping(method = RequestMethod.GET, value = "/authenticate-user")
 	public ResponseEntity<HttpStatus> authenticateUser() {
 		return new ResponseEntity<>(null, allowOrigin(opensrpAllowedSources), OK);
@@ -190,10 +217,49 @@ public class UserController {
 		
 	}
 	
-	@RequestMapping("/security/authenticate")
 	public ResponseEntity<String> authenticate(Authentication authentication) throws JSONException {
+		return authenticate(authentication, null);
+	}
+	
+	/**
+	 * Gets the user, team, locations and server time of the logged in user. Everything but the user
+	 * and the time is cached per user and versioned, the version is returned as the ETag of the
+	 * response and a 304 response is returned if the client already has the current version. The
+	 * server time is also sent as an ISO 8601 timestamp in the {@value #SERVER_TIME} header, so that
+	 * clients receiving a 304 still get the current time.
+	 */
+	@RequestMapping("/security/authenticate")
+	public ResponseEntity<String> authenticate(Authentication authentication,
+	        @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch)
+	        throws JSONException {
 		User u = RestUtils.currentUser(authentication);
 		logger.debug("logged in user {}", u.toString());
+		AuthenticationPayloadCache.Payload payload;
+		if (authenticationPayloadCache != null && u.getUsername() != null) {
+			payload = authenticationPayloadCache.get(u.getUsername(), () -> buildAuthenticationPayload(u));
+		} else {
+			payload = new AuthenticationPayloadCache.Payload(buildAuthenticationPayload(u));
+		}
+		
+		Gson gson = new Gson();
+		JsonElement user = gson.toJsonTree(u);
+		DateTime now = DateTime.now();
+		String eTag = "W/\"" + DigestUtils.sha1Hex(payload.getVersion() + user) + "\"";
+		HttpHeaders headers = RestUtils.getJSONUTF8Headers();
+		headers.setETag(eTag);
+		headers.setCacheControl(CacheControl.noCache().cachePrivate());
+		headers.add(SERVER_TIME, now.toString());
+		if (RestUtils.matchesETag(ifNoneMatch, eTag)) {
+			return new ResponseEntity<>(headers, HttpStatus.NOT_MODIFIED);
+		}
+		JsonObject body = new JsonObject();
+		body.add("user", user);
+		body.add("time", gson.toJsonTree(new Time(now.toDate(), TimeZone.getDefault())));
+		payload.getTree().entrySet().forEach(entry -> body.add(entry.getKey(), entry.getValue()));
+		return new ResponseEntity<>(gson.toJson(body), headers, OK);
+	}
+	
+	private String buildAuthenticationPayload(User u) throws JSONException {
 		ImmutablePair<Practitioner, List<Long>> practionerOrganizationIds = null;
 		final Set<PhysicalLocation> jurisdictions =  new HashSet<>();
 		Set<String> locationIds = new HashSet<>();
@@ -210,7 +276,7 @@ public class UserController {
 					planIdentifiers.add(assignedLocation.getPlanId());
 			}
 			
-			jurisdictions.addAll(locationService.findLocationByIdsWithChildren(false, locationIds, Integer.MAX_VALUE));
+			jurisdictions.addAll(findLocationsWithChildren(locationIds));
 			
 			if (!planIdentifiers.isEmpty()) {
 				/** @formatter:off*/
@@ -224,7 +290,7 @@ public class UserController {
 				        .collect(Collectors.toSet());
 				/** @formatter:on*/	
 				Set<PhysicalLocation> planLocations = new HashSet<>(planLocationIds.isEmpty() ? Collections.emptySet()
-				        : locationService.findLocationByIdsWithChildren(false, planLocationIds, Integer.MAX_VALUE));
+				        : findLocationsWithChildren(planLocationIds));
 				jurisdictions.retainAll(planLocations);		
 			}
 			
@@ -237,26 +303,26 @@ public class UserController {
 			        "User not mapped on any location. Make sure that user is assigned to an organization with valid Location(s) ");
 		}
 		
-		LocationTree l = locationService
-		        .buildLocationHierachy(jurisdictions.stream().map(j -> j.getId()).collect(Collectors.toSet()), false, true);
+		LocationTree l = buildLocationTree(jurisdictions.stream().map(j -> j.getId()).collect(Collectors.toSet()));
 		
 		Map<String, Object> map = new HashMap<>();
-		map.put("user", u);
 		
-		JSONObject teamMemberJson = new JSONObject();
-		teamMemberJson.put("identifier", practionerOrganizationIds.left.getIdentifier());
-		teamMemberJson.put("uuid", practionerOrganizationIds.left.getUserId());
+		Map<String, Object> teamMember = new HashMap<>();
+		teamMember.put("identifier", practionerOrganizationIds.left.getIdentifier());
+		teamMember.put("uuid", practionerOrganizationIds.left.getUserId());
 		
-		JSONObject teamJson = new JSONObject();
-		JSONObject teamLocationJson = new JSONObject();
+		Map<String, Object> team = new HashMap<>();
+		Map<String, Object> teamLocation = new HashMap<>();
 		// TODO populate organizations if user has many organizations
 		Organization organization = organizationService.getOrganization(practionerOrganizationIds.right.get(0));
-		teamJson.put("teamName", organization.getName());
-		teamJson.put("display", organization.getName());
-		teamJson.put("uuid", organization.getIdentifier());
-		teamJson.put("organizationIds", practionerOrganizationIds.right);
+		team.put("teamName", organization.getName());
+		team.put("display", organization.getName());
+		team.put("uuid", organization.getIdentifier());
+		// kept as doubles, the team used to be converted through a Gson map and clients expect 1.0
+		team.put("organizationIds",
+		    practionerOrganizationIds.right.stream().map(Long::doubleValue).collect(Collectors.toList()));
 		
-		JSONArray locations = new JSONArray();
+		List<Map<String, Object>> locations = new ArrayList<>();
 		
 		/** @formatter:off*/
 		Optional<PhysicalLocation> defaultLocation = jurisdictions
@@ -268,35 +334,23 @@ public class UserController {
 		
 		Set<String> locationParents = new HashSet<>();
 		for (PhysicalLocation jurisdiction : jurisdictions) {
-			JSONObject locationJson = new JSONObject();
-			locationJson.put("uuid",jurisdiction.getId());
-			locationJson.put("name", jurisdiction.getProperties().getName());
-			locationJson.put("display", jurisdiction.getProperties().getName());
-			locations.put(locationJson);
+			Map<String, Object> location = new HashMap<>();
+			location.put("uuid", jurisdiction.getId());
+			location.put("name", jurisdiction.getProperties().getName());
+			location.put("display", jurisdiction.getProperties().getName());
+			locations.add(location);
 			locationParents.add(jurisdiction.getProperties().getParentId());
-			if(jurisdiction.getId().equals(defaultLocationId)) {
-				teamLocationJson=locationJson;
+			if (jurisdiction.getId().equals(defaultLocationId)) {
+				teamLocation = location;
 			}
 		}
 		
 		//team location is still returned as 1 object
-		teamJson.put("location", teamLocationJson);
-		teamMemberJson.put("locations", locations);
-		teamMemberJson.put("team", teamJson);
-		
-		try {
-			Map<String, Object> tmap = new Gson().fromJson(teamMemberJson.toString(),
-			    new TypeToken<HashMap<String, Object>>() {
-			    
-			    }.getType());
-			map.put("team", tmap);
-		}
-		catch (Exception e) {
-			logger.error(e.getMessage(), e);
-		}
+		team.put("location", teamLocation);
+		teamMember.put("locations", locations);
+		teamMember.put("team", team);
+		map.put("team", teamMember);
 		map.put("locations", l);
-		Time t = getServerTime();
-		map.put("time", t);
 			
 		/** @formatter:off*/
 		Map<String,String> leafJurisdictions=jurisdictions.stream()
@@ -308,7 +362,21 @@ public class UserController {
 		
 		map.put("jurisdictions", leafJurisdictions.values());
 	
-		return new ResponseEntity<>(new Gson().toJson(map), RestUtils.getJSONUTF8Headers(), OK);
+		return new Gson().toJson(map);
+	}
+	
+	private Collection<PhysicalLocation> findLocationsWithChildren(Set<String> ids) {
+		if (locationTreeService != null && locationTreeService.isLoaded()) {
+			return locationTreeService.findLocationsWithChildren(ids);
+		}
+		return locationService.findLocationByIdsWithChildren(false, ids, Integer.MAX_VALUE);
+	}
+	
+	private LocationTree buildLocationTree(Set<String> ids) {
+		if (locationTreeService != null && locationTreeService.isLoaded()) {
+			return locationTreeService.buildLocationTree(ids);
+		}
+		return locationService.buildLocationHierachy(ids, false, true);
 	}
 	
 	@RequestMapping("/security/configuration")
@@ -3,6 +3,8 @@
  */
 package org.opensrp.web.dto;
 
+import static org.opensrp.web.Constants.CONTINUATION_TOKEN;
+import static org.opensrp.web.Constants.LIMIT;
 import static org.opensrp.web.Constants.RETURN_COUNT;
 
 import java.util.ArrayList;
@@ -29,6 +31,12 @@ public  class TaskSyncRequestWrapper {
 	
 	@JsonProperty(RETURN_COUNT)
 	private boolean returnCount;
+	
+	@JsonProperty(LIMIT)
+	private Integer limit;
+	
+	@JsonProperty(CONTINUATION_TOKEN)
+	private String continuationToken;
 
 	public List<String> getPlan() {
 		return plan;
@@ -51,4 +59,12 @@ public  class TaskSyncRequestWrapper {
 		return returnCount;
 	}
 	
+	public Integer getLimit() {
+		return limit;
+	}
+	
+	public String getContinuationToken() {
+		return continuationToken;
+	}
+	
 }
@@ -0,0 +1,15 @@
+package org.opensrp.web.exceptions;
+
+/**
+ * Thrown when a streamed response fails after it was committed. The status and part of the body are
+ * already sent, so the exception is left unhandled and the servlet container aborts the connection,
+ * which clients see as a failed transfer rather than a truncated response.
+ */
+public class ResponseAbortedException extends RuntimeException {
+
+	private static final long serialVersionUID = -4378412735806528817L;
+
+	public ResponseAbortedException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
@@ -0,0 +1,14 @@
+package org.opensrp.web.exceptions;
+
+/**
+ * Thrown when a sync page cannot be built because more records share a serverVersion than a sync
+ * query may fetch, so the records cannot be ordered to resume after them
+ */
+public class SyncPageLimitExceededException extends RuntimeException {
+
+	private static final long serialVersionUID = 3826619401756232847L;
+
+	public SyncPageLimitExceededException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,14 @@
+package org.opensrp.web.exceptions;
+
+/**
+ * Thrown when the geometries of a jurisdiction are loaded in the background and no previous ones can
+ * be served meanwhile, clients should retry the tile later
+ */
+public class TileSourceLoadingException extends RuntimeException {
+
+	private static final long serialVersionUID = -2081640716264190538L;
+
+	public TileSourceLoadingException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,13 @@
+package org.opensrp.web.exceptions;
+
+/**
+ * Thrown when a jurisdiction has more jurisdictions and structures than are served as vector tiles
+ */
+public class TileSourceTooLargeException extends RuntimeException {
+
+	private static final long serialVersionUID = 5310237418425761932L;
+
+	public TileSourceTooLargeException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,49 @@
+package org.opensrp.web.ingest;
+
+import com.google.common.io.CharStreams;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Map;
+
+/**
+ * Persists the payload of an asynchronous ingest job
+ */
+@FunctionalInterface
+public interface IngestHandler {
+
+	/**
+	 * @param payload  the payload as uploaded
+	 * @param username the user that uploaded the payload
+	 * @return the result of the job, e.g. the ids of the records that failed to save
+	 * @throws Exception if the payload could not be processed
+	 */
+	Map<String, ?> ingest(String payload, String username) throws Exception;
+
+	/**
+	 * Persists the payload of a job read from the spool. Handlers of large payloads override this to
+	 * read the payload as a stream and to save checkpoints, a job interrupted by a restart is then
+	 * processed again with the progress of its last checkpoint and skips the records already
+	 * persisted.
+	 *
+	 * @param job        the job with the progress of its last checkpoint
+	 * @param payload    the payload as uploaded
+	 * @param checkpoint saves the progress of the job
+	 * @return the result of the job
+	 * @throws Exception if the payload could not be processed
+	 */
+	default Map<String, ?> ingest(IngestJob job, Reader payload, Checkpoint checkpoint) throws Exception {
+		return ingest(CharStreams.toString(payload), job.getUsername());
+	}
+
+	@FunctionalInterface
+	interface Checkpoint {
+
+		/**
+		 * @param recordsProcessed the number of records of the payload processed so far
+		 * @param result           the result of the records processed so far
+		 * @throws IOException if the progress could not be saved
+		 */
+		void save(long recordsProcessed, Map<String, ?> result) throws IOException;
+	}
+}
@@ -0,0 +1,144 @@
+package org.opensrp.web.ingest;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Map;
+
+public class IngestJob {
+
+	public enum Status {
+		PENDING, PROCESSING, COMPLETED, FAILED
+	}
+
+	@JsonProperty("job_id")
+	private String jobId;
+
+	private String type;
+
+	private String username;
+
+	private Status status;
+
+	@JsonProperty("date_created")
+	private Long dateCreated;
+
+	@JsonProperty("date_started")
+	private Long dateStarted;
+
+	@JsonProperty("date_completed")
+	private Long dateCompleted;
+
+	@JsonProperty("records_processed")
+	private Long recordsProcessed;
+
+	private Map<String, ?> result;
+
+	private String error;
+
+	private boolean duplicate;
+
+	public IngestJob() {
+	}
+
+	public IngestJob(String jobId, String type, String username) {
+		this.jobId = jobId;
+		this.type = type;
+		this.username = username;
+		this.status = Status.PENDING;
+		this.dateCreated = System.currentTimeMillis();
+	}
+
+	public String getJobId() {
+		return jobId;
+	}
+
+	public void setJobId(String jobId) {
+		this.jobId = jobId;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public void setType(String type) {
+		this.type = type;
+	}
+
+	public String getUsername() {
+		return username;
+	}
+
+	public void setUsername(String username) {
+		this.username = username;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public void setStatus(Status status) {
+		this.status = status;
+	}
+
+	public Long getDateCreated() {
+		return dateCreated;
+	}
+
+	public void setDateCreated(Long dateCreated) {
+		this.dateCreated = dateCreated;
+	}
+
+	public Long getDateStarted() {
+		return dateStarted;
+	}
+
+	public void setDateStarted(Long dateStarted) {
+		this.dateStarted = dateStarted;
+	}
+
+	public Long getDateCompleted() {
+		return dateCompleted;
+	}
+
+	public void setDateCompleted(Long dateCompleted) {
+		this.dateCompleted = dateCompleted;
+	}
+
+	/**
+	 * @return the number of records of the payload processed, for handlers that save checkpoints
+	 */
+	public Long getRecordsProcessed() {
+		return recordsProcessed;
+	}
+
+	public void setRecordsProcessed(Long recordsProcessed) {
+		this.recordsProcessed = recordsProcessed;
+	}
+
+	public Map<String, ?> getResult() {
+		return result;
+	}
+
+	public void setResult(Map<String, ?> result) {
+		this.result = result;
+	}
+
+	public String getError() {
+		return error;
+	}
+
+	public void setError(String error) {
+		this.error = error;
+	}
+
+	/**
+	 * @return true if the job was returned for an upload identical to one already accepted
+	 */
+	public boolean isDuplicate() {
+		return duplicate;
+	}
+
+	public void setDuplicate(boolean duplicate) {
+		this.duplicate = duplicate;
+	}
+}
@@ -0,0 +1,324 @@
+package org.opensrp.web.ingest;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Accepts uploads for asynchronous processing. The raw payload of every job is written to a local
+ * spool directory before the job is acknowledged and is processed in the background by the
+ * {@link IngestHandler} registered for the job type. Job ids are derived from a hash of the
+ * uploader and the payload, so retrying an upload returns the job already accepted instead of
+ * processing the data again. Jobs that were not completed before a restart are resumed when their
+ * handler is registered. Handlers that save checkpoints resume such jobs, and failed jobs that are
+ * submitted again, after the records they already persisted.
+ */
+@Component
+public class IngestJobService {
+
+	private static final Logger logger = LogManager.getLogger(IngestJobService.class.toString());
+
+	private static final String PAYLOAD_EXTENSION = ".payload";
+
+	private static final String JOB_EXTENSION = ".job";
+
+	private static final Pattern JOB_ID_PATTERN = Pattern.compile("[a-z]+-[0-9a-f]{32}");
+
+	private static final long PURGE_INTERVAL = TimeUnit.HOURS.toMillis(1);
+
+	private static final int BUFFER_SIZE = 65536;
+
+	@Value("#{opensrp['opensrp.ingest.spool.dir'] ?: systemProperties['java.io.tmpdir'] + '/opensrp-ingest'}")
+	private String spoolDirectory;
+
+	@Value("#{opensrp['opensrp.ingest.threads'] ?: 2}")
+	private int threads;
+
+	@Value("#{opensrp['opensrp.ingest.job.retention.hours'] ?: 72}")
+	private int retentionHours;
+
+	private final ObjectMapper objectMapper = new ObjectMapper()
+			.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+	private final Map<String, IngestHandler> handlers = new ConcurrentHashMap<>();
+
+	private final Set<String> scheduledJobs = ConcurrentHashMap.newKeySet();
+
+	private Path spool;
+
+	private ExecutorService executor;
+
+	private volatile long lastPurge;
+
+	@PostConstruct
+	public void init() throws IOException {
+		spool = Paths.get(spoolDirectory);
+		Files.createDirectories(spool);
+		executor = Executors.newFixedThreadPool(threads,
+				new ThreadFactoryBuilder().setNameFormat("ingest-job-%d").setDaemon(true).build());
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	/**
+	 * Registers the handler for a job type and resumes the spooled jobs of that type that were not
+	 * completed
+	 *
+	 * @param type    the job type
+	 * @param handler the handler processing the job payloads
+	 */
+	public void registerHandler(String type, IngestHandler handler) {
+		handlers.put(type, handler);
+		try {
+			for (IngestJob job : getJobs()) {
+				if (type.equals(job.getType()) && (job.getStatus() == IngestJob.Status.PENDING
+						|| job.getStatus() == IngestJob.Status.PROCESSING)) {
+					schedule(job.getJobId());
+				}
+			}
+		}
+		catch (IOException e) {
+			logger.error("Failed to resume spooled " + type + " jobs", e);
+		}
+	}
+
+	/**
+	 * Spools a payload and schedules it for processing
+	 *
+	 * @param type     the job type
+	 * @param payload  the payload
+	 * @param username the user uploading the payload
+	 * @return the job accepted, or the existing job flagged as duplicate if the same user already
+	 *         uploaded the same payload and that job has not failed
+	 * @throws IOException if the payload could not be spooled
+	 */
+	public IngestJob submit(String type, String payload, String username) throws IOException {
+		return submit(type, new ByteArrayInputStream(payload.getBytes(StandardCharsets.UTF_8)), username);
+	}
+
+	/**
+	 * Spools a payload read as a stream, so that large uploads are never held in memory, and schedules
+	 * it for processing
+	 *
+	 * @param type     the job type
+	 * @param payload  the payload
+	 * @param username the user uploading the payload
+	 * @return the job accepted, or the existing job flagged as duplicate if the same user already
+	 *         uploaded the same payload and that job has not failed
+	 * @throws IOException if the payload could not be read or spooled
+	 */
+	public IngestJob submit(String type, InputStream payload, String username) throws IOException {
+		return submit(type, payload, username, null);
+	}
+
+	/**
+	 * Spools a payload and schedules it for processing even if the same user already submitted the
+	 * same payload, used when processing a payload again has a different outcome, e.g. because data it
+	 * refers to changed
+	 *
+	 * @param type     the job type
+	 * @param payload  the payload
+	 * @param username the user submitting the payload
+	 * @return the job accepted
+	 * @throws IOException if the payload could not be spooled
+	 */
+	public IngestJob resubmit(String type, String payload, String username) throws IOException {
+		return submit(type, new ByteArrayInputStream(payload.getBytes(StandardCharsets.UTF_8)), username,
+			UUID.randomUUID().toString());
+	}
+
+	private IngestJob submit(String type, InputStream payload, String username, String nonce) throws IOException {
+		MessageDigest digest = DigestUtils.getSha256Digest();
+		digest.update((username + '\u0000').getBytes(StandardCharsets.UTF_8));
+		if (nonce != null) {
+			digest.update((nonce + '\u0000').getBytes(StandardCharsets.UTF_8));
+		}
+		Path temporaryPayload = Files.createTempFile(spool, type, ".tmp");
+		try (FileChannel channel = FileChannel.open(temporaryPayload, StandardOpenOption.WRITE)) {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int read;
+			while ((read = payload.read(buffer)) != -1) {
+				digest.update(buffer, 0, read);
+				ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, read);
+				while (bytes.hasRemaining()) {
+					channel.write(bytes);
+				}
+			}
+			channel.force(true);
+		}
+		catch (IOException e) {
+			Files.deleteIfExists(temporaryPayload);
+			throw e;
+		}
+		String jobId = type + "-" + Hex.encodeHexString(digest.digest()).substring(0, 32);
+
+		IngestJob job;
+		synchronized (this) {
+			IngestJob existingJob = getJob(jobId);
+			if (existingJob != null && existingJob.getStatus() != IngestJob.Status.FAILED) {
+				Files.deleteIfExists(temporaryPayload);
+				existingJob.setDuplicate(true);
+				return existingJob;
+			}
+			Files.move(temporaryPayload, spool.resolve(jobId + PAYLOAD_EXTENSION), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			job = new IngestJob(jobId, type, username);
+			if (existingJob != null) {
+				job.setRecordsProcessed(existingJob.getRecordsProcessed());
+				job.setResult(existingJob.getResult());
+			}
+			saveJob(job);
+		}
+		schedule(jobId);
+		purgeExpiredJobs();
+		return job;
+	}
+
+	/**
+	 * @param jobId the job id
+	 * @return the job or null if there is no job with the id
+	 * @throws IOException if the job could not be read
+	 */
+	public IngestJob getJob(String jobId) throws IOException {
+		if (jobId == null || !JOB_ID_PATTERN.matcher(jobId).matches()) {
+			return null;
+		}
+		Path path = spool.resolve(jobId + JOB_EXTENSION);
+		if (!Files.exists(path)) {
+			return null;
+		}
+		return objectMapper.readValue(path.toFile(), IngestJob.class);
+	}
+
+	private List<IngestJob> getJobs() throws IOException {
+		List<IngestJob> jobs = new ArrayList<>();
+		try (DirectoryStream<Path> paths = Files.newDirectoryStream(spool, "*" + JOB_EXTENSION)) {
+			for (Path path : paths) {
+				try {
+					jobs.add(objectMapper.readValue(path.toFile(), IngestJob.class));
+				}
+				catch (IOException e) {
+					logger.warn("Skipping unreadable ingest job " + path, e);
+				}
+			}
+		}
+		return jobs;
+	}
+
+	private void saveJob(IngestJob job) throws IOException {
+		Path temporaryJob = Files.createTempFile(spool, job.getJobId(), ".tmp");
+		objectMapper.writeValue(temporaryJob.toFile(), job);
+		Files.move(temporaryJob, spool.resolve(job.getJobId() + JOB_EXTENSION), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private void schedule(String jobId) {
+		if (scheduledJobs.add(jobId)) {
+			executor.submit(() -> {
+				try {
+					process(jobId);
+				}
+				finally {
+					scheduledJobs.remove(jobId);
+				}
+			});
+		}
+	}
+
+	private void process(String jobId) {
+		try {
+			IngestJob job = getJob(jobId);
+			if (job == null || job.getStatus() == IngestJob.Status.COMPLETED) {
+				return;
+			}
+			IngestHandler handler = handlers.get(job.getType());
+			if (handler == null) {
+				logger.warn("No handler registered for job " + jobId);
+				return;
+			}
+
+			job.setStatus(IngestJob.Status.PROCESSING);
+			job.setDateStarted(System.currentTimeMillis());
+			saveJob(job);
+			Path payload = spool.resolve(jobId + PAYLOAD_EXTENSION);
+			try (Reader reader = Files.newBufferedReader(payload, StandardCharsets.UTF_8)) {
+				job.setResult(handler.ingest(job, reader, (recordsProcessed, result) -> {
+					job.setRecordsProcessed(recordsProcessed);
+					job.setResult(result);
+					saveJob(job);
+				}));
+				job.setStatus(IngestJob.Status.COMPLETED);
+				Files.deleteIfExists(payload);
+			}
+			catch (Exception e) {
+				logger.error("Ingest job " + jobId + " failed", e);
+				job.setStatus(IngestJob.Status.FAILED);
+				job.setError(e.getMessage());
+			}
+			job.setDateCompleted(System.currentTimeMillis());
+			saveJob(job);
+		}
+		catch (IOException e) {
+			logger.error("Failed to update ingest job " + jobId, e);
+		}
+	}
+
+	/**
+	 * Removes finished jobs older than the retention period, at most once every hour
+	 */
+	private void purgeExpiredJobs() {
+		long now = System.currentTimeMillis();
+		if (now - lastPurge < PURGE_INTERVAL) {
+			return;
+		}
+		lastPurge = now;
+		long expiry = now - TimeUnit.HOURS.toMillis(retentionHours);
+		try {
+			for (IngestJob job : getJobs()) {
+				if (job.getDateCompleted() != null && job.getDateCompleted() < expiry) {
+					Files.deleteIfExists(spool.resolve(job.getJobId() + PAYLOAD_EXTENSION));
+					Files.deleteIfExists(spool.resolve(job.getJobId() + JOB_EXTENSION));
+				}
+			}
+		}
+		catch (IOException e) {
+			logger.error("Failed to purge expired ingest jobs", e);
+		}
+	}
+}
@@ -0,0 +1,212 @@
+package org.opensrp.web.location;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.opensrp.web.ingest.IngestHandler;
+import org.opensrp.web.ingest.IngestJob;
+import org.opensrp.web.rest.LocationResource;
+import org.opensrp.web.utils.LocationUtils;
+import org.smartregister.domain.PhysicalLocation;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * Imports a JSON array of locations uploaded for asynchronous processing. The array is read as a
+ * stream one batch of {@code batchSize} records at a time. The records of a batch are validated and
+ * their geometries normalized in parallel on the executor, then the valid records are persisted
+ * together and a checkpoint is saved, so an interrupted import resumes after the last batch
+ * persisted. Records that are not valid locations are reported with their position in the array.
+ */
+public class LocationImportHandler implements IngestHandler {
+
+	private static final Logger logger = LogManager.getLogger(LocationImportHandler.class.toString());
+
+	public static final String IMPORTED_LOCATIONS = "imported_locations";
+
+	public static final String FAILED_LOCATIONS = "failed_locations";
+
+	public static final String INVALID_LOCATIONS = "invalid_locations";
+
+	private final boolean isJurisdiction;
+
+	private final Function<List<PhysicalLocation>, Set<String>> persister;
+
+	private final ExecutorService executor;
+
+	private final int parallelism;
+
+	private final int batchSize;
+
+	/**
+	 * @param isJurisdiction whether the locations imported are jurisdictions or structures
+	 * @param persister      saves a batch of locations and returns the ids of those that failed to save
+	 * @param executor       the executor validating the records
+	 * @param parallelism    the number of tasks a batch is validated in
+	 * @param batchSize      the number of records persisted together
+	 */
+	public LocationImportHandler(boolean isJurisdiction, Function<List<PhysicalLocation>, Set<String>> persister,
+			ExecutorService executor, int parallelism, int batchSize) {
+		this.isJurisdiction = isJurisdiction;
+		this.persister = persister;
+		this.executor = executor;
+		this.parallelism = Math.max(1, parallelism);
+		this.batchSize = Math.max(1, batchSize);
+	}
+
+	@Override
+	public Map<String, ?> ingest(String payload, String username) throws Exception {
+		return ingest(new IngestJob(), new StringReader(payload), (recordsProcessed, result) -> {
+		});
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public Map<String, ?> ingest(IngestJob job, Reader payload, Checkpoint checkpoint) throws Exception {
+		ImportProgress progress = new ImportProgress();
+		long resumeAfter = job.getRecordsProcessed() == null ? 0 : job.getRecordsProcessed();
+		if (resumeAfter > 0 && job.getResult() != null) {
+			Map<String, ?> result = job.getResult();
+			progress.imported = ((Number) result.get(IMPORTED_LOCATIONS)).longValue();
+			progress.failed.addAll((Collection<String>) result.get(FAILED_LOCATIONS));
+			progress.invalid.addAll((Collection<Map<String, Object>>) result.get(INVALID_LOCATIONS));
+			logger.info("Resuming import " + job.getJobId() + " after " + resumeAfter + " records");
+		}
+
+		JsonReader reader = new JsonReader(payload);
+		JsonParser parser = new JsonParser();
+		reader.beginArray();
+		long index = 0;
+		for (; index < resumeAfter && reader.hasNext(); index++) {
+			reader.skipValue();
+		}
+		List<JsonElement> batch = new ArrayList<>(batchSize);
+		while (reader.hasNext()) {
+			batch.add(parser.parse(reader));
+			if (batch.size() == batchSize || !reader.hasNext()) {
+				importBatch(batch, index, progress);
+				index += batch.size();
+				batch.clear();
+				checkpoint.save(index, progress.toResult());
+				logger.info("Import " + job.getJobId() + " processed " + index + " records");
+			}
+		}
+		reader.endArray();
+		return progress.toResult();
+	}
+
+	private void importBatch(List<JsonElement> batch, long offset, ImportProgress progress)
+			throws InterruptedException, ExecutionException {
+		int sliceSize = (batch.size() + parallelism - 1) / parallelism;
+		List<Future<List<ImportRecord>>> futures = new ArrayList<>();
+		for (int start = 0; start < batch.size(); start += sliceSize) {
+			int sliceStart = start;
+			List<JsonElement> slice = batch.subList(start, Math.min(batch.size(), start + sliceSize));
+			futures.add(executor.submit(() -> {
+				List<ImportRecord> records = new ArrayList<>(slice.size());
+				for (int i = 0; i < slice.size(); i++) {
+					records.add(toRecord(slice.get(i), offset + sliceStart + i));
+				}
+				return records;
+			}));
+		}
+
+		List<PhysicalLocation> locations = new ArrayList<>(batch.size());
+		for (Future<List<ImportRecord>> future : futures) {
+			for (ImportRecord record : future.get()) {
+				if (record.location != null) {
+					locations.add(record.location);
+				} else {
+					Map<String, Object> invalid = new LinkedHashMap<>();
+					invalid.put("index", record.index);
+					invalid.put("id", record.id);
+					invalid.put("error", record.error);
+					progress.invalid.add(invalid);
+				}
+			}
+		}
+		if (!locations.isEmpty()) {
+			Set<String> failed = persister.apply(locations);
+			progress.failed.addAll(failed);
+			progress.imported += locations.stream().filter(location -> !failed.contains(location.getId())).count();
+		}
+	}
+
+	private ImportRecord toRecord(JsonElement element, long index) {
+		ImportRecord record = new ImportRecord(index);
+		try {
+			if (!element.isJsonObject()) {
+				throw new IllegalArgumentException("record is not a location");
+			}
+			JsonObject feature = element.getAsJsonObject();
+			JsonElement id = feature.get("id");
+			if (id == null || !id.isJsonPrimitive() || StringUtils.isBlank(id.getAsString())) {
+				throw new IllegalArgumentException("location has no id");
+			}
+			record.id = id.getAsString();
+			JsonElement geometry = feature.get("geometry");
+			if (geometry != null && !geometry.isJsonNull()) {
+				if (!geometry.isJsonObject()) {
+					throw new IllegalArgumentException("geometry is not an object");
+				}
+				LocationUtils.normalizeGeometry(geometry.getAsJsonObject());
+			}
+			PhysicalLocation location = LocationResource.gson.fromJson(feature, PhysicalLocation.class);
+			location.setJurisdiction(isJurisdiction);
+			record.location = location;
+		}
+		catch (IllegalArgumentException | JsonParseException e) {
+			record.error = e.getMessage();
+		}
+		return record;
+	}
+
+	private static class ImportRecord {
+
+		private final long index;
+
+		private String id;
+
+		private PhysicalLocation location;
+
+		private String error;
+
+		ImportRecord(long index) {
+			this.index = index;
+		}
+	}
+
+	private static class ImportProgress {
+
+		private long imported;
+
+		private final List<String> failed = new ArrayList<>();
+
+		private final List<Map<String, Object>> invalid = new ArrayList<>();
+
+		Map<String, Object> toResult() {
+			Map<String, Object> result = new LinkedHashMap<>();
+			result.put(IMPORTED_LOCATIONS, imported);
+			result.put(FAILED_LOCATIONS, new ArrayList<>(failed));
+			result.put(INVALID_LOCATIONS, new ArrayList<>(invalid));
+			return result;
+		}
+	}
+}
@@ -0,0 +1,473 @@
+package org.opensrp.web.location;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.opensrp.service.PhysicalLocationService;
+import org.opensrp.web.exceptions.TileSourceLoadingException;
+import org.opensrp.web.exceptions.TileSourceTooLargeException;
+import org.opensrp.web.rest.LocationResource;
+import org.smartregister.domain.LocationProperty;
+import org.smartregister.domain.PhysicalLocation;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Striped;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * Serves Mapbox Vector Tiles of a jurisdiction, its descendants and their structures. The geometries
+ * of a jurisdiction are loaded once and kept projected to Web Mercator, tiles are encoded from them on
+ * demand. Tiles are cached in memory and in Redis under the highest server version of the
+ * jurisdictions and structures they were built from, so that a change to any of them makes clients
+ * and nodes use new tiles. Whether the geometries changed is checked at most once every
+ * {@code refreshInterval} seconds and they are reloaded after {@code sourceTtl} seconds to pick up
+ * jurisdictions added below the jurisdiction.
+ * <p>
+ * The features of a jurisdiction are counted before its geometries are loaded. Jurisdictions with more
+ * than {@code maxSourceFeatures} features are refused, those with more than {@code asyncSourceFeatures}
+ * are loaded by a background pool while their previous geometries, if any, keep being served. The
+ * loaded geometries are cached up to {@code sourceCacheVertices} coordinates.
+ */
+@Component
+public class LocationTileService {
+
+	private static final Logger logger = LogManager.getLogger(LocationTileService.class.toString());
+
+	public static final String KEY_PREFIX = "opensrp:location:tiles:";
+
+	public static final String JURISDICTIONS_LAYER = "jurisdictions";
+
+	public static final String STRUCTURES_LAYER = "structures";
+
+	public static final int MAX_ZOOM = 22;
+
+	@Value("#{opensrp['opensrp.location.tiles.buffer'] ?: 64}")
+	private int buffer;
+
+	@Value("#{opensrp['opensrp.location.tiles.structure.min.zoom'] ?: 14}")
+	private int structureMinZoom;
+
+	@Value("#{opensrp['opensrp.location.tiles.cache.size.bytes'] ?: 67108864}")
+	private long cacheSizeBytes;
+
+	@Value("#{opensrp['opensrp.location.tiles.source.cache.vertices'] ?: 4000000}")
+	private long sourceCacheVertices;
+
+	@Value("#{opensrp['opensrp.location.tiles.source.max.features'] ?: 200000}")
+	private long maxSourceFeatures;
+
+	@Value("#{opensrp['opensrp.location.tiles.source.async.features'] ?: 20000}")
+	private long asyncSourceFeatures;
+
+	@Value("#{opensrp['opensrp.location.tiles.source.loader.threads'] ?: 2}")
+	private int loaderThreads;
+
+	@Value("#{opensrp['opensrp.location.tiles.source.ttl.seconds'] ?: 3600}")
+	private long sourceTtl;
+
+	@Value("#{opensrp['opensrp.location.tiles.refresh.interval.seconds'] ?: 60}")
+	private int refreshInterval;
+
+	@Value("#{opensrp['opensrp.location.tiles.redis.ttl.seconds'] ?: 86400}")
+	private long redisTtl;
+
+	@Value("#{opensrp['opensrp.location.tiles.batch.size'] ?: 20}")
+	private int batchSize;
+
+	private PhysicalLocationService locationService;
+
+	private StringRedisTemplate redisTemplate;
+
+	private Cache<String, TileSource> sources;
+
+	private Cache<String, byte[]> tiles;
+
+	/** Serializes loading and refreshing the geometries of a jurisdiction without blocking the others */
+	private final Striped<Lock> sourceLocks = Striped.lock(64);
+
+	/** The jurisdictions whose geometries are being loaded by {@link #sourceLoader} */
+	private final Set<String> loading = ConcurrentHashMap.newKeySet();
+
+	private ThreadPoolExecutor sourceLoader;
+
+	@Autowired
+	public void setLocationService(PhysicalLocationService locationService) {
+		this.locationService = locationService;
+	}
+
+	@Autowired(required = false)
+	public void setConnectionFactory(RedisConnectionFactory connectionFactory) {
+		this.redisTemplate = new StringRedisTemplate(connectionFactory);
+	}
+
+	@PostConstruct
+	public void init() {
+		sources = CacheBuilder.newBuilder().maximumWeight(sourceCacheVertices)
+				.<String, TileSource> weigher((key, source) -> (int) Math.min(Integer.MAX_VALUE, source.vertices))
+				.expireAfterWrite(sourceTtl, TimeUnit.SECONDS).build();
+		tiles = CacheBuilder.newBuilder().maximumWeight(cacheSizeBytes)
+				.<String, byte[]> weigher((key, tile) -> key.length() + tile.length).build();
+		sourceLoader = new ThreadPoolExecutor(loaderThreads, loaderThreads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(loaderThreads * 4),
+				new ThreadFactoryBuilder().setNameFormat("location-tiles-%d").setDaemon(true).build());
+	}
+
+	@PreDestroy
+	public void shutdownSourceLoader() {
+		if (sourceLoader != null) {
+			sourceLoader.shutdown();
+		}
+	}
+
+	/**
+	 * Gets the version of the tiles of a jurisdiction, refreshing it if the jurisdiction or its
+	 * structures may have changed
+	 *
+	 * @param jurisdictionId the jurisdiction
+	 * @return the highest server version of the jurisdiction, its descendants and their structures or
+	 *         null if the jurisdiction does not exist
+	 * @throws TileSourceTooLargeException if the jurisdiction has more features than are served as tiles
+	 * @throws TileSourceLoadingException  if the geometries of the jurisdiction are being loaded
+	 */
+	public Long getVersion(String jurisdictionId) {
+		TileSource source = getSource(jurisdictionId);
+		return source == null ? null : source.version;
+	}
+
+	/**
+	 * Gets a tile of a jurisdiction
+	 *
+	 * @param jurisdictionId the jurisdiction
+	 * @param z              the zoom
+	 * @param x              the column
+	 * @param y              the row
+	 * @return the encoded tile or null if the jurisdiction does not exist
+	 * @throws TileSourceTooLargeException if the jurisdiction has more features than are served as tiles
+	 * @throws TileSourceLoadingException  if the geometries of the jurisdiction are being loaded
+	 */
+	public byte[] getTile(String jurisdictionId, int z, int x, int y) {
+		TileSource source = getSource(jurisdictionId);
+		if (source == null) {
+			return null;
+		}
+		String key = KEY_PREFIX + jurisdictionId + ":" + source.version + ":" + z + "/" + x + "/" + y;
+		try {
+			return tiles.get(key, () -> loadTile(key, source, z, x, y));
+		}
+		catch (ExecutionException | UncheckedExecutionException e) {
+			throw new IllegalStateException("Failed to build tile " + key, e.getCause());
+		}
+	}
+
+	private byte[] loadTile(String key, TileSource source, int z, int x, int y) {
+		byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+		if (redisTemplate != null) {
+			try {
+				byte[] tile = redisTemplate.execute((RedisCallback<byte[]>) connection -> connection.get(keyBytes));
+				if (tile != null) {
+					return tile;
+				}
+			}
+			catch (RuntimeException e) {
+				logger.warn("Failed to read tile " + key + " from redis", e);
+			}
+		}
+		VectorTileEncoder encoder = new VectorTileEncoder(VectorTileEncoder.DEFAULT_EXTENT, buffer);
+		for (VectorTileEncoder.Feature feature : source.jurisdictions) {
+			encoder.addFeature(JURISDICTIONS_LAYER, feature, z, x, y);
+		}
+		if (z >= structureMinZoom) {
+			for (VectorTileEncoder.Feature feature : source.structures) {
+				encoder.addFeature(STRUCTURES_LAYER, feature, z, x, y);
+			}
+		}
+		byte[] tile = encoder.encode();
+		if (redisTemplate != null) {
+			try {
+				redisTemplate.execute(
+					(RedisCallback<Boolean>) connection -> connection.setEx(keyBytes, redisTtl, tile));
+			}
+			catch (RuntimeException e) {
+				logger.warn("Failed to write tile " + key + " to redis", e);
+			}
+		}
+		return tile;
+	}
+
+	private TileSource getSource(String jurisdictionId) {
+		TileSource source = sources.getIfPresent(jurisdictionId);
+		if (source != null && System.currentTimeMillis() - source.checkedAt < TimeUnit.SECONDS.toMillis(refreshInterval)) {
+			return source;
+		}
+		Lock lock = sourceLocks.get(jurisdictionId);
+		lock.lock();
+		try {
+			source = sources.getIfPresent(jurisdictionId);
+			if (loading.contains(jurisdictionId)) {
+				return loadingSource(jurisdictionId, source);
+			}
+			if (source != null && !hasChanged(source)) {
+				source.checkedAt = System.currentTimeMillis();
+				return source;
+			}
+			List<PhysicalLocation> jurisdictions = locationService.findLocationByIdWithChildren(false, jurisdictionId,
+				Integer.MAX_VALUE);
+			if (jurisdictions == null || jurisdictions.isEmpty()) {
+				sources.invalidate(jurisdictionId);
+				return null;
+			}
+			long features = countFeatures(jurisdictions);
+			if (features > maxSourceFeatures) {
+				sources.invalidate(jurisdictionId);
+				throw new TileSourceTooLargeException("Jurisdiction " + jurisdictionId + " has " + features
+						+ " features, tiles are served for at most " + maxSourceFeatures);
+			}
+			if (features > asyncSourceFeatures) {
+				loadInBackground(jurisdictionId, features);
+				return loadingSource(jurisdictionId, source);
+			}
+			source = loadSource(jurisdictionId);
+			if (source != null) {
+				sources.put(jurisdictionId, source);
+			}
+			return source;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Serves the previous geometries of a jurisdiction while its current ones are loaded
+	 */
+	private TileSource loadingSource(String jurisdictionId, TileSource previous) {
+		if (previous == null) {
+			throw new TileSourceLoadingException("Geometries of jurisdiction " + jurisdictionId + " are being loaded");
+		}
+		return previous;
+	}
+
+	private long countFeatures(List<PhysicalLocation> jurisdictions) {
+		List<String> ids = new ArrayList<>();
+		jurisdictions.forEach(jurisdiction -> ids.add(jurisdiction.getId()));
+		long features = ids.size();
+		for (List<String> batch : Lists.partition(ids, batchSize)) {
+			Long structures = locationService.countStructuresByParentAndServerVersion(StringUtils.join(batch, ","), 0l);
+			features += structures == null ? 0 : structures;
+		}
+		return features;
+	}
+
+	private void loadInBackground(String jurisdictionId, long features) {
+		if (!loading.add(jurisdictionId)) {
+			return;
+		}
+		logger.info("Loading " + features + " features of " + jurisdictionId + " for tiles in the background");
+		try {
+			sourceLoader.execute(() -> {
+				try {
+					TileSource source = loadSource(jurisdictionId);
+					if (source != null) {
+						sources.put(jurisdictionId, source);
+					} else {
+						sources.invalidate(jurisdictionId);
+					}
+				}
+				catch (RuntimeException e) {
+					logger.error("Failed to load the geometries of " + jurisdictionId + " for tiles", e);
+				}
+				finally {
+					loading.remove(jurisdictionId);
+				}
+			});
+		}
+		catch (RejectedExecutionException e) {
+			loading.remove(jurisdictionId);
+			logger.warn("Too many jurisdictions are being loaded for tiles, deferring " + jurisdictionId);
+		}
+	}
+
+	private boolean hasChanged(TileSource source) {
+		if (System.currentTimeMillis() - source.checkedAt < TimeUnit.SECONDS.toMillis(refreshInterval)) {
+			return false;
+		}
+		long since = source.version + 1;
+		List<String> ids = new ArrayList<>(source.jurisdictionIds);
+		for (List<String> batch : Lists.partition(ids, batchSize)) {
+			Long jurisdictions = locationService.countLocationsByIds(batch, since);
+			Long structures = locationService.countStructuresByParentAndServerVersion(StringUtils.join(batch, ","),
+				since);
+			if ((jurisdictions != null && jurisdictions > 0) || (structures != null && structures > 0)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private TileSource loadSource(String jurisdictionId) {
+		long start = System.currentTimeMillis();
+		List<PhysicalLocation> jurisdictions = locationService.findLocationByIdWithChildren(true, jurisdictionId,
+			Integer.MAX_VALUE);
+		if (jurisdictions == null || jurisdictions.isEmpty()) {
+			return null;
+		}
+		TileSource source = new TileSource();
+		for (PhysicalLocation jurisdiction : jurisdictions) {
+			source.jurisdictionIds.add(jurisdiction.getId());
+			addFeature(source, source.jurisdictions, jurisdiction);
+		}
+		for (List<String> batch : Lists.partition(new ArrayList<>(source.jurisdictionIds), batchSize)) {
+			List<PhysicalLocation> structures = locationService
+					.findStructuresByParentAndServerVersion(StringUtils.join(batch, ","), 0l);
+			if (structures != null) {
+				for (PhysicalLocation structure : structures) {
+					addFeature(source, source.structures, structure);
+				}
+			}
+		}
+		source.checkedAt = System.currentTimeMillis();
+		logger.info("Loaded " + source.jurisdictions.size() + " jurisdictions and " + source.structures.size()
+				+ " structures of " + jurisdictionId + " for tiles in " + (System.currentTimeMillis() - start) + " ms");
+		return source;
+	}
+
+	private void addFeature(TileSource source, List<VectorTileEncoder.Feature> features, PhysicalLocation location) {
+		Long serverVersion = location.getServerVersion();
+		if (serverVersion != null) {
+			source.version = Math.max(source.version, serverVersion);
+		}
+		LocationProperty properties = location.getProperties();
+		if (location.getGeometry() == null || (properties != null
+				&& LocationProperty.PropertyStatus.INACTIVE.equals(properties.getStatus()))) {
+			return;
+		}
+		VectorTileEncoder.Feature feature = toFeature(location);
+		if (feature != null) {
+			features.add(feature);
+			source.vertices += feature.getVertexCount() + 1;
+		}
+	}
+
+	/**
+	 * Projects the GeoJSON geometry of a location to a tile feature
+	 */
+	static VectorTileEncoder.Feature toFeature(PhysicalLocation location) {
+		JsonElement element = LocationResource.gson.toJsonTree(location.getGeometry());
+		if (!element.isJsonObject() || !(element.getAsJsonObject().get("coordinates") instanceof JsonArray)) {
+			return null;
+		}
+		JsonObject geometry = element.getAsJsonObject();
+		JsonArray coordinates = geometry.getAsJsonArray("coordinates");
+		List<double[]> parts = new ArrayList<>();
+		List<Boolean> exteriors = new ArrayList<>();
+		int type;
+		switch (geometry.get("type").getAsString()) {
+			case "Point":
+				type = VectorTileEncoder.POINT;
+				parts.add(project(Collections.<JsonElement> singletonList(coordinates)));
+				break;
+			case "MultiPoint":
+				type = VectorTileEncoder.POINT;
+				parts.add(project(coordinates));
+				break;
+			case "LineString":
+				type = VectorTileEncoder.LINESTRING;
+				parts.add(project(coordinates));
+				break;
+			case "MultiLineString":
+				type = VectorTileEncoder.LINESTRING;
+				coordinates.forEach(line -> parts.add(project(line.getAsJsonArray())));
+				break;
+			case "Polygon":
+				type = VectorTileEncoder.POLYGON;
+				addPolygon(coordinates, parts, exteriors);
+				break;
+			case "MultiPolygon":
+				type = VectorTileEncoder.POLYGON;
+				coordinates.forEach(polygon -> addPolygon(polygon.getAsJsonArray(), parts, exteriors));
+				break;
+			default:
+				return null;
+		}
+		LocationProperty properties = location.getProperties();
+		Map<String, String> attributes = new HashMap<>();
+		attributes.put("id", location.getId());
+		if (properties != null) {
+			attributes.put("name", properties.getName());
+			attributes.put("type", properties.getType());
+			attributes.put("parentId", properties.getParentId());
+			attributes.put("geographicLevel", String.valueOf(properties.getGeographicLevel()));
+			attributes.put("status", properties.getStatus() == null ? null : properties.getStatus().name());
+		}
+		return new VectorTileEncoder.Feature(attributes, type, parts, exteriors);
+	}
+
+	private static void addPolygon(JsonArray rings, List<double[]> parts, List<Boolean> exteriors) {
+		for (int i = 0; i < rings.size(); i++) {
+			parts.add(project(rings.get(i).getAsJsonArray()));
+			exteriors.add(i == 0);
+		}
+	}
+
+	private static double[] project(Iterable<JsonElement> positions) {
+		List<double[]> projected = new ArrayList<>();
+		for (JsonElement element : positions) {
+			JsonArray position = element.getAsJsonArray();
+			projected.add(new double[] { VectorTileEncoder.mercatorX(position.get(0).getAsDouble()),
+					VectorTileEncoder.mercatorY(position.get(1).getAsDouble()) });
+		}
+		double[] coordinates = new double[projected.size() * 2];
+		for (int i = 0; i < projected.size(); i++) {
+			coordinates[2 * i] = projected.get(i)[0];
+			coordinates[2 * i + 1] = projected.get(i)[1];
+		}
+		return coordinates;
+	}
+
+	private static class TileSource {
+
+		private final Set<String> jurisdictionIds = new LinkedHashSet<>();
+
+		private final List<VectorTileEncoder.Feature> jurisdictions = new ArrayList<>();
+
+		private final List<VectorTileEncoder.Feature> structures = new ArrayList<>();
+
+		private long version;
+
+		/** The number of coordinates of the features, plus one per feature, weighing the source in the cache */
+		private long vertices;
+
+		private volatile long checkedAt;
+	}
+}
@@ -0,0 +1,337 @@
+package org.opensrp.web.location;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.opensrp.api.domain.Location;
+import org.opensrp.api.util.LocationTree;
+import org.opensrp.service.PhysicalLocationService;
+import org.smartregister.domain.LocationProperty;
+import org.smartregister.domain.LocationTag;
+import org.smartregister.domain.PhysicalLocation;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * In memory copy of the jurisdiction hierarchy used to resolve the locations of users at login
+ * without querying the database. The hierarchy is loaded at startup, updated when jurisdictions are
+ * saved through this node and refreshed from the jurisdictions changed on other nodes at most once
+ * every {@code refreshInterval} seconds, using the server version of the last jurisdiction seen.
+ * Only the id, name, parent, geographic level and tags of each jurisdiction are kept. An ancestor
+ * closure, the ids of all the jurisdictions below each jurisdiction, is maintained as jurisdictions
+ * are added, moved and removed so that the descendants of a jurisdiction are found with one lookup.
+ */
+@Component
+public class LocationTreeService {
+
+	private static final Logger logger = LogManager.getLogger(LocationTreeService.class.toString());
+
+	@Value("#{opensrp['opensrp.location.tree.page.size'] ?: 5000}")
+	private int pageSize;
+
+	@Value("#{opensrp['opensrp.location.tree.refresh.interval.seconds'] ?: 60}")
+	private int refreshInterval;
+
+	private PhysicalLocationService locationService;
+
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private final ReentrantLock refreshLock = new ReentrantLock();
+
+	private final Map<String, Node> nodes = new HashMap<>();
+
+	private final Map<String, Set<String>> children = new HashMap<>();
+
+	private final Map<String, Set<String>> descendants = new HashMap<>();
+
+	private volatile boolean loaded;
+
+	private volatile long serverVersion;
+
+	private volatile long lastRefresh;
+
+	@Autowired
+	public void setLocationService(PhysicalLocationService locationService) {
+		this.locationService = locationService;
+	}
+
+	@PostConstruct
+	public void init() {
+		try {
+			long start = System.currentTimeMillis();
+			refresh(false);
+			loaded = true;
+			logger.info("Loaded " + nodes.size() + " jurisdictions in " + (System.currentTimeMillis() - start) + " ms");
+		}
+		catch (RuntimeException e) {
+			logger.error("Failed to load the location hierarchy, locations will be read from the database", e);
+		}
+	}
+
+	/**
+	 * @return true if the hierarchy was loaded and can be used instead of the database
+	 */
+	public boolean isLoaded() {
+		return loaded;
+	}
+
+	/**
+	 * Gets jurisdictions and all the jurisdictions below them. The locations returned are shared and
+	 * must not be modified.
+	 *
+	 * @param ids the ids of the jurisdictions
+	 * @return the jurisdictions and their descendants
+	 */
+	public List<PhysicalLocation> findLocationsWithChildren(Collection<String> ids) {
+		refreshIfStale();
+		List<PhysicalLocation> locations = new ArrayList<>();
+		lock.readLock().lock();
+		try {
+			for (String id : collectSubtree(ids)) {
+				locations.add(nodes.get(id).location);
+			}
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+		return locations;
+	}
+
+	/**
+	 * Gets the ids of a jurisdiction and of all the jurisdictions below it from the ancestor closure
+	 *
+	 * @param id the id of the jurisdiction
+	 * @return the id of the jurisdiction followed by the ids of its descendants, empty if the
+	 *         jurisdiction is not in the hierarchy
+	 */
+	public Set<String> findDescendantIds(String id) {
+		refreshIfStale();
+		lock.readLock().lock();
+		try {
+			if (!nodes.containsKey(id)) {
+				return Collections.emptySet();
+			}
+			Set<String> ids = new LinkedHashSet<>();
+			ids.add(id);
+			ids.addAll(descendants.getOrDefault(id, Collections.emptySet()));
+			return ids;
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Builds the location tree of jurisdictions. Parents of the jurisdictions are not added to the
+	 * tree.
+	 *
+	 * @param ids the ids of the jurisdictions
+	 * @return the location tree
+	 */
+	public LocationTree buildLocationTree(Collection<String> ids) {
+		refreshIfStale();
+		LocationTree locationTree = new LocationTree();
+		lock.readLock().lock();
+		try {
+			for (String id : ids) {
+				Node node = nodes.get(id);
+				if (node != null) {
+					Location parent = node.parentId == null ? null
+							: new Location(node.parentId, null, null, null, null, null, null);
+					locationTree.addLocation(new Location(node.location.getId(), node.location.getProperties().getName(),
+							null, null, parent, node.tags, null));
+				}
+			}
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+		return locationTree;
+	}
+
+	/**
+	 * Adds or updates jurisdictions saved through this node. Inactive jurisdictions are removed.
+	 *
+	 * @param locations the jurisdictions saved
+	 */
+	public void update(Collection<PhysicalLocation> locations) {
+		if (loaded) {
+			apply(locations);
+		}
+	}
+
+	private void refreshIfStale() {
+		if (System.currentTimeMillis() - lastRefresh < TimeUnit.SECONDS.toMillis(refreshInterval)
+				|| !refreshLock.tryLock()) {
+			return;
+		}
+		try {
+			refresh(true);
+		}
+		catch (RuntimeException e) {
+			logger.error("Failed to refresh the location hierarchy", e);
+		}
+		finally {
+			refreshLock.unlock();
+		}
+	}
+
+	/**
+	 * Reads the jurisdictions changed since the last refresh in pages ordered by server version
+	 *
+	 * @param includeInactive whether to read inactive jurisdictions so that they are removed
+	 */
+	private void refresh(boolean includeInactive) {
+		lastRefresh = System.currentTimeMillis();
+		List<PhysicalLocation> page;
+		do {
+			page = locationService.findAllLocations(false, serverVersion, pageSize, includeInactive);
+			if (page == null || page.isEmpty()) {
+				return;
+			}
+			apply(page);
+			serverVersion = page.get(page.size() - 1).getServerVersion() + 1;
+		} while (page.size() >= pageSize);
+	}
+
+	private void apply(Collection<PhysicalLocation> locations) {
+		lock.writeLock().lock();
+		try {
+			for (PhysicalLocation location : locations) {
+				if (location != null && location.getId() != null) {
+					put(location);
+				}
+			}
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void put(PhysicalLocation location) {
+		String id = location.getId();
+		Set<String> subtree = new HashSet<>(descendants.getOrDefault(id, Collections.emptySet()));
+		subtree.add(id);
+		for (String ancestor : ancestorsOf(id)) {
+			Set<String> ancestorDescendants = descendants.get(ancestor);
+			if (ancestorDescendants != null) {
+				ancestorDescendants.removeAll(subtree);
+				if (ancestorDescendants.isEmpty()) {
+					descendants.remove(ancestor);
+				}
+			}
+		}
+		remove(id);
+		LocationProperty properties = location.getProperties();
+		if (properties != null && LocationProperty.PropertyStatus.INACTIVE.equals(properties.getStatus())) {
+			return;
+		}
+		Node node = new Node(location);
+		nodes.put(id, node);
+		if (node.parentId != null) {
+			children.computeIfAbsent(node.parentId, k -> new HashSet<>()).add(id);
+		}
+		for (String ancestor : ancestorsOf(id)) {
+			descendants.computeIfAbsent(ancestor, k -> new HashSet<>()).addAll(subtree);
+		}
+	}
+
+	/**
+	 * Gets the ancestors of a jurisdiction, up to and including the first ancestor that is not in the
+	 * hierarchy so that the descendants of a removed jurisdiction are kept for when it is added back.
+	 * A jurisdiction that is not in the hierarchy has no ancestors.
+	 */
+	private List<String> ancestorsOf(String id) {
+		List<String> ancestors = new ArrayList<>();
+		Node node = nodes.get(id);
+		String parentId = node == null ? null : node.parentId;
+		while (parentId != null && !parentId.equals(id) && !ancestors.contains(parentId)) {
+			ancestors.add(parentId);
+			Node parent = nodes.get(parentId);
+			parentId = parent == null ? null : parent.parentId;
+		}
+		return ancestors;
+	}
+
+	private void remove(String id) {
+		Node node = nodes.remove(id);
+		if (node != null && node.parentId != null) {
+			Set<String> siblings = children.get(node.parentId);
+			if (siblings != null) {
+				siblings.remove(id);
+				if (siblings.isEmpty()) {
+					children.remove(node.parentId);
+				}
+			}
+		}
+	}
+
+	private Set<String> collectSubtree(Collection<String> ids) {
+		Set<String> subtree = new LinkedHashSet<>();
+		Deque<String> queue = new ArrayDeque<>();
+		for (String id : ids) {
+			if (nodes.containsKey(id) && subtree.add(id)) {
+				queue.add(id);
+			}
+		}
+		while (!queue.isEmpty()) {
+			for (String child : children.getOrDefault(queue.poll(), Collections.emptySet())) {
+				if (nodes.containsKey(child) && subtree.add(child)) {
+					queue.add(child);
+				}
+			}
+		}
+		return subtree;
+	}
+
+	private static class Node {
+
+		private final PhysicalLocation location;
+
+		private final String parentId;
+
+		private final Set<String> tags;
+
+		Node(PhysicalLocation source) {
+			LocationProperty sourceProperties = source.getProperties();
+			LocationProperty properties = new LocationProperty();
+			if (sourceProperties != null) {
+				properties.setName(sourceProperties.getName());
+				properties.setParentId(sourceProperties.getParentId());
+				properties.setGeographicLevel(sourceProperties.getGeographicLevel());
+				properties.setStatus(sourceProperties.getStatus());
+			}
+			location = new PhysicalLocation();
+			location.setId(source.getId());
+			location.setType(source.getType());
+			location.setJurisdiction(true);
+			location.setServerVersion(source.getServerVersion());
+			location.setProperties(properties);
+			parentId = properties.getParentId();
+			Set<String> tagNames = new HashSet<>();
+			if (source.getLocationTags() != null) {
+				for (LocationTag tag : source.getLocationTags()) {
+					tagNames.add(tag.getName());
+				}
+			}
+			tags = Collections.unmodifiableSet(tagNames);
+		}
+	}
+}
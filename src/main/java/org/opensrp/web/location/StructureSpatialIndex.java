@@ -0,0 +1,418 @@
+package org.opensrp.web.location;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+import javax.annotation.PreDestroy;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.opensrp.domain.StructureDetails;
+import org.opensrp.service.PhysicalLocationService;
+import org.smartregister.domain.Geometry;
+import org.smartregister.domain.LocationProperty;
+import org.smartregister.domain.PhysicalLocation;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+
+/**
+ * In memory grid index of structure centroids used to answer radius and bounding box queries
+ * without querying the database. The index is loaded in the background the first time it is used,
+ * queries are answered from the database until it is loaded. Structures saved through this node are
+ * indexed immediately and those saved on other nodes are read at most once every
+ * {@code refreshInterval} seconds using the server version of the last structure seen.
+ * <p>
+ * Structures are bucketed in cells of {@code cellSize} degrees, a query only visits the cells that
+ * overlap its bounding box and filters the structures in them by distance. Only the id, jurisdiction,
+ * name and centroid of each structure are kept.
+ */
+@Component
+public class StructureSpatialIndex {
+
+	private static final Logger logger = LogManager.getLogger(StructureSpatialIndex.class.toString());
+
+	private static final double EARTH_RADIUS_METERS = 6371008.8;
+
+	private static final double METERS_PER_DEGREE = Math.PI * EARTH_RADIUS_METERS / 180;
+
+	@Value("#{opensrp['opensrp.location.structure.index.enabled'] ?: true}")
+	private boolean enabled;
+
+	@Value("#{opensrp['opensrp.location.structure.index.cell.size.degrees'] ?: 0.01}")
+	private double cellSize;
+
+	@Value("#{opensrp['opensrp.location.structure.index.page.size'] ?: 5000}")
+	private int pageSize;
+
+	@Value("#{opensrp['opensrp.location.structure.index.refresh.interval.seconds'] ?: 60}")
+	private int refreshInterval;
+
+	private PhysicalLocationService locationService;
+
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private final ReentrantLock refreshLock = new ReentrantLock();
+
+	private final AtomicBoolean loading = new AtomicBoolean();
+
+	private final ExecutorService loader = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "structure-spatial-index-loader");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final Map<String, Entry> entries = new HashMap<>();
+
+	private final Map<Long, List<Entry>> cells = new HashMap<>();
+
+	private volatile boolean loaded;
+
+	private volatile long serverVersion;
+
+	private volatile long lastRefresh;
+
+	@Autowired
+	public void setLocationService(PhysicalLocationService locationService) {
+		this.locationService = locationService;
+	}
+
+	/**
+	 * Checks whether queries can be answered from the index, starting to load it in the background the
+	 * first time it is called and refreshing it if it is stale
+	 *
+	 * @return true if the index is loaded, false if queries should go to the database
+	 */
+	public boolean ensureLoaded() {
+		if (!enabled) {
+			return false;
+		}
+		if (!loaded) {
+			if (loading.compareAndSet(false, true)) {
+				loader.execute(this::load);
+			}
+			return false;
+		}
+		refreshIfStale();
+		return true;
+	}
+
+	/**
+	 * Loads the index synchronously, used at startup of benchmarks and tests
+	 */
+	public void load() {
+		try {
+			long start = System.currentTimeMillis();
+			refresh();
+			loaded = true;
+			logger.info("Indexed " + size() + " structures in " + (System.currentTimeMillis() - start) + " ms");
+		}
+		catch (RuntimeException e) {
+			logger.error("Failed to load the structure index, structures will be read from the database", e);
+			loading.set(false);
+		}
+	}
+
+	/**
+	 * @return the number of structures indexed
+	 */
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return entries.size();
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Finds the structures whose centroids are within a distance of a point, nearest first
+	 *
+	 * @param latitude  the latitude of the point
+	 * @param longitude the longitude of the point
+	 * @param radius    the distance in meters
+	 * @return the structures within the radius
+	 */
+	public List<StructureDetails> findWithinRadius(double latitude, double longitude, double radius) {
+		double latitudeDelta = radius / METERS_PER_DEGREE;
+		double cosLatitude = Math.cos(Math.toRadians(latitude));
+		double longitudeDelta = cosLatitude <= 0 ? 180 : Math.min(180, latitudeDelta / cosLatitude);
+		List<Match> matches = new ArrayList<>();
+		lock.readLock().lock();
+		try {
+			visit(latitude - latitudeDelta, longitude - longitudeDelta, latitude + latitudeDelta,
+				longitude + longitudeDelta, entry -> {
+					double distance = distance(latitude, longitude, entry.latitude, entry.longitude);
+					if (distance <= radius) {
+						matches.add(new Match(entry, distance));
+					}
+				});
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+		matches.sort(Comparator.comparingDouble(match -> match.distance));
+		List<StructureDetails> structures = new ArrayList<>(matches.size());
+		for (Match match : matches) {
+			structures.add(match.entry.toStructureDetails());
+		}
+		return structures;
+	}
+
+	/**
+	 * Finds the structures whose centroids are within a bounding box
+	 *
+	 * @param minLatitude  the southern edge of the box
+	 * @param minLongitude the western edge of the box
+	 * @param maxLatitude  the northern edge of the box
+	 * @param maxLongitude the eastern edge of the box
+	 * @return the structures within the box
+	 */
+	public List<StructureDetails> findWithinBoundingBox(double minLatitude, double minLongitude, double maxLatitude,
+			double maxLongitude) {
+		List<StructureDetails> structures = new ArrayList<>();
+		lock.readLock().lock();
+		try {
+			visit(minLatitude, minLongitude, maxLatitude, maxLongitude, entry -> {
+				if (entry.latitude >= minLatitude && entry.latitude <= maxLatitude && entry.longitude >= minLongitude
+						&& entry.longitude <= maxLongitude) {
+					structures.add(entry.toStructureDetails());
+				}
+			});
+			return structures;
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds or updates structures saved through this node. Inactive structures and structures without
+	 * geometry are removed.
+	 *
+	 * @param structures the structures saved
+	 */
+	public void update(Collection<PhysicalLocation> structures) {
+		if (loaded) {
+			apply(structures);
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		loader.shutdownNow();
+	}
+
+	private void refreshIfStale() {
+		if (System.currentTimeMillis() - lastRefresh < TimeUnit.SECONDS.toMillis(refreshInterval)
+				|| !refreshLock.tryLock()) {
+			return;
+		}
+		try {
+			refresh();
+		}
+		catch (RuntimeException e) {
+			logger.error("Failed to refresh the structure index", e);
+		}
+		finally {
+			refreshLock.unlock();
+		}
+	}
+
+	/**
+	 * Reads the structures changed since the last refresh in pages ordered by server version
+	 */
+	private void refresh() {
+		lastRefresh = System.currentTimeMillis();
+		List<PhysicalLocation> page;
+		do {
+			page = locationService.findAllStructures(true, serverVersion, pageSize, null, null, null);
+			if (page == null || page.isEmpty()) {
+				return;
+			}
+			apply(page);
+			serverVersion = page.get(page.size() - 1).getServerVersion() + 1;
+		} while (page.size() >= pageSize);
+	}
+
+	private void apply(Collection<PhysicalLocation> structures) {
+		lock.writeLock().lock();
+		try {
+			for (PhysicalLocation structure : structures) {
+				if (structure != null && structure.getId() != null) {
+					put(structure);
+				}
+			}
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void put(PhysicalLocation structure) {
+		remove(structure.getId());
+		LocationProperty properties = structure.getProperties();
+		if (properties != null && LocationProperty.PropertyStatus.INACTIVE.equals(properties.getStatus())) {
+			return;
+		}
+		double[] centroid = centroid(structure.getGeometry());
+		if (centroid == null) {
+			return;
+		}
+		Entry entry = new Entry(structure.getId(), properties == null ? null : properties.getParentId(),
+				properties == null ? null : properties.getName(), centroid[1], centroid[0]);
+		entries.put(entry.id, entry);
+		cells.computeIfAbsent(cell(entry.latitude, entry.longitude), k -> new ArrayList<>()).add(entry);
+	}
+
+	private void remove(String id) {
+		Entry entry = entries.remove(id);
+		if (entry != null) {
+			long cell = cell(entry.latitude, entry.longitude);
+			List<Entry> cellEntries = cells.get(cell);
+			if (cellEntries != null) {
+				cellEntries.remove(entry);
+				if (cellEntries.isEmpty()) {
+					cells.remove(cell);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Visits the structures in the cells overlapping a bounding box, scanning all cells instead when
+	 * the box covers more cells than are occupied
+	 */
+	private void visit(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude,
+			Consumer<Entry> visitor) {
+		long minRow = (long) Math.floor(minLatitude / cellSize);
+		long maxRow = (long) Math.floor(maxLatitude / cellSize);
+		long minColumn = (long) Math.floor(minLongitude / cellSize);
+		long maxColumn = (long) Math.floor(maxLongitude / cellSize);
+		if ((maxRow - minRow + 1) * (maxColumn - minColumn + 1) > cells.size()) {
+			cells.values().forEach(cellEntries -> cellEntries.forEach(visitor));
+			return;
+		}
+		for (long row = minRow; row <= maxRow; row++) {
+			for (long column = minColumn; column <= maxColumn; column++) {
+				List<Entry> cellEntries = cells.get(key(row, column));
+				if (cellEntries != null) {
+					cellEntries.forEach(visitor);
+				}
+			}
+		}
+	}
+
+	private long cell(double latitude, double longitude) {
+		return key((long) Math.floor(latitude / cellSize), (long) Math.floor(longitude / cellSize));
+	}
+
+	private static long key(long row, long column) {
+		return (row << 32) | (column & 0xffffffffL);
+	}
+
+	/**
+	 * Computes the haversine distance between two points
+	 *
+	 * @return the distance in meters
+	 */
+	static double distance(double latitude1, double longitude1, double latitude2, double longitude2) {
+		double latitudeDelta = Math.toRadians(latitude2 - latitude1);
+		double longitudeDelta = Math.toRadians(longitude2 - longitude1);
+		double a = Math.sin(latitudeDelta / 2) * Math.sin(latitudeDelta / 2)
+				+ Math.cos(Math.toRadians(latitude1)) * Math.cos(Math.toRadians(latitude2))
+						* Math.sin(longitudeDelta / 2) * Math.sin(longitudeDelta / 2);
+		return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(a)));
+	}
+
+	/**
+	 * Computes the mean of the positions of a geometry, which is the point itself for point
+	 * structures. The closing position of rings is not counted twice.
+	 *
+	 * @return the longitude and latitude of the centroid or null if the geometry has no positions
+	 */
+	static double[] centroid(Geometry geometry) {
+		if (geometry == null || geometry.getCoordinates() == null) {
+			return null;
+		}
+		double[] sum = new double[3];
+		accumulate(geometry.getCoordinates(), sum);
+		return sum[2] == 0 ? null : new double[] { sum[0] / sum[2], sum[1] / sum[2] };
+	}
+
+	private static void accumulate(JsonArray coordinates, double[] sum) {
+		if (isPosition(coordinates)) {
+			sum[0] += coordinates.get(0).getAsDouble();
+			sum[1] += coordinates.get(1).getAsDouble();
+			sum[2]++;
+			return;
+		}
+		int size = coordinates.size();
+		if (size > 1 && coordinates.get(0).equals(coordinates.get(size - 1)) && coordinates.get(0).isJsonArray()
+				&& isPosition(coordinates.get(0).getAsJsonArray())) {
+			size--;
+		}
+		for (int i = 0; i < size; i++) {
+			JsonElement element = coordinates.get(i);
+			if (element.isJsonArray()) {
+				accumulate(element.getAsJsonArray(), sum);
+			}
+		}
+	}
+
+	private static boolean isPosition(JsonArray coordinates) {
+		return coordinates.size() >= 2 && coordinates.get(0).isJsonPrimitive();
+	}
+
+	private static class Entry {
+
+		private final String id;
+
+		private final String jurisdictionId;
+
+		private final String name;
+
+		private final double latitude;
+
+		private final double longitude;
+
+		Entry(String id, String jurisdictionId, String name, double latitude, double longitude) {
+			this.id = id;
+			this.jurisdictionId = jurisdictionId;
+			this.name = name;
+			this.latitude = latitude;
+			this.longitude = longitude;
+		}
+
+		StructureDetails toStructureDetails() {
+			return new StructureDetails(id, jurisdictionId, name);
+		}
+	}
+
+	private static class Match {
+
+		private final Entry entry;
+
+		private final double distance;
+
+		Match(Entry entry, double distance) {
+			this.entry = entry;
+			this.distance = distance;
+		}
+	}
+}
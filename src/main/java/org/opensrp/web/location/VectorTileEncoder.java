@@ -0,0 +1,484 @@
+package org.opensrp.web.location;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes features as a Mapbox Vector Tile, version 2.1 of the specification. Feature coordinates are
+ * given in Web Mercator normalized to [0, 1], projected to the tile grid of {@code extent} units,
+ * which reduces their level of detail to the zoom of the tile. Lines and polygons are clipped to the
+ * tile and its buffer before they are projected, which keeps the coordinates of large features small
+ * at high zooms, and points outside them are dropped.
+ */
+public class VectorTileEncoder {
+
+	public static final int DEFAULT_EXTENT = 4096;
+
+	public static final int POINT = 1;
+
+	public static final int LINESTRING = 2;
+
+	public static final int POLYGON = 3;
+
+	private static final int MOVE_TO = 1;
+
+	private static final int LINE_TO = 2;
+
+	private static final int CLOSE_PATH = 7;
+
+	private final int extent;
+
+	private final int buffer;
+
+	private final Map<String, Layer> layers = new LinkedHashMap<>();
+
+	public VectorTileEncoder(int extent, int buffer) {
+		this.extent = extent;
+		this.buffer = buffer;
+	}
+
+	/**
+	 * Adds a feature to a layer of the tile if it overlaps the tile or its buffer
+	 *
+	 * @param layerName the name of the layer
+	 * @param feature   the feature
+	 * @param z         the zoom of the tile
+	 * @param x         the column of the tile
+	 * @param y         the row of the tile
+	 * @return true if the feature was added
+	 */
+	public boolean addFeature(String layerName, Feature feature, int z, int x, int y) {
+		double scale = 1 << z;
+		double margin = (double) buffer / extent;
+		if (feature.maxX * scale < x - margin || feature.minX * scale > x + 1 + margin
+				|| feature.maxY * scale < y - margin || feature.minY * scale > y + 1 + margin) {
+			return false;
+		}
+		List<Integer> commands = encodeGeometry(feature, scale, x, y);
+		if (commands.isEmpty()) {
+			return false;
+		}
+		Layer layer = layers.computeIfAbsent(layerName, Layer::new);
+		List<Integer> tags = new ArrayList<>();
+		for (Map.Entry<String, String> attribute : feature.attributes.entrySet()) {
+			if (attribute.getValue() != null) {
+				tags.add(layer.keys.computeIfAbsent(attribute.getKey(), k -> layer.keys.size()));
+				tags.add(layer.values.computeIfAbsent(attribute.getValue(), k -> layer.values.size()));
+			}
+		}
+		ProtobufWriter writer = new ProtobufWriter();
+		writer.writePackedVarints(2, tags);
+		writer.writeVarint(3, feature.type);
+		writer.writePackedVarints(4, commands);
+		layer.features.add(writer.toByteArray());
+		return true;
+	}
+
+	/**
+	 * @return the encoded tile, empty if no feature was added
+	 */
+	public byte[] encode() {
+		ProtobufWriter tile = new ProtobufWriter();
+		for (Layer layer : layers.values()) {
+			ProtobufWriter writer = new ProtobufWriter();
+			writer.writeVarint(15, 2);
+			writer.writeString(1, layer.name);
+			for (byte[] feature : layer.features) {
+				writer.writeBytes(2, feature);
+			}
+			for (String key : layer.keys.keySet()) {
+				writer.writeString(3, key);
+			}
+			for (String value : layer.values.keySet()) {
+				ProtobufWriter valueWriter = new ProtobufWriter();
+				valueWriter.writeString(1, value);
+				writer.writeBytes(4, valueWriter.toByteArray());
+			}
+			writer.writeVarint(5, extent);
+			tile.writeBytes(3, writer.toByteArray());
+		}
+		return tile.toByteArray();
+	}
+
+	private List<Integer> encodeGeometry(Feature feature, double scale, int x, int y) {
+		List<Integer> commands = new ArrayList<>();
+		int[] cursor = new int[2];
+		if (feature.type == POINT) {
+			List<int[]> points = new ArrayList<>();
+			for (double[] part : feature.parts) {
+				for (double[] point : toTile(part, scale, x, y)) {
+					if (inside(point, 0) && inside(point, 1) && inside(point, 2) && inside(point, 3)) {
+						points.add(round(point));
+					}
+				}
+			}
+			if (!points.isEmpty()) {
+				commands.add(command(MOVE_TO, points.size()));
+				for (int[] point : points) {
+					moveCursor(commands, cursor, point);
+				}
+			}
+			return commands;
+		}
+		boolean skipHoles = false;
+		for (int i = 0; i < feature.parts.size(); i++) {
+			List<double[]> part = toTile(feature.parts.get(i), scale, x, y);
+			if (feature.type == LINESTRING) {
+				for (List<double[]> line : clipLine(part)) {
+					List<int[]> points = removeDuplicates(round(line));
+					if (points.size() >= 2) {
+						writeLine(commands, cursor, points, false);
+					}
+				}
+				continue;
+			}
+			boolean exterior = feature.exteriors.get(i);
+			if (!exterior && skipHoles) {
+				continue;
+			}
+			List<int[]> points = removeDuplicates(round(clipRing(part)));
+			if (points.size() > 1 && points.get(0)[0] == points.get(points.size() - 1)[0]
+					&& points.get(0)[1] == points.get(points.size() - 1)[1]) {
+				points.remove(points.size() - 1);
+			}
+			long area = area(points);
+			if (points.size() < 3 || area == 0) {
+				skipHoles = exterior;
+				continue;
+			}
+			skipHoles = false;
+			if (exterior != area > 0) {
+				Collections.reverse(points);
+			}
+			writeLine(commands, cursor, points, true);
+		}
+		return commands;
+	}
+
+	/**
+	 * Projects coordinates to the tile grid without rounding them, coordinates of features far from
+	 * the tile exceed the range of an int at high zooms until they are clipped
+	 */
+	private List<double[]> toTile(double[] coordinates, double scale, int x, int y) {
+		List<double[]> points = new ArrayList<>(coordinates.length / 2);
+		for (int i = 0; i + 1 < coordinates.length; i += 2) {
+			points.add(new double[] { (coordinates[i] * scale - x) * extent, (coordinates[i + 1] * scale - y) * extent });
+		}
+		return points;
+	}
+
+	/**
+	 * Clips a line to the tile and its buffer with the Liang-Barsky algorithm
+	 *
+	 * @return the parts of the line inside the tile and its buffer
+	 */
+	private List<List<double[]>> clipLine(List<double[]> line) {
+		List<List<double[]>> lines = new ArrayList<>();
+		List<double[]> current = new ArrayList<>();
+		for (int i = 0; i + 1 < line.size(); i++) {
+			double[] start = line.get(i);
+			double[] end = line.get(i + 1);
+			double[][] segment = clipSegment(start, end);
+			if (segment == null) {
+				continue;
+			}
+			if (segment[0] != start && !current.isEmpty()) {
+				lines.add(current);
+				current = new ArrayList<>();
+			}
+			if (current.isEmpty()) {
+				current.add(segment[0]);
+			}
+			current.add(segment[1]);
+			if (segment[1] != end) {
+				lines.add(current);
+				current = new ArrayList<>();
+			}
+		}
+		if (!current.isEmpty()) {
+			lines.add(current);
+		}
+		return lines;
+	}
+
+	/**
+	 * @return the part of the segment inside the tile and its buffer, its points are the given ones
+	 *         where they were not clipped, or null if the segment is outside
+	 */
+	private double[][] clipSegment(double[] start, double[] end) {
+		double dx = end[0] - start[0];
+		double dy = end[1] - start[1];
+		double[] p = { -dx, dx, -dy, dy };
+		double[] q = { start[0] + buffer, extent + buffer - start[0], start[1] + buffer, extent + buffer - start[1] };
+		double t0 = 0;
+		double t1 = 1;
+		for (int i = 0; i < 4; i++) {
+			if (p[i] == 0) {
+				if (q[i] < 0) {
+					return null;
+				}
+				continue;
+			}
+			double t = q[i] / p[i];
+			if (p[i] < 0) {
+				t0 = Math.max(t0, t);
+			} else {
+				t1 = Math.min(t1, t);
+			}
+		}
+		if (t0 > t1) {
+			return null;
+		}
+		return new double[][] { t0 == 0 ? start : new double[] { start[0] + t0 * dx, start[1] + t0 * dy },
+				t1 == 1 ? end : new double[] { start[0] + t1 * dx, start[1] + t1 * dy } };
+	}
+
+	/**
+	 * Clips a ring to the tile and its buffer with the Sutherland-Hodgman algorithm, which keeps the
+	 * winding of the ring
+	 */
+	private List<double[]> clipRing(List<double[]> ring) {
+		for (int edge = 0; edge < 4 && !ring.isEmpty(); edge++) {
+			List<double[]> clipped = new ArrayList<>(ring.size());
+			double[] previous = ring.get(ring.size() - 1);
+			for (double[] point : ring) {
+				if (inside(point, edge)) {
+					if (!inside(previous, edge)) {
+						clipped.add(intersect(previous, point, edge));
+					}
+					clipped.add(point);
+				} else if (inside(previous, edge)) {
+					clipped.add(intersect(previous, point, edge));
+				}
+				previous = point;
+			}
+			ring = clipped;
+		}
+		return ring;
+	}
+
+	/**
+	 * @param edge the left, right, top or bottom edge of the buffer as 0, 1, 2 or 3
+	 */
+	private boolean inside(double[] point, int edge) {
+		switch (edge) {
+			case 0:
+				return point[0] >= -buffer;
+			case 1:
+				return point[0] <= extent + buffer;
+			case 2:
+				return point[1] >= -buffer;
+			default:
+				return point[1] <= extent + buffer;
+		}
+	}
+
+	private double[] intersect(double[] start, double[] end, int edge) {
+		if (edge < 2) {
+			double edgeX = edge == 0 ? -buffer : extent + buffer;
+			return new double[] { edgeX,
+					start[1] + (edgeX - start[0]) * (end[1] - start[1]) / (end[0] - start[0]) };
+		}
+		double edgeY = edge == 2 ? -buffer : extent + buffer;
+		return new double[] { start[0] + (edgeY - start[1]) * (end[0] - start[0]) / (end[1] - start[1]), edgeY };
+	}
+
+	private static List<int[]> round(List<double[]> points) {
+		List<int[]> rounded = new ArrayList<>(points.size());
+		for (double[] point : points) {
+			rounded.add(round(point));
+		}
+		return rounded;
+	}
+
+	private static int[] round(double[] point) {
+		return new int[] { (int) Math.round(point[0]), (int) Math.round(point[1]) };
+	}
+
+	private static List<int[]> removeDuplicates(List<int[]> points) {
+		List<int[]> unique = new ArrayList<>(points.size());
+		for (int[] point : points) {
+			int[] previous = unique.isEmpty() ? null : unique.get(unique.size() - 1);
+			if (previous == null || previous[0] != point[0] || previous[1] != point[1]) {
+				unique.add(point);
+			}
+		}
+		return unique;
+	}
+
+	/**
+	 * Computes twice the signed area of a ring with the surveyor's formula, positive for exterior
+	 * rings in tile coordinates
+	 */
+	private static long area(List<int[]> ring) {
+		long area = 0;
+		for (int i = 0; i < ring.size(); i++) {
+			int[] current = ring.get(i);
+			int[] next = ring.get((i + 1) % ring.size());
+			area += (long) current[0] * next[1] - (long) next[0] * current[1];
+		}
+		return area;
+	}
+
+	private static void writeLine(List<Integer> commands, int[] cursor, List<int[]> points, boolean close) {
+		commands.add(command(MOVE_TO, 1));
+		moveCursor(commands, cursor, points.get(0));
+		commands.add(command(LINE_TO, points.size() - 1));
+		for (int i = 1; i < points.size(); i++) {
+			moveCursor(commands, cursor, points.get(i));
+		}
+		if (close) {
+			commands.add(command(CLOSE_PATH, 1));
+		}
+	}
+
+	private static void moveCursor(List<Integer> commands, int[] cursor, int[] point) {
+		commands.add(zigZag(point[0] - cursor[0]));
+		commands.add(zigZag(point[1] - cursor[1]));
+		cursor[0] = point[0];
+		cursor[1] = point[1];
+	}
+
+	static int command(int id, int count) {
+		return (id & 0x7) | (count << 3);
+	}
+
+	static int zigZag(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+
+	/**
+	 * Projects a longitude to Web Mercator normalized to [0, 1]
+	 */
+	public static double mercatorX(double longitude) {
+		return (longitude + 180) / 360;
+	}
+
+	/**
+	 * Projects a latitude to Web Mercator normalized to [0, 1], latitudes beyond the limits of Web
+	 * Mercator are clamped
+	 */
+	public static double mercatorY(double latitude) {
+		double sin = Math.sin(Math.toRadians(Math.max(-85.0511, Math.min(85.0511, latitude))));
+		return 0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI);
+	}
+
+	/**
+	 * A feature with its geometry projected to normalized Web Mercator
+	 */
+	public static class Feature {
+
+		private final Map<String, String> attributes;
+
+		private final int type;
+
+		private final List<double[]> parts;
+
+		private final List<Boolean> exteriors;
+
+		private double minX = Double.MAX_VALUE;
+
+		private double minY = Double.MAX_VALUE;
+
+		private double maxX = -Double.MAX_VALUE;
+
+		private double maxY = -Double.MAX_VALUE;
+
+		/**
+		 * @param attributes the attributes of the feature
+		 * @param type       {@link #POINT}, {@link #LINESTRING} or {@link #POLYGON}
+		 * @param parts      the points, the lines or the rings of the feature as interleaved x and y
+		 *                   coordinates
+		 * @param exteriors  for polygons, whether each ring is an exterior ring, holes follow their
+		 *                   exterior ring
+		 */
+		public Feature(Map<String, String> attributes, int type, List<double[]> parts, List<Boolean> exteriors) {
+			this.attributes = attributes;
+			this.type = type;
+			this.parts = parts;
+			this.exteriors = exteriors;
+			for (double[] part : parts) {
+				for (int i = 0; i + 1 < part.length; i += 2) {
+					minX = Math.min(minX, part[i]);
+					maxX = Math.max(maxX, part[i]);
+					minY = Math.min(minY, part[i + 1]);
+					maxY = Math.max(maxY, part[i + 1]);
+				}
+			}
+		}
+
+		/**
+		 * @return the number of coordinates of the feature
+		 */
+		int getVertexCount() {
+			int count = 0;
+			for (double[] part : parts) {
+				count += part.length / 2;
+			}
+			return count;
+		}
+	}
+
+	private static class Layer {
+
+		private final String name;
+
+		private final List<byte[]> features = new ArrayList<>();
+
+		private final Map<String, Integer> keys = new LinkedHashMap<>();
+
+		private final Map<String, Integer> values = new LinkedHashMap<>();
+
+		Layer(String name) {
+			this.name = name;
+		}
+	}
+
+	/**
+	 * Writes the varint and length delimited protocol buffer fields used by vector tiles
+	 */
+	private static class ProtobufWriter {
+
+		private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		void writeVarint(int field, long value) {
+			writeRawVarint((field << 3) | 0);
+			writeRawVarint(value);
+		}
+
+		void writeString(int field, String value) {
+			writeBytes(field, value.getBytes(StandardCharsets.UTF_8));
+		}
+
+		void writeBytes(int field, byte[] value) {
+			writeRawVarint((field << 3) | 2);
+			writeRawVarint(value.length);
+			out.write(value, 0, value.length);
+		}
+
+		void writePackedVarints(int field, List<Integer> values) {
+			ProtobufWriter packed = new ProtobufWriter();
+			for (int value : values) {
+				packed.writeRawVarint(value & 0xffffffffL);
+			}
+			writeBytes(field, packed.toByteArray());
+		}
+
+		private void writeRawVarint(long value) {
+			while ((value & ~0x7fL) != 0) {
+				out.write((int) ((value & 0x7f) | 0x80));
+				value >>>= 7;
+			}
+			out.write((int) value);
+		}
+
+		byte[] toByteArray() {
+			return out.toByteArray();
+		}
+	}
+}
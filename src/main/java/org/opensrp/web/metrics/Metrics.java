@@ -0,0 +1,41 @@
+package org.opensrp.web.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lightweight in-process counters for server side operations. Counters are created on first use
+ * and are safe to update concurrently from request threads
+ */
+public class Metrics {
+
+	private static final ConcurrentMap<String, LongAdder> COUNTERS = new ConcurrentHashMap<>();
+
+	private Metrics() {
+	}
+
+	public static void increment(String name) {
+		add(name, 1);
+	}
+
+	public static void add(String name, long delta) {
+		COUNTERS.computeIfAbsent(name, key -> new LongAdder()).add(delta);
+	}
+
+	public static long get(String name) {
+		LongAdder counter = COUNTERS.get(name);
+		return counter == null ? 0 : counter.sum();
+	}
+
+	/**
+	 * @return the current value of all counters sorted by name
+	 */
+	public static Map<String, Long> snapshot() {
+		Map<String, Long> snapshot = new TreeMap<>();
+		COUNTERS.forEach((name, counter) -> snapshot.put(name, counter.sum()));
+		return snapshot;
+	}
+}
@@ -0,0 +1,189 @@
+package org.opensrp.web.plan;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.opensrp.domain.AssignedLocations;
+import org.opensrp.service.OrganizationService;
+import org.opensrp.service.PhysicalLocationService;
+import org.opensrp.web.acl.AssignedLocationsCache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * In memory index of the plans assigned to organizations and users, so that plan sync resolves the
+ * plans of a request without querying the assignments. The plans of users are read from the
+ * {@link AssignedLocationsCache}, so they are evicted on all nodes with the assigned locations of
+ * the users. The plans of organizations are loaded on first use and evicted on all nodes through a
+ * Redis invalidation message when the assignments of the organizations change. Organization entries
+ * also expire, which bounds how long assignments whose period started or ended are served stale.
+ */
+@Component
+public class PlanAssignmentIndex implements MessageListener {
+
+	private static final Logger logger = LogManager.getLogger(PlanAssignmentIndex.class.toString());
+
+	public static final String INVALIDATION_CHANNEL = "opensrp:plan:assignment:invalidate";
+
+	private static final TypeReference<List<Long>> ORGANIZATION_IDS_TYPE = new TypeReference<List<Long>>() {};
+
+	@Value("#{opensrp['opensrp.plan.assignment.index.size'] ?: 10000}")
+	private long maximumSize = 10000;
+
+	@Value("#{opensrp['opensrp.plan.assignment.index.ttl.seconds'] ?: 60}")
+	private long ttlSeconds = 60;
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	private OrganizationService organizationService;
+
+	private PhysicalLocationService locationService;
+
+	private AssignedLocationsCache assignedLocationsCache;
+
+	private StringRedisTemplate redisTemplate;
+
+	private RedisMessageListenerContainer listenerContainer;
+
+	private Cache<Long, Set<String>> organizationPlans;
+
+	@Autowired
+	public void setOrganizationService(OrganizationService organizationService) {
+		this.organizationService = organizationService;
+	}
+
+	@Autowired
+	public void setLocationService(PhysicalLocationService locationService) {
+		this.locationService = locationService;
+	}
+
+	@Autowired(required = false)
+	public void setAssignedLocationsCache(AssignedLocationsCache assignedLocationsCache) {
+		this.assignedLocationsCache = assignedLocationsCache;
+	}
+
+	@Autowired(required = false)
+	public void setConnectionFactory(RedisConnectionFactory connectionFactory) {
+		this.redisTemplate = new StringRedisTemplate(connectionFactory);
+	}
+
+	@Autowired(required = false)
+	public void setListenerContainer(RedisMessageListenerContainer listenerContainer) {
+		this.listenerContainer = listenerContainer;
+	}
+
+	@PostConstruct
+	public void init() {
+		organizationPlans = CacheBuilder.newBuilder().maximumSize(maximumSize)
+				.expireAfterWrite(ttlSeconds, TimeUnit.SECONDS).build();
+		if (listenerContainer != null) {
+			listenerContainer.addMessageListener(this, new ChannelTopic(INVALIDATION_CHANNEL));
+		}
+	}
+
+	/**
+	 * Gets the plans assigned to organizations
+	 *
+	 * @param organizationIds the organization ids
+	 * @return the identifiers of the plans assigned to any of the organizations
+	 */
+	public Set<String> getPlanIdsByOrganizations(Collection<Long> organizationIds) {
+		Set<String> planIds = new LinkedHashSet<>();
+		for (Long organizationId : organizationIds) {
+			if (organizationId == null) {
+				continue;
+			}
+			try {
+				planIds.addAll(organizationPlans.get(organizationId, () -> Collections.unmodifiableSet(
+					getPlanIds(organizationService.findAssignedLocationsAndPlans(Collections.singletonList(organizationId))))));
+			}
+			catch (ExecutionException e) {
+				throw new IllegalStateException("Failed to load the plans assigned to " + organizationId, e.getCause());
+			}
+		}
+		return planIds;
+	}
+
+	/**
+	 * Gets the plans assigned to the organizations of a user
+	 *
+	 * @param username the user
+	 * @return the identifiers of the plans assigned to the user
+	 */
+	public Set<String> getPlanIdsByUsername(String username) {
+		if (assignedLocationsCache != null) {
+			return getPlanIds(assignedLocationsCache.get(username, locationService::getAssignedLocations));
+		}
+		return getPlanIds(locationService.getAssignedLocations(username));
+	}
+
+	/**
+	 * Evicts the plans of organizations whose assignments changed on all nodes. The plans of their
+	 * users are evicted with the assigned locations of the users
+	 *
+	 * @param organizationIds the organizations whose assignments changed
+	 */
+	public void invalidate(Collection<Long> organizationIds) {
+		List<Long> ids = organizationIds.stream().distinct().collect(Collectors.toList());
+		if (ids.isEmpty()) {
+			return;
+		}
+		organizationPlans.invalidateAll(ids);
+		if (redisTemplate != null) {
+			try {
+				redisTemplate.convertAndSend(INVALIDATION_CHANNEL, objectMapper.writeValueAsString(ids));
+			}
+			catch (RuntimeException | IOException e) {
+				logger.error("Failed to publish plan assignment invalidation", e);
+			}
+		}
+	}
+
+	@Override
+	public void onMessage(Message message, byte[] pattern) {
+		String body = new String(message.getBody(), StandardCharsets.UTF_8);
+		try {
+			organizationPlans.invalidateAll(objectMapper.readValue(body, ORGANIZATION_IDS_TYPE));
+		}
+		catch (IOException e) {
+			logger.warn("Ignoring invalid plan assignment invalidation " + body, e);
+		}
+	}
+
+	private static Set<String> getPlanIds(List<AssignedLocations> assignedLocations) {
+		Set<String> planIds = new LinkedHashSet<>();
+		if (assignedLocations != null) {
+			for (AssignedLocations assignedLocation : assignedLocations) {
+				if (StringUtils.isNotBlank(assignedLocation.getPlanId())) {
+					planIds.add(assignedLocation.getPlanId());
+				}
+			}
+		}
+		return planIds;
+	}
+}
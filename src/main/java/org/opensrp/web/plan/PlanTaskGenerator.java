@@ -0,0 +1,354 @@
+package org.opensrp.web.plan;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.joda.time.DateTime;
+import org.opensrp.service.PhysicalLocationService;
+import org.opensrp.service.TaskService;
+import org.opensrp.web.ingest.IngestHandler;
+import org.opensrp.web.ingest.IngestJob;
+import org.opensrp.web.location.LocationTreeService;
+import org.opensrp.web.rest.PlanResource;
+import org.smartregister.domain.Period;
+import org.smartregister.domain.PhysicalLocation;
+import org.smartregister.domain.Task;
+import org.smartregister.utils.TaskDateTimeTypeConverter;
+
+import com.google.common.collect.Lists;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Generates the tasks of an activated plan. The actions of the plan triggered by its activation are
+ * applied to every operational area below the jurisdictions of the plan, actions on jurisdictions
+ * create a task for the operational area and actions on locations create a task for each structure
+ * in it. Operational areas are processed in parallel on the executor, {@code parallelism} at a time,
+ * and a checkpoint with the operational areas completed is saved after each wave, so an interrupted
+ * job resumes with the operational areas that are not completed, even if the location hierarchy
+ * changed in between.
+ * <p>
+ * Task identifiers are derived from the plan, the action and the entity of the task, and tasks
+ * already existing for an action and entity are not created again, so generating the tasks of a plan
+ * again only creates the tasks that are missing.
+ * <p>
+ * Action conditions are FHIRPath expressions evaluated by the plan evaluator. The only conditions
+ * supported here are checks of the subject type, such as {@code $this.is(FHIR.Location)}, actions
+ * with other conditions are reported as skipped.
+ */
+public class PlanTaskGenerator implements IngestHandler {
+
+	private static final Logger logger = LogManager.getLogger(PlanTaskGenerator.class.toString());
+
+	public static final String OPERATIONAL_AREAS = "operational_areas";
+
+	public static final String TASKS_CREATED = "tasks_created";
+
+	public static final String TASKS_EXISTING = "tasks_existing";
+
+	public static final String FAILED_TASKS = "failed_tasks";
+
+	public static final String SKIPPED_ACTIONS = "skipped_actions";
+
+	public static final String COMPLETED_OPERATIONAL_AREAS = "completed_operational_areas";
+
+	public static final String PLAN_ACTIVATION_TRIGGER = "plan-activation";
+
+	static final String JURISDICTION = "Jurisdiction";
+
+	static final String LOCATION = "Location";
+
+	private static final Pattern SUBJECT_TYPE_CONDITION = Pattern.compile("\\$this\\.is\\(FHIR\\.(\\w+)\\)");
+
+	private static final Gson TASK_GSON = new GsonBuilder()
+			.registerTypeAdapter(DateTime.class, new TaskDateTimeTypeConverter()).create();
+
+	private final TaskService taskService;
+
+	private final PhysicalLocationService locationService;
+
+	private final LocationTreeService locationTreeService;
+
+	private final ExecutorService executor;
+
+	private final int parallelism;
+
+	private final int batchSize;
+
+	/**
+	 * @param taskService         the service saving the tasks
+	 * @param locationService     the service finding the jurisdictions and structures of the plan
+	 * @param locationTreeService the location hierarchy, null if it is not loaded in memory
+	 * @param executor            the executor generating the tasks of the operational areas
+	 * @param parallelism         the number of operational areas processed at a time
+	 * @param batchSize           the number of tasks saved together
+	 */
+	public PlanTaskGenerator(TaskService taskService, PhysicalLocationService locationService,
+			LocationTreeService locationTreeService, ExecutorService executor, int parallelism, int batchSize) {
+		this.taskService = taskService;
+		this.locationService = locationService;
+		this.locationTreeService = locationTreeService;
+		this.executor = executor;
+		this.parallelism = Math.max(1, parallelism);
+		this.batchSize = Math.max(1, batchSize);
+	}
+
+	@Override
+	public Map<String, ?> ingest(String payload, String username) throws Exception {
+		IngestJob job = new IngestJob();
+		job.setUsername(username);
+		return ingest(job, new StringReader(payload), (recordsProcessed, result) -> {
+		});
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public Map<String, ?> ingest(IngestJob job, Reader payload, Checkpoint checkpoint) throws Exception {
+		JsonObject plan = new JsonParser().parse(payload).getAsJsonObject();
+		String planIdentifier = plan.get("identifier").getAsString();
+		GenerationProgress progress = new GenerationProgress();
+		List<JsonObject> actions = triggeredActions(plan, progress.skippedActions);
+		List<String> operationalAreas = operationalAreas(plan);
+
+		long resumeAfter = job.getRecordsProcessed() == null ? 0 : job.getRecordsProcessed();
+		if (resumeAfter > 0 && job.getResult() != null) {
+			Map<String, ?> result = job.getResult();
+			progress.created = ((Number) result.get(TASKS_CREATED)).longValue();
+			progress.existing = ((Number) result.get(TASKS_EXISTING)).longValue();
+			progress.failed.addAll((Collection<String>) result.get(FAILED_TASKS));
+			Collection<String> completed = (Collection<String>) result.get(COMPLETED_OPERATIONAL_AREAS);
+			if (completed != null) {
+				progress.completed.addAll(completed);
+			}
+			logger.info("Resuming task generation " + job.getJobId() + " after " + resumeAfter + " operational areas");
+		}
+		if (actions.isEmpty()) {
+			return progress.toResult(operationalAreas.size());
+		}
+
+		List<String> remaining = operationalAreas.stream().filter(id -> !progress.completed.contains(id))
+				.collect(Collectors.toList());
+		DateTime authoredOn = DateTime.now();
+		for (List<String> wave : Lists.partition(remaining, parallelism)) {
+			List<Future<GenerationProgress>> futures = new ArrayList<>(wave.size());
+			for (String operationalArea : wave) {
+				futures.add(executor.submit(() -> generateTasks(planIdentifier, operationalArea, actions,
+					job.getUsername(), authoredOn)));
+			}
+			for (Future<GenerationProgress> future : futures) {
+				try {
+					GenerationProgress operationalAreaProgress = future.get();
+					progress.created += operationalAreaProgress.created;
+					progress.existing += operationalAreaProgress.existing;
+					progress.failed.addAll(operationalAreaProgress.failed);
+				}
+				catch (ExecutionException e) {
+					throw new IllegalStateException("Failed to generate the tasks of plan " + planIdentifier, e.getCause());
+				}
+			}
+			progress.completed.addAll(wave);
+			checkpoint.save(progress.completed.size(), progress.toResult(operationalAreas.size()));
+			logger.info("Task generation " + job.getJobId() + " processed " + progress.completed.size() + " of "
+					+ operationalAreas.size() + " operational areas");
+		}
+		return progress.toResult(operationalAreas.size());
+	}
+
+	/**
+	 * Gets the actions of the plan triggered by its activation that create tasks on a supported
+	 * subject, the identifiers of the other actions triggered are added to skipped actions
+	 */
+	static List<JsonObject> triggeredActions(JsonObject plan, List<String> skippedActions) {
+		List<JsonObject> actions = new ArrayList<>();
+		for (JsonElement element : array(plan, "action")) {
+			JsonObject action = element.getAsJsonObject();
+			boolean triggered = false;
+			for (JsonElement trigger : array(action, "trigger")) {
+				triggered |= PLAN_ACTIVATION_TRIGGER.equals(string(trigger.getAsJsonObject(), "name"));
+			}
+			if (!triggered) {
+				continue;
+			}
+			String type = string(action, "type");
+			String subject = action.has("subjectCodableConcept") && action.get("subjectCodableConcept").isJsonObject()
+					? string(action.getAsJsonObject("subjectCodableConcept"), "text")
+					: null;
+			if ((type == null || "create".equals(type)) && (JURISDICTION.equals(subject) || LOCATION.equals(subject))
+					&& conditionsSupported(action, subject)) {
+				actions.add(action);
+			} else {
+				skippedActions.add(string(action, "identifier"));
+			}
+		}
+		return actions;
+	}
+
+	private static boolean conditionsSupported(JsonObject action, String subject) {
+		for (JsonElement condition : array(action, "condition")) {
+			JsonElement expression = condition.getAsJsonObject().get("expression");
+			String fhirPath = expression != null && expression.isJsonObject()
+					? string(expression.getAsJsonObject(), "expression")
+					: null;
+			Matcher matcher = fhirPath == null ? null : SUBJECT_TYPE_CONDITION.matcher(fhirPath.trim());
+			if (matcher == null || !matcher.matches() || !matcher.group(1).equals(subject)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the ids of the operational areas of the plan, the jurisdictions of the plan and the
+	 * jurisdictions below them that have no child jurisdiction, sorted so that a resumed job
+	 * processes them in the same order
+	 */
+	private List<String> operationalAreas(JsonObject plan) {
+		Set<String> operationalAreas = new TreeSet<>();
+		for (JsonElement jurisdiction : array(plan, "jurisdiction")) {
+			String id = string(jurisdiction.getAsJsonObject(), "code");
+			if (id == null) {
+				continue;
+			}
+			List<PhysicalLocation> locations = locationTreeService != null && locationTreeService.isLoaded()
+					? locationTreeService.findLocationsWithChildren(Collections.singleton(id))
+					: locationService.findLocationByIdWithChildren(false, id, Integer.MAX_VALUE);
+			if (locations == null || locations.isEmpty()) {
+				operationalAreas.add(id);
+				continue;
+			}
+			Set<String> parents = new HashSet<>();
+			for (PhysicalLocation location : locations) {
+				if (location.getProperties() != null && location.getProperties().getParentId() != null) {
+					parents.add(location.getProperties().getParentId());
+				}
+			}
+			for (PhysicalLocation location : locations) {
+				if (!parents.contains(location.getId())) {
+					operationalAreas.add(location.getId());
+				}
+			}
+		}
+		return new ArrayList<>(operationalAreas);
+	}
+
+	private GenerationProgress generateTasks(String planIdentifier, String operationalArea, List<JsonObject> actions,
+			String username, DateTime authoredOn) {
+		GenerationProgress progress = new GenerationProgress();
+		Set<String> existing = taskService.getTasksByTaskAndGroup(planIdentifier, operationalArea, 0).stream()
+				.map(task -> task.getFocus() + '\u0000' + task.getForEntity()).collect(Collectors.toSet());
+		List<String> structures = null;
+		List<Task> tasks = new ArrayList<>();
+		for (JsonObject action : actions) {
+			List<String> entities;
+			if (JURISDICTION.equals(string(action.getAsJsonObject("subjectCodableConcept"), "text"))) {
+				entities = Collections.singletonList(operationalArea);
+			} else {
+				if (structures == null) {
+					structures = locationService.findStructuresByParentAndServerVersion(operationalArea, 0).stream()
+							.map(PhysicalLocation::getId).collect(Collectors.toList());
+				}
+				entities = structures;
+			}
+			for (String entity : entities) {
+				if (existing.contains(string(action, "identifier") + '\u0000' + entity)) {
+					progress.existing++;
+				} else {
+					tasks.add(createTask(planIdentifier, operationalArea, action, entity, username, authoredOn));
+				}
+			}
+		}
+		for (List<Task> batch : Lists.partition(tasks, batchSize)) {
+			Set<String> failed = taskService.saveTasks(batch);
+			progress.failed.addAll(failed);
+			progress.created += batch.size() - failed.size();
+		}
+		return progress;
+	}
+
+	/**
+	 * Creates the task of an action for an entity. The task identifier is derived from the plan, the
+	 * action and the entity
+	 */
+	static Task createTask(String planIdentifier, String operationalArea, JsonObject action, String entity,
+			String username, DateTime authoredOn) {
+		String focus = string(action, "identifier");
+		JsonObject task = new JsonObject();
+		task.addProperty("identifier", UUID.nameUUIDFromBytes((planIdentifier + '\u0000' + focus + '\u0000' + entity)
+				.getBytes(StandardCharsets.UTF_8)).toString());
+		task.addProperty("planIdentifier", planIdentifier);
+		task.addProperty("groupIdentifier", operationalArea);
+		task.addProperty("status", "Ready");
+		task.addProperty("businessStatus", "Not Visited");
+		task.addProperty("priority", "routine");
+		task.addProperty("code", string(action, "code"));
+		task.addProperty("description", string(action, "description"));
+		task.addProperty("focus", focus);
+		task.addProperty("for", entity);
+		task.add("authoredOn", TASK_GSON.toJsonTree(authoredOn));
+		task.add("lastModified", TASK_GSON.toJsonTree(authoredOn));
+		task.addProperty("owner", username);
+		Task generated = TASK_GSON.fromJson(task, Task.class);
+		JsonElement timingPeriod = action.get("timingPeriod");
+		if (timingPeriod != null && timingPeriod.isJsonObject()) {
+			generated.setExecutionPeriod(PlanResource.gson.fromJson(timingPeriod, Period.class));
+		}
+		return generated;
+	}
+
+	private static JsonArray array(JsonObject object, String member) {
+		JsonElement element = object.get(member);
+		return element != null && element.isJsonArray() ? element.getAsJsonArray() : new JsonArray();
+	}
+
+	private static String string(JsonObject object, String member) {
+		JsonElement element = object.get(member);
+		return element != null && element.isJsonPrimitive() ? element.getAsString() : null;
+	}
+
+	private static class GenerationProgress {
+
+		private long created;
+
+		private long existing;
+
+		private final List<String> failed = new ArrayList<>();
+
+		private final List<String> skippedActions = new ArrayList<>();
+
+		private final Set<String> completed = new TreeSet<>();
+
+		Map<String, Object> toResult(int operationalAreas) {
+			Map<String, Object> result = new LinkedHashMap<>();
+			result.put(OPERATIONAL_AREAS, operationalAreas);
+			result.put(TASKS_CREATED, created);
+			result.put(TASKS_EXISTING, existing);
+			result.put(FAILED_TASKS, new ArrayList<>(failed));
+			result.put(SKIPPED_ACTIONS, new ArrayList<>(skippedActions));
+			result.put(COMPLETED_OPERATIONAL_AREAS, new ArrayList<>(completed));
+			return result;
+		}
+	}
+}
@@ -1,6 +1,12 @@
 package org.opensrp.web.rest;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonArray;
@@ -29,7 +35,11 @@ import org.opensrp.web.bean.EventSyncBean;
 import org.opensrp.web.bean.Identifier;
 import org.opensrp.web.bean.SyncParam;
 import org.opensrp.web.config.Role;
+import org.opensrp.web.exceptions.ResponseAbortedException;
+import org.opensrp.web.ingest.IngestJobService;
+import org.opensrp.web.metrics.Metrics;
 import org.opensrp.web.utils.MaskingUtils;
+import org.opensrp.web.utils.SyncContinuationToken;
 import org.opensrp.web.utils.Utils;
 import org.smartregister.domain.Client;
 import org.smartregister.domain.Event;
@@ -46,17 +56,29 @@ import org.springframework.stereotype.Controller;
 import org.springframework.ui.ModelMap;
 import org.springframework.web.bind.annotation.*;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.zip.ZipOutputStream;
 
 import static org.opensrp.common.AllConstants.BaseEntity.BASE_ENTITY_ID;
@@ -64,7 +86,10 @@ import static org.opensrp.common.AllConstants.BaseEntity.LAST_UPDATE;
 import static org.opensrp.common.AllConstants.CLIENTS_FETCH_BATCH_SIZE;
 import static org.opensrp.common.AllConstants.Event.*;
 import static org.opensrp.common.AllConstants.Form.SERVER_VERSION;
+import static org.opensrp.web.Constants.ASYNC;
+import static org.opensrp.web.Constants.CONTINUATION_TOKEN;
 import static org.opensrp.web.Constants.RETURN_COUNT;
+import static org.opensrp.web.Constants.STREAM;
 import static org.opensrp.web.Constants.TOTAL_RECORDS;
 import static org.opensrp.web.rest.RestUtils.*;
 import static org.springframework.http.HttpStatus.*;
@@ -82,18 +107,40 @@ public class EventResource extends RestResource<Event> {
 
 	private MultimediaService multimediaService;
 
+	private IngestJobService ingestJobService;
+
 	Gson gson = new GsonBuilder().setDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ")
 			.registerTypeAdapter(DateTime.class, new DateTimeTypeConverter()).create();
 
 	@Value("#{opensrp['opensrp.sync.search.missing.client']}")
 	private boolean searchMissingClients;
 
+	@Value("#{opensrp['opensrp.sync.event.continuation.page.size'] ?: 1000}")
+	private int continuationPageSize;
+
+	@Value("#{opensrp['opensrp.sync.event.continuation.max.fetch.size'] ?: 10000}")
+	private int continuationMaxFetchSize = 10000;
+
+	@Value("#{opensrp['opensrp.sync.add.threads'] ?: 4}")
+	private int ingestThreads;
+
+	@Value("#{opensrp['opensrp.sync.add.batch.size'] ?: 50}")
+	private int ingestBatchSize;
+
+	private ExecutorService ingestExecutor;
+
 	private static final String IS_DELETED = "is_deleted";
 
 	private static final String FALSE = "false";
 
 	private static final String SAMPLE_CSV_FILE = "/";
 
+	public static final String EVENT_INGEST_JOB = "event";
+
+	public static final String MISSING_CLIENTS_FALLBACK_METRIC = "sync.missing_clients.fallback";
+
+	public static final String MISSING_CLIENTS_SEARCHED_METRIC = "sync.missing_clients.searched";
+
 	@Autowired
 	public EventResource(ClientService clientService, EventService eventService, MultimediaService multimediaService) {
 		this.clientService = clientService;
@@ -101,6 +148,37 @@ public class EventResource extends RestResource<Event> {
 		this.multimediaService = multimediaService;
 	}
 
+	/**
+	 * Creates the bounded worker pool used to persist uploaded clients and events. When the pool and
+	 * its queue are full the request thread persists the batch itself, which throttles uploads
+	 * instead of queueing them without limit. The ingest handler is registered once the pool exists
+	 * since registering it resumes the jobs interrupted by a restart
+	 */
+	@PostConstruct
+	public void initIngestExecutor() {
+		ingestExecutor = new ThreadPoolExecutor(ingestThreads, ingestThreads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(ingestThreads * 4),
+				new ThreadFactoryBuilder().setNameFormat("event-ingest-%d").setDaemon(true).build(),
+				new ThreadPoolExecutor.CallerRunsPolicy());
+		registerIngestHandler();
+	}
+
+	/**
+	 * Registers the handler persisting the clients and events of asynchronous uploads
+	 */
+	public void registerIngestHandler() {
+		if (ingestJobService == null) {
+			return;
+		}
+		ingestJobService.registerHandler(EVENT_INGEST_JOB,
+				(payload, username) -> saveClientsAndEvents(new JSONObject(payload), username));
+	}
+
+	@PreDestroy
+	public void shutdownIngestExecutor() {
+		ingestExecutor.shutdown();
+	}
+
 	@Override
 	public Event getByUniqueId(String uniqueId) {
 		return eventService.find(uniqueId);
@@ -125,7 +203,8 @@ public class EventResource extends RestResource<Event> {
 	 * @return a map response with events, clients and optionally msg when an error occurs
 	 */
 	@RequestMapping(value = "/sync", method = RequestMethod.GET, produces = { MediaType.APPLICATION_JSON_VALUE })
-	protected ResponseEntity<String> sync(HttpServletRequest request) throws JsonProcessingException {
+	protected ResponseEntity<String> sync(HttpServletRequest request, HttpServletResponse servletResponse)
+			throws IOException {
 		EventSyncBean response = new EventSyncBean();
 
 		String providerId = getStringFilter(PROVIDER_ID, request);
@@ -136,16 +215,37 @@ public class EventResource extends RestResource<Event> {
 		String teamId = getStringFilter(TEAM_ID, request);
 		Integer limit = getIntegerFilter("limit", request);
 		boolean returnCount = Boolean.getBoolean(getStringFilter(RETURN_COUNT, request));
+		boolean stream = getBooleanFilter(STREAM, request);
+		String continuationToken = getStringFilter(CONTINUATION_TOKEN, request);
 
 		if (team != null || providerId != null || locationId != null || baseEntityId != null || teamId != null) {
 
+			String filterHash = syncFilterHash(providerId, locationId, baseEntityId, team, teamId);
+			SyncContinuationToken token;
+			try {
+				token = parseContinuationToken(continuationToken, filterHash);
+			}
+			catch (IllegalArgumentException e) {
+				response.setMsg(e.getMessage());
+				return new ResponseEntity<>(objectMapper.writeValueAsString(response), BAD_REQUEST);
+			}
+
+			if (stream) {
+				writeEventsAndClients(createEventSearchBean(providerId, locationId, baseEntityId, serverVersion, team,
+						teamId), limit, returnCount, token, filterHash, servletResponse);
+				return null;
+			}
+
 			EventSyncBean eventSyncBean = sync(providerId, locationId, baseEntityId, serverVersion, team, teamId, limit,
-					returnCount);
+					returnCount, token);
 
 			HttpHeaders headers = getJSONUTF8Headers();
 			if (returnCount) {
 				headers.add(TOTAL_RECORDS, String.valueOf(eventSyncBean.getTotalRecords()));
 			}
+			if (eventSyncBean.getContinuationToken() != null) {
+				headers.add(CONTINUATION_TOKEN, eventSyncBean.getContinuationToken());
+			}
 
 			return new ResponseEntity<>(objectMapper.writeValueAsString(eventSyncBean), headers, OK);
 
@@ -163,22 +263,45 @@ public class EventResource extends RestResource<Event> {
 	 * @return a map response with events, clients and optionally msg when an error occurs
 	 */
 	@RequestMapping(value = "/sync", method = POST, produces = { MediaType.APPLICATION_JSON_VALUE })
-	protected ResponseEntity<String> syncByPost(@RequestBody SyncParam syncParam) throws JsonProcessingException {
+	protected ResponseEntity<String> syncByPost(@RequestBody SyncParam syncParam, HttpServletResponse servletResponse)
+			throws JsonProcessingException {
 		EventSyncBean response = new EventSyncBean();
 		try {
 
 			if (syncParam.getTeam() != null || syncParam.getProviderId() != null || syncParam.getLocationId() != null
 					|| syncParam.getBaseEntityId() != null || syncParam.getTeamId() != null) {
 
+				String filterHash = syncFilterHash(syncParam.getProviderId(), syncParam.getLocationId(),
+						syncParam.getBaseEntityId(), syncParam.getTeam(), syncParam.getTeamId());
+				SyncContinuationToken token;
+				try {
+					token = parseContinuationToken(syncParam.getContinuationToken(), filterHash);
+				}
+				catch (IllegalArgumentException e) {
+					response.setMsg(e.getMessage());
+					return new ResponseEntity<>(objectMapper.writeValueAsString(response), BAD_REQUEST);
+				}
+
+				if (syncParam.isStream()) {
+					writeEventsAndClients(createEventSearchBean(syncParam.getProviderId(), syncParam.getLocationId(),
+							syncParam.getBaseEntityId(), syncParam.getServerVersion(), syncParam.getTeam(),
+							syncParam.getTeamId()), syncParam.getLimit(), syncParam.isReturnCount(), token, filterHash,
+							servletResponse);
+					return null;
+				}
+
 				EventSyncBean eventSyncBean = sync(syncParam.getProviderId(), syncParam.getLocationId(),
 						syncParam.getBaseEntityId(), syncParam.getServerVersion(), syncParam.getTeam(),
 						syncParam.getTeamId(),
-						syncParam.getLimit(), syncParam.isReturnCount());
+						syncParam.getLimit(), syncParam.isReturnCount(), token);
 
 				HttpHeaders headers = getJSONUTF8Headers();
 				if (syncParam.isReturnCount()) {
 					headers.add(TOTAL_RECORDS, String.valueOf(eventSyncBean.getTotalRecords()));
 				}
+				if (eventSyncBean.getContinuationToken() != null) {
+					headers.add(CONTINUATION_TOKEN, eventSyncBean.getContinuationToken());
+				}
 
 				return new ResponseEntity<>(objectMapper.writeValueAsString(eventSyncBean), headers, OK);
 			} else {
@@ -187,6 +310,9 @@ public class EventResource extends RestResource<Event> {
 			}
 
 		}
+		catch (ResponseAbortedException e) {
+			throw e;
+		}
 		catch (Exception e) {
 			response.setMsg("Error occurred");
 			logger.error("", e);
@@ -196,7 +322,8 @@ public class EventResource extends RestResource<Event> {
 
 	/**
 	 * Fetch clients and associated events allongside family registration events for the family that
-	 * they attached to for the list of base entity ids passed
+	 * they attached to for the list of base entity ids passed. All the ids are resolved with one
+	 * client query and one event query per batch of ids and grouped in memory
 	 *
 	 * @param jsonObject Json Object containing a jsonArray with baseEntityIds, and an optional
 	 *                   boolean named withFamilyEvents for obtaining family events if the value passed is
@@ -206,9 +333,6 @@ public class EventResource extends RestResource<Event> {
 	@RequestMapping(value = "/sync-by-base-entity-ids", method = POST, produces = { MediaType.APPLICATION_JSON_VALUE })
 	public ResponseEntity<String> syncClientsAndEventsByBaseEntityIds(@RequestBody String jsonObject)
 			throws JsonProcessingException {
-		EventSyncBean combinedEventClients = new EventSyncBean();
-		List<Event> combinedEvents = new ArrayList<>();
-		List<Client> combinedClients = new ArrayList<>();
 		try {
 			JSONObject object = new JSONObject(jsonObject);
 			boolean withFamilyEvents = object.optBoolean(Constants.WITH_FAMILY_EVENTS, false);
@@ -216,27 +340,7 @@ public class EventResource extends RestResource<Event> {
 					new TypeToken<ArrayList<String>>() {
 
 					}.getType());
-			for (String baseEntityId : baseEntityIdsList) {
-				EventSyncBean eventSyncBean = sync(null, null, baseEntityId, "0", null, null, null, false);
-				combinedEvents.addAll(eventSyncBean.getEvents());
-				combinedClients.addAll(eventSyncBean.getClients());
-				if (eventSyncBean != null && eventSyncBean.getClients() != null && !eventSyncBean.getClients().isEmpty()) {
-					List<Client> clients = eventSyncBean.getClients();
-					//Obtaining family registration events for client's family if withFamilyEvents is true.
-					if (clients.size() == 1 && clients.get(0).getRelationships().containsKey(Constants.FAMILY)
-							&& withFamilyEvents) {
-						List<String> clientRelationships = clients.get(0).getRelationships().get(Constants.FAMILY);
-						for (String familyRelationship : clientRelationships) {
-							EventSyncBean familyEvents = sync(null, null, familyRelationship, "0", null, null, null, false);
-							combinedEvents.addAll(familyEvents.getEvents());
-							combinedClients.addAll(familyEvents.getClients());
-						}
-					}
-				}
-			}
-			combinedEventClients.setEvents(combinedEvents);
-			combinedEventClients.setClients(combinedClients);
-			combinedEventClients.setNoOfEvents(combinedEventClients.getEvents().size());
+			EventSyncBean combinedEventClients = getEventsAndClientsByBaseEntityIds(baseEntityIdsList, withFamilyEvents);
 
 			return new ResponseEntity<>(objectMapper.writeValueAsString(combinedEventClients), getJSONUTF8Headers(), OK);
 		}
@@ -248,8 +352,128 @@ public class EventResource extends RestResource<Event> {
 		}
 	}
 
+	private EventSyncBean getEventsAndClientsByBaseEntityIds(List<String> baseEntityIds, boolean withFamilyEvents) {
+		long startTime = System.currentTimeMillis();
+		Set<String> allBaseEntityIds = new LinkedHashSet<>(baseEntityIds);
+		List<Client> clients = findClients(allBaseEntityIds, startTime);
+
+		//Obtaining family registration events for the clients' families if withFamilyEvents is true.
+		if (withFamilyEvents) {
+			Set<String> familyIds = new LinkedHashSet<>();
+			for (Client client : clients) {
+				if (client.getRelationships() != null && client.getRelationships().containsKey(Constants.FAMILY)) {
+					familyIds.addAll(client.getRelationships().get(Constants.FAMILY));
+				}
+			}
+			familyIds.removeAll(allBaseEntityIds);
+			if (!familyIds.isEmpty()) {
+				clients.addAll(findClients(familyIds, startTime));
+				allBaseEntityIds.addAll(familyIds);
+			}
+		}
+
+		Map<String, List<Event>> eventsByBaseEntityId = new HashMap<>();
+		List<String> baseEntityIdList = new ArrayList<>(allBaseEntityIds);
+		for (int i = 0; i < baseEntityIdList.size(); i = i + CLIENTS_FETCH_BATCH_SIZE) {
+			int end = Math.min(i + CLIENTS_FETCH_BATCH_SIZE, baseEntityIdList.size());
+			// the event search bean accepts a comma separated list of base entity ids
+			EventSearchBean eventSearchBean = createEventSearchBean(null, null,
+					StringUtils.join(baseEntityIdList.subList(i, end), ","), "0", null, null);
+			for (Event event : eventService.findEvents(eventSearchBean, BaseEntity.SERVER_VERSIOIN, "asc",
+					Integer.MAX_VALUE)) {
+				eventsByBaseEntityId.computeIfAbsent(event.getBaseEntityId(), key -> new ArrayList<>()).add(event);
+			}
+		}
+		List<Event> events = new ArrayList<>();
+		for (String baseEntityId : allBaseEntityIds) {
+			events.addAll(eventsByBaseEntityId.getOrDefault(baseEntityId, Collections.emptyList()));
+		}
+		logger.info("fetching events and clients by base entity ids took: " + (System.currentTimeMillis() - startTime));
+
+		if (isPIIDataMaskingRequired()) {
+			new MaskingUtils().processDataMasking(clients);
+		}
+
+		EventSyncBean eventSyncBean = new EventSyncBean();
+		eventSyncBean.setEvents(events);
+		eventSyncBean.setClients(clients);
+		eventSyncBean.setNoOfEvents(events.size());
+		return eventSyncBean;
+	}
+
 	public EventSyncBean sync(String providerId, String locationId, String baseEntityId, String serverVersion, String team,
 			String teamId, Integer limit, boolean returnCount) {
+		return sync(providerId, locationId, baseEntityId, serverVersion, team, teamId, limit, returnCount, null);
+	}
+
+	/**
+	 * Fetch a page of events and their clients. When a continuation token is passed the page
+	 * resumes from the token instead of the serverVersion and defaults to a larger page size
+	 *
+	 * @param continuationToken token returned by the previous page, or null
+	 * @return the events and clients together with the token for the next page
+	 */
+	public EventSyncBean sync(String providerId, String locationId, String baseEntityId, String serverVersion, String team,
+			String teamId, Integer limit, boolean returnCount, SyncContinuationToken continuationToken) {
+		EventSearchBean eventSearchBean = createEventSearchBean(providerId, locationId, baseEntityId, serverVersion, team,
+				teamId);
+
+		return getEventsAndClients(eventSearchBean, getPageSize(limit, continuationToken), returnCount, continuationToken,
+				syncFilterHash(providerId, locationId, baseEntityId, team, teamId));
+
+	}
+
+	private int getPageSize(Integer limit, SyncContinuationToken continuationToken) {
+		if (limit != null && limit != 0) {
+			return limit;
+		}
+		return continuationToken != null ? continuationPageSize : 25;
+	}
+
+	private String syncFilterHash(String providerId, String locationId, String baseEntityId, String team, String teamId) {
+		return SyncContinuationToken.filterHash(providerId, locationId, baseEntityId, team, teamId);
+	}
+
+	private SyncContinuationToken parseContinuationToken(String continuationToken, String filterHash) {
+		if (StringUtils.isBlank(continuationToken)) {
+			return null;
+		}
+		SyncContinuationToken token = SyncContinuationToken.decode(continuationToken);
+		if (!token.matches(filterHash)) {
+			throw new IllegalArgumentException("continuation token does not match the sync filters");
+		}
+		return token;
+	}
+
+	/**
+	 * Fetch events ordered by serverVersion and id. If a continuation token is passed the events are
+	 * fetched from the token serverVersion inclusive, skipping the events already delivered. Events
+	 * sharing the serverVersion of the last event fetched are left for the next page when the fetch
+	 * may not have returned all of them, the fetch is repeated with more events up to
+	 * {@code opensrp.sync.event.continuation.max.fetch.size} when that leaves none
+	 */
+	private List<Event> findEvents(EventSearchBean eventSearchBean, int limit, SyncContinuationToken continuationToken) {
+		if (continuationToken != null) {
+			eventSearchBean.setServerVersion(continuationToken.getServerVersion());
+		}
+		return SyncContinuationToken.fetchPage(
+				fetchSize -> eventService.findEvents(eventSearchBean, BaseEntity.SERVER_VERSIOIN, "asc", fetchSize),
+				EventResource::serverVersion, Event::getId, continuationToken, limit, continuationMaxFetchSize);
+	}
+
+	private String nextContinuationToken(List<Event> events, SyncContinuationToken continuationToken,
+			String filterHash) {
+		SyncContinuationToken next = SyncContinuationToken.next(events, EventResource::serverVersion, Event::getId,
+				continuationToken, filterHash);
+		return next == null ? null : next.encode();
+	}
+
+	private static long serverVersion(Event event) {
+		return event.getServerVersion() == null ? 0 : event.getServerVersion();
+	}
+
+	private EventSearchBean createEventSearchBean(String providerId, String locationId, String baseEntityId,
+			String serverVersion, String team, String teamId) {
 		Long lastSyncedServerVersion = null;
 		if (serverVersion != null) {
 			lastSyncedServerVersion = Long.parseLong(serverVersion) + 1;
@@ -262,33 +486,23 @@ public class EventResource extends RestResource<Event> {
 		eventSearchBean.setLocationId(locationId);
 		eventSearchBean.setBaseEntityId(baseEntityId);
 		eventSearchBean.setServerVersion(lastSyncedServerVersion);
-
-		return getEventsAndClients(eventSearchBean, limit == null || limit == 0 ? 25 : limit, returnCount);
-
+		return eventSearchBean;
 	}
 
 	private EventSyncBean getEventsAndClients(EventSearchBean eventSearchBean, Integer limit, boolean returnCount) {
+		return getEventsAndClients(eventSearchBean, limit, returnCount, null, null);
+	}
+
+	private EventSyncBean getEventsAndClients(EventSearchBean eventSearchBean, Integer limit, boolean returnCount,
+			SyncContinuationToken continuationToken, String filterHash) {
 		List<Event> events = new ArrayList<Event>();
-		List<String> clientIds = new ArrayList<String>();
 		List<Client> clients = new ArrayList<Client>();
 		long startTime = System.currentTimeMillis();
-		events = eventService.findEvents(eventSearchBean, BaseEntity.SERVER_VERSIOIN, "asc", limit == null ? 25 : limit);
+		events = findEvents(eventSearchBean, limit == null ? 25 : limit, continuationToken);
 		Long totalRecords = 0l;
 		logger.info("fetching events took: " + (System.currentTimeMillis() - startTime));
 		if (!events.isEmpty()) {
-			for (Event event : events) {
-				if (org.apache.commons.lang.StringUtils.isNotBlank(event.getBaseEntityId())
-						&& !clientIds.contains(event.getBaseEntityId())) {
-					clientIds.add(event.getBaseEntityId());
-				}
-			}
-			for (int i = 0; i < clientIds.size(); i = i + CLIENTS_FETCH_BATCH_SIZE) {
-				int end = Math.min(i + CLIENTS_FETCH_BATCH_SIZE, clientIds.size());
-				clients.addAll(clientService.findByFieldValue(BASE_ENTITY_ID, clientIds.subList(i, end)));
-			}
-			logger.info("fetching clients took: " + (System.currentTimeMillis() - startTime));
-
-			searchMissingClients(clientIds, clients, startTime);
+			clients = findClients(getClientIds(events), startTime);
 
 			if (returnCount) {
 				totalRecords = eventService.countEvents(eventSearchBean);
@@ -299,10 +513,7 @@ public class EventResource extends RestResource<Event> {
 		//PII Data masking 
 		//TO DO research on ways to improve this
 
-		Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-		User user = currentUser(authentication);
-
-		if (Utils.checkRoleIfRoleExists(user.getRoles(), Role.PII_DATA_MASK)) {
+		if (isPIIDataMaskingRequired()) {
 
 			MaskingUtils maskingUtil = new MaskingUtils();
 			maskingUtil.processDataMasking(clients);
@@ -313,25 +524,181 @@ public class EventResource extends RestResource<Event> {
 		eventSyncBean.setEvents(events);
 		eventSyncBean.setNoOfEvents(events.size());
 		eventSyncBean.setTotalRecords(totalRecords);
+		if (filterHash != null) {
+			eventSyncBean.setContinuationToken(nextContinuationToken(events, continuationToken, filterHash));
+		}
 		return eventSyncBean;
 	}
 
-	private void searchMissingClients(List<String> clientIds, List<Client> clients, long startTime) {
-		if (searchMissingClients) {
+	/**
+	 * Writes events and the clients associated with them directly to the servlet output stream.
+	 * Clients are fetched, masked and written one batch at a time so that neither the full client
+	 * list nor the serialized response is ever held in memory. The JSON has the same shape as
+	 * {@link EventSyncBean}
+	 *
+	 * @param eventSearchBean the event filters
+	 * @param limit           upper limit on number of events to fetch
+	 * @param returnCount     whether to return the total number of events matching the filters
+	 * @param continuationToken token returned by the previous page, or null
+	 * @param filterHash      hash of the sync filters the next continuation token is bound to
+	 * @param response        the servlet response to write to
+	 * @throws IOException if writing to the response fails
+	 */
+	private void writeEventsAndClients(EventSearchBean eventSearchBean, Integer limit, boolean returnCount,
+			SyncContinuationToken continuationToken, String filterHash, HttpServletResponse response) throws IOException {
+		long startTime = System.currentTimeMillis();
+		List<Event> events = findEvents(eventSearchBean, getPageSize(limit, continuationToken), continuationToken);
+		logger.info("fetching events took: " + (System.currentTimeMillis() - startTime));
 
-			List<String> foundClientIds = new ArrayList<>();
-			for (Client client : clients) {
-				foundClientIds.add(client.getBaseEntityId());
-			}
+		String nextToken = nextContinuationToken(events, continuationToken, filterHash);
+		if (nextToken != null) {
+			response.addHeader(CONTINUATION_TOKEN, nextToken);
+		}
 
-			boolean removed = clientIds.removeAll(foundClientIds);
-			if (removed) {
-				for (String clientId : clientIds) {
-					Client client = clientService.getByBaseEntityId(clientId);
-					if (client != null) {
-						clients.add(client);
+		Long totalRecords = 0l;
+		if (returnCount) {
+			if (!events.isEmpty()) {
+				totalRecords = eventService.countEvents(eventSearchBean);
+			}
+			response.addHeader(TOTAL_RECORDS, String.valueOf(totalRecords));
+		}
+		boolean maskData = isPIIDataMaskingRequired();
+		List<String> clientIdList = new ArrayList<>(getClientIds(events));
+		List<Client> clients = findClientBatch(clientIdList.subList(0,
+			Math.min(CLIENTS_FETCH_BATCH_SIZE, clientIdList.size())), maskData, startTime);
+		response.setStatus(OK.value());
+		response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+		response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+
+		ObjectWriter writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+		JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream(), JsonEncoding.UTF8);
+		generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+		generator.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+		try {
+			generator.writeStartObject();
+			generator.writeArrayFieldStart(Constants.EVENTS);
+			for (Event event : events) {
+				writer.writeValue(generator, event);
+			}
+			generator.writeEndArray();
+			generator.flush();
+
+			generator.writeArrayFieldStart(Constants.CLIENTS);
+			for (int i = 0; i < clientIdList.size(); i = i + CLIENTS_FETCH_BATCH_SIZE) {
+				if (i > 0) {
+					try {
+						clients = findClientBatch(
+							clientIdList.subList(i, Math.min(i + CLIENTS_FETCH_BATCH_SIZE, clientIdList.size())),
+							maskData, startTime);
+					}
+					catch (RuntimeException e) {
+						throw new ResponseAbortedException("Failed to query the clients of a streamed response", e);
 					}
 				}
+				for (Client client : clients) {
+					writer.writeValue(generator, client);
+				}
+				generator.flush();
+			}
+			generator.writeEndArray();
+			logger.info("streaming clients took: " + (System.currentTimeMillis() - startTime));
+
+			generator.writeNumberField(Constants.NO_OF_EVENTS, events.size());
+			generator.writeNumberField(TOTAL_RECORDS, totalRecords);
+			generator.writeEndObject();
+		}
+		finally {
+			generator.close();
+		}
+	}
+
+	/**
+	 * Fetch one batch of clients to stream, including the missing clients if enabled
+	 */
+	private List<Client> findClientBatch(List<String> baseEntityIds, boolean maskData, long startTime) {
+		List<Client> clients = new ArrayList<>(clientService.findByFieldValue(BASE_ENTITY_ID, baseEntityIds));
+		searchMissingClients(baseEntityIds, clients, startTime);
+		if (maskData) {
+			new MaskingUtils().processDataMasking(clients);
+		}
+		return clients;
+	}
+
+	/**
+	 * Fetch the clients with the given base entity ids in batches, including the missing clients if
+	 * enabled
+	 */
+	private List<Client> findClients(Collection<String> baseEntityIds, long startTime) {
+		List<String> clientIds = new ArrayList<>(baseEntityIds);
+		List<Client> clients = new ArrayList<>();
+		for (int i = 0; i < clientIds.size(); i = i + CLIENTS_FETCH_BATCH_SIZE) {
+			int end = Math.min(i + CLIENTS_FETCH_BATCH_SIZE, clientIds.size());
+			clients.addAll(clientService.findByFieldValue(BASE_ENTITY_ID, clientIds.subList(i, end)));
+		}
+		logger.info("fetching clients took: " + (System.currentTimeMillis() - startTime));
+
+		searchMissingClients(clientIds, clients, startTime);
+		return clients;
+	}
+
+	/**
+	 * Collects the distinct base entity ids of the events in the order the events are returned
+	 *
+	 * @param events the events
+	 * @return the base entity ids of the events
+	 */
+	static Set<String> getClientIds(List<Event> events) {
+		Set<String> clientIds = new LinkedHashSet<>();
+		for (Event event : events) {
+			if (org.apache.commons.lang.StringUtils.isNotBlank(event.getBaseEntityId())) {
+				clientIds.add(event.getBaseEntityId());
+			}
+		}
+		return clientIds;
+	}
+
+	/**
+	 * Returns the ids of the clients that were not found, in the order of the ids
+	 *
+	 * @param clientIds the base entity ids of the clients expected
+	 * @param clients   the clients found
+	 * @return the base entity ids not matching any of the clients
+	 */
+	static Set<String> getMissingClientIds(Collection<String> clientIds, List<Client> clients) {
+		Set<String> missingClientIds = new LinkedHashSet<>(clientIds);
+		for (Client client : clients) {
+			missingClientIds.remove(client.getBaseEntityId());
+		}
+		return missingClientIds;
+	}
+
+	private boolean isPIIDataMaskingRequired() {
+		Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+		User user = currentUser(authentication);
+		return Utils.checkRoleIfRoleExists(user.getRoles(), Role.PII_DATA_MASK);
+	}
+
+	/**
+	 * Looks up the clients that were not returned by the sync query, e.g. archived or migrated
+	 * clients, using batched queries instead of one query per client
+	 *
+	 * @param clientIds the base entity ids of the clients expected
+	 * @param clients   the clients found, missing clients are appended to it
+	 * @param startTime the time the sync started
+	 */
+	private void searchMissingClients(Collection<String> clientIds, List<Client> clients, long startTime) {
+		if (searchMissingClients) {
+
+			Set<String> missingClientIds = getMissingClientIds(clientIds, clients);
+			if (!missingClientIds.isEmpty()) {
+				Metrics.increment(MISSING_CLIENTS_FALLBACK_METRIC);
+				Metrics.add(MISSING_CLIENTS_SEARCHED_METRIC, missingClientIds.size());
+				List<String> missingClientIdList = new ArrayList<>(missingClientIds);
+				for (int i = 0; i < missingClientIdList.size(); i = i + CLIENTS_FETCH_BATCH_SIZE) {
+					int end = Math.min(i + CLIENTS_FETCH_BATCH_SIZE, missingClientIdList.size());
+					clients.addAll(
+							clientService.findGlobalByFieldValue(BASE_ENTITY_ID, missingClientIdList.subList(i, end)));
+				}
 			}
 			logger.info("fetching missing clients took: " + (System.currentTimeMillis() - startTime));
 		}
@@ -387,36 +754,34 @@ public class EventResource extends RestResource<Event> {
 		}
 	}
 
+	/**
+	 * Save uploaded clients and events. With async=true the payload is spooled and processed in the
+	 * background and a 202 response with the ingest job is returned; the job status is available at
+	 * /rest/ingest/{jobId}
+	 *
+	 * @param data  json with the clients and events arrays
+	 * @param async whether to process the payload in the background
+	 * @return 201 with the ids of the records that failed to save, or 202 with the ingest job
+	 */
 	@RequestMapping(headers = { "Accept=application/json" }, method = POST, value = "/add")
-	public ResponseEntity<String> save(@RequestBody String data, Authentication authentication) {
+	public ResponseEntity<String> save(@RequestBody String data,
+			@RequestParam(value = ASYNC, defaultValue = "false") boolean async, Authentication authentication)
+			throws IOException {
 
-		List<String> failedClientsIds = new ArrayList<>();
-		List<String> failedEventIds = new ArrayList<>();
 		Map<String, Object> response = new HashMap<String, Object>();
 		JSONObject syncData = new JSONObject(data);
 		if (!syncData.has("clients") && !syncData.has("events")) {
 			return new ResponseEntity<>(BAD_REQUEST);
 		}
 
-		if (syncData.has("clients")) {
-			ArrayList<Client> clients = gson.fromJson(Utils.getStringFromJSON(syncData, "clients"),
-					new TypeToken<ArrayList<Client>>() {
-
-					}.getType());
-			for (Client client : clients) {
-				clientService.addorUpdate(client);
-			}
+		String username = currentUser(authentication).getUsername();
+		if (async) {
+			return IngestJobResource.accepted(ingestJobService.submit(EVENT_INGEST_JOB, data, username), objectMapper);
 		}
-		if (syncData.has("events")) {
-			ArrayList<Event> events = gson.fromJson(Utils.getStringFromJSON(syncData, "events"),
-					new TypeToken<ArrayList<Event>>() {
 
-					}.getType());
-			for (Event event : events) {
-				event = eventService.processOutOfArea(event);
-				eventService.addorUpdateEvent(event, currentUser(authentication).getUsername());
-			}
-		}
+		Map<String, List<String>> failedRecords = saveClientsAndEvents(syncData, username);
+		List<String> failedClientsIds = failedRecords.get("failed_clients");
+		List<String> failedEventIds = failedRecords.get("failed_events");
 		if (failedClientsIds.isEmpty() && failedEventIds.isEmpty()) {
 			return new ResponseEntity<>(CREATED);
 		} else {
@@ -434,6 +799,110 @@ public class EventResource extends RestResource<Event> {
 		}
 	}
 
+	private Map<String, List<String>> saveClientsAndEvents(JSONObject syncData, String username) {
+		List<String> failedClientsIds = new ArrayList<>();
+		List<String> failedEventIds = new ArrayList<>();
+		if (syncData.has("clients")) {
+			ArrayList<Client> clients = gson.fromJson(Utils.getStringFromJSON(syncData, "clients"),
+					new TypeToken<ArrayList<Client>>() {
+
+					}.getType());
+			failedClientsIds = saveClients(clients);
+		}
+		if (syncData.has("events")) {
+			ArrayList<Event> events = gson.fromJson(Utils.getStringFromJSON(syncData, "events"),
+					new TypeToken<ArrayList<Event>>() {
+
+					}.getType());
+			failedEventIds = saveEvents(events, username);
+		}
+
+		Map<String, List<String>> failedRecords = new HashMap<>();
+		failedRecords.put("failed_clients", failedClientsIds);
+		failedRecords.put("failed_events", failedEventIds);
+		return failedRecords;
+	}
+
+	/**
+	 * Saves the clients in batches on the ingest worker pool
+	 *
+	 * @param clients the clients to save
+	 * @return base entity ids of the clients that failed to save
+	 */
+	private List<String> saveClients(List<Client> clients) {
+		return saveInBatches(Lists.partition(clients, ingestBatchSize), client -> clientService.addorUpdate(client),
+				Client::getBaseEntityId);
+	}
+
+	/**
+	 * Saves the events in batches on the ingest worker pool. Events are partitioned by base entity id
+	 * and a partition is never split across batches, so the events of a client are saved by one worker
+	 * in the order they were uploaded
+	 *
+	 * @param events   the events to save
+	 * @param username the user uploading the events
+	 * @return form submission ids of the events that failed to save
+	 */
+	private List<String> saveEvents(List<Event> events, String username) {
+		Map<String, List<Event>> eventsByBaseEntityId = new LinkedHashMap<>();
+		for (Event event : events) {
+			eventsByBaseEntityId.computeIfAbsent(event.getBaseEntityId(), key -> new ArrayList<>()).add(event);
+		}
+
+		List<List<Event>> batches = new ArrayList<>();
+		List<Event> batch = new ArrayList<>();
+		for (List<Event> partition : eventsByBaseEntityId.values()) {
+			if (!batch.isEmpty() && batch.size() + partition.size() > ingestBatchSize) {
+				batches.add(batch);
+				batch = new ArrayList<>();
+			}
+			batch.addAll(partition);
+		}
+		if (!batch.isEmpty()) {
+			batches.add(batch);
+		}
+
+		return saveInBatches(batches,
+				event -> eventService.addorUpdateEvent(eventService.processOutOfArea(event), username),
+				Event::getFormSubmissionId);
+	}
+
+	private <T> List<String> saveInBatches(List<List<T>> batches, Consumer<T> persister, Function<T, String> identifier) {
+		List<Future<List<String>>> futures = new ArrayList<>(batches.size());
+		for (List<T> batch : batches) {
+			futures.add(ingestExecutor.submit(() -> {
+				List<String> failedIds = new ArrayList<>();
+				for (T record : batch) {
+					try {
+						persister.accept(record);
+					}
+					catch (Exception e) {
+						logger.error("Failed to save " + identifier.apply(record), e);
+						failedIds.add(identifier.apply(record));
+					}
+				}
+				return failedIds;
+			}));
+		}
+
+		List<String> failedIds = new ArrayList<>();
+		for (int i = 0; i < futures.size(); i++) {
+			try {
+				failedIds.addAll(futures.get(i).get());
+			}
+			catch (InterruptedException | ExecutionException e) {
+				if (e instanceof InterruptedException) {
+					Thread.currentThread().interrupt();
+				}
+				logger.error("Failed to save batch", e);
+				for (T record : batches.get(i)) {
+					failedIds.add(identifier.apply(record));
+				}
+			}
+		}
+		return failedIds;
+	}
+
 	@Override
 	public Event create(Event o) {
 		Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
@@ -674,6 +1143,11 @@ public class EventResource extends RestResource<Event> {
 		this.clientService = clientService;
 	}
 
+	@Autowired
+	public void setIngestJobService(IngestJobService ingestJobService) {
+		this.ingestJobService = ingestJobService;
+	}
+
 	public void setMultimediaService(MultimediaService multimediaService) {
 		this.multimediaService = multimediaService;
 	}
@@ -0,0 +1,78 @@
+package org.opensrp.web.rest;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.opensrp.api.domain.User;
+import org.opensrp.web.ingest.IngestJob;
+import org.opensrp.web.ingest.IngestJobService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import java.io.IOException;
+
+import static org.opensrp.web.rest.RestUtils.currentUser;
+import static org.opensrp.web.rest.RestUtils.getJSONUTF8Headers;
+import static org.springframework.http.HttpStatus.ACCEPTED;
+import static org.springframework.http.HttpStatus.NOT_FOUND;
+import static org.springframework.http.HttpStatus.OK;
+
+/**
+ * Reports the status of the uploads accepted for asynchronous processing
+ */
+@Controller
+@RequestMapping(value = "/rest/ingest")
+public class IngestJobResource {
+
+	private IngestJobService ingestJobService;
+
+	private ObjectMapper objectMapper;
+
+	/**
+	 * Get the status of an ingest job. Users can only see the jobs they submitted
+	 *
+	 * @param jobId the job id returned when the upload was accepted
+	 * @return the job or 404 if there is no such job for the user
+	 */
+	@RequestMapping(value = "/{jobId}", method = RequestMethod.GET, produces = { MediaType.APPLICATION_JSON_VALUE })
+	public ResponseEntity<String> getJob(@PathVariable("jobId") String jobId, Authentication authentication)
+			throws IOException {
+		IngestJob job = ingestJobService.getJob(jobId);
+		User user = currentUser(authentication);
+		if (job == null || user == null || !user.getUsername().equals(job.getUsername())) {
+			return new ResponseEntity<>(NOT_FOUND);
+		}
+		return new ResponseEntity<>(objectMapper.writeValueAsString(job), getJSONUTF8Headers(), OK);
+	}
+
+	/**
+	 * Creates the 202 response for an upload accepted for asynchronous processing
+	 *
+	 * @param job the ingest job
+	 * @return the response with the job and its status url
+	 */
+	public static ResponseEntity<String> accepted(IngestJob job, ObjectMapper objectMapper)
+			throws JsonProcessingException {
+		HttpHeaders headers = getJSONUTF8Headers();
+		headers.setLocation(ServletUriComponentsBuilder.fromCurrentContextPath().path("/rest/ingest/{jobId}")
+				.buildAndExpand(job.getJobId()).toUri());
+		return new ResponseEntity<>(objectMapper.writeValueAsString(job), headers, ACCEPTED);
+	}
+
+	@Autowired
+	public void setIngestJobService(IngestJobService ingestJobService) {
+		this.ingestJobService = ingestJobService;
+	}
+
+	@Autowired
+	public void setObjectMapper(ObjectMapper objectMapper) {
+		this.objectMapper = objectMapper;
+	}
+}
@@ -1,10 +1,12 @@
 package org.opensrp.web.rest;
 
 import static org.opensrp.common.AllConstants.OpenSRPEvent.Form.SERVER_VERSION;
+import static org.opensrp.web.Constants.ASYNC;
 import static org.opensrp.web.Constants.DEFAULT_GET_ALL_IDS_LIMIT;
 import static org.opensrp.web.Constants.DEFAULT_LIMIT;
 import static org.opensrp.web.Constants.LIMIT;
 import static org.opensrp.web.Constants.RETURN_COUNT;
+import static org.opensrp.web.Constants.STREAM;
 import static org.opensrp.web.Constants.TOTAL_RECORDS;
 import static org.opensrp.web.Constants.PAGE_NUMBER;
 import static org.opensrp.web.Constants.ORDER_BY_TYPE;
@@ -12,26 +14,48 @@ import static org.opensrp.web.Constants.ORDER_BY_FIELD_NAME;
 import static org.opensrp.web.config.SwaggerDocStringHelper.GET_LOCATION_TREE_BY_ID_ENDPOINT;
 import static org.opensrp.web.config.SwaggerDocStringHelper.GET_LOCATION_TREE_BY_ID_ENDPOINT_NOTES;
 import static org.opensrp.web.config.SwaggerDocStringHelper.LOCATION_RESOURCE;
+import static org.opensrp.web.rest.RestUtils.currentUser;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.opensrp.api.domain.User;
 import org.opensrp.api.util.LocationTree;
 import org.opensrp.common.AllConstants.BaseEntity;
 import org.opensrp.connector.dhis2.location.DHIS2ImportOrganizationUnits;
 import org.opensrp.connector.dhis2.location.DHIS2ImportLocationsStatusService;
 import org.opensrp.domain.LocationDetail;
 import org.opensrp.web.Constants;
+import org.opensrp.web.utils.LocationUtils;
 import org.opensrp.web.utils.Utils;
 import org.smartregister.domain.Jurisdiction;
 import org.smartregister.domain.LocationProperty;
@@ -44,15 +68,27 @@ import org.opensrp.service.PlanService;
 import org.smartregister.utils.PropertiesConverter;
 import org.opensrp.web.bean.Identifier;
 import org.opensrp.web.bean.LocationSearchcBean;
+import org.opensrp.web.exceptions.ResponseAbortedException;
+import org.opensrp.web.exceptions.TileSourceLoadingException;
+import org.opensrp.web.exceptions.TileSourceTooLargeException;
+import org.opensrp.web.ingest.IngestJobService;
+import org.opensrp.web.location.LocationImportHandler;
+import org.opensrp.web.location.LocationTileService;
+import org.opensrp.web.location.LocationTreeService;
+import org.opensrp.web.location.StructureSpatialIndex;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.ModelMap;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
@@ -61,10 +97,17 @@ import org.springframework.web.bind.annotation.PostMapping;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.collect.Lists;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 import com.google.gson.JsonSyntaxException;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonWriter;
 
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
@@ -117,6 +160,16 @@ public class LocationResource {
 
 	public static final String INCLUDE_INACTIVE = "includeInactive";
 
+	public static final String COORDINATE_PRECISION = "coordinate_precision";
+
+	public static final String VECTOR_TILE_MEDIA_TYPE = "application/vnd.mapbox-vector-tile";
+
+	public static final String TILE_RETRY_AFTER_SECONDS = "5";
+
+	public static final String JURISDICTION_IMPORT_JOB = "jurisdiction";
+
+	public static final String STRUCTURE_IMPORT_JOB = "structure";
+
 	private PhysicalLocationService locationService;
 	
 	private PlanService planService;
@@ -125,6 +178,27 @@ public class LocationResource {
 
 	private DHIS2ImportLocationsStatusService dhis2ImportLocationsStatusService;
 
+	private LocationTreeService locationTreeService;
+
+	private StructureSpatialIndex structureSpatialIndex;
+
+	private LocationTileService locationTileService;
+
+	private IngestJobService ingestJobService;
+
+	private ExecutorService importExecutor;
+
+	private ObjectMapper objectMapper = new ObjectMapper();
+
+	@Value("#{opensrp['opensrp.location.sync.stream.batch.size'] ?: 20}")
+	private int streamBatchSize = 20;
+
+	@Value("#{opensrp['opensrp.location.import.threads'] ?: T(java.lang.Runtime).getRuntime().availableProcessors()}")
+	private int importThreads = Runtime.getRuntime().availableProcessors();
+
+	@Value("#{opensrp['opensrp.location.import.batch.size'] ?: 1000}")
+	private int importBatchSize = 1000;
+
 	@Autowired
 	public void setLocationService(PhysicalLocationService locationService) {
 		this.locationService = locationService;
@@ -145,6 +219,52 @@ public class LocationResource {
 		this.dhis2ImportLocationsStatusService = dhis2ImportLocationsStatusService;
 	}
 
+	@Autowired(required = false)
+	public void setLocationTreeService(LocationTreeService locationTreeService) {
+		this.locationTreeService = locationTreeService;
+	}
+
+	@Autowired(required = false)
+	public void setStructureSpatialIndex(StructureSpatialIndex structureSpatialIndex) {
+		this.structureSpatialIndex = structureSpatialIndex;
+	}
+
+	@Autowired(required = false)
+	public void setLocationTileService(LocationTileService locationTileService) {
+		this.locationTileService = locationTileService;
+	}
+
+	@Autowired(required = false)
+	public void setIngestJobService(IngestJobService ingestJobService) {
+		this.ingestJobService = ingestJobService;
+	}
+
+	/**
+	 * Creates the bounded pool validating imported locations and registers the location import
+	 * handlers, which resumes the imports interrupted by a restart
+	 */
+	@PostConstruct
+	public void registerImportHandlers() {
+		if (ingestJobService == null) {
+			return;
+		}
+		importExecutor = new ThreadPoolExecutor(importThreads, importThreads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(importThreads * 4),
+				new ThreadFactoryBuilder().setNameFormat("location-import-%d").setDaemon(true).build(),
+				new ThreadPoolExecutor.CallerRunsPolicy());
+		ingestJobService.registerHandler(JURISDICTION_IMPORT_JOB, new LocationImportHandler(true,
+				locations -> saveLocations(locations, true), importExecutor, importThreads, importBatchSize));
+		ingestJobService.registerHandler(STRUCTURE_IMPORT_JOB, new LocationImportHandler(false,
+				locations -> saveLocations(locations, false), importExecutor, importThreads, importBatchSize));
+	}
+
+	@PreDestroy
+	public void shutdownImportExecutor() {
+		if (importExecutor != null) {
+			importExecutor.shutdown();
+		}
+	}
+
 	@RequestMapping(value = "/{id}", method = RequestMethod.GET, produces = { MediaType.APPLICATION_JSON_VALUE })
 	@ApiOperation(value = GET_LOCATION_TREE_BY_ID_ENDPOINT, notes = GET_LOCATION_TREE_BY_ID_ENDPOINT_NOTES)
 	public ResponseEntity<String> getByUniqueId(@PathVariable("id") String id,
@@ -159,9 +279,59 @@ public class LocationResource {
 				RestUtils.getJSONUTF8Headers(), HttpStatus.OK);
 	}
 
+	/**
+	 * Gets a Mapbox Vector Tile of a jurisdiction with a layer of the jurisdiction and its descendants
+	 * and, from {@code opensrp.location.tiles.structure.min.zoom}, a layer of their structures. The
+	 * ETag of the tile changes when any of them changes.
+	 *
+	 * @param id          the id of the jurisdiction
+	 * @param z           the zoom of the tile
+	 * @param x           the column of the tile
+	 * @param y           the row of the tile
+	 * @param ifNoneMatch the ETag of the tile cached by the client
+	 * @return the tile, 304 if the client has the current tile, 404 if the jurisdiction does not exist,
+	 *         400 if it has too many features to be served as tiles or 503 with a Retry-After header
+	 *         while its geometries are loaded
+	 */
+	@GetMapping(value = "/{id}/tiles/{z}/{x}/{y}", produces = VECTOR_TILE_MEDIA_TYPE)
+	public ResponseEntity<byte[]> getTile(@PathVariable("id") String id, @PathVariable("z") int z,
+			@PathVariable("x") int x, @PathVariable("y") int y,
+			@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+		if (locationTileService == null) {
+			return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+		}
+		if (z < 0 || z > LocationTileService.MAX_ZOOM || x < 0 || y < 0 || x >= 1 << z || y >= 1 << z) {
+			return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+		}
+		try {
+			Long version = locationTileService.getVersion(id);
+			if (version == null) {
+				return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+			}
+			HttpHeaders headers = new HttpHeaders();
+			headers.setETag("\"" + version + "\"");
+			headers.setCacheControl(CacheControl.noCache().cachePrivate());
+			if (RestUtils.matchesETag(ifNoneMatch, headers.getETag())) {
+				return new ResponseEntity<>(headers, HttpStatus.NOT_MODIFIED);
+			}
+			headers.setContentType(MediaType.parseMediaType(VECTOR_TILE_MEDIA_TYPE));
+			return new ResponseEntity<>(locationTileService.getTile(id, z, x, y), headers, HttpStatus.OK);
+		}
+		catch (TileSourceTooLargeException e) {
+			logger.warn(e.getMessage());
+			return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+		}
+		catch (TileSourceLoadingException e) {
+			HttpHeaders headers = new HttpHeaders();
+			headers.set(HttpHeaders.RETRY_AFTER, TILE_RETRY_AFTER_SECONDS);
+			return new ResponseEntity<>(headers, HttpStatus.SERVICE_UNAVAILABLE);
+		}
+	}
+
 	@RequestMapping(value = "/sync", method = RequestMethod.POST, consumes = { MediaType.APPLICATION_JSON_VALUE },
 			produces = { MediaType.APPLICATION_JSON_VALUE })
-	public ResponseEntity<String> getLocations(@RequestBody LocationSyncRequestWrapper locationSyncRequestWrapper) {
+	public ResponseEntity<String> getLocations(@RequestBody LocationSyncRequestWrapper locationSyncRequestWrapper,
+			HttpServletResponse response) throws IOException {
 		long currentServerVersion = 0;
 		try {
 			currentServerVersion = locationSyncRequestWrapper.getServerVersion();
@@ -175,30 +345,54 @@ public class LocationResource {
 		String parentIds = StringUtils.join(locationSyncRequestWrapper.getParentId(), ",");
 		List<String> locationIds=locationSyncRequestWrapper.getLocationIds();
 		boolean returnCount = locationSyncRequestWrapper.isReturnCount();
+		Integer coordinatePrecision = locationSyncRequestWrapper.getCoordinatePrecision();
+		if (coordinatePrecision != null && !LocationUtils.isValidCoordinatePrecision(coordinatePrecision)) {
+			return new ResponseEntity<>(COORDINATE_PRECISION + " must be between 0 and "
+					+ LocationUtils.MAX_COORDINATE_PRECISION, HttpStatus.BAD_REQUEST);
+		}
+		boolean stream = locationSyncRequestWrapper.isStream() || coordinatePrecision != null;
+		final long serverVersion = currentServerVersion;
 
 		HttpHeaders headers = RestUtils.getJSONUTF8Headers();
 		Long locationCount = 0l;
 		if (isJurisdiction) {
 			String locations="[]";
 			if (locationIds != null && !locationIds.isEmpty()) {
-				locations = gson.toJson(locationService.findLocationsByIds(true, locationIds,currentServerVersion));
 				if (returnCount) {
 					locationCount = locationService.countLocationsByIds(locationIds, currentServerVersion);
 					headers.add(TOTAL_RECORDS, String.valueOf(locationCount));
 				}
+				if (stream) {
+					writeLocations(response, headers, chunks(locationIds,
+						ids -> locationService.findLocationsByIds(true, ids, serverVersion)), coordinatePrecision);
+					return null;
+				}
+				locations = gson.toJson(locationService.findLocationsByIds(true, locationIds,currentServerVersion));
 			} else if (StringUtils.isBlank(locationNames)) {
-				locations = gson.toJson(locationService.findLocationsByServerVersion(currentServerVersion));
 				if (returnCount) {
 					locationCount = locationService.countLocationsByServerVersion(currentServerVersion);
 					headers.add(TOTAL_RECORDS, String.valueOf(locationCount));
 				}
+				if (stream) {
+					writeLocations(response, headers,
+						Collections.singletonList(() -> locationService.findLocationsByServerVersion(serverVersion)),
+						coordinatePrecision);
+					return null;
+				}
+				locations = gson.toJson(locationService.findLocationsByServerVersion(currentServerVersion));
 			} else {
 
-				locations = gson.toJson(locationService.findLocationsByNames(locationNames, currentServerVersion));
 				if (returnCount) {
 					locationCount = locationService.countLocationsByNames(locationNames, currentServerVersion);
 					headers.add(TOTAL_RECORDS, String.valueOf(locationCount));
 				}
+				if (stream) {
+					writeLocations(response, headers, chunks(locationSyncRequestWrapper.getLocationNames(),
+						names -> locationService.findLocationsByNames(StringUtils.join(names, ","), serverVersion)),
+						coordinatePrecision);
+					return null;
+				}
+				locations = gson.toJson(locationService.findLocationsByNames(locationNames, currentServerVersion));
 			}
 			return new ResponseEntity<>(locations, headers, HttpStatus.OK);
 
@@ -207,24 +401,45 @@ public class LocationResource {
 				return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
 			}
 
-			String structures = gson.toJson(locationService.findStructuresByParentAndServerVersion(parentIds, currentServerVersion));
 			if (returnCount){
 				Long structureCount = locationService.countStructuresByParentAndServerVersion(parentIds, currentServerVersion);
 				headers.add(TOTAL_RECORDS, String.valueOf(structureCount));
 			}
+			if (stream) {
+				writeLocations(response, headers, chunks(locationSyncRequestWrapper.getParentId(),
+					ids -> locationService.findStructuresByParentAndServerVersion(StringUtils.join(ids, ","), serverVersion)),
+					coordinatePrecision);
+				return null;
+			}
+			String structures = gson.toJson(locationService.findStructuresByParentAndServerVersion(parentIds, currentServerVersion));
 			return new ResponseEntity<>(structures, headers, HttpStatus.OK);
 		}
 	}
 
+	/**
+	 * Gets the structures of a jurisdiction and of all the jurisdictions below it, streamed in chunks.
+	 * The ids of the jurisdictions come from the ancestor closure of the location hierarchy when it is
+	 * loaded.
+	 *
+	 * @param ancestorId    the id of the jurisdiction
+	 * @param serverVersion the server version to get the structures changed from
+	 * @return null as the structures are written to the response
+	 */
 	@RequestMapping(value = "/findStructuresByAncestor", method = RequestMethod.GET, produces = {MediaType.APPLICATION_JSON_VALUE})
-	public ResponseEntity<String> getStructuresByAncestor(@RequestParam(name = "id") final String ancestorId){
-		final long serverVersion = 0L;
-		List<PhysicalLocation> locationAndTheirChildren = locationService.findLocationByIdWithChildren(false, ancestorId, Integer.MAX_VALUE);
-		String parentIds = locationAndTheirChildren.stream()
-				.map(PhysicalLocation::getId)
-				.collect(Collectors.joining(","));
-		String structures = gson.toJson(locationService.findStructuresByParentAndServerVersion(parentIds, serverVersion));
-		return ResponseEntity.ok(structures);
+	public ResponseEntity<String> getStructuresByAncestor(@RequestParam(name = "id") final String ancestorId,
+			@RequestParam(value = BaseEntity.SERVER_VERSIOIN, defaultValue = "0", required = false) long serverVersion,
+			HttpServletResponse response) throws IOException {
+		Collection<String> jurisdictionIds = locationTreeService != null && locationTreeService.isLoaded()
+				? locationTreeService.findDescendantIds(ancestorId)
+				: Collections.emptySet();
+		if (jurisdictionIds.isEmpty()) {
+			jurisdictionIds = locationService.findLocationByIdWithChildren(false, ancestorId, Integer.MAX_VALUE).stream()
+					.map(PhysicalLocation::getId).collect(Collectors.toList());
+		}
+		writeLocations(response, new HttpHeaders(), chunks(new ArrayList<>(jurisdictionIds),
+			batch -> locationService.findStructuresByParentAndServerVersion(String.join(",", batch), serverVersion)),
+			null);
+		return null;
 	}
 
 	// here for backward compatibility
@@ -233,7 +448,10 @@ public class LocationResource {
 			@RequestParam(value = IS_JURISDICTION, defaultValue = FALSE, required = false) boolean isJurisdiction,
 			@RequestParam(value = LOCATION_NAMES, required = false) String locationNames,
 			@RequestParam(value = PARENT_ID, required = false) String parentIds,
-			@RequestParam(value = RETURN_COUNT, defaultValue = FALSE, required = false) boolean returnCount) {
+			@RequestParam(value = RETURN_COUNT, defaultValue = FALSE, required = false) boolean returnCount,
+			@RequestParam(value = STREAM, defaultValue = FALSE, required = false) boolean stream,
+			@RequestParam(value = COORDINATE_PRECISION, required = false) Integer coordinatePrecision,
+			HttpServletResponse response) throws IOException {
 		long currentServerVersion = 0;
 		try {
 			currentServerVersion = Long.parseLong(serverVersion);
@@ -241,34 +459,58 @@ public class LocationResource {
 		catch (NumberFormatException e) {
 			logger.error("server version not a number");
 		}
+		if (coordinatePrecision != null && !LocationUtils.isValidCoordinatePrecision(coordinatePrecision)) {
+			return new ResponseEntity<>(COORDINATE_PRECISION + " must be between 0 and "
+					+ LocationUtils.MAX_COORDINATE_PRECISION, HttpStatus.BAD_REQUEST);
+		}
+		stream = stream || coordinatePrecision != null;
+		final long version = currentServerVersion;
 
 		HttpHeaders headers = RestUtils.getJSONUTF8Headers();
 		Long locationCount = 0l;
 		if (isJurisdiction) {
 			if (StringUtils.isBlank(locationNames)) {
-				String locations = gson.toJson(locationService.findLocationsByServerVersion(currentServerVersion));
 				if (returnCount){
 					locationCount = locationService.countLocationsByServerVersion(currentServerVersion);
 					headers.add(TOTAL_RECORDS, String.valueOf(locationCount));
 				}
+				if (stream) {
+					writeLocations(response, headers,
+						Collections.singletonList(() -> locationService.findLocationsByServerVersion(version)),
+						coordinatePrecision);
+					return null;
+				}
+				String locations = gson.toJson(locationService.findLocationsByServerVersion(currentServerVersion));
 				return new ResponseEntity<>(locations, headers, HttpStatus.OK);
 			}
-			String locations = gson.toJson(locationService.findLocationsByNames(locationNames, currentServerVersion));
 			if (returnCount){
 				locationCount = locationService.countLocationsByNames(locationNames, currentServerVersion);
 				headers.add(TOTAL_RECORDS, String.valueOf(locationCount));
 			}
+			if (stream) {
+				writeLocations(response, headers, chunks(Arrays.asList(StringUtils.split(locationNames, ",")),
+					names -> locationService.findLocationsByNames(StringUtils.join(names, ","), version)),
+					coordinatePrecision);
+				return null;
+			}
+			String locations = gson.toJson(locationService.findLocationsByNames(locationNames, currentServerVersion));
 			return new ResponseEntity<>(locations, headers, HttpStatus.OK);
 
 		} else {
 			if (StringUtils.isBlank(parentIds)) {
 				return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
 			}
-			String structures = gson.toJson(locationService.findStructuresByParentAndServerVersion(parentIds, currentServerVersion));
 			if (returnCount){
 				Long structureCount = locationService.countStructuresByParentAndServerVersion(parentIds, currentServerVersion);
 				headers.add(TOTAL_RECORDS, String.valueOf(structureCount));
 			}
+			if (stream) {
+				writeLocations(response, headers, chunks(Arrays.asList(StringUtils.split(parentIds, ",")),
+					ids -> locationService.findStructuresByParentAndServerVersion(StringUtils.join(ids, ","), version)),
+					coordinatePrecision);
+				return null;
+			}
+			String structures = gson.toJson(locationService.findStructuresByParentAndServerVersion(parentIds, currentServerVersion));
 			return new ResponseEntity<>(structures, headers, HttpStatus.OK);
 		}
 	}
@@ -281,6 +523,7 @@ public class LocationResource {
 			PhysicalLocation location = gson.fromJson(entity, PhysicalLocation.class);
 			location.setJurisdiction(isJurisdiction);
 			locationService.add(location);
+			updateLocationIndexes(isJurisdiction, Collections.singletonList(location));
 			return new ResponseEntity<>(HttpStatus.CREATED);
 		}
 		catch (JsonSyntaxException e) {
@@ -297,6 +540,7 @@ public class LocationResource {
 			PhysicalLocation location = gson.fromJson(entity, PhysicalLocation.class);
 			location.setJurisdiction(isJurisdiction);
 			locationService.update(location);
+			updateLocationIndexes(isJurisdiction, Collections.singletonList(location));
 			return new ResponseEntity<>(HttpStatus.CREATED);
 		}
 		catch (JsonSyntaxException e) {
@@ -314,7 +558,7 @@ public class LocationResource {
 
 			}.getType();
 			List<PhysicalLocation> locations = gson.fromJson(entity, listType);
-			Set<String> locationWithErrors = locationService.saveLocations(locations, isJurisdiction);
+			Set<String> locationWithErrors = saveLocations(locations, isJurisdiction);
 			if (locationWithErrors.isEmpty())
 				return new ResponseEntity<>("All Locations  processed", HttpStatus.CREATED);
 			else
@@ -328,13 +572,40 @@ public class LocationResource {
 		}
 	}
 
+	/**
+	 * Imports a large JSON array of locations in the background. The upload is spooled as it is read
+	 * and imported in batches by a {@link LocationImportHandler}, the progress of the import and the
+	 * records that were invalid or failed to save are available at /rest/ingest/{jobId}
+	 *
+	 * @param request        the request with the JSON array of locations
+	 * @param isJurisdiction whether the locations are jurisdictions or structures
+	 * @return 202 with the ingest job
+	 */
+	@PostMapping(value = "/add", params = ASYNC + "=true", consumes = { MediaType.APPLICATION_JSON_VALUE,
+			MediaType.TEXT_PLAIN_VALUE })
+	public ResponseEntity<String> importLocationsAsync(HttpServletRequest request,
+			@RequestParam(value = IS_JURISDICTION, defaultValue = FALSE, required = false) boolean isJurisdiction,
+			Authentication authentication) throws IOException {
+		User user = currentUser(authentication);
+		if (user == null) {
+			return new ResponseEntity<>(HttpStatus.UNAUTHORIZED);
+		}
+		if (ingestJobService == null) {
+			return new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE);
+		}
+		return IngestJobResource.accepted(ingestJobService.submit(
+			isJurisdiction ? JURISDICTION_IMPORT_JOB : STRUCTURE_IMPORT_JOB, request.getInputStream(), user.getUsername()),
+			objectMapper);
+	}
+
 	@RequestMapping(value = "/findWithCordinates", method = RequestMethod.GET, produces = {
 			MediaType.APPLICATION_JSON_VALUE })
 	public ResponseEntity<String> getStructuresWithinCordinates(@RequestParam(value = LATITUDE) double latitude,
 			@RequestParam(value = LONGITUDE) double longitude, @RequestParam(value = RADIUS) double radius) {
 
-		Collection<StructureDetails> structures = locationService.findStructuresWithinRadius(latitude, longitude,
-				radius);
+		Collection<StructureDetails> structures = structureSpatialIndex != null && structureSpatialIndex.ensureLoaded()
+				? structureSpatialIndex.findWithinRadius(latitude, longitude, radius)
+				: locationService.findStructuresWithinRadius(latitude, longitude, radius);
 		return new ResponseEntity<>(gson.toJson(structures), RestUtils.getJSONUTF8Headers(), HttpStatus.OK);
 
 	}
@@ -641,6 +912,88 @@ public class LocationResource {
 		return locationService.buildLocationHeirarchyWithAncestors(locationId);
 	}
 
+	/**
+	 * Splits keys into batches of {@code streamBatchSize} and creates a query for each batch
+	 */
+	private List<Supplier<List<PhysicalLocation>>> chunks(List<String> keys,
+			Function<List<String>, List<PhysicalLocation>> query) {
+		return Lists.partition(keys, streamBatchSize).stream()
+				.map(batch -> (Supplier<List<PhysicalLocation>>) () -> query.apply(batch)).collect(Collectors.toList());
+	}
+
+	/**
+	 * Writes locations to the response as a JSON array, running the query of each chunk only when the
+	 * previous chunk has been written so that only one chunk of locations is held in memory at a time.
+	 * Coordinates are rounded to {@code coordinatePrecision} decimal places when it is set. The first
+	 * chunk is queried before the response is committed so that a failing query returns an error
+	 * status, a query failing after it aborts the response instead of ending it early.
+	 *
+	 * @param response            the servlet response to write to
+	 * @param headers             the headers to add to the response
+	 * @param chunks              the queries returning each chunk of locations
+	 * @param coordinatePrecision the number of decimal places to keep or null to keep all
+	 * @throws IOException if writing to the response fails
+	 * @throws ResponseAbortedException if the query of a chunk after the first fails
+	 */
+	private void writeLocations(HttpServletResponse response, HttpHeaders headers,
+			List<Supplier<List<PhysicalLocation>>> chunks, Integer coordinatePrecision) throws IOException {
+		Iterator<Supplier<List<PhysicalLocation>>> iterator = chunks.iterator();
+		List<PhysicalLocation> locations = iterator.hasNext() ? iterator.next().get() : null;
+		response.setStatus(HttpStatus.OK.value());
+		headers.forEach((name, values) -> values.forEach(value -> response.addHeader(name, value)));
+		response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+		response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+		JsonWriter writer = new JsonWriter(
+				new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8)));
+		writer.beginArray();
+		while (true) {
+			for (PhysicalLocation location : locations == null ? Collections.<PhysicalLocation> emptyList() : locations) {
+				if (coordinatePrecision == null) {
+					gson.toJson(location, PhysicalLocation.class, writer);
+					continue;
+				}
+				JsonObject feature = gson.toJsonTree(location, PhysicalLocation.class).getAsJsonObject();
+				JsonElement geometry = feature.get("geometry");
+				if (geometry != null && geometry.isJsonObject()
+						&& geometry.getAsJsonObject().get("coordinates") instanceof JsonArray) {
+					geometry.getAsJsonObject().add("coordinates", LocationUtils.reduceCoordinatePrecision(
+						geometry.getAsJsonObject().getAsJsonArray("coordinates"), coordinatePrecision));
+				}
+				gson.toJson(feature, writer);
+			}
+			writer.flush();
+			if (!iterator.hasNext()) {
+				break;
+			}
+			try {
+				locations = iterator.next().get();
+			}
+			catch (RuntimeException e) {
+				throw new ResponseAbortedException("Failed to query the locations of a streamed response", e);
+			}
+		}
+		writer.endArray();
+		writer.flush();
+	}
+
+	/**
+	 * @return the ids of the locations that failed to save
+	 */
+	private Set<String> saveLocations(List<PhysicalLocation> locations, boolean isJurisdiction) {
+		Set<String> locationsWithErrors = locationService.saveLocations(locations, isJurisdiction);
+		updateLocationIndexes(isJurisdiction, locations.stream()
+				.filter(location -> !locationsWithErrors.contains(location.getId())).collect(Collectors.toList()));
+		return locationsWithErrors;
+	}
+
+	private void updateLocationIndexes(boolean isJurisdiction, List<PhysicalLocation> locations) {
+		if (isJurisdiction && locationTreeService != null) {
+			locationTreeService.update(locations);
+		}
+		else if (!isJurisdiction && structureSpatialIndex != null) {
+			structureSpatialIndex.update(locations);
+		}
+	}
 
 	@Data
 	static class LocationSyncRequestWrapper {
@@ -663,6 +1016,12 @@ public class LocationResource {
 		@JsonProperty(RETURN_COUNT)
 		private boolean returnCount;
 
+		@JsonProperty(STREAM)
+		private boolean stream;
+
+		@JsonProperty(COORDINATE_PRECISION)
+		private Integer coordinatePrecision;
+
 	}
 
 }
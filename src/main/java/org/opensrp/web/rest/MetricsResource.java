@@ -0,0 +1,56 @@
+package org.opensrp.web.rest;
+
+import org.opensrp.web.GzipResponseStream;
+import org.opensrp.web.metrics.Metrics;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.opensrp.web.rest.RestUtils.getJSONUTF8Headers;
+import static org.springframework.http.HttpStatus.OK;
+
+/**
+ * Exposes the server side counters recorded in {@link Metrics}. Access is limited to users with the
+ * {@link org.opensrp.web.config.Role#VIEW_METRICS} role in the security configuration
+ */
+@Controller
+@RequestMapping(value = "/rest/metrics")
+public class MetricsResource {
+
+	@RequestMapping(method = RequestMethod.GET, produces = { MediaType.APPLICATION_JSON_VALUE })
+	public ResponseEntity<Map<String, Long>> getMetrics() {
+		return new ResponseEntity<>(Metrics.snapshot(), getJSONUTF8Headers(), OK);
+	}
+
+	/**
+	 * Gets the compression statistics of each content coding, the ratio is the number of bytes sent
+	 * divided by the number of bytes before compression
+	 *
+	 * @return the responses, bytes in, bytes out and ratio keyed by content coding
+	 */
+	@RequestMapping(value = "/compression", method = RequestMethod.GET, produces = {
+			MediaType.APPLICATION_JSON_VALUE })
+	public ResponseEntity<Map<String, Map<String, Number>>> getCompressionMetrics() {
+		String prefix = GzipResponseStream.COMPRESSION_METRIC + ".";
+		Map<String, Map<String, Number>> encodings = new TreeMap<>();
+		Metrics.snapshot().forEach((name, value) -> {
+			int separator = name.lastIndexOf('.');
+			if (name.startsWith(prefix) && separator > prefix.length()) {
+				encodings.computeIfAbsent(name.substring(prefix.length(), separator), encoding -> new TreeMap<>())
+						.put(name.substring(separator + 1), value);
+			}
+		});
+		encodings.values().forEach(statistics -> {
+			long bytesIn = statistics.getOrDefault("bytes_in", 0L).longValue();
+			if (bytesIn > 0) {
+				statistics.put("ratio", statistics.getOrDefault("bytes_out", 0L).doubleValue() / bytesIn);
+			}
+		});
+		return new ResponseEntity<>(encodings, getJSONUTF8Headers(), OK);
+	}
+}
@@ -14,9 +14,12 @@ import org.opensrp.service.OrganizationService;
 import org.opensrp.service.PhysicalLocationService;
 import org.opensrp.service.PlanService;
 import org.opensrp.service.PractitionerService;
+import org.opensrp.web.acl.AssignedLocationsCache;
 import org.opensrp.web.bean.OrganizationAssigmentBean;
 import org.opensrp.web.bean.UserAssignmentBean;
+import org.opensrp.web.controller.AuthenticationPayloadCache;
 import org.opensrp.web.controller.UserController;
+import org.opensrp.web.plan.PlanAssignmentIndex;
 import org.smartregister.domain.Jurisdiction;
 import org.smartregister.domain.PhysicalLocation;
 import org.smartregister.domain.PlanDefinition.PlanStatus;
@@ -66,6 +69,12 @@ public class OrganizationResource {
 
 	private PlanService planService;
 
+	private AssignedLocationsCache assignedLocationsCache;
+
+	private AuthenticationPayloadCache authenticationPayloadCache;
+
+	private PlanAssignmentIndex planAssignmentIndex;
+
 	@Autowired
 	private ObjectMapper objectMapper;
 
@@ -105,6 +114,30 @@ public class OrganizationResource {
 		this.planService = planService;
 	}
 
+	/**
+	 * @param assignedLocationsCache the assignedLocationsCache to set
+	 */
+	@Autowired(required = false)
+	public void setAssignedLocationsCache(AssignedLocationsCache assignedLocationsCache) {
+		this.assignedLocationsCache = assignedLocationsCache;
+	}
+
+	/**
+	 * @param authenticationPayloadCache the authenticationPayloadCache to set
+	 */
+	@Autowired(required = false)
+	public void setAuthenticationPayloadCache(AuthenticationPayloadCache authenticationPayloadCache) {
+		this.authenticationPayloadCache = authenticationPayloadCache;
+	}
+
+	/**
+	 * @param planAssignmentIndex the planAssignmentIndex to set
+	 */
+	@Autowired(required = false)
+	public void setPlanAssignmentIndex(PlanAssignmentIndex planAssignmentIndex) {
+		this.planAssignmentIndex = planAssignmentIndex;
+	}
+
 	/**
 	 * Gets all the organizations
 	 *
@@ -168,6 +201,7 @@ public class OrganizationResource {
 			@RequestBody Organization organization) {
 		try {
 			organizationService.updateOrganization(organization);
+			invalidateUserCaches(Collections.singleton(identifier));
 			return new ResponseEntity<>(HttpStatus.CREATED);
 		}
 		catch (IllegalArgumentException e) {
@@ -181,11 +215,13 @@ public class OrganizationResource {
 			MediaType.APPLICATION_JSON_VALUE }, consumes = { MediaType.APPLICATION_JSON_VALUE, MediaType.TEXT_PLAIN_VALUE })
 	public ResponseEntity<String> assignLocationAndPlan(
 			@RequestBody OrganizationAssigmentBean[] organizationAssigmentBeans) {
+		Set<String> organizationIdentifiers = new HashSet<>();
 		try {
 			for (OrganizationAssigmentBean organizationAssigmentBean : organizationAssigmentBeans) {
 				organizationService.assignLocationAndPlan(organizationAssigmentBean.getOrganization(),
 						organizationAssigmentBean.getJurisdiction(), organizationAssigmentBean.getPlan(),
 						organizationAssigmentBean.getFromDate(), organizationAssigmentBean.getToDate());
+				organizationIdentifiers.add(organizationAssigmentBean.getOrganization());
 			}
 			return new ResponseEntity<>(HttpStatus.OK);
 		}
@@ -193,6 +229,56 @@ public class OrganizationResource {
 			logger.error(e.getMessage(), e);
 			return new ResponseEntity<String>(e.getMessage(), HttpStatus.BAD_REQUEST);
 		}
+		finally {
+			invalidateUserCaches(organizationIdentifiers);
+		}
+	}
+
+	/**
+	 * Evicts the cached assigned locations and authentication payloads of the practitioners of
+	 * organizations that changed. The assigned locations are evicted on every change, as updating an
+	 * organization, e.g. deactivating it, also changes the locations its practitioners are assigned
+	 *
+	 * @param organizationIdentifiers the organizations that changed
+	 */
+	private void invalidateUserCaches(Set<String> organizationIdentifiers) {
+		boolean invalidateAssignedLocations = assignedLocationsCache != null;
+		boolean invalidatePlanAssignments = planAssignmentIndex != null;
+		if ((!invalidateAssignedLocations && !invalidatePlanAssignments && authenticationPayloadCache == null)
+				|| organizationIdentifiers.isEmpty()) {
+			return;
+		}
+		Set<String> usernames = new HashSet<>();
+		Set<Long> organizationIds = new HashSet<>();
+		for (String organizationIdentifier : organizationIdentifiers) {
+			try {
+				/**@formatter:off*/
+				practitionerService.getPractitionersByOrgIdentifier(organizationIdentifier)
+						.stream()
+						.map(Practitioner::getUsername)
+						.filter(StringUtils::isNotBlank)
+						.forEach(usernames::add);
+				/**@formatter:on*/
+				if (invalidatePlanAssignments) {
+					Organization organization = organizationService.getOrganization(organizationIdentifier);
+					if (organization != null) {
+						organizationIds.add(organization.getId());
+					}
+				}
+			}
+			catch (RuntimeException e) {
+				logger.error("Failed to get practitioners of organization " + organizationIdentifier, e);
+			}
+		}
+		if (invalidateAssignedLocations) {
+			assignedLocationsCache.invalidate(usernames);
+		}
+		if (invalidatePlanAssignments) {
+			planAssignmentIndex.invalidate(organizationIds);
+		}
+		if (authenticationPayloadCache != null) {
+			authenticationPayloadCache.invalidate(usernames);
+		}
 	}
 
 	@RequestMapping(value = "/assignedLocationsAndPlans/{identifier}", method = RequestMethod.GET, produces = {
@@ -339,15 +425,20 @@ public class OrganizationResource {
 			MediaType.APPLICATION_JSON_VALUE }, consumes = { MediaType.APPLICATION_JSON_VALUE, MediaType.TEXT_PLAIN_VALUE })
 	public ResponseEntity<String> saveMultipleOrganizations(@RequestBody Organization[] organizations) {
 		Set<String> unProcessedIds = new HashSet<>();
+		boolean updated = false;
 		for (Organization organization : organizations) {
 			try {
 				organizationService.addOrUpdateOrganization(organization);
+				updated = true;
 			}
 			catch (Exception exception) {
 				logger.error(exception.getMessage(), exception);
 				unProcessedIds.add(organization.getIdentifier());
 			}
 		}
+		if (updated && authenticationPayloadCache != null) {
+			authenticationPayloadCache.invalidateAll();
+		}
 
 		if (unProcessedIds.isEmpty())
 			return new ResponseEntity<>("All Organizations  processed", HttpStatus.CREATED);
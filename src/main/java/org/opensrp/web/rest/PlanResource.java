@@ -12,10 +12,18 @@ import static org.opensrp.web.Constants.PAGE_NUMBER;
 import static org.opensrp.web.Constants.PAGE_SIZE;
 import static org.opensrp.web.rest.RestUtils.getStringFilter;
 
+import java.io.IOException;
 import java.lang.reflect.Field;
 import java.sql.Time;
 import java.util.*;
-
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.servlet.http.HttpServletRequest;
 
 import org.apache.commons.lang3.StringUtils;
@@ -28,13 +36,23 @@ import org.opensrp.domain.LocationDetail;
 import org.opensrp.search.PlanSearchBean;
 import org.opensrp.service.PhysicalLocationService;
 import org.opensrp.service.PlanService;
+import org.opensrp.service.TaskService;
+import org.opensrp.web.controller.AuthenticationPayloadCache;
 import org.opensrp.util.DateTypeConverter;
 import org.opensrp.web.bean.Identifier;
+import org.opensrp.web.ingest.IngestJob;
+import org.opensrp.web.ingest.IngestJobService;
+import org.opensrp.web.location.LocationTreeService;
+import org.opensrp.web.plan.PlanAssignmentIndex;
+import org.opensrp.web.plan.PlanTaskGenerator;
 import org.opensrp.web.utils.Utils;
 import org.smartregister.domain.PlanDefinition;
+import org.smartregister.domain.PlanDefinition.PlanStatus;
+import org.smartregister.domain.User;
 import org.smartregister.utils.TaskDateTimeTypeConverter;
 import org.smartregister.utils.TimingRepeatTimeTypeConverter;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
@@ -47,8 +65,11 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonSyntaxException;
@@ -73,6 +94,32 @@ public class PlanResource {
 	
 	private PhysicalLocationService locationService;
 
+	private AuthenticationPayloadCache authenticationPayloadCache;
+
+	private IngestJobService ingestJobService;
+
+	private TaskService taskService;
+
+	private LocationTreeService locationTreeService;
+
+	private PlanAssignmentIndex planAssignmentIndex;
+
+	private ObjectMapper objectMapper = new ObjectMapper();
+
+	@Value("#{opensrp['opensrp.plan.task.generation.enabled'] ?: false}")
+	private boolean taskGenerationEnabled;
+
+	@Value("#{opensrp['opensrp.plan.assignment.index.enabled'] ?: false}")
+	private boolean planAssignmentIndexEnabled;
+
+	@Value("#{opensrp['opensrp.plan.task.generation.threads'] ?: T(java.lang.Runtime).getRuntime().availableProcessors()}")
+	private int taskGenerationThreads = Runtime.getRuntime().availableProcessors();
+
+	@Value("#{opensrp['opensrp.plan.task.generation.batch.size'] ?: 1000}")
+	private int taskGenerationBatchSize = 1000;
+
+	private ExecutorService taskGenerationExecutor;
+
 	private static final String IS_DELETED = "is_deleted";
 
 	private static final String FALSE = "false";
@@ -93,6 +140,12 @@ public class PlanResource {
 	
 	public static final String OPENSRP_EVENT_ID = "opensrpEventId";
 
+	public static final String PLAN_TASKS_JOB = "plantasks";
+
+	private static final String IDENTIFIER_FIELD = "identifier";
+
+	private static final String SERVER_VERSION_FIELD = "serverVersion";
+
 	@Autowired
 	public void setPlanService(PlanService planService) {
 		this.planService = planService;
@@ -102,6 +155,55 @@ public class PlanResource {
 	public void setLocationService(PhysicalLocationService locationService) {
 		this.locationService = locationService;
 	}
+
+	@Autowired(required = false)
+	public void setAuthenticationPayloadCache(AuthenticationPayloadCache authenticationPayloadCache) {
+		this.authenticationPayloadCache = authenticationPayloadCache;
+	}
+
+	@Autowired(required = false)
+	public void setIngestJobService(IngestJobService ingestJobService) {
+		this.ingestJobService = ingestJobService;
+	}
+
+	@Autowired(required = false)
+	public void setTaskService(TaskService taskService) {
+		this.taskService = taskService;
+	}
+
+	@Autowired(required = false)
+	public void setLocationTreeService(LocationTreeService locationTreeService) {
+		this.locationTreeService = locationTreeService;
+	}
+
+	@Autowired(required = false)
+	public void setPlanAssignmentIndex(PlanAssignmentIndex planAssignmentIndex) {
+		this.planAssignmentIndex = planAssignmentIndex;
+	}
+
+	/**
+	 * Registers the generator of the tasks of activated plans. Plans are processed as ingest jobs so
+	 * that their progress can be followed and an interrupted generation resumes after a restart
+	 */
+	@PostConstruct
+	public void registerTaskGenerator() {
+		if (ingestJobService == null || taskService == null) {
+			return;
+		}
+		taskGenerationExecutor = new ThreadPoolExecutor(taskGenerationThreads, taskGenerationThreads, 0L,
+		        TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(taskGenerationThreads * 4),
+		        new ThreadFactoryBuilder().setNameFormat("plan-tasks-%d").setDaemon(true).build(),
+		        new ThreadPoolExecutor.CallerRunsPolicy());
+		ingestJobService.registerHandler(PLAN_TASKS_JOB, new PlanTaskGenerator(taskService, locationService,
+		        locationTreeService, taskGenerationExecutor, taskGenerationThreads, taskGenerationBatchSize));
+	}
+
+	@PreDestroy
+	public void shutdownTaskGenerationExecutor() {
+		if (taskGenerationExecutor != null) {
+			taskGenerationExecutor.shutdown();
+		}
+	}
 	
 	@RequestMapping(value = "/{identifier}", method = RequestMethod.GET, produces = { MediaType.APPLICATION_JSON_VALUE })
 	public ResponseEntity<String> getPlanByUniqueId(@PathVariable("identifier") String identifier,
@@ -150,8 +252,10 @@ public class PlanResource {
 				return new ResponseEntity<>("Case triggered plan with opensrpEventId " + opensrpEventIdUseContext.getValueCodableConcept() + " already exists", HttpStatus.CONFLICT);
 			}
 				
-			planService.addPlan(plan, RestUtils.currentUser(authentication).getUsername());
-			return new ResponseEntity<>(HttpStatus.CREATED);
+			String username = RestUtils.currentUser(authentication).getUsername();
+			planService.addPlan(plan, username);
+			invalidateAuthenticationPayloads();
+			return new ResponseEntity<>(generateTasksOnActivation(plan, username), HttpStatus.CREATED);
 		}
 		catch (JsonSyntaxException e) {
 			logger.error("The request doesn't contain a valid plan representation",e);
@@ -164,8 +268,10 @@ public class PlanResource {
 	public ResponseEntity<HttpStatus> update(@RequestBody String entity, Authentication authentication) {
 		try {
 			PlanDefinition plan = gson.fromJson(entity, PlanDefinition.class);
-			planService.updatePlan(plan, RestUtils.currentUser(authentication).getUsername());
-			return new ResponseEntity<>(HttpStatus.CREATED);
+			String username = RestUtils.currentUser(authentication).getUsername();
+			planService.updatePlan(plan, username);
+			invalidateAuthenticationPayloads();
+			return new ResponseEntity<>(generateTasksOnActivation(plan, username), HttpStatus.CREATED);
 		}
 		catch (JsonSyntaxException e) {
 			logger.error("The request doesn't contain a valid plan representation", e);
@@ -174,6 +280,34 @@ public class PlanResource {
 
 	}
 	
+	/**
+	 * Generates the tasks of a plan that are missing in the background. The tasks of active plans
+	 * are generated when they are saved if task generation is enabled, this is used to generate them
+	 * again, e.g. after the locations of the plan changed. Every request queues a new job, even if
+	 * the plan did not change since the tasks were last generated
+	 *
+	 * @param identifier the plan identifier
+	 * @return the task generation job and its status url
+	 */
+	@RequestMapping(value = "/{identifier}/tasks", method = RequestMethod.POST, produces = {
+	        MediaType.APPLICATION_JSON_VALUE })
+	public ResponseEntity<String> generateTasks(@PathVariable("identifier") String identifier,
+	        Authentication authentication) throws IOException {
+		User user = RestUtils.currentUser(authentication);
+		if (user == null) {
+			return new ResponseEntity<>(HttpStatus.UNAUTHORIZED);
+		}
+		if (ingestJobService == null || taskService == null) {
+			return new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE);
+		}
+		PlanDefinition plan = planService.getPlan(identifier);
+		if (plan == null) {
+			return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+		}
+		return IngestJobResource.accepted(
+		    ingestJobService.resubmit(PLAN_TASKS_JOB, gson.toJson(plan), user.getUsername()), objectMapper);
+	}
+	
 	@RequestMapping(value = "/sync", method = RequestMethod.POST, consumes = {
 	        MediaType.APPLICATION_JSON_VALUE }, produces = { MediaType.APPLICATION_JSON_VALUE })
 	public ResponseEntity<String> syncByServerVersionAndAssignedPlansOnOrganization(
@@ -186,6 +320,9 @@ public class PlanResource {
 		if ((operationalAreaIds == null || operationalAreaIds.isEmpty()) && StringUtils.isBlank(username)) {
 			return new ResponseEntity<>("Sync Params missing", RestUtils.getJSONUTF8Headers(), HttpStatus.BAD_REQUEST);
 		}
+		if (usePlanAssignmentIndex()) {
+			return syncAssignedPlans(planSyncRequestWrapper, username, isTemplateParam);
+		}
 
 		List<PlanDefinition> plans;
 		Long planCount = 0l;
@@ -358,7 +495,12 @@ public class PlanResource {
 
 		List<PlanDefinition> plans;
 
-		plans = planService.getPlansByUsernameAndServerVersion(username, currentServerVersion, isTemplateParam);
+		if (usePlanAssignmentIndex()) {
+			plans = getChangedPlans(planAssignmentIndex.getPlanIdsByUsername(username), currentServerVersion, null,
+			    isTemplateParam);
+		} else {
+			plans = planService.getPlansByUsernameAndServerVersion(username, currentServerVersion, isTemplateParam);
+		}
 
 		return new ResponseEntity<>(gson.toJson(plans), RestUtils.getJSONUTF8Headers(), HttpStatus.OK);
 
@@ -391,6 +533,9 @@ public class PlanResource {
 		@JsonProperty(RETURN_COUNT)
 		private boolean returnCount;
 
+		@JsonProperty(FIELDS)
+		private List<String> fields;
+
 		public List<String> getOperationalAreaId() {
 			return operationalAreaId;
 		}
@@ -408,6 +553,10 @@ public class PlanResource {
 			return returnCount;
 		}
 
+		public List<String> getFields() {
+			return fields;
+		}
+
 	}
 
 	private PlanSearchBean createPlanSearchBean(boolean isTemplateParam, Integer pageNumber, Integer pageSize,
@@ -460,4 +609,114 @@ public class PlanResource {
 		return (plans != null && !plans.isEmpty()) ? false : true;
 	}
 	
+
+	/**
+	 * Queues the generation of the tasks of a plan saved as active when task generation is enabled
+	 *
+	 * @return the headers with the url of the task generation job, empty if no job was queued
+	 */
+	private HttpHeaders generateTasksOnActivation(PlanDefinition plan, String username) {
+		HttpHeaders headers = new HttpHeaders();
+		if (!taskGenerationEnabled || ingestJobService == null || taskService == null
+		        || !PlanStatus.ACTIVE.equals(plan.getStatus())) {
+			return headers;
+		}
+		try {
+			IngestJob job = ingestJobService.submit(PLAN_TASKS_JOB, gson.toJson(plan), username);
+			headers.setLocation(ServletUriComponentsBuilder.fromCurrentContextPath().path("/rest/ingest/{jobId}")
+			        .buildAndExpand(job.getJobId()).toUri());
+		}
+		catch (IOException e) {
+			logger.error("Failed to queue the task generation of plan " + plan.getIdentifier(), e);
+		}
+		return headers;
+	}
+
+	/**
+	 * @return true if plan sync resolves the assigned plans from the plan assignment index, which is
+	 *         enabled with opensrp.plan.assignment.index.enabled
+	 */
+	private boolean usePlanAssignmentIndex() {
+		return planAssignmentIndexEnabled && planAssignmentIndex != null;
+	}
+
+	/**
+	 * Syncs the plans assigned to the organizations of the request or to the user that changed since
+	 * the server version of the request. The assigned plans are resolved from the plan assignment
+	 * index and the count of plans is that of the plans returned, so no count query is made
+	 */
+	private ResponseEntity<String> syncAssignedPlans(PlanSyncRequestWrapper planSyncRequestWrapper, String username,
+	        boolean isTemplateParam) {
+		List<String> fields = planSyncRequestWrapper.getFields();
+		if (fields != null) {
+			for (String fieldName : fields) {
+				if (!doesObjectContainField(new PlanDefinition(), fieldName)) {
+					return new ResponseEntity<>(fieldName + " field is invalid", RestUtils.getJSONUTF8Headers(),
+					        HttpStatus.BAD_REQUEST);
+				}
+			}
+		}
+		Set<String> planIds;
+		if (planSyncRequestWrapper.getOrganizations() != null && !planSyncRequestWrapper.getOrganizations().isEmpty()) {
+			planIds = planAssignmentIndex.getPlanIdsByOrganizations(planSyncRequestWrapper.getOrganizations());
+		} else if (username != null) {
+			planIds = planAssignmentIndex.getPlanIdsByUsername(username);
+		} else {
+			return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+		}
+
+		List<PlanDefinition> plans = getChangedPlans(planIds, planSyncRequestWrapper.getServerVersion(), fields,
+		    isTemplateParam);
+		HttpHeaders headers = RestUtils.getJSONUTF8Headers();
+		if (planSyncRequestWrapper.isReturnCount()) {
+			headers.add(TOTAL_RECORDS, String.valueOf(plans.size()));
+		}
+		return new ResponseEntity<>(gson.toJson(plans), headers, HttpStatus.OK);
+	}
+
+	/**
+	 * Gets the plans whose server version is not below the given server version. The identifiers
+	 * and server versions of the plans are fetched first, then only the plans that changed are
+	 * fetched in full. When fields are requested the plans are fetched once with the fields
+	 * requested.
+	 *
+	 * @param planIds the identifiers of the plans
+	 * @param serverVersion the server version plans changed since
+	 * @param fields the fields to return, all fields if null or empty
+	 * @return the plans that changed
+	 */
+	private List<PlanDefinition> getChangedPlans(Set<String> planIds, long serverVersion, List<String> fields,
+	        boolean isTemplateParam) {
+		if (planIds.isEmpty()) {
+			return Collections.emptyList();
+		}
+		boolean allFields = fields == null || fields.isEmpty();
+		Set<String> projection = new LinkedHashSet<>();
+		if (!allFields) {
+			projection.addAll(fields);
+		}
+		projection.add(IDENTIFIER_FIELD);
+		projection.add(SERVER_VERSION_FIELD);
+		/** @formatter:off*/
+		List<PlanDefinition> plans = planService
+		        .getPlansByIdsReturnOptionalFields(new ArrayList<>(planIds), new ArrayList<>(projection), isTemplateParam)
+		        .stream()
+		        .filter(plan -> {
+			        Long planServerVersion = plan.getServerVersion();
+			        return planServerVersion != null && planServerVersion >= serverVersion;
+		        })
+		        .collect(Collectors.toList());
+		/** @formatter:on*/
+		if (allFields && !plans.isEmpty()) {
+			plans = planService.getPlansByIdsReturnOptionalFields(
+			    plans.stream().map(PlanDefinition::getIdentifier).collect(Collectors.toList()), null, isTemplateParam);
+		}
+		return plans;
+	}
+
+	private void invalidateAuthenticationPayloads() {
+		if (authenticationPayloadCache != null) {
+			authenticationPayloadCache.invalidateAll();
+		}
+	}
 }
@@ -12,6 +12,7 @@ import org.joda.time.LocalDate;
 import org.opensrp.search.BaseSearchBean;
 import org.opensrp.search.PractitionerSearchBean;
 import org.opensrp.service.PractitionerService;
+import org.opensrp.web.controller.AuthenticationPayloadCache;
 import org.opensrp.util.DateTypeConverter;
 import org.smartregister.domain.Practitioner;
 import org.smartregister.utils.TaskDateTimeTypeConverter;
@@ -45,6 +46,8 @@ public class PractitionerResource {
 
     private PractitionerService practitionerService;
 
+    private AuthenticationPayloadCache authenticationPayloadCache;
+
     public static final String IDENTIFIER = "identifier";
 
     public static final String USER_ID = "userId";
@@ -56,6 +59,11 @@ public class PractitionerResource {
         this.practitionerService = practitionerService;
     }
 
+    @Autowired(required = false)
+    public void setAuthenticationPayloadCache(AuthenticationPayloadCache authenticationPayloadCache) {
+        this.authenticationPayloadCache = authenticationPayloadCache;
+    }
+
     @RequestMapping(value = "/{identifier}", method = RequestMethod.GET, produces = {
             MediaType.APPLICATION_JSON_VALUE })
     public ResponseEntity<String> getPractitionerByUniqueId(@PathVariable(IDENTIFIER) String identifier) {
@@ -109,6 +117,7 @@ public class PractitionerResource {
         try {
             Practitioner practitioner = gson.fromJson(payload, Practitioner.class);
             practitionerService.addOrUpdatePractitioner(practitioner);
+            invalidateAuthenticationPayloads();
             return new ResponseEntity<>(HttpStatus.CREATED);
         }
         catch (JsonSyntaxException e) {
@@ -132,6 +141,7 @@ public class PractitionerResource {
     public ResponseEntity<String> delete(@PathVariable("identifier") String identifier) {
         try {
             practitionerService.deletePractitioner(identifier);
+            invalidateAuthenticationPayloads();
             return new ResponseEntity<>(HttpStatus.NO_CONTENT);
         }
         catch (IllegalArgumentException e) {
@@ -184,6 +194,7 @@ public class PractitionerResource {
                 }
             }
 
+            invalidateAuthenticationPayloads();
             if (unprocessedIds.isEmpty())
                 return new ResponseEntity<>("All Practitioners  processed", HttpStatus.CREATED);
             else
@@ -205,4 +216,10 @@ public class PractitionerResource {
 			return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
 		}
 	}
+
+    private void invalidateAuthenticationPayloads() {
+        if (authenticationPayloadCache != null) {
+            authenticationPayloadCache.invalidateAll();
+        }
+    }
 }
@@ -5,6 +5,8 @@ import com.google.gson.GsonBuilder;
 import com.google.gson.JsonSyntaxException;
 import com.google.gson.reflect.TypeToken;
 import java.lang.reflect.Type;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -14,10 +16,14 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.joda.time.DateTime;
 import org.joda.time.LocalDate;
+import org.smartregister.domain.Practitioner;
 import org.smartregister.domain.PractitionerRole;
 import org.opensrp.search.BaseSearchBean;
 import org.opensrp.search.PractitionerRoleSearchBean;
 import org.opensrp.service.PractitionerRoleService;
+import org.opensrp.service.PractitionerService;
+import org.opensrp.web.acl.AssignedLocationsCache;
+import org.opensrp.web.controller.AuthenticationPayloadCache;
 import org.opensrp.util.DateTypeConverter;
 import org.smartregister.utils.TaskDateTimeTypeConverter;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -48,6 +54,12 @@ public class PractitionerRoleResource {
 
     private PractitionerRoleService practitionerRoleService;
 
+    private PractitionerService practitionerService;
+
+    private AssignedLocationsCache assignedLocationsCache;
+
+    private AuthenticationPayloadCache authenticationPayloadCache;
+
     public static final String IDENTIFIER ="identifier";
 
     @Autowired
@@ -55,6 +67,21 @@ public class PractitionerRoleResource {
         this.practitionerRoleService = practitionerRoleService;
     }
 
+    @Autowired
+    public void setPractitionerService(PractitionerService practitionerService) {
+        this.practitionerService = practitionerService;
+    }
+
+    @Autowired(required = false)
+    public void setAssignedLocationsCache(AssignedLocationsCache assignedLocationsCache) {
+        this.assignedLocationsCache = assignedLocationsCache;
+    }
+
+    @Autowired(required = false)
+    public void setAuthenticationPayloadCache(AuthenticationPayloadCache authenticationPayloadCache) {
+        this.authenticationPayloadCache = authenticationPayloadCache;
+    }
+
     @RequestMapping(value = "/{identifier}", method = RequestMethod.GET, produces = {
             MediaType.APPLICATION_JSON_VALUE })
     public ResponseEntity<String> getPractitionerRoleByUniqueId(@PathVariable(IDENTIFIER) String identifier) {
@@ -94,7 +121,9 @@ public class PractitionerRoleResource {
     private ResponseEntity<String> savePractitionerRole(@RequestBody String entity) {
         try {
             PractitionerRole practitionerRole = gson.fromJson(entity, PractitionerRole.class);
+            Set<String> practitionerIdentifiers = getPractitionerIdentifiers(practitionerRole);
             practitionerRoleService.addOrUpdatePractitionerRole(practitionerRole);
+            invalidateUserCaches(practitionerIdentifiers);
             return new ResponseEntity<>(HttpStatus.CREATED);
         } catch (JsonSyntaxException e) {
             logger.error("The request doesn't contain a valid practitioner role representation" , e);
@@ -114,15 +143,18 @@ public class PractitionerRoleResource {
             }.getType();
 
             List<PractitionerRole> practitionerRoles = gson.fromJson(entity, listType);
+            Set<String> practitionerIdentifiers = new HashSet<>();
 
             for (PractitionerRole practitionerRole: practitionerRoles) {
                 try {
+                    practitionerIdentifiers.addAll(getPractitionerIdentifiers(practitionerRole));
                     practitionerRoleService.addOrUpdatePractitionerRole(practitionerRole);
                 } catch (Exception exception){
                     logger.error(exception.getMessage(), exception);
                     unprocessedIds.add(practitionerRole.getIdentifier());
                 }
             }
+            invalidateUserCaches(practitionerIdentifiers);
             if (unprocessedIds.isEmpty())
                 return new ResponseEntity<>("All Practitioner Roles processed", HttpStatus.CREATED);
             else
@@ -141,7 +173,14 @@ public class PractitionerRoleResource {
             MediaType.APPLICATION_JSON_VALUE })
     public ResponseEntity<String> delete(@PathVariable("identifier") String identifier) {
         try {
+            Set<String> practitionerIdentifiers = new HashSet<>();
+            PractitionerRole practitionerRole = assignedLocationsCache != null
+                    ? practitionerRoleService.getPractitionerRole(identifier) : null;
+            if (practitionerRole != null) {
+                practitionerIdentifiers.add(practitionerRole.getPractitionerIdentifier());
+            }
             practitionerRoleService.deletePractitionerRole(identifier);
+            invalidateUserCaches(practitionerIdentifiers);
             return new ResponseEntity<>(HttpStatus.NO_CONTENT);
         } catch (IllegalArgumentException e) {
             logger.error(e.getMessage(), e);
@@ -155,6 +194,7 @@ public class PractitionerRoleResource {
                                          @RequestParam(value = "practitioner", required = true) String practitionerIdentifier) {
         try {
             practitionerRoleService.deletePractitionerRole(organizationIdentifier, practitionerIdentifier);
+            invalidateUserCaches(Collections.singleton(practitionerIdentifier));
             return new ResponseEntity<>(HttpStatus.NO_CONTENT);
         } catch (IllegalArgumentException e) {
             logger.error(e.getMessage(), e);
@@ -186,4 +226,52 @@ public class PractitionerRoleResource {
         }
     }
 
+    /**
+     * Gets the practitioners whose organizations change when a practitioner role is saved, the
+     * practitioner of the role and the practitioner the role was previously assigned to
+     */
+    private Set<String> getPractitionerIdentifiers(PractitionerRole practitionerRole) {
+        Set<String> practitionerIdentifiers = new HashSet<>();
+        if (assignedLocationsCache == null) {
+            return practitionerIdentifiers;
+        }
+        practitionerIdentifiers.add(practitionerRole.getPractitionerIdentifier());
+        if (StringUtils.isNotBlank(practitionerRole.getIdentifier())) {
+            PractitionerRole existingRole = practitionerRoleService.getPractitionerRole(practitionerRole.getIdentifier());
+            if (existingRole != null) {
+                practitionerIdentifiers.add(existingRole.getPractitionerIdentifier());
+            }
+        }
+        return practitionerIdentifiers;
+    }
+
+    /**
+     * Evicts the cached data of users whose organizations changed. The assigned locations of the
+     * practitioners are evicted on all nodes so that they lose access to the locations of the
+     * organizations they left
+     *
+     * @param practitionerIdentifiers the practitioners whose roles changed
+     */
+    private void invalidateUserCaches(Collection<String> practitionerIdentifiers) {
+        if (authenticationPayloadCache != null) {
+            authenticationPayloadCache.invalidateAll();
+        }
+        if (assignedLocationsCache != null) {
+            Set<String> usernames = new HashSet<>();
+            for (String practitionerIdentifier : practitionerIdentifiers) {
+                if (StringUtils.isBlank(practitionerIdentifier)) {
+                    continue;
+                }
+                try {
+                    Practitioner practitioner = practitionerService.getPractitioner(practitionerIdentifier);
+                    if (practitioner != null && StringUtils.isNotBlank(practitioner.getUsername())) {
+                        usernames.add(practitioner.getUsername());
+                    }
+                } catch (RuntimeException e) {
+                    logger.error("Failed to get practitioner " + practitionerIdentifier, e);
+                }
+            }
+            assignedLocationsCache.invalidate(usernames);
+        }
+    }
 }
@@ -126,6 +126,30 @@ public class RestUtils {
 		return responseHeaders;
 	}
 
+	/**
+	 * Checks whether an If-None-Match header matches an ETag, comparing weak and strong ETags alike
+	 *
+	 * @param ifNoneMatch the If-None-Match header, may be null
+	 * @param eTag        the current ETag of the resource
+	 * @return true if the client has the current version of the resource
+	 */
+	public static boolean matchesETag(String ifNoneMatch, String eTag) {
+		if (ifNoneMatch == null) {
+			return false;
+		}
+		String version = eTag.startsWith("W/") ? eTag.substring(2) : eTag;
+		for (String candidate : ifNoneMatch.split(",")) {
+			candidate = candidate.trim();
+			if (candidate.startsWith("W/")) {
+				candidate = candidate.substring(2);
+			}
+			if (candidate.equals("*") || candidate.equals(version)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
     /**
      * Zips multimedia files and writes content to {@param zipOutputStream}
      *
@@ -19,6 +19,7 @@ import org.opensrp.dto.FailedRecordSummary;
 import org.opensrp.search.StockSearchBean;
 import org.opensrp.service.StockService;
 import org.opensrp.web.Constants;
+import org.opensrp.web.ingest.IngestJobService;
 import org.smartregister.domain.Inventory;
 import org.smartregister.domain.Stock;
 import org.smartregister.utils.DateTimeTypeConverter;
@@ -33,6 +34,7 @@ import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.annotation.PostConstruct;
 import javax.servlet.http.HttpServletRequest;
 import java.io.*;
 import java.net.URI;
@@ -43,6 +45,7 @@ import java.util.*;
 
 import static org.opensrp.common.AllConstants.Stock.*;
 import static org.opensrp.web.Constants.*;
+import static org.opensrp.web.rest.RestUtils.currentUser;
 import static org.opensrp.web.rest.RestUtils.getIntegerFilter;
 import static org.opensrp.web.rest.RestUtils.getStringFilter;
 import static org.springframework.http.HttpStatus.BAD_REQUEST;
@@ -57,6 +60,10 @@ public class StockResource extends RestResource<Stock> {
 
 	private StockService stockService;
 
+	private IngestJobService ingestJobService;
+
+	public static final String STOCK_INGEST_JOB = "stock";
+
 	Gson gson = new GsonBuilder().setDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ")
 			.registerTypeAdapter(DateTime.class, new DateTimeTypeConverter()).create();
 
@@ -154,26 +161,65 @@ public class StockResource extends RestResource<Stock> {
 		}
 	}
 
+	/**
+	 * Save uploaded stocks. With async=true the payload is spooled and processed in the background
+	 * and a 202 response with the ingest job is returned
+	 *
+	 * @param data  json with the stocks array
+	 * @param async whether to process the payload in the background
+	 * @return 201, or 202 with the ingest job
+	 */
 	@SuppressWarnings("unchecked")
 	@RequestMapping(headers = { "Accept=application/json" }, method = POST, value = "/add")
-	public ResponseEntity<HttpStatus> save(@RequestBody String data) {
+	public ResponseEntity<String> save(@RequestBody String data,
+			@RequestParam(value = ASYNC, defaultValue = "false") boolean async, Authentication authentication)
+			throws IOException {
 		JSONObject syncData = new JSONObject(data);
 		if (!syncData.has("stocks")) {
 			return new ResponseEntity<>(BAD_REQUEST);
 		}
+		if (async) {
+			return IngestJobResource.accepted(
+					ingestJobService.submit(STOCK_INGEST_JOB, data, currentUser(authentication).getUsername()),
+					objectMapper);
+		}
+		saveStocks(syncData);
+		return new ResponseEntity<>(CREATED);
+	}
+
+	private Map<String, List<String>> saveStocks(JSONObject syncData) {
 		ArrayList<Stock> stocks = (ArrayList<Stock>) gson.fromJson(syncData.getJSONArray("stocks").toString(),
 				new TypeToken<ArrayList<Stock>>() {
 
 				}.getType());
+		List<String> failedStockIds = new ArrayList<>();
 		for (Stock stock : stocks) {
 			try {
 				stockService.addorUpdateStock(stock);
 			}
 			catch (Exception e) {
 				logger.error("Stock" + stock.getId() + " failed to sync", e);
+				failedStockIds.add(stock.getId());
 			}
 		}
-		return new ResponseEntity<>(CREATED);
+		return Collections.singletonMap("failed_stocks", failedStockIds);
+	}
+
+	@Autowired
+	public void setIngestJobService(IngestJobService ingestJobService) {
+		this.ingestJobService = ingestJobService;
+	}
+
+	/**
+	 * Registers the handler persisting the stocks of asynchronous uploads once the resource is fully
+	 * initialized, since registering it resumes the jobs interrupted by a restart
+	 */
+	@PostConstruct
+	public void registerIngestHandler() {
+		if (ingestJobService == null) {
+			return;
+		}
+		ingestJobService.registerHandler(STOCK_INGEST_JOB, (payload, username) -> saveStocks(new JSONObject(payload)));
 	}
 
 	@Override
@@ -1,22 +1,45 @@
 package org.opensrp.web.rest;
 
 import static org.opensrp.common.AllConstants.OpenSRPEvent.Form.SERVER_VERSION;
+import static org.opensrp.web.Constants.CONTINUATION_TOKEN;
 import static org.opensrp.web.Constants.DEFAULT_GET_ALL_IDS_LIMIT;
 import static org.opensrp.web.Constants.DEFAULT_LIMIT;
 import static org.opensrp.web.Constants.LIMIT;
 import static org.opensrp.web.Constants.RETURN_COUNT;
 import static org.opensrp.web.Constants.TOTAL_RECORDS;
+import static org.opensrp.web.rest.RestUtils.getIntegerFilter;
 import static org.opensrp.web.rest.RestUtils.getStringFilter;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
 
 import org.apache.commons.lang3.StringUtils;
@@ -29,17 +52,21 @@ import org.opensrp.common.AllConstants.BaseEntity;
 import org.opensrp.domain.TaskUpdate;
 import org.opensrp.search.TaskSearchBean;
 import org.opensrp.service.TaskService;
+import org.opensrp.web.Constants;
 import org.opensrp.web.bean.Identifier;
 import org.opensrp.web.dto.TaskDto;
 import org.opensrp.web.dto.TaskSyncRequestWrapper;
+import org.opensrp.web.metrics.Metrics;
+import org.opensrp.web.utils.SyncContinuationToken;
 import org.opensrp.web.utils.Utils;
 import org.smartregister.domain.Period;
 import org.smartregister.domain.Task;
 import org.smartregister.domain.Task.TaskPriority;
 import org.smartregister.utils.PriorityOrdinalConverter;
 import org.smartregister.utils.TaskDateTimeTypeConverter;
-import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cglib.beans.BeanCopier;
 import org.springframework.context.annotation.Primary;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
@@ -54,10 +81,13 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonSyntaxException;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonWriter;
 
 /**
  * Task V1 API that returns {@link TaskPriority} as enum ordinal and execution collapsed
@@ -79,13 +109,59 @@ public class TaskResource {
 	
 	public static final String OWNER = "owner";
 	
+	public static final String BULK = "bulk";
+	
+	private static final String FALSE = "false";
+	
+	public static final String STATUS_UPDATE_METRIC = "task.status_update";
+	
+	public static final String SAVE_METRIC = "task.save";
+	
+	private static final int TASK_WRITE_BATCH_SIZE = 100;
+	
+	/**
+	 * Copiers generated once for the task properties, so converting a task does not introspect or
+	 * invoke its accessors reflectively
+	 */
+	private static final BeanCopier TASK_TO_DTO = BeanCopier.create(Task.class, TaskDto.class, false);
+	
+	private static final BeanCopier DTO_TO_TASK = BeanCopier.create(TaskDto.class, Task.class, false);
+	
 	private TaskService taskService;
 	
+	@Value("#{opensrp['opensrp.sync.task.page.size'] ?: 1000}")
+	private int syncPageSize = 1000;
+	
+	@Value("#{opensrp['opensrp.task.bulk.threads'] ?: 4}")
+	private int bulkThreads = 4;
+	
+	@Value("#{opensrp['opensrp.task.bulk.batch.size'] ?: 500}")
+	private int bulkBatchSize = 500;
+	
+	private ExecutorService bulkExecutor;
+	
 	@Autowired
 	public void setTaskService(TaskService taskService) {
 		this.taskService = taskService;
 	}
 	
+	/**
+	 * Creates the bounded worker pool used by bulk saves and status updates. When the pool and its
+	 * queue are full the request thread processes the batch itself
+	 */
+	@PostConstruct
+	public void initBulkExecutor() {
+		bulkExecutor = new ThreadPoolExecutor(bulkThreads, bulkThreads, 0L, TimeUnit.MILLISECONDS,
+		        new ArrayBlockingQueue<>(bulkThreads * 4),
+		        new ThreadFactoryBuilder().setNameFormat("task-bulk-%d").setDaemon(true).build(),
+		        new ThreadPoolExecutor.CallerRunsPolicy());
+	}
+	
+	@PreDestroy
+	public void shutdownBulkExecutor() {
+		bulkExecutor.shutdown();
+	}
+	
 	/**
 	 * @param gson the gson to set
 	 */
@@ -99,9 +175,17 @@ public class TaskResource {
 		        RestUtils.getJSONUTF8Headers(), HttpStatus.OK);
 	}
 	
+	/**
+	 * Fetch the tasks of a plan and groups, or of a plan and owner, changed after a serverVersion, one
+	 * page at a time, see {@link #getTaskSyncResponse}.
+	 *
+	 * @param taskSyncRequestWrapper the plan, groups or owner, serverVersion, limit and continuation token
+	 * @return the tasks, with the token resuming after them in the {@link Constants#CONTINUATION_TOKEN} header
+	 */
 	@RequestMapping(value = "/sync", method = RequestMethod.POST, consumes = {
 	        MediaType.APPLICATION_JSON_VALUE }, produces = { MediaType.APPLICATION_JSON_VALUE })
-	public ResponseEntity<String> getTasksByTaskAndGroup(@RequestBody TaskSyncRequestWrapper taskSyncRequestWrapper) {
+	public ResponseEntity<String> getTasksByTaskAndGroup(@RequestBody TaskSyncRequestWrapper taskSyncRequestWrapper,
+	        HttpServletResponse response) throws IOException {
 		String plan = StringUtils.join(taskSyncRequestWrapper.getPlan(), ",");
 		String group = StringUtils.join(taskSyncRequestWrapper.getGroup(), ",");
 		String owner = taskSyncRequestWrapper.getOwner();
@@ -115,12 +199,14 @@ public class TaskResource {
 		catch (NumberFormatException e) {
 			logger.error("server version not a number");
 		}
-		return getTaskSyncResponse(plan, group, owner, currentServerVersion, returnCount);
+		return getTaskSyncResponse(plan, group, owner, currentServerVersion, returnCount,
+		    taskSyncRequestWrapper.getLimit(), taskSyncRequestWrapper.getContinuationToken(), response);
 	}
 	
 	// here for backward compatibility
 	@RequestMapping(value = "/sync", method = RequestMethod.GET, produces = { MediaType.APPLICATION_JSON_VALUE })
-	public ResponseEntity<String> getTasksByTaskAndGroupTwo(HttpServletRequest request) {
+	public ResponseEntity<String> getTasksByTaskAndGroupTwo(HttpServletRequest request, HttpServletResponse response)
+	        throws IOException {
 		String plan = getStringFilter(PLAN, request);
 		String group = getStringFilter(GROUP, request);
 		String serverVersion = getStringFilter(BaseEntity.SERVER_VERSIOIN, request);
@@ -134,38 +220,134 @@ public class TaskResource {
 		catch (NumberFormatException e) {
 			logger.error("server version not a number");
 		}
-		return getTaskSyncResponse(plan, group, owner, currentServerVersion, returnCount);
+		return getTaskSyncResponse(plan, group, owner, currentServerVersion, returnCount,
+		    getIntegerFilter(LIMIT, request), getStringFilter(CONTINUATION_TOKEN, request), response);
 	}
 	
+	/**
+	 * Writes a page of the tasks of a plan and group, or of a plan and owner, to the response. A page
+	 * has at most {@code limit} tasks, and never more than {@code opensrp.sync.task.page.size} also
+	 * for clients that pass no limit. The token resuming after the page is returned in the
+	 * {@link Constants#CONTINUATION_TOKEN} header. Clients that do not follow tokens resume from the
+	 * highest serverVersion they received, tasks sharing it with the last task of the page may then
+	 * be skipped. Tasks of several groups are read one group at a time and each page reads its group
+	 * from the serverVersion it resumes from, so tasks of earlier serverVersions are not read again,
+	 * but the task service has no limited query: the first page of a group reads all of its tasks
+	 * changed since the requested serverVersion.
+	 */
 	private ResponseEntity<String> getTaskSyncResponse(String plan, String group, String owner, long currentServerVersion,
-	        boolean returnCount) {
+	        boolean returnCount, Integer limit, String continuationToken, HttpServletResponse response)
+	        throws IOException {
 		if (StringUtils.isBlank(plan)) {
 			logger.error("Plan Identifier is missing");
 			return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
 		}
 		
+		List<String> partitions;
+		BiFunction<String, Long, List<Task>> partitionTasks;
+		HttpHeaders headers = RestUtils.getJSONUTF8Headers();
 		if (!StringUtils.isBlank(group)) {
-			String tasks = gson.toJson(convertToDTO(taskService.getTasksByTaskAndGroup(plan, group, currentServerVersion)));
-			HttpHeaders headers = RestUtils.getJSONUTF8Headers();
+			partitions = new ArrayList<>(new LinkedHashSet<>(Arrays.asList(StringUtils.split(group, ","))));
+			partitionTasks = (partition, serverVersion) -> taskService.getTasksByTaskAndGroup(plan, partition,
+			    serverVersion);
 			if (returnCount) {
 				Long taskCount = taskService.countTasksByPlanAndGroup(plan, group, currentServerVersion);
 				headers.add(TOTAL_RECORDS, String.valueOf(taskCount));
 			}
-			
-			return new ResponseEntity<>(tasks, headers, HttpStatus.OK);
 		} else if (!StringUtils.isBlank(owner)) {
-			String tasks = gson.toJson(convertToDTO(taskService.getTasksByPlanAndOwner(plan, owner, currentServerVersion)));
-			HttpHeaders headers = RestUtils.getJSONUTF8Headers();
+			partitions = Collections.singletonList(owner);
+			partitionTasks = (partition, serverVersion) -> taskService.getTasksByPlanAndOwner(plan, partition,
+			    serverVersion);
 			if (returnCount) {
 				Long taskCount = taskService.countTasksByPlanAndOwner(plan, owner, currentServerVersion);
 				headers.add(TOTAL_RECORDS, String.valueOf(taskCount));
 			}
-			
-			return new ResponseEntity<>(tasks, headers, HttpStatus.OK);
 		} else {
 			logger.error("Either owner or group identifier field is missing");
 			return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
 		}
+		
+		String filterHash = SyncContinuationToken.filterHash(plan, group, owner, String.valueOf(currentServerVersion));
+		SyncContinuationToken token = null;
+		int start = 0;
+		if (!StringUtils.isBlank(continuationToken)) {
+			try {
+				token = SyncContinuationToken.decode(continuationToken);
+				start = partitions.indexOf(token.getPartition());
+				if (!token.matches(filterHash) || start < 0) {
+					throw new IllegalArgumentException("continuation token does not match the sync filters");
+				}
+			}
+			catch (IllegalArgumentException e) {
+				logger.error(e.getMessage());
+				return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+			}
+		}
+		
+		int pageSize = limit == null || limit <= 0 ? syncPageSize : Math.min(limit, syncPageSize);
+		List<Task> page = new ArrayList<>(Math.min(pageSize, 1000));
+		SyncContinuationToken next = null;
+		for (int i = start; i < partitions.size(); i++) {
+			String partition = partitions.get(i);
+			SyncContinuationToken resumeFrom = i == start && token != null && token.getIdentifier() != null ? token
+			        : null;
+			List<Task> tasks = partitionTasks.apply(partition,
+			    resumeFrom != null ? resumeFrom.getServerVersion() : currentServerVersion);
+			tasks = new ArrayList<>(tasks);
+			tasks.sort(SyncContinuationToken.order(TaskResource::serverVersion, Task::getIdentifier));
+			if (resumeFrom != null) {
+				tasks.removeIf(task -> !resumeFrom.isBefore(serverVersion(task), task.getIdentifier()));
+			}
+			
+			int remaining = pageSize - page.size();
+			if (tasks.size() > remaining) {
+				List<Task> partitionPage = tasks.subList(0, remaining);
+				SyncContinuationToken last = SyncContinuationToken.next(partitionPage, TaskResource::serverVersion,
+				    Task::getIdentifier, resumeFrom, filterHash);
+				next = new SyncContinuationToken(last.getServerVersion(), last.getIdentifier(), filterHash, partition);
+				page.addAll(partitionPage);
+				break;
+			}
+			page.addAll(tasks);
+			if (page.size() == pageSize && i + 1 < partitions.size()) {
+				next = new SyncContinuationToken(currentServerVersion, null, filterHash,
+				        partitions.get(i + 1));
+				break;
+			}
+		}
+		
+		if (next != null) {
+			headers.add(CONTINUATION_TOKEN, next.encode());
+		}
+		writeTasks(response, headers, page);
+		return null;
+	}
+	
+	private static long serverVersion(Task task) {
+		return task.getServerVersion() == null ? 0 : task.getServerVersion();
+	}
+	
+	/**
+	 * Writes tasks to the response converting them to DTOs one at a time, so that the response is
+	 * not built in memory
+	 */
+	private void writeTasks(HttpServletResponse response, HttpHeaders headers, List<Task> tasks) throws IOException {
+		response.setStatus(HttpStatus.OK.value());
+		headers.forEach((name, values) -> values.forEach(value -> response.addHeader(name, value)));
+		response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+		response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+		JsonWriter writer = new JsonWriter(
+		        new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8)));
+		writer.beginArray();
+		for (int i = 0; i < tasks.size(); i++) {
+			Task task = convertToDTO(tasks.get(i));
+			gson.toJson(task, task.getClass(), writer);
+			if (i % TASK_WRITE_BATCH_SIZE == TASK_WRITE_BATCH_SIZE - 1) {
+				writer.flush();
+			}
+		}
+		writer.endArray();
+		writer.flush();
 	}
 	
 	@RequestMapping(method = RequestMethod.POST, consumes = { MediaType.APPLICATION_JSON_VALUE, MediaType.TEXT_PLAIN_VALUE })
@@ -198,11 +380,13 @@ public class TaskResource {
 	
 	@RequestMapping(value = "/add", method = RequestMethod.POST, consumes = { MediaType.APPLICATION_JSON_VALUE,
 	        MediaType.TEXT_PLAIN_VALUE })
-	public ResponseEntity<String> batchSave(@RequestBody String entity) {
+	public ResponseEntity<String> batchSave(@RequestBody String entity,
+	        @RequestParam(value = BULK, defaultValue = FALSE, required = false) boolean bulk) {
 		try {
 			Type listType = new TypeToken<List<TaskDto>>() {}.getType();
 			List<TaskDto> tasks = gson.fromJson(entity, listType);
-			Set<String> tasksWithErrors = taskService.saveTasks(convertToDomain(tasks));
+			Collection<String> tasksWithErrors = bulk ? bulkSave(convertToDomain(tasks))
+			        : taskService.saveTasks(convertToDomain(tasks));
 			if (tasksWithErrors.isEmpty())
 				return new ResponseEntity<>("All Tasks  processed", HttpStatus.CREATED);
 			else
@@ -218,10 +402,14 @@ public class TaskResource {
 	
 	@RequestMapping(value = "/update_status", method = RequestMethod.POST, consumes = { MediaType.APPLICATION_JSON_VALUE,
 	        MediaType.TEXT_PLAIN_VALUE })
-	public ResponseEntity<String> updateStatus(@RequestBody String entity) {
+	public ResponseEntity<String> updateStatus(@RequestBody String entity,
+	        @RequestParam(value = BULK, defaultValue = FALSE, required = false) boolean bulk) {
 		try {
 			Type listType = new TypeToken<List<TaskUpdate>>() {}.getType();
 			List<TaskUpdate> taskUpdates = gson.fromJson(entity, listType);
+			if (bulk) {
+				return bulkUpdateStatus(taskUpdates);
+			}
 			List<String> updateTasks = taskService.updateTaskStatus(taskUpdates);
 			if (updateTasks.size() > 0) {
 				JSONObject json = new JSONObject();
@@ -238,6 +426,109 @@ public class TaskResource {
 		
 	}
 	
+	/**
+	 * Applies status updates in batches. Only the last update of each task is applied, updates are
+	 * grouped by status and each batch of {@code bulkBatchSize} updates of a status is written in one
+	 * call to the task service on the bulk executor
+	 *
+	 * @param taskUpdates the updates to apply
+	 * @return the ids of the tasks updated and of those that were not
+	 */
+	private ResponseEntity<String> bulkUpdateStatus(List<TaskUpdate> taskUpdates) {
+		long start = System.currentTimeMillis();
+		Map<String, TaskUpdate> lastUpdates = new LinkedHashMap<>();
+		for (TaskUpdate taskUpdate : taskUpdates) {
+			lastUpdates.remove(taskUpdate.getIdentifier());
+			lastUpdates.put(taskUpdate.getIdentifier(), taskUpdate);
+		}
+		Map<String, List<TaskUpdate>> updatesByStatus = lastUpdates.values().stream()
+		        .collect(Collectors.groupingBy(taskUpdate -> String.valueOf(taskUpdate.getStatus()), LinkedHashMap::new,
+		            Collectors.toList()));
+		List<List<TaskUpdate>> batches = new ArrayList<>();
+		updatesByStatus.values().forEach(updates -> batches.addAll(Lists.partition(updates, bulkBatchSize)));
+		
+		Set<String> updated = new LinkedHashSet<>(
+		        processInBatches(batches, taskService::updateTaskStatus, batch -> Collections.emptyList()));
+		List<String> failed = lastUpdates.keySet().stream().filter(identifier -> !updated.contains(identifier))
+		        .collect(Collectors.toList());
+		
+		long elapsed = System.currentTimeMillis() - start;
+		Metrics.add(STATUS_UPDATE_METRIC + ".received", taskUpdates.size());
+		Metrics.add(STATUS_UPDATE_METRIC + ".updated", updated.size());
+		Metrics.add(STATUS_UPDATE_METRIC + ".failed", failed.size());
+		Metrics.add(STATUS_UPDATE_METRIC + ".batches", batches.size());
+		Metrics.add(STATUS_UPDATE_METRIC + ".millis", elapsed);
+		logger.info("Updated status of " + updated.size() + " tasks in " + batches.size() + " batches in " + elapsed
+		        + " ms, " + (updated.size() * 1000L / Math.max(1, elapsed)) + " tasks/s");
+		
+		JSONObject json = new JSONObject();
+		json.put("task_ids", updated);
+		json.put("failed_task_ids", failed);
+		return new ResponseEntity<>(json.toString(), HttpStatus.CREATED);
+	}
+	
+	/**
+	 * Saves tasks in batches of {@code bulkBatchSize} tasks on the bulk executor. Batches are saved in
+	 * parallel, so only the last version of each task is saved, as it would be when saving the tasks
+	 * one after the other
+	 *
+	 * @param tasks the tasks to save
+	 * @return the ids of the tasks not saved
+	 */
+	private List<String> bulkSave(List<Task> tasks) {
+		long start = System.currentTimeMillis();
+		List<Task> lastVersions = new ArrayList<>(tasks.size());
+		Set<String> identifiers = new HashSet<>();
+		for (Task task : Lists.reverse(tasks)) {
+			if (task.getIdentifier() == null || identifiers.add(task.getIdentifier())) {
+				lastVersions.add(task);
+			}
+		}
+		List<List<Task>> batches = Lists.partition(Lists.reverse(lastVersions), bulkBatchSize);
+		List<String> failed = processInBatches(batches, taskService::saveTasks,
+		    batch -> batch.stream().map(Task::getIdentifier).collect(Collectors.toList()));
+		
+		long elapsed = System.currentTimeMillis() - start;
+		Metrics.add(SAVE_METRIC + ".received", tasks.size());
+		Metrics.add(SAVE_METRIC + ".failed", failed.size());
+		Metrics.add(SAVE_METRIC + ".batches", batches.size());
+		Metrics.add(SAVE_METRIC + ".millis", elapsed);
+		logger.info("Saved " + (lastVersions.size() - failed.size()) + " tasks in " + batches.size() + " batches in " + elapsed
+		        + " ms");
+		return failed;
+	}
+	
+	/**
+	 * Processes batches in parallel on the bulk executor
+	 *
+	 * @param batches the batches to process
+	 * @param processor processes a batch and returns task ids
+	 * @param onFailure the task ids to return for a batch that failed
+	 * @return the task ids returned for all the batches
+	 */
+	private <T> List<String> processInBatches(List<List<T>> batches, Function<List<T>, Collection<String>> processor,
+	        Function<List<T>, Collection<String>> onFailure) {
+		List<Future<Collection<String>>> futures = new ArrayList<>(batches.size());
+		for (List<T> batch : batches) {
+			futures.add(bulkExecutor.submit(() -> processor.apply(batch)));
+		}
+		
+		List<String> identifiers = new ArrayList<>();
+		for (int i = 0; i < futures.size(); i++) {
+			try {
+				identifiers.addAll(futures.get(i).get());
+			}
+			catch (InterruptedException | ExecutionException e) {
+				if (e instanceof InterruptedException) {
+					Thread.currentThread().interrupt();
+				}
+				logger.error("Failed to process batch of tasks", e);
+				identifiers.addAll(onFailure.apply(batches.get(i)));
+			}
+		}
+		return identifiers;
+	}
+	
 	/**
 	 * This methods provides an API endpoint that searches for all task Ids ordered by server
 	 * version ascending
@@ -314,7 +605,7 @@ public class TaskResource {
 	 */
 	public Task convertToDTO(Task task) {
 		TaskDto taskDto = new TaskDto();
-		BeanUtils.copyProperties(task, taskDto);
+		TASK_TO_DTO.copy(task, taskDto, null);
 		if (task.getExecutionPeriod() != null) {
 			taskDto.setExecutionStartDate(task.getExecutionPeriod().getStart());
 			taskDto.setExecutionEndDate(task.getExecutionPeriod().getEnd());
@@ -339,7 +630,7 @@ public class TaskResource {
 	 */
 	public Task convertToDomain(TaskDto taskDto) {
 		Task task = new Task();
-		BeanUtils.copyProperties(taskDto, task);
+		DTO_TO_TASK.copy(taskDto, task, null);
 		if(taskDto.getExecutionStartDate()!=null || taskDto.getExecutionEndDate()!=null) {
 			task.setExecutionPeriod(new Period(taskDto.getExecutionStartDate(),taskDto.getExecutionEndDate()));
 		}
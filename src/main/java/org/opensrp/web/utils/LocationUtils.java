@@ -8,11 +8,18 @@ import java.util.Map;
 import java.util.Set;
 import java.util.Map.Entry;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
 /**
  * @author Samuel Githengi created on 10/09/19
  */
 public class LocationUtils {
 	
+	/** The most decimal places a double keeps, rounding to more does not change coordinates */
+	public static final int MAX_COORDINATE_PRECISION = 15;
 	
 	public static Set<String> getRootLocation(Map<String, String> locations) {
 		// get all parents
@@ -33,4 +40,173 @@ public class LocationUtils {
 
 		return parents;
 	}
+	
+	/**
+	 * Rounds the positions of GeoJSON geometry coordinates to a number of decimal places and drops
+	 * positions that become equal to the previous one. Rings keep at least four positions so that
+	 * they remain valid.
+	 * 
+	 * @param coordinates the coordinates of a geometry
+	 * @param precision the number of decimal places to keep
+	 * @return the reduced coordinates
+	 * @throws IllegalArgumentException if the precision is not between 0 and
+	 *             {@link #MAX_COORDINATE_PRECISION}
+	 */
+	public static JsonArray reduceCoordinatePrecision(JsonArray coordinates, int precision) {
+		if (!isValidCoordinatePrecision(precision)) {
+			throw new IllegalArgumentException("coordinate precision must be between 0 and " + MAX_COORDINATE_PRECISION);
+		}
+		double factor = Math.pow(10, precision);
+		if (isPosition(coordinates)) {
+			return roundPosition(coordinates, factor);
+		}
+		JsonArray reduced = new JsonArray();
+		JsonArray previous = null;
+		boolean positions = coordinates.size() > 0 && coordinates.get(0).isJsonArray()
+		        && isPosition(coordinates.get(0).getAsJsonArray());
+		for (JsonElement element : coordinates) {
+			if (!element.isJsonArray()) {
+				continue;
+			}
+			if (positions) {
+				JsonArray position = roundPosition(element.getAsJsonArray(), factor);
+				if (!position.equals(previous)) {
+					reduced.add(position);
+					previous = position;
+				}
+			} else {
+				reduced.add(reduceCoordinatePrecision(element.getAsJsonArray(), precision));
+			}
+		}
+		if (positions && reduced.size() < Math.min(4, coordinates.size())) {
+			JsonArray rounded = new JsonArray();
+			for (JsonElement element : coordinates) {
+				rounded.add(roundPosition(element.getAsJsonArray(), factor));
+			}
+			return rounded;
+		}
+		return reduced;
+	}
+	
+	/**
+	 * @param precision a number of decimal places
+	 * @return true if coordinates can be rounded to the number of decimal places
+	 */
+	public static boolean isValidCoordinatePrecision(int precision) {
+		return precision >= 0 && precision <= MAX_COORDINATE_PRECISION;
+	}
+	
+	/**
+	 * Validates a GeoJSON geometry and normalizes its coordinates in place. Positions equal to the
+	 * previous one are dropped and rings that do not end with their first position are closed.
+	 * 
+	 * @param geometry the geometry to validate and normalize
+	 * @throws IllegalArgumentException if the geometry is not a valid GeoJSON geometry
+	 */
+	public static void normalizeGeometry(JsonObject geometry) {
+		JsonElement type = geometry.get("type");
+		JsonElement coordinates = geometry.get("coordinates");
+		if (type == null || !type.isJsonPrimitive() || coordinates == null || !coordinates.isJsonArray()) {
+			throw new IllegalArgumentException("geometry has no type or coordinates");
+		}
+		JsonArray array = coordinates.getAsJsonArray();
+		switch (type.getAsString()) {
+			case "Point":
+				validatePosition(array);
+				break;
+			case "MultiPoint":
+				for (JsonElement position : array) {
+					validatePosition(asArray(position, "position"));
+				}
+				break;
+			case "LineString":
+				geometry.add("coordinates", normalizeLine(array, false));
+				break;
+			case "MultiLineString":
+				JsonArray lines = new JsonArray();
+				for (JsonElement line : array) {
+					lines.add(normalizeLine(asArray(line, "line"), false));
+				}
+				geometry.add("coordinates", lines);
+				break;
+			case "Polygon":
+				geometry.add("coordinates", normalizePolygon(array));
+				break;
+			case "MultiPolygon":
+				JsonArray polygons = new JsonArray();
+				for (JsonElement polygon : array) {
+					polygons.add(normalizePolygon(asArray(polygon, "polygon")));
+				}
+				geometry.add("coordinates", polygons);
+				break;
+			default:
+				throw new IllegalArgumentException("unsupported geometry type " + type.getAsString());
+		}
+	}
+	
+	private static JsonArray normalizePolygon(JsonArray rings) {
+		if (rings.size() == 0) {
+			throw new IllegalArgumentException("polygon has no rings");
+		}
+		JsonArray normalized = new JsonArray();
+		for (JsonElement ring : rings) {
+			normalized.add(normalizeLine(asArray(ring, "ring"), true));
+		}
+		return normalized;
+	}
+	
+	private static JsonArray normalizeLine(JsonArray positions, boolean ring) {
+		JsonArray normalized = new JsonArray();
+		JsonArray previous = null;
+		for (JsonElement element : positions) {
+			JsonArray position = asArray(element, "position");
+			validatePosition(position);
+			if (!position.equals(previous)) {
+				normalized.add(position);
+				previous = position;
+			}
+		}
+		if (ring && normalized.size() > 0 && !normalized.get(0).equals(previous)) {
+			normalized.add(normalized.get(0));
+		}
+		int minimumPositions = ring ? 4 : 2;
+		if (normalized.size() < minimumPositions) {
+			throw new IllegalArgumentException(
+			        (ring ? "ring" : "line") + " has fewer than " + minimumPositions + " positions");
+		}
+		return normalized;
+	}
+	
+	private static void validatePosition(JsonArray position) {
+		if (position.size() < 2) {
+			throw new IllegalArgumentException("position " + position + " has fewer than 2 coordinates");
+		}
+		for (JsonElement coordinate : position) {
+			if (!coordinate.isJsonPrimitive() || !coordinate.getAsJsonPrimitive().isNumber()) {
+				throw new IllegalArgumentException("position " + position + " has a coordinate that is not a number");
+			}
+		}
+		if (!(Math.abs(position.get(0).getAsDouble()) <= 180) || !(Math.abs(position.get(1).getAsDouble()) <= 90)) {
+			throw new IllegalArgumentException("position " + position + " is not a longitude and latitude");
+		}
+	}
+	
+	private static JsonArray asArray(JsonElement element, String name) {
+		if (!element.isJsonArray()) {
+			throw new IllegalArgumentException(name + " " + element + " is not an array");
+		}
+		return element.getAsJsonArray();
+	}
+	
+	private static boolean isPosition(JsonArray coordinates) {
+		return coordinates.size() >= 2 && coordinates.get(0).isJsonPrimitive();
+	}
+	
+	private static JsonArray roundPosition(JsonArray position, double factor) {
+		JsonArray rounded = new JsonArray();
+		for (JsonElement value : position) {
+			rounded.add(new JsonPrimitive(Math.round(value.getAsDouble() * factor) / factor));
+		}
+		return rounded;
+	}
 }
@@ -0,0 +1,227 @@
+package org.opensrp.web.utils;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.opensrp.web.exceptions.SyncPageLimitExceededException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Opaque token used to resume a sync from the exact position the previous page ended. Records are
+ * synced in serverVersion and identifier order and the token holds the serverVersion and identifier
+ * of the last record returned, together with a hash of the filters the token was issued for, so its
+ * size does not depend on how many records share a serverVersion.
+ * <p>
+ * Resuming from a token queries from the last serverVersion inclusive and drops the records up to
+ * the last identifier, so records sharing a serverVersion across a page boundary are neither skipped
+ * nor duplicated.
+ * <p>
+ * Syncs that are read one partition at a time, such as tasks read one group at a time, also keep
+ * the partition the page ended in. A token for a partition that has not been started has no
+ * identifier.
+ */
+public class SyncContinuationToken {
+
+	private static final Logger logger = LogManager.getLogger(SyncContinuationToken.class.toString());
+
+	private static final Comparator<String> IDENTIFIER_ORDER = Comparator.nullsFirst(Comparator.naturalOrder());
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+	private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+	@JsonProperty("v")
+	private long serverVersion;
+
+	@JsonProperty("id")
+	private String identifier;
+
+	@JsonProperty("h")
+	private String filterHash;
+
+	@JsonProperty("p")
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	private String partition;
+
+	public SyncContinuationToken() {
+	}
+
+	public SyncContinuationToken(long serverVersion, String identifier, String filterHash) {
+		this.serverVersion = serverVersion;
+		this.identifier = identifier;
+		this.filterHash = filterHash;
+	}
+
+	public SyncContinuationToken(long serverVersion, String identifier, String filterHash, String partition) {
+		this(serverVersion, identifier, filterHash);
+		this.partition = partition;
+	}
+
+	public long getServerVersion() {
+		return serverVersion;
+	}
+
+	public String getIdentifier() {
+		return identifier;
+	}
+
+	public String getFilterHash() {
+		return filterHash;
+	}
+
+	public String getPartition() {
+		return partition;
+	}
+
+	/**
+	 * Checks whether a record comes after the last record delivered under the token
+	 *
+	 * @param serverVersion the record serverVersion
+	 * @param identifier    the record identifier
+	 * @return true if the record was not delivered yet
+	 */
+	public boolean isBefore(long serverVersion, String identifier) {
+		return serverVersion > this.serverVersion
+				|| serverVersion == this.serverVersion && IDENTIFIER_ORDER.compare(identifier, this.identifier) > 0;
+	}
+
+	/**
+	 * Checks whether the token was issued for the filters with the given hash
+	 *
+	 * @param filterHash hash of the filters of the current request
+	 * @return true if the token can be used to resume the request
+	 */
+	public boolean matches(String filterHash) {
+		return this.filterHash != null && this.filterHash.equals(filterHash);
+	}
+
+	public String encode() {
+		try {
+			return ENCODER.encodeToString(MAPPER.writeValueAsBytes(this));
+		}
+		catch (IOException e) {
+			throw new IllegalStateException("Could not encode continuation token", e);
+		}
+	}
+
+	/**
+	 * Decodes a token previously created by {@link #encode()}
+	 *
+	 * @param token the encoded token
+	 * @return the decoded token
+	 * @throws IllegalArgumentException if the token is malformed
+	 */
+	public static SyncContinuationToken decode(String token) {
+		SyncContinuationToken decoded;
+		try {
+			decoded = MAPPER.readValue(DECODER.decode(token), SyncContinuationToken.class);
+		}
+		catch (IOException | IllegalArgumentException e) {
+			throw new IllegalArgumentException("Invalid continuation token", e);
+		}
+		if (decoded.identifier == null && decoded.partition == null) {
+			throw new IllegalArgumentException("Invalid continuation token");
+		}
+		return decoded;
+	}
+
+	/**
+	 * Computes a stable hash of the sync filters a token is bound to
+	 *
+	 * @param filters the filter values, nulls allowed
+	 * @return hash of the filters
+	 */
+	public static String filterHash(String... filters) {
+		StringBuilder builder = new StringBuilder();
+		for (String filter : filters) {
+			builder.append(filter == null ? "" : filter).append('\u0000');
+		}
+		return DigestUtils.sha1Hex(builder.toString().getBytes(StandardCharsets.UTF_8)).substring(0, 16);
+	}
+
+	/**
+	 * Orders records by serverVersion and then identifier, the order records are synced in
+	 */
+	public static <T> Comparator<T> order(ToLongFunction<T> serverVersion, Function<T, String> identifier) {
+		return Comparator.comparingLong(serverVersion).thenComparing(identifier, IDENTIFIER_ORDER);
+	}
+
+	/**
+	 * Fetches the page of records following the token in serverVersion and identifier order. The
+	 * query only orders records by serverVersion, so records sharing a serverVersion are ordered by
+	 * identifier once all of them are fetched: when a query returns {@code limit} records the records
+	 * of its last serverVersion may be incomplete and are left for the next page, and the query is
+	 * repeated with twice the limit, up to {@code maxFetchSize}, while that leaves no record to return.
+	 *
+	 * @param query         returns at most the given number of records ordered by serverVersion,
+	 *                      from the token serverVersion inclusive when there is a token
+	 * @param serverVersion function returning the record serverVersion
+	 * @param identifier    function returning the record identifier
+	 * @param token         the token the page is fetched with, or null
+	 * @param limit         maximum number of records to return
+	 * @param maxFetchSize  maximum number of records a query may be repeated with
+	 * @return the records not yet delivered, at most limit, empty only if there are none left
+	 * @throws SyncPageLimitExceededException if more than {@code maxFetchSize} records share a
+	 *             serverVersion, so they cannot be ordered by identifier
+	 */
+	public static <T> List<T> fetchPage(IntFunction<List<T>> query, ToLongFunction<T> serverVersion,
+			Function<T, String> identifier, SyncContinuationToken token, int limit, int maxFetchSize) {
+		int maxSize = Math.max(limit, maxFetchSize);
+		for (int fetchSize = limit;; fetchSize = (int) Math.min((long) fetchSize * 2, maxSize)) {
+			List<T> fetched = query.apply(fetchSize);
+			List<T> records = new ArrayList<>(fetched);
+			boolean complete = fetched.size() < fetchSize;
+			long lastServerVersion = complete ? Long.MAX_VALUE
+					: fetched.stream().mapToLong(serverVersion).max().getAsLong();
+			if (!complete) {
+				records.removeIf(record -> serverVersion.applyAsLong(record) == lastServerVersion);
+			}
+			if (token != null) {
+				records.removeIf(record -> !token.isBefore(serverVersion.applyAsLong(record), identifier.apply(record)));
+			}
+			if (!records.isEmpty() || complete) {
+				records.sort(order(serverVersion, identifier));
+				return records.size() > limit ? new ArrayList<>(records.subList(0, limit)) : records;
+			}
+			if (fetchSize >= maxSize) {
+				throw new SyncPageLimitExceededException("More than " + maxSize + " records to sync share serverVersion "
+						+ lastServerVersion);
+			}
+			logger.info("Repeating sync query with " + Math.min((long) fetchSize * 2, maxSize) + " records, the "
+					+ fetchSize + " records fetched share serverVersion " + lastServerVersion);
+		}
+	}
+
+	/**
+	 * Creates the token that resumes after the given page
+	 *
+	 * @param page          the records returned, in serverVersion and identifier order
+	 * @param serverVersion function returning the record serverVersion
+	 * @param identifier    function returning the record identifier
+	 * @param previous      the token the page was fetched with, or null
+	 * @param filterHash    hash of the filters of the request
+	 * @return the next token, the previous token if the page is empty or null if there is neither
+	 */
+	public static <T> SyncContinuationToken next(List<T> page, ToLongFunction<T> serverVersion,
+			Function<T, String> identifier, SyncContinuationToken previous, String filterHash) {
+		if (page.isEmpty()) {
+			return previous;
+		}
+		T last = page.get(page.size() - 1);
+		return new SyncContinuationToken(serverVersion.applyAsLong(last), identifier.apply(last), filterHash);
+	}
+}
@@ -10,19 +10,29 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.opensrp.service.CampaignService;
 import org.opensrp.web.GlobalExceptionHandler;
+import org.opensrp.web.GzipBodyDecompressFilter;
 import org.opensrp.web.rest.CampaignResource;
 import org.opensrp.web.rest.it.TestWebContextLoader;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockFilterConfig;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 
+import java.io.ByteArrayOutputStream;
+import java.util.zip.GZIPOutputStream;
+
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.junit.Assert.assertEquals;
 import static org.springframework.test.web.AssertionErrors.fail;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @RunWith(SpringJUnit4ClassRunner.class)
@@ -67,4 +77,27 @@ public class GlobalExceptionHandlerTest {
         JsonNode actualObj = mapper.readTree(responseString);
         assertEquals(actualObj.get("message").asText(), MESSAGE);
     }
+
+    @Test
+    public void testExceptionHandlerForGzippedBodyInflatingBeyondMaxSize() throws Exception {
+        GzipBodyDecompressFilter filter = new GzipBodyDecompressFilter();
+        MockFilterConfig filterConfig = new MockFilterConfig();
+        filterConfig.addInitParameter(GzipBodyDecompressFilter.MAX_INFLATED_SIZE, "1024");
+        filter.init(filterConfig);
+        mockMvc = MockMvcBuilders.standaloneSetup(campaignResource)
+                .setControllerAdvice(new GlobalExceptionHandler()).addFilters(filter).build();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(body)) {
+            gzipOutputStream.write(new byte[4096]);
+        }
+
+        MvcResult mvcResult = mockMvc.perform(post(BASE_URL).contentType(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.CONTENT_ENCODING, "gzip").content(body.toByteArray()))
+                .andExpect(status().isPayloadTooLarge())
+                .andReturn();
+
+        JsonNode actualObj = mapper.readTree(mvcResult.getResponse().getContentAsString());
+        assertEquals("413 PAYLOAD_TOO_LARGE", actualObj.get("status").asText());
+        verify(campaignService, never()).addCampaign(any());
+    }
 }
@@ -0,0 +1,43 @@
+package org.opensrp.web;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ContentEncodersTest {
+
+	private final List<ContentEncoder> encoders = Arrays.asList(ContentEncoders.create(ContentEncoders.GZIP, null),
+			ContentEncoders.create(ContentEncoders.DEFLATE, null));
+
+	@Test
+	public void testNegotiateUsesServerPreferenceForEqualQValues() {
+		assertEquals(ContentEncoders.GZIP, ContentEncoders.negotiate("deflate, gzip", encoders).getEncoding());
+	}
+
+	@Test
+	public void testNegotiateSelectsHighestQValue() {
+		assertEquals(ContentEncoders.DEFLATE,
+				ContentEncoders.negotiate("gzip;q=0.5, deflate;q=0.9", encoders).getEncoding());
+	}
+
+	@Test
+	public void testNegotiateExcludesCodingsWithZeroQValue() {
+		assertEquals(ContentEncoders.DEFLATE, ContentEncoders.negotiate("*, gzip;q=0", encoders).getEncoding());
+		assertNull(ContentEncoders.negotiate("gzip;q=0, deflate;q=0", encoders));
+	}
+
+	@Test
+	public void testNegotiateWithoutAcceptableCoding() {
+		assertNull(ContentEncoders.negotiate(null, encoders));
+		assertNull(ContentEncoders.negotiate("identity, br", encoders));
+	}
+
+	@Test
+	public void testNegotiateAcceptsLegacyGzipAlias() {
+		assertEquals(ContentEncoders.GZIP, ContentEncoders.negotiate("x-gzip", encoders).getEncoding());
+	}
+}
@@ -0,0 +1,186 @@
+package org.opensrp.web;
+
+import com.github.luben.zstd.ZstdInputStream;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.opensrp.web.metrics.Metrics;
+import org.opensrp.web.rest.MetricsResource;
+import org.springframework.mock.web.MockFilterConfig;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletOutputStream;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+public class GZipCompressionFilterTest {
+
+	private GZipCompressionFilter filter;
+
+	private MockHttpServletRequest request;
+
+	private MockHttpServletResponse response;
+
+	@Before
+	public void setUp() {
+		filter = new GZipCompressionFilter();
+		MockFilterConfig filterConfig = new MockFilterConfig();
+		filterConfig.addInitParameter(GZipCompressionFilter.COMPRESSION_LEVEL, "6");
+		filterConfig.addInitParameter(GZipCompressionFilter.MIN_SIZE, "100");
+		filter.init(filterConfig);
+		request = new MockHttpServletRequest("GET", "/rest/event/sync");
+		request.addHeader("accept-encoding", "gzip, deflate");
+		response = new MockHttpServletResponse();
+	}
+
+	@Test
+	public void testCompressesLargeResponsesWhileWriting() throws Exception {
+		byte[] content = repeat("{\"baseEntityId\":\"1234\"}", 200);
+		FilterChain chain = (req, res) -> {
+			res.setContentType("application/json");
+			res.setContentLength(content.length);
+			ServletOutputStream outputStream = res.getOutputStream();
+			outputStream.write(content, 0, content.length / 2);
+			outputStream.flush();
+			assertTrue(response.isCommitted());
+			assertTrue(response.getContentAsByteArray().length > 0);
+			outputStream.write(content, content.length / 2, content.length - content.length / 2);
+		};
+
+		filter.doFilter(request, response, chain);
+
+		assertEquals("gzip", response.getHeader("Content-Encoding"));
+		assertEquals("Accept-Encoding", response.getHeader("Vary"));
+		assertNull(response.getHeader("Content-Length"));
+		assertArrayEquals(content, gunzip(response.getContentAsByteArray()));
+	}
+
+	@Test
+	public void testDoesNotCompressResponsesBelowMinSize() throws Exception {
+		byte[] content = "{\"status\":\"ok\"}".getBytes(StandardCharsets.UTF_8);
+		FilterChain chain = (req, res) -> {
+			res.setContentType("application/json");
+			res.getOutputStream().write(content);
+		};
+
+		filter.doFilter(request, response, chain);
+
+		assertNull(response.getHeader("Content-Encoding"));
+		assertEquals(content.length, response.getContentLength());
+		assertArrayEquals(content, response.getContentAsByteArray());
+	}
+
+	@Test
+	public void testDoesNotCompressExcludedContentTypes() throws Exception {
+		byte[] content = repeat("PK", 500);
+		FilterChain chain = (req, res) -> {
+			res.setContentType("application/zip");
+			res.setContentLength(content.length);
+			res.getOutputStream().write(content);
+		};
+
+		filter.doFilter(request, response, chain);
+
+		assertNull(response.getHeader("Content-Encoding"));
+		assertEquals(content.length, response.getContentLength());
+		assertArrayEquals(content, response.getContentAsByteArray());
+	}
+
+	@Test
+	public void testDoesNotCompressWhenClientDoesNotAcceptGzip() throws Exception {
+		request = new MockHttpServletRequest("GET", "/rest/event/sync");
+		byte[] content = repeat("{\"baseEntityId\":\"1234\"}", 200);
+		FilterChain chain = (req, res) -> res.getOutputStream().write(content);
+
+		filter.doFilter(request, response, chain);
+
+		assertNull(response.getHeader("Content-Encoding"));
+		assertArrayEquals(content, response.getContentAsByteArray());
+	}
+
+	@Test
+	public void testCompressesWithNegotiatedEncodingAndRecordsStatistics() throws Exception {
+		request = new MockHttpServletRequest("GET", "/rest/event/sync");
+		request.addHeader("accept-encoding", "gzip;q=0.8, zstd");
+		byte[] content = repeat("{\"baseEntityId\":\"1234\"}", 200);
+		long responses = Metrics.get("compression.zstd.responses");
+		long bytesIn = Metrics.get("compression.zstd.bytes_in");
+		FilterChain chain = (req, res) -> {
+			res.setContentType("application/json");
+			res.getOutputStream().write(content);
+		};
+
+		filter.doFilter(request, response, chain);
+
+		assertEquals("zstd", response.getHeader("Content-Encoding"));
+		try (ZstdInputStream inputStream = new ZstdInputStream(
+				new ByteArrayInputStream(response.getContentAsByteArray()))) {
+			assertArrayEquals(content, IOUtils.toByteArray(inputStream));
+		}
+		assertEquals(responses + 1, Metrics.get("compression.zstd.responses"));
+		assertEquals(bytesIn + content.length, Metrics.get("compression.zstd.bytes_in"));
+	}
+
+	@Test
+	public void testPublishesCompressionStatisticsPerEncoding() throws Exception {
+		request = new MockHttpServletRequest("GET", "/rest/event/sync");
+		request.addHeader("accept-encoding", "deflate");
+		byte[] content = repeat("{\"baseEntityId\":\"1234\"}", 200);
+		filter.doFilter(request, response, (req, res) -> res.getOutputStream().write(content));
+
+		String json = MockMvcBuilders.standaloneSetup(new MetricsResource()).build()
+				.perform(get("/rest/metrics/compression")).andExpect(status().isOk()).andReturn().getResponse()
+				.getContentAsString();
+
+		JsonNode deflate = new ObjectMapper().readTree(json).get("deflate");
+		assertEquals(Metrics.get("compression.deflate.responses"), deflate.get("responses").asLong());
+		assertEquals(Metrics.get("compression.deflate.bytes_out") / (double) Metrics.get("compression.deflate.bytes_in"),
+				deflate.get("ratio").asDouble(), 1e-9);
+		assertTrue(deflate.get("ratio").asDouble() < 1);
+	}
+
+	@Test
+	public void testCompressesWithDeflate() throws Exception {
+		request = new MockHttpServletRequest("GET", "/rest/event/sync");
+		request.addHeader("accept-encoding", "deflate");
+		byte[] content = repeat("{\"baseEntityId\":\"1234\"}", 200);
+		FilterChain chain = (req, res) -> res.getOutputStream().write(content);
+
+		filter.doFilter(request, response, chain);
+
+		assertEquals("deflate", response.getHeader("Content-Encoding"));
+		try (InflaterInputStream inputStream = new InflaterInputStream(
+				new ByteArrayInputStream(response.getContentAsByteArray()))) {
+			assertArrayEquals(content, IOUtils.toByteArray(inputStream));
+		}
+	}
+
+	private static byte[] repeat(String value, int times) {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < times; i++) {
+			builder.append(value);
+		}
+		return builder.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static byte[] gunzip(byte[] compressed) throws Exception {
+		try (GZIPInputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+			return IOUtils.toByteArray(inputStream);
+		}
+	}
+}
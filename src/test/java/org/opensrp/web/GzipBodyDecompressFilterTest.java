@@ -0,0 +1,196 @@
+package org.opensrp.web;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockFilterConfig;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GzipBodyDecompressFilterTest {
+
+	private GzipBodyDecompressFilter filter;
+
+	private MockHttpServletResponse response;
+
+	@Before
+	public void setUp() throws ServletException {
+		filter = new GzipBodyDecompressFilter();
+		MockFilterConfig filterConfig = new MockFilterConfig();
+		filterConfig.addInitParameter(GzipBodyDecompressFilter.MAX_INFLATED_SIZE, "1024");
+		filter.init(filterConfig);
+		response = new MockHttpServletResponse();
+	}
+
+	@Test
+	public void testInflatesBodyWhileReading() throws Exception {
+		byte[] body = "{\"events\":[{\"baseEntityId\":\"1234\"}]}".getBytes(StandardCharsets.UTF_8);
+		AtomicReference<byte[]> read = new AtomicReference<>();
+		FilterChain chain = (req, res) -> read.set(IOUtils.toByteArray(req.getInputStream()));
+
+		filter.doFilter(gzippedRequest(gzip(body), "application/json"), response, chain);
+
+		assertArrayEquals(body, read.get());
+	}
+
+	@Test
+	public void testEmptyBodyReturnsEmptyStream() throws Exception {
+		AtomicReference<byte[]> read = new AtomicReference<>();
+		FilterChain chain = (req, res) -> read.set(IOUtils.toByteArray(req.getInputStream()));
+
+		filter.doFilter(gzippedRequest(new byte[0], "application/json"), response, chain);
+
+		assertEquals(0, read.get().length);
+	}
+
+	@Test
+	public void testRejectsBodyInflatingBeyondMaxSize() throws Exception {
+		byte[] body = new byte[4096];
+		FilterChain chain = (req, res) -> IOUtils.toByteArray(req.getInputStream());
+
+		filter.doFilter(gzippedRequest(gzip(body), "application/json"), response, chain);
+
+		assertEquals(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, response.getStatus());
+	}
+
+	@Test
+	public void testParsesGzippedFormParameters() throws Exception {
+		byte[] body = "name=John+Doe&location=Nairobi".getBytes(StandardCharsets.UTF_8);
+		AtomicReference<String[]> names = new AtomicReference<>();
+		FilterChain chain = (req, res) -> names.set((String[]) req.getParameterMap().get("name"));
+
+		filter.doFilter(gzippedRequest(gzip(body), "application/x-www-form-urlencoded"), response, chain);
+
+		assertArrayEquals(new String[] { "John Doe" }, names.get());
+	}
+
+	@Test
+	public void testParsesGzippedFormParametersBeforeTheContainer() throws Exception {
+		byte[] body = "name=John+Doe&location=Nairobi".getBytes(StandardCharsets.UTF_8);
+		MockHttpServletRequest request = new FormParsingRequest(gzip(body));
+		request.setQueryString("page=2");
+		request.addParameter("page", "2");
+		AtomicReference<Map<String, String[]>> parameters = new AtomicReference<>();
+		AtomicReference<String> location = new AtomicReference<>();
+		FilterChain chain = (req, res) -> {
+			parameters.set(req.getParameterMap());
+			location.set(req.getParameter("location"));
+		};
+
+		filter.doFilter(request, response, chain);
+
+		assertEquals(3, parameters.get().size());
+		assertArrayEquals(new String[] { "John Doe" }, parameters.get().get("name"));
+		assertArrayEquals(new String[] { "2" }, parameters.get().get("page"));
+		assertEquals("Nairobi", location.get());
+	}
+
+	@Test
+	public void testParsesGzippedFormParametersOnce() throws Exception {
+		byte[] body = "name=John+Doe".getBytes(StandardCharsets.UTF_8);
+		AtomicReference<Map<String, String[]>> first = new AtomicReference<>();
+		AtomicReference<Map<String, String[]>> second = new AtomicReference<>();
+		FilterChain chain = (req, res) -> {
+			first.set(req.getParameterMap());
+			second.set(req.getParameterMap());
+		};
+
+		filter.doFilter(gzippedRequest(gzip(body), "application/x-www-form-urlencoded"), response, chain);
+
+		assertSame(first.get(), second.get());
+	}
+
+	@Test
+	public void testSurfacesGzippedFormParametersInflatingBeyondMaxSize() throws Exception {
+		byte[] body = new byte[4096];
+		AtomicReference<UncheckedIOException> failure = new AtomicReference<>();
+		FilterChain chain = (req, res) -> {
+			try {
+				req.getParameterMap();
+				fail("Expected the form body to be rejected");
+			}
+			catch (UncheckedIOException e) {
+				failure.set(e);
+			}
+			req.getParameter("name");
+		};
+
+		filter.doFilter(gzippedRequest(gzip(body), "application/x-www-form-urlencoded"), response, chain);
+
+		assertTrue(failure.get().getCause() instanceof GzipBodyDecompressFilter.InflatedSizeExceededException);
+		assertEquals(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, response.getStatus());
+	}
+
+	private static MockHttpServletRequest gzippedRequest(byte[] content, String contentType) {
+		MockHttpServletRequest request = new MockHttpServletRequest("POST", "/rest/event/add");
+		request.addHeader("Content-Encoding", "gzip");
+		request.setContentType(contentType);
+		request.setContent(content);
+		return request;
+	}
+
+	private static byte[] gzip(byte[] content) throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream)) {
+			gzipOutputStream.write(content);
+		}
+		return outputStream.toByteArray();
+	}
+
+	/**
+	 * Request that parses form parameters from the raw body the first time they are read, unless
+	 * the body has already been read, as servlet containers do.
+	 */
+	private static class FormParsingRequest extends MockHttpServletRequest {
+
+		private boolean bodyRead;
+
+		private boolean bodyParsed;
+
+		FormParsingRequest(byte[] content) {
+			super("POST", "/rest/event/add");
+			addHeader("Content-Encoding", "gzip");
+			setContentType("application/x-www-form-urlencoded");
+			setContent(content);
+		}
+
+		@Override
+		public ServletInputStream getInputStream() {
+			bodyRead = true;
+			return super.getInputStream();
+		}
+
+		@Override
+		public Map<String, String[]> getParameterMap() {
+			if (!bodyRead && !bodyParsed) {
+				bodyParsed = true;
+				addParameter(new String(getContentAsByteArray(), StandardCharsets.ISO_8859_1), "");
+				try {
+					IOUtils.toByteArray(super.getInputStream());
+				}
+				catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+			return super.getParameterMap();
+		}
+	}
+}
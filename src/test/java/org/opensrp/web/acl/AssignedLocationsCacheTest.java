@@ -0,0 +1,122 @@
+package org.opensrp.web.acl;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opensrp.domain.AssignedLocations;
+import org.powermock.reflect.Whitebox;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AssignedLocationsCacheTest {
+
+	private AssignedLocationsCache cache;
+
+	private StringRedisTemplate redisTemplate;
+
+	private ValueOperations<String, String> valueOperations;
+
+	private AtomicInteger loads;
+
+	private Function<String, List<AssignedLocations>> loader;
+
+	@Before
+	@SuppressWarnings("unchecked")
+	public void setUp() {
+		cache = new AssignedLocationsCache();
+		Whitebox.setInternalState(cache, "maximumSize", 100L);
+		Whitebox.setInternalState(cache, "localTtlSeconds", 60L);
+		Whitebox.setInternalState(cache, "redisTtlSeconds", 900L);
+		redisTemplate = mock(StringRedisTemplate.class);
+		valueOperations = mock(ValueOperations.class);
+		when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+		Whitebox.setInternalState(cache, "redisTemplate", redisTemplate);
+		cache.init();
+		loads = new AtomicInteger();
+		loader = username -> {
+			loads.incrementAndGet();
+			return Collections.singletonList(assignedLocation("loc-1", "org-1", "plan-1"));
+		};
+	}
+
+	@Test
+	public void testLoadsOnceAndWritesCompactEntryToRedis() {
+		List<AssignedLocations> first = cache.get("janedoe", loader);
+		List<AssignedLocations> second = cache.get("janedoe", loader);
+
+		assertEquals(1, loads.get());
+		assertEquals(first, second);
+		assertEquals("loc-1", first.get(0).getJurisdictionId());
+		verify(valueOperations).set(AssignedLocationsCache.KEY_PREFIX + "janedoe", "[[\"loc-1\",\"org-1\",\"plan-1\"]]",
+				900L, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void testReadsFromRedisBeforeLoading() {
+		when(valueOperations.get(AssignedLocationsCache.KEY_PREFIX + "janedoe"))
+				.thenReturn("[[\"loc-2\",\"org-2\",null]]");
+
+		List<AssignedLocations> assignedLocations = cache.get("janedoe", loader);
+
+		assertEquals(0, loads.get());
+		assertEquals("loc-2", assignedLocations.get(0).getJurisdictionId());
+		assertEquals("org-2", assignedLocations.get(0).getOrganizationId());
+		assertNull(assignedLocations.get(0).getPlanId());
+	}
+
+	@Test
+	public void testFallsBackToLoaderWhenRedisFails() {
+		when(valueOperations.get(anyString())).thenThrow(new IllegalStateException("connection refused"));
+
+		assertEquals(1, cache.get("janedoe", loader).size());
+		assertEquals(1, loads.get());
+	}
+
+	@Test
+	public void testInvalidateEvictsAndPublishes() {
+		cache.get("janedoe", loader);
+
+		cache.invalidate(Collections.singleton("janedoe"));
+		cache.get("janedoe", loader);
+
+		assertEquals(2, loads.get());
+		verify(redisTemplate).delete(Collections.singletonList(AssignedLocationsCache.KEY_PREFIX + "janedoe"));
+		verify(redisTemplate).convertAndSend(eq(AssignedLocationsCache.INVALIDATION_CHANNEL), eq("[\"janedoe\"]"));
+	}
+
+	@Test
+	public void testInvalidationMessageEvictsLocalEntries() {
+		cache.get("janedoe", loader);
+		cache.get("johndoe", loader);
+
+		cache.onMessage(new DefaultMessage(AssignedLocationsCache.INVALIDATION_CHANNEL.getBytes(StandardCharsets.UTF_8),
+				"[\"janedoe\"]".getBytes(StandardCharsets.UTF_8)), null);
+		cache.get("janedoe", loader);
+		cache.get("johndoe", loader);
+
+		assertEquals(3, loads.get());
+	}
+
+	private static AssignedLocations assignedLocation(String jurisdictionId, String organizationId, String planId) {
+		AssignedLocations assignedLocation = new AssignedLocations();
+		assignedLocation.setJurisdictionId(jurisdictionId);
+		assignedLocation.setOrganizationId(organizationId);
+		assignedLocation.setPlanId(planId);
+		return assignedLocation;
+	}
+}
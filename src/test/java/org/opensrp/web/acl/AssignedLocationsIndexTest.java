@@ -0,0 +1,43 @@
+package org.opensrp.web.acl;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opensrp.domain.AssignedLocations;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AssignedLocationsIndexTest {
+
+	private AssignedLocationsIndex index;
+
+	@Before
+	public void setUp() {
+		List<AssignedLocations> assignedLocations = Arrays.asList(assignedLocation("district-1", "org-1", "plan-1"),
+				assignedLocation("district-2", "org-2", null));
+		index = new AssignedLocationsIndex(assignedLocations);
+	}
+
+	@Test
+	public void testLookups() {
+		assertTrue(index.hasJurisdiction("district-2"));
+		assertFalse(index.hasJurisdiction("village-1"));
+		assertFalse(index.hasJurisdiction(null));
+		assertTrue(index.hasOrganization("org-1"));
+		assertTrue(index.hasPlan("plan-1"));
+		assertFalse(index.hasPlan(null));
+		assertTrue(index.hasAnyJurisdiction(Arrays.asList("village-2", "district-1")));
+		assertFalse(index.hasAnyJurisdiction(Arrays.asList("village-2", "village-3")));
+	}
+
+	private static AssignedLocations assignedLocation(String jurisdictionId, String organizationId, String planId) {
+		AssignedLocations assignedLocation = new AssignedLocations();
+		assignedLocation.setJurisdictionId(jurisdictionId);
+		assignedLocation.setOrganizationId(organizationId);
+		assignedLocation.setPlanId(planId);
+		return assignedLocation;
+	}
+}
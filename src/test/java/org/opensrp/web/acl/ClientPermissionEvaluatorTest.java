@@ -7,6 +7,7 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.opensrp.domain.AssignedLocations;
 import org.smartregister.domain.Client;
+import org.smartregister.domain.Event;
 import org.opensrp.repository.LocationRepository;
 import org.opensrp.repository.PractitionerRepository;
 import org.opensrp.repository.PractitionerRoleRepository;
@@ -16,7 +17,10 @@ import org.opensrp.service.PractitionerRoleService;
 import org.opensrp.service.PractitionerService;
 import org.smartregister.domain.Practitioner;
 import org.springframework.security.core.Authentication;
+import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.security.core.GrantedAuthority;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
 
 import java.io.Serializable;
 import java.util.ArrayList;
@@ -29,6 +33,8 @@ import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
@@ -192,4 +198,30 @@ public class ClientPermissionEvaluatorTest {
 		boolean hasPermission = clientPermissionEvaluator.hasObjectPermission(authentication, (Serializable) clients, null);
 		assertTrue(hasPermission);
 	}
+
+	@Test
+	public void testAssignedLocationsIndexIsSharedWithinRequest() {
+		Client client = new Client("base-entity-id");
+		client.setLocationId("cd09a3d4-01d9-485c-a1c5-a2eb078a61bf");
+		AssignedLocations assignedLocation = new AssignedLocations();
+		assignedLocation.setOrganizationId("cd09a3d4-01d9-485c-a1c5-a2eb078a61be");
+		assignedLocation.setJurisdictionId("cd09a3d4-01d9-485c-a1c5-a2eb078a61bf");
+		doReturn(Collections.singletonList(assignedLocation)).when(locationService).getAssignedLocations(anyString());
+		EventPermissionEvaluator eventPermissionEvaluator = new EventPermissionEvaluator();
+		eventPermissionEvaluator.setLocationService(locationService);
+		Event event = new Event();
+		event.setLocationId("cd09a3d4-01d9-485c-a1c5-a2eb078a61bf");
+
+		RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+		try {
+			assertTrue(clientPermissionEvaluator.hasPermission(authentication, client));
+			assertTrue(clientPermissionEvaluator.hasObjectPermission(authentication, client, null));
+			assertTrue(eventPermissionEvaluator.hasPermission(authentication, event));
+		}
+		finally {
+			RequestContextHolder.resetRequestAttributes();
+		}
+
+		verify(locationService, times(1)).getAssignedLocations("user");
+	}
 }
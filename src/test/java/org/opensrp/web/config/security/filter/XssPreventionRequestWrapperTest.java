@@ -0,0 +1,91 @@
+package org.opensrp.web.config.security.filter;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class XssPreventionRequestWrapperTest {
+
+	@Test
+	public void testEncodesStringValuesAndFieldNames() throws IOException {
+		String body = "{\"<b>name</b>\":\"<script>alert('x')</script>\",\"age\":12,\"weight\":3.5,\"alive\":true,"
+				+ "\"spouse\":null,\"tags\":[\"a&b\",1,{\"c\":\">\"}]}";
+
+		XssPreventionRequestWrapper wrapper = new XssPreventionRequestWrapper(request(body));
+
+		assertEquals("{\"&lt;b&gt;name&lt;/b&gt;\":\"&lt;script&gt;alert('x')&lt;/script&gt;\",\"age\":12,\"weight\":3.5,"
+				+ "\"alive\":true,\"spouse\":null,\"tags\":[\"a&amp;b\",1,{\"c\":\"&gt;\"}]}", read(wrapper));
+	}
+
+	@Test
+	public void testSanitizesBodyOnlyOnce() throws IOException {
+		XssPreventionRequestWrapper wrapper = new XssPreventionRequestWrapper(request("{\"name\":\"<b>\"}"));
+
+		assertSame(wrapper.getInputStream(), wrapper.getInputStream());
+		assertEquals("{\"name\":\"&lt;b&gt;\"}", IOUtils.toString(wrapper.getReader()));
+	}
+
+	@Test
+	public void testPassesNonJsonBodyThroughUnchanged() throws IOException {
+		String body = "name=<b>John</b>&location=Nairobi";
+
+		XssPreventionRequestWrapper wrapper = new XssPreventionRequestWrapper(request(body));
+
+		assertEquals(body, read(wrapper));
+	}
+
+	@Test
+	public void testStreamsBodiesLargerThanBufferLimit() throws IOException {
+		StringBuilder body = new StringBuilder("[");
+		StringBuilder expected = new StringBuilder("[");
+		for (int i = 0; i < 5000; i++) {
+			String separator = i == 0 ? "" : ",";
+			body.append(separator).append("{\"id\":").append(i).append(",\"note\":\"<i>").append(i).append("</i>\"}");
+			expected.append(separator).append("{\"id\":").append(i).append(",\"note\":\"&lt;i&gt;").append(i)
+					.append("&lt;/i&gt;\"}");
+		}
+		body.append("]");
+		expected.append("]");
+
+		XssPreventionRequestWrapper wrapper = new XssPreventionRequestWrapper(request(body.toString()), 1024);
+
+		assertEquals(expected.toString(), read(wrapper));
+	}
+
+	@Test
+	public void testInvalidJsonAfterBufferLimitFailsRead() {
+		StringBuilder body = new StringBuilder("[");
+		for (int i = 0; i < 5000; i++) {
+			body.append("{\"id\":").append(i).append("},");
+		}
+		body.append("<invalid>]");
+
+		XssPreventionRequestWrapper wrapper = new XssPreventionRequestWrapper(request(body.toString()), 1024);
+
+		try {
+			read(wrapper);
+			fail("Expected IOException");
+		}
+		catch (IOException e) {
+			// expected
+		}
+	}
+
+	private static MockHttpServletRequest request(String body) {
+		MockHttpServletRequest request = new MockHttpServletRequest("POST", "/rest/event/add");
+		request.setContentType("application/json");
+		request.setContent(body.getBytes(StandardCharsets.UTF_8));
+		return request;
+	}
+
+	private static String read(XssPreventionRequestWrapper wrapper) throws IOException {
+		return IOUtils.toString(wrapper.getInputStream(), StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,102 @@
+package org.opensrp.web.controller;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.powermock.reflect.Whitebox;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class AuthenticationPayloadCacheTest {
+
+	private AuthenticationPayloadCache cache;
+
+	private StringRedisTemplate redisTemplate;
+
+	private AtomicInteger loads;
+
+	private Callable<String> loader;
+
+	@Before
+	public void setUp() {
+		cache = new AuthenticationPayloadCache();
+		Whitebox.setInternalState(cache, "maximumSize", 100L);
+		Whitebox.setInternalState(cache, "ttlSeconds", 300L);
+		redisTemplate = mock(StringRedisTemplate.class);
+		Whitebox.setInternalState(cache, "redisTemplate", redisTemplate);
+		cache.init();
+		loads = new AtomicInteger();
+		loader = () -> "{\"team\":" + loads.incrementAndGet() + "}";
+	}
+
+	@Test
+	public void testComputesPayloadOnceAndVersionsIt() {
+		AuthenticationPayloadCache.Payload first = cache.get("janedoe", loader);
+		AuthenticationPayloadCache.Payload second = cache.get("janedoe", loader);
+
+		assertEquals(1, loads.get());
+		assertEquals(first.getVersion(), second.getVersion());
+		assertEquals(new AuthenticationPayloadCache.Payload("{\"team\":1}").getVersion(), first.getVersion());
+	}
+
+	@Test
+	public void testInvalidateEvictsAndPublishes() {
+		AuthenticationPayloadCache.Payload first = cache.get("janedoe", loader);
+
+		cache.invalidate(Collections.singleton("janedoe"));
+		AuthenticationPayloadCache.Payload second = cache.get("janedoe", loader);
+
+		assertEquals(2, loads.get());
+		assertNotEquals(first.getVersion(), second.getVersion());
+		verify(redisTemplate).convertAndSend(AuthenticationPayloadCache.INVALIDATION_CHANNEL, "[\"janedoe\"]");
+	}
+
+	@Test
+	public void testInvalidateAllPublishesWildcard() {
+		cache.get("janedoe", loader);
+
+		cache.invalidateAll();
+		cache.get("janedoe", loader);
+
+		assertEquals(2, loads.get());
+		verify(redisTemplate).convertAndSend(AuthenticationPayloadCache.INVALIDATION_CHANNEL,
+				AuthenticationPayloadCache.ALL_USERS);
+	}
+
+	@Test
+	public void testInvalidationMessagesEvictLocalEntries() {
+		cache.get("janedoe", loader);
+		cache.get("johndoe", loader);
+
+		cache.onMessage(message("[\"janedoe\"]"), null);
+		cache.get("janedoe", loader);
+		cache.get("johndoe", loader);
+		assertEquals(3, loads.get());
+
+		cache.onMessage(message(AuthenticationPayloadCache.ALL_USERS), null);
+		cache.get("janedoe", loader);
+		cache.get("johndoe", loader);
+		assertEquals(5, loads.get());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRethrowsLoaderExceptions() {
+		cache.get("janedoe", () -> {
+			throw new IllegalArgumentException();
+		});
+	}
+
+	private static DefaultMessage message(String body) {
+		return new DefaultMessage(AuthenticationPayloadCache.INVALIDATION_CHANNEL.getBytes(StandardCharsets.UTF_8),
+				body.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,180 @@
+package org.opensrp.web.ingest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.powermock.reflect.Whitebox;
+
+import java.io.ByteArrayInputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class IngestJobServiceTest {
+
+	@Rule
+	public TemporaryFolder spool = new TemporaryFolder();
+
+	private IngestJobService ingestJobService;
+
+	private List<String> payloads;
+
+	@Before
+	public void setUp() throws Exception {
+		ingestJobService = new IngestJobService();
+		Whitebox.setInternalState(ingestJobService, "spoolDirectory", spool.getRoot().getAbsolutePath());
+		Whitebox.setInternalState(ingestJobService, "threads", 1);
+		Whitebox.setInternalState(ingestJobService, "retentionHours", 72);
+		ingestJobService.init();
+		payloads = new CopyOnWriteArrayList<>();
+	}
+
+	@After
+	public void tearDown() {
+		ingestJobService.shutdown();
+	}
+
+	@Test
+	public void testSubmitProcessesPayloadInBackground() throws Exception {
+		ingestJobService.registerHandler("event", (payload, username) -> {
+			payloads.add(username + ":" + payload);
+			return Collections.singletonMap("failed_events", Collections.singletonList("1"));
+		});
+
+		IngestJob job = ingestJobService.submit("event", "{\"events\":[]}", "demo");
+
+		assertFalse(job.isDuplicate());
+		IngestJob completedJob = waitForJob(job.getJobId());
+		assertEquals(IngestJob.Status.COMPLETED, completedJob.getStatus());
+		assertEquals(Collections.singletonList("demo:{\"events\":[]}"), payloads);
+		assertEquals(Collections.singletonList("1"), completedJob.getResult().get("failed_events"));
+		assertFalse(spool.getRoot().toPath().resolve(job.getJobId() + ".payload").toFile().exists());
+	}
+
+	@Test
+	public void testSubmitDetectsDuplicateUploads() throws Exception {
+		ingestJobService.registerHandler("event", (payload, username) -> {
+			payloads.add(payload);
+			return Collections.emptyMap();
+		});
+
+		IngestJob job = ingestJobService.submit("event", "{\"events\":[]}", "demo");
+		waitForJob(job.getJobId());
+		IngestJob duplicate = ingestJobService.submit("event", "{\"events\":[]}", "demo");
+		IngestJob otherUserJob = ingestJobService.submit("event", "{\"events\":[]}", "other");
+		waitForJob(otherUserJob.getJobId());
+
+		assertTrue(duplicate.isDuplicate());
+		assertEquals(job.getJobId(), duplicate.getJobId());
+		assertNotEquals(job.getJobId(), otherUserJob.getJobId());
+		assertEquals(2, payloads.size());
+	}
+
+	@Test
+	public void testFailedJobIsReportedAndCanBeResubmitted() throws Exception {
+		ingestJobService.registerHandler("stock", (payload, username) -> {
+			throw new IllegalStateException("database unavailable");
+		});
+
+		IngestJob job = ingestJobService.submit("stock", "{\"stocks\":[]}", "demo");
+		IngestJob failedJob = waitForJob(job.getJobId());
+		assertEquals(IngestJob.Status.FAILED, failedJob.getStatus());
+		assertEquals("database unavailable", failedJob.getError());
+
+		ingestJobService.registerHandler("stock", (payload, username) -> Collections.emptyMap());
+		IngestJob resubmitted = ingestJobService.submit("stock", "{\"stocks\":[]}", "demo");
+		assertFalse(resubmitted.isDuplicate());
+		assertEquals(IngestJob.Status.COMPLETED, waitForJob(job.getJobId()).getStatus());
+	}
+
+	@Test
+	public void testPendingJobsAreResumedWhenHandlerIsRegistered() throws Exception {
+		IngestJob job = ingestJobService.submit("event", "{\"events\":[]}", "demo");
+		Thread.sleep(100);
+		assertEquals(IngestJob.Status.PENDING, ingestJobService.getJob(job.getJobId()).getStatus());
+
+		ingestJobService.registerHandler("event", (payload, username) -> Collections.emptyMap());
+
+		assertEquals(IngestJob.Status.COMPLETED, waitForJob(job.getJobId()).getStatus());
+	}
+
+	@Test
+	public void testStreamedPayloadIsSpooledUnderSameJobId() throws Exception {
+		ingestJobService.registerHandler("event", (payload, username) -> {
+			payloads.add(payload);
+			return Collections.emptyMap();
+		});
+
+		IngestJob job = ingestJobService.submit("event", "{\"events\":[]}", "demo");
+		waitForJob(job.getJobId());
+		IngestJob streamed = ingestJobService.submit("event",
+			new ByteArrayInputStream("{\"events\":[]}".getBytes(StandardCharsets.UTF_8)), "demo");
+
+		assertTrue(streamed.isDuplicate());
+		assertEquals(job.getJobId(), streamed.getJobId());
+		assertEquals(Collections.singletonList("{\"events\":[]}"), payloads);
+	}
+
+	@Test
+	public void testResubmittedFailedJobResumesFromLastCheckpoint() throws Exception {
+		List<Long> resumedFrom = new CopyOnWriteArrayList<>();
+		ingestJobService.registerHandler("location", new IngestHandler() {
+
+			@Override
+			public Map<String, ?> ingest(String payload, String username) {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public Map<String, ?> ingest(IngestJob job, Reader payload, Checkpoint checkpoint) throws Exception {
+				resumedFrom.add(job.getRecordsProcessed());
+				if (job.getRecordsProcessed() == null) {
+					checkpoint.save(2, Collections.singletonMap("imported_locations", 2));
+					throw new IllegalStateException("database unavailable");
+				}
+				return Collections.singletonMap("imported_locations", 3);
+			}
+		});
+
+		IngestJob job = ingestJobService.submit("location", "[{},{},{}]", "demo");
+		IngestJob failedJob = waitForJob(job.getJobId());
+		assertEquals(IngestJob.Status.FAILED, failedJob.getStatus());
+		assertEquals(Long.valueOf(2), failedJob.getRecordsProcessed());
+		assertEquals(2, failedJob.getResult().get("imported_locations"));
+
+		ingestJobService.submit("location", "[{},{},{}]", "demo");
+		IngestJob completedJob = waitForJob(job.getJobId());
+		assertEquals(IngestJob.Status.COMPLETED, completedJob.getStatus());
+		assertEquals(Arrays.asList(null, 2l), resumedFrom);
+		assertEquals(3, completedJob.getResult().get("imported_locations"));
+	}
+
+	@Test
+	public void testGetJobRejectsInvalidIds() throws Exception {
+		assertNull(ingestJobService.getJob("../../etc/passwd"));
+		assertNull(ingestJobService.getJob("event-0123456789abcdef0123456789abcdef"));
+	}
+
+	private IngestJob waitForJob(String jobId) throws Exception {
+		for (int i = 0; i < 100; i++) {
+			IngestJob job = ingestJobService.getJob(jobId);
+			if (job.getStatus() == IngestJob.Status.COMPLETED || job.getStatus() == IngestJob.Status.FAILED) {
+				return job;
+			}
+			Thread.sleep(50);
+		}
+		throw new AssertionError("Job " + jobId + " did not finish");
+	}
+}
@@ -0,0 +1,126 @@
+package org.opensrp.web.location;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opensrp.web.ingest.IngestJob;
+import org.opensrp.web.rest.LocationResource;
+import org.smartregister.domain.PhysicalLocation;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LocationImportHandlerTest {
+
+	private ExecutorService executor;
+
+	private List<List<PhysicalLocation>> batches;
+
+	private List<Long> checkpoints;
+
+	private Set<String> failedIds;
+
+	private LocationImportHandler handler;
+
+	@Before
+	public void setUp() {
+		executor = Executors.newFixedThreadPool(2);
+		batches = new CopyOnWriteArrayList<>();
+		checkpoints = new ArrayList<>();
+		failedIds = Collections.emptySet();
+		handler = new LocationImportHandler(false, locations -> {
+			batches.add(locations);
+			return locations.stream().map(PhysicalLocation::getId).filter(failedIds::contains).collect(Collectors.toSet());
+		}, executor, 2, 2);
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdown();
+	}
+
+	@Test
+	public void testImportsRecordsInBatchesAndReportsInvalidRecords() throws Exception {
+		failedIds = Collections.singleton("4");
+		String payload = "[" + structure("1", point(32.59, -14.17)) + "," + structure("2", point(200, -14.17)) + ","
+				+ structure("3", point(32.59, -14.17)) + ",{\"type\":\"Feature\"}," + structure("4", point(32.59, -14.17))
+				+ "]";
+
+		Map<String, ?> result = handler.ingest(new IngestJob(), new StringReader(payload),
+			(recordsProcessed, progress) -> checkpoints.add(recordsProcessed));
+
+		assertEquals(Arrays.asList(Collections.singletonList("1"), Collections.singletonList("3"),
+			Collections.singletonList("4")), ids(batches));
+		assertTrue(batches.get(0).stream().noneMatch(PhysicalLocation::isJurisdiction));
+		assertEquals(Arrays.asList(2l, 4l, 5l), checkpoints);
+		assertEquals(2l, result.get(LocationImportHandler.IMPORTED_LOCATIONS));
+		assertEquals(Collections.singletonList("4"), result.get(LocationImportHandler.FAILED_LOCATIONS));
+		@SuppressWarnings("unchecked")
+		List<Map<String, Object>> invalid = (List<Map<String, Object>>) result.get(LocationImportHandler.INVALID_LOCATIONS);
+		assertEquals(2, invalid.size());
+		assertEquals(1l, invalid.get(0).get("index"));
+		assertEquals("2", invalid.get(0).get("id"));
+		assertEquals(3l, invalid.get(1).get("index"));
+		assertEquals("location has no id", invalid.get(1).get("error"));
+	}
+
+	@Test
+	public void testResumesAfterLastCheckpoint() throws Exception {
+		IngestJob job = new IngestJob("structure-0123456789abcdef0123456789abcdef", "structure", "demo");
+		job.setRecordsProcessed(2l);
+		Map<String, Object> checkpoint = new HashMap<>();
+		checkpoint.put(LocationImportHandler.IMPORTED_LOCATIONS, 1);
+		checkpoint.put(LocationImportHandler.FAILED_LOCATIONS, Collections.emptyList());
+		checkpoint.put(LocationImportHandler.INVALID_LOCATIONS,
+			Collections.singletonList(Collections.singletonMap("index", 1)));
+		job.setResult(checkpoint);
+		String payload = "[" + structure("1", point(32.59, -14.17)) + "," + structure("2", point(200, -14.17)) + ","
+				+ structure("3", point(32.59, -14.17)) + "]";
+
+		Map<String, ?> result = handler.ingest(job, new StringReader(payload),
+			(recordsProcessed, progress) -> checkpoints.add(recordsProcessed));
+
+		assertEquals(Collections.singletonList(Collections.singletonList("3")), ids(batches));
+		assertEquals(Collections.singletonList(3l), checkpoints);
+		assertEquals(2l, result.get(LocationImportHandler.IMPORTED_LOCATIONS));
+		assertEquals(1, ((List<?>) result.get(LocationImportHandler.INVALID_LOCATIONS)).size());
+	}
+
+	@Test
+	public void testNormalizesGeometries() throws Exception {
+		handler.ingest("[" + structure("1",
+			"{\"type\":\"Polygon\",\"coordinates\":[[[32.59,-14.17],[32.6,-14.17],[32.6,-14.17],[32.6,-14.18],[32.59,-14.18]]]}")
+				+ "]", "demo");
+
+		assertEquals("[[[32.59,-14.17],[32.6,-14.17],[32.6,-14.18],[32.59,-14.18],[32.59,-14.17]]]",
+			LocationResource.gson.toJsonTree(batches.get(0).get(0).getGeometry()).getAsJsonObject().get("coordinates")
+					.toString());
+	}
+
+	private static List<List<String>> ids(List<List<PhysicalLocation>> batches) {
+		return batches.stream().map(batch -> batch.stream().map(PhysicalLocation::getId).collect(Collectors.toList()))
+				.collect(Collectors.toList());
+	}
+
+	private static String point(double longitude, double latitude) {
+		return "{\"type\":\"Point\",\"coordinates\":[" + longitude + "," + latitude + "]}";
+	}
+
+	private static String structure(String id, String geometry) {
+		return "{\"type\":\"Feature\",\"id\":\"" + id + "\",\"geometry\":" + geometry
+				+ ",\"properties\":{\"status\":\"Active\",\"parentId\":\"3734\",\"geographicLevel\":5,\"version\":0}}";
+	}
+}
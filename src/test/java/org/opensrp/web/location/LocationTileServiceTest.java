@@ -0,0 +1,188 @@
+package org.opensrp.web.location;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opensrp.service.PhysicalLocationService;
+import org.opensrp.web.exceptions.TileSourceLoadingException;
+import org.opensrp.web.exceptions.TileSourceTooLargeException;
+import org.opensrp.web.rest.LocationResource;
+import org.powermock.reflect.Whitebox;
+import org.smartregister.domain.PhysicalLocation;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class LocationTileServiceTest {
+
+	private static final double LATITUDE = -14.1699446;
+
+	private static final double LONGITUDE = 32.5978597;
+
+	private LocationTileService tileService;
+
+	private PhysicalLocationService locationService;
+
+	@Before
+	public void setUp() {
+		locationService = mock(PhysicalLocationService.class);
+		when(locationService.findLocationByIdWithChildren(false, "3734", Integer.MAX_VALUE))
+				.thenReturn(Collections.singletonList(location("3734", "21", 5, "null")));
+		when(locationService.findLocationByIdWithChildren(true, "3734", Integer.MAX_VALUE))
+				.thenReturn(Collections.singletonList(location("3734", "21", 5,
+					"{\"type\":\"Polygon\",\"coordinates\":[[[32.59,-14.16],[32.60,-14.16],[32.60,-14.18],[32.59,-14.18],[32.59,-14.16]]]}")));
+		when(locationService.findStructuresByParentAndServerVersion("3734", 0l)).thenReturn(Collections.singletonList(
+			location("90397", "3734", 7, "{\"type\":\"Point\",\"coordinates\":[" + LONGITUDE + "," + LATITUDE + "]}")));
+		tileService = new LocationTileService();
+		tileService.setLocationService(locationService);
+		Whitebox.setInternalState(tileService, "buffer", 64);
+		Whitebox.setInternalState(tileService, "structureMinZoom", 14);
+		Whitebox.setInternalState(tileService, "cacheSizeBytes", 1048576l);
+		Whitebox.setInternalState(tileService, "sourceCacheVertices", 1000000l);
+		Whitebox.setInternalState(tileService, "maxSourceFeatures", 1000l);
+		Whitebox.setInternalState(tileService, "asyncSourceFeatures", 100l);
+		Whitebox.setInternalState(tileService, "loaderThreads", 1);
+		Whitebox.setInternalState(tileService, "sourceTtl", 3600l);
+		Whitebox.setInternalState(tileService, "refreshInterval", 60);
+		Whitebox.setInternalState(tileService, "batchSize", 20);
+		tileService.init();
+	}
+
+	@Test
+	public void testGetVersionReturnsHighestServerVersion() {
+		assertEquals(Long.valueOf(7), tileService.getVersion("3734"));
+	}
+
+	@Test
+	public void testGetTileIncludesStructuresFromMinimumZoom() {
+		byte[] tile = tileService.getTile("3734", 14, column(14), row(14));
+		assertTrue(contains(tile, LocationTileService.JURISDICTIONS_LAYER));
+		assertTrue(contains(tile, LocationTileService.STRUCTURES_LAYER));
+		assertTrue(contains(tile, "90397"));
+
+		tile = tileService.getTile("3734", 10, column(10), row(10));
+		assertTrue(contains(tile, LocationTileService.JURISDICTIONS_LAYER));
+		assertFalse(contains(tile, LocationTileService.STRUCTURES_LAYER));
+	}
+
+	@Test
+	public void testGetTileCachesSourcesAndTiles() {
+		byte[] tile = tileService.getTile("3734", 14, column(14), row(14));
+		assertSame(tile, tileService.getTile("3734", 14, column(14), row(14)));
+		tileService.getTile("3734", 13, column(13), row(13));
+		verify(locationService).findLocationByIdWithChildren(true, "3734", Integer.MAX_VALUE);
+		verify(locationService).findStructuresByParentAndServerVersion("3734", 0l);
+		verify(locationService, never()).countLocationsByIds(Collections.singletonList("3734"), 8l);
+	}
+
+	@Test
+	public void testReloadsSourceWhenStructuresChange() {
+		Whitebox.setInternalState(tileService, "refreshInterval", 0);
+		assertEquals(Long.valueOf(7), tileService.getVersion("3734"));
+		assertEquals(Long.valueOf(7), tileService.getVersion("3734"));
+		verify(locationService).findLocationByIdWithChildren(true, "3734", Integer.MAX_VALUE);
+
+		when(locationService.countStructuresByParentAndServerVersion("3734", 8l)).thenReturn(1l);
+		when(locationService.findStructuresByParentAndServerVersion("3734", 0l)).thenReturn(Collections.singletonList(
+			location("90397", "3734", 9, "{\"type\":\"Point\",\"coordinates\":[" + LONGITUDE + "," + LATITUDE + "]}")));
+		assertEquals(Long.valueOf(9), tileService.getVersion("3734"));
+		verify(locationService, times(2)).findLocationByIdWithChildren(true, "3734", Integer.MAX_VALUE);
+	}
+
+	@Test
+	public void testGetTileOfUnknownJurisdictionReturnsNull() {
+		assertNull(tileService.getVersion("unknown"));
+		assertNull(tileService.getTile("unknown", 0, 0, 0));
+		verify(locationService, never()).findStructuresByParentAndServerVersion(anyString(), anyLong());
+	}
+
+	@Test
+	public void testEvictsSourcesAboveVertexLimit() {
+		Whitebox.setInternalState(tileService, "sourceCacheVertices", 4l);
+		tileService.init();
+		assertEquals(Long.valueOf(7), tileService.getVersion("3734"));
+		assertEquals(Long.valueOf(7), tileService.getVersion("3734"));
+		verify(locationService, times(2)).findLocationByIdWithChildren(true, "3734", Integer.MAX_VALUE);
+	}
+
+	@Test
+	public void testRefusesJurisdictionWithTooManyFeatures() {
+		when(locationService.countStructuresByParentAndServerVersion("3734", 0l)).thenReturn(1000l);
+		try {
+			tileService.getVersion("3734");
+			fail("Expected the jurisdiction to be refused");
+		}
+		catch (TileSourceTooLargeException e) {
+			assertTrue(e.getMessage().contains("1001"));
+		}
+		verify(locationService, never()).findLocationByIdWithChildren(true, "3734", Integer.MAX_VALUE);
+		verify(locationService, never()).findStructuresByParentAndServerVersion(anyString(), anyLong());
+	}
+
+	@Test
+	public void testLoadsLargeJurisdictionInBackgroundAndServesPreviousGeometries() throws InterruptedException {
+		when(locationService.countStructuresByParentAndServerVersion("3734", 0l)).thenReturn(200l);
+		try {
+			tileService.getVersion("3734");
+			fail("Expected the jurisdiction to be loading");
+		}
+		catch (TileSourceLoadingException e) {
+			// loaded by the background pool
+		}
+		awaitLoader();
+		assertEquals(Long.valueOf(7), tileService.getVersion("3734"));
+		verify(locationService).findLocationByIdWithChildren(true, "3734", Integer.MAX_VALUE);
+
+		Whitebox.setInternalState(tileService, "refreshInterval", 0);
+		when(locationService.countStructuresByParentAndServerVersion("3734", 8l)).thenReturn(1l);
+		assertEquals(Long.valueOf(7), tileService.getVersion("3734"));
+		verify(locationService).findLocationByIdWithChildren(true, "3734", Integer.MAX_VALUE);
+	}
+
+	private void awaitLoader() throws InterruptedException {
+		tileService.shutdownSourceLoader();
+		ThreadPoolExecutor sourceLoader = Whitebox.getInternalState(tileService, "sourceLoader");
+		assertTrue(sourceLoader.awaitTermination(10, TimeUnit.SECONDS));
+	}
+
+	private static int column(int zoom) {
+		return (int) Math.floor(VectorTileEncoder.mercatorX(LONGITUDE) * (1 << zoom));
+	}
+
+	private static int row(int zoom) {
+		return (int) Math.floor(VectorTileEncoder.mercatorY(LATITUDE) * (1 << zoom));
+	}
+
+	private static boolean contains(byte[] tile, String value) {
+		byte[] sequence = value.getBytes(StandardCharsets.UTF_8);
+		for (int i = 0; i + sequence.length <= tile.length; i++) {
+			if (Arrays.equals(Arrays.copyOfRange(tile, i, i + sequence.length), sequence)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static PhysicalLocation location(String id, String parentId, long serverVersion, String geometry) {
+		return LocationResource.gson.fromJson("{\"type\":\"Feature\",\"id\":\"" + id + "\",\"geometry\":" + geometry
+				+ ",\"properties\":{\"status\":\"Active\",\"parentId\":\"" + parentId + "\",\"name\":\"Location " + id
+				+ "\",\"geographicLevel\":4,\"version\":0},\"serverVersion\":" + serverVersion + "}",
+			PhysicalLocation.class);
+	}
+}
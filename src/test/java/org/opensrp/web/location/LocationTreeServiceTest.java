@@ -0,0 +1,149 @@
+package org.opensrp.web.location;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opensrp.api.util.LocationTree;
+import org.opensrp.service.PhysicalLocationService;
+import org.powermock.reflect.Whitebox;
+import org.smartregister.domain.LocationProperty;
+import org.smartregister.domain.PhysicalLocation;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class LocationTreeServiceTest {
+
+	private LocationTreeService locationTreeService;
+
+	private PhysicalLocationService locationService;
+
+	@Before
+	public void setUp() {
+		locationService = mock(PhysicalLocationService.class);
+		when(locationService.findAllLocations(false, 0L, 2, false)).thenReturn(
+				Arrays.asList(location("country", null, 1), location("province", "country", 2)));
+		when(locationService.findAllLocations(false, 3L, 2, false)).thenReturn(
+				Arrays.asList(location("district", "province", 3), location("other-province", "country", 4)));
+		when(locationService.findAllLocations(false, 5L, 2, false)).thenReturn(Collections.emptyList());
+		locationTreeService = new LocationTreeService();
+		locationTreeService.setLocationService(locationService);
+		Whitebox.setInternalState(locationTreeService, "pageSize", 2);
+		Whitebox.setInternalState(locationTreeService, "refreshInterval", 60);
+		locationTreeService.init();
+	}
+
+	@Test
+	public void testLoadsHierarchyInPages() {
+		assertTrue(locationTreeService.isLoaded());
+		verify(locationService).findAllLocations(false, 5L, 2, false);
+		assertEquals(4, locationTreeService.findLocationsWithChildren(Collections.singleton("country")).size());
+	}
+
+	@Test
+	public void testFindLocationsWithChildren() {
+		assertEquals(Arrays.asList("province", "district"),
+				ids(locationTreeService.findLocationsWithChildren(Collections.singleton("province"))));
+		assertTrue(locationTreeService.findLocationsWithChildren(Collections.singleton("unknown")).isEmpty());
+	}
+
+	@Test
+	public void testUpdateMovesAndRemovesLocations() {
+		locationTreeService.update(Collections.singletonList(location("district", "other-province", 5)));
+
+		assertEquals(Collections.singletonList("province"),
+				ids(locationTreeService.findLocationsWithChildren(Collections.singleton("province"))));
+		assertEquals(Arrays.asList("other-province", "district"),
+				ids(locationTreeService.findLocationsWithChildren(Collections.singleton("other-province"))));
+
+		PhysicalLocation inactive = location("district", "other-province", 6);
+		inactive.getProperties().setStatus(LocationProperty.PropertyStatus.INACTIVE);
+		locationTreeService.update(Collections.singletonList(inactive));
+
+		assertEquals(Collections.singletonList("other-province"),
+				ids(locationTreeService.findLocationsWithChildren(Collections.singleton("other-province"))));
+	}
+
+	@Test
+	public void testFindDescendantIdsFollowsMovesAndRemovals() {
+		assertEquals(set("country", "province", "district", "other-province"),
+			locationTreeService.findDescendantIds("country"));
+		assertEquals("province", locationTreeService.findDescendantIds("province").iterator().next());
+		assertEquals(set("province", "district"), locationTreeService.findDescendantIds("province"));
+		assertTrue(locationTreeService.findDescendantIds("unknown").isEmpty());
+
+		locationTreeService.update(Collections.singletonList(location("province", "other-province", 5)));
+		assertEquals(set("other-province", "province", "district"),
+			locationTreeService.findDescendantIds("other-province"));
+		assertEquals(set("country", "province", "district", "other-province"),
+			locationTreeService.findDescendantIds("country"));
+
+		PhysicalLocation inactive = location("province", "other-province", 6);
+		inactive.getProperties().setStatus(LocationProperty.PropertyStatus.INACTIVE);
+		locationTreeService.update(Collections.singletonList(inactive));
+		assertEquals(set("country", "other-province"), locationTreeService.findDescendantIds("country"));
+		assertTrue(locationTreeService.findDescendantIds("province").isEmpty());
+
+		locationTreeService.update(Collections.singletonList(location("province", "country", 7)));
+		assertEquals(set("country", "province", "district", "other-province"),
+			locationTreeService.findDescendantIds("country"));
+		assertEquals(set("other-province"), locationTreeService.findDescendantIds("other-province"));
+	}
+
+	@Test
+	public void testBuildLocationTree() {
+		LocationTree locationTree = locationTreeService.buildLocationTree(Arrays.asList("province", "district"));
+
+		assertTrue(locationTree.hasLocation("province"));
+		assertTrue(locationTree.hasLocation("district"));
+		assertFalse(locationTree.hasLocation("country"));
+		assertEquals("Location district", locationTree.findLocation("district").getName());
+	}
+
+	@Test
+	public void testDoesNotUseHierarchyWhenLoadingFails() {
+		PhysicalLocationService failingService = mock(PhysicalLocationService.class);
+		when(failingService.findAllLocations(anyBoolean(), anyLong(), anyInt(), anyBoolean()))
+				.thenThrow(new IllegalStateException());
+		LocationTreeService service = new LocationTreeService();
+		service.setLocationService(failingService);
+		Whitebox.setInternalState(service, "pageSize", 2);
+
+		service.init();
+
+		assertFalse(service.isLoaded());
+	}
+
+	private static Set<String> set(String... ids) {
+		return new HashSet<>(Arrays.asList(ids));
+	}
+
+	private static List<String> ids(List<PhysicalLocation> locations) {
+		return locations.stream().map(PhysicalLocation::getId).collect(Collectors.toList());
+	}
+
+	private static PhysicalLocation location(String id, String parentId, long serverVersion) {
+		LocationProperty properties = new LocationProperty();
+		properties.setName("Location " + id);
+		properties.setParentId(parentId);
+		properties.setStatus(LocationProperty.PropertyStatus.ACTIVE);
+		PhysicalLocation location = new PhysicalLocation();
+		location.setId(id);
+		location.setServerVersion(serverVersion);
+		location.setProperties(properties);
+		return location;
+	}
+}
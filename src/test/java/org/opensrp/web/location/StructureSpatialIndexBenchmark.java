@@ -0,0 +1,125 @@
+package org.opensrp.web.location;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.opensrp.domain.StructureDetails;
+import org.opensrp.service.PhysicalLocationService;
+import org.opensrp.web.rest.LocationResource;
+import org.powermock.reflect.Whitebox;
+import org.smartregister.domain.PhysicalLocation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Benchmarks radius queries of the structure spatial index against a scan of all structure centroids,
+ * which is what answering the query without a spatial index costs before any database round trip.
+ * Structures are spread over a 0.5 degree square, roughly the size of an operational district, and
+ * queries use a 100 meter radius as sprayers do. Time per query of the index should stay flat as the
+ * number of structures grows while the scan grows linearly.
+ * <p>
+ * Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.opensrp.web.location.StructureSpatialIndexBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StructureSpatialIndexBenchmark {
+
+	private static final double MIN_LATITUDE = -14.5;
+
+	private static final double MIN_LONGITUDE = 32.5;
+
+	private static final double EXTENT = 0.5;
+
+	private static final double RADIUS = 100;
+
+	@Param({ "10000", "100000", "500000" })
+	private int structureCount;
+
+	private StructureSpatialIndex index;
+
+	private double[][] centroids;
+
+	private double[][] queries;
+
+	private int query;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(42);
+		List<PhysicalLocation> structures = new ArrayList<>(structureCount);
+		centroids = new double[structureCount][];
+		for (int i = 0; i < structureCount; i++) {
+			double latitude = MIN_LATITUDE + random.nextDouble() * EXTENT;
+			double longitude = MIN_LONGITUDE + random.nextDouble() * EXTENT;
+			centroids[i] = new double[] { latitude, longitude };
+			structures.add(LocationResource.gson.fromJson("{\"type\":\"Feature\",\"id\":\"" + i
+					+ "\",\"geometry\":{\"type\":\"Point\",\"coordinates\":[" + longitude + "," + latitude
+					+ "]},\"properties\":{\"status\":\"Active\",\"parentId\":\"district\",\"version\":0},\"serverVersion\":"
+					+ i + "}",
+				PhysicalLocation.class));
+		}
+		PhysicalLocationService locationService = mock(PhysicalLocationService.class);
+		when(locationService.findAllStructures(eq(true), anyLong(), anyInt(), any(), any(), any()))
+				.thenReturn(structures, Collections.emptyList());
+
+		index = new StructureSpatialIndex();
+		index.setLocationService(locationService);
+		Whitebox.setInternalState(index, "cellSize", 0.01);
+		Whitebox.setInternalState(index, "pageSize", structureCount + 1);
+		index.load();
+
+		queries = new double[1024][];
+		for (int i = 0; i < queries.length; i++) {
+			queries[i] = centroids[random.nextInt(structureCount)];
+		}
+	}
+
+	@Benchmark
+	public List<StructureDetails> index() {
+		double[] point = queries[query++ & (queries.length - 1)];
+		return index.findWithinRadius(point[0], point[1], RADIUS);
+	}
+
+	@Benchmark
+	public List<String> scan() {
+		double[] point = queries[query++ & (queries.length - 1)];
+		List<String> matches = new ArrayList<>();
+		for (int i = 0; i < centroids.length; i++) {
+			if (StructureSpatialIndex.distance(point[0], point[1], centroids[i][0], centroids[i][1]) <= RADIUS) {
+				matches.add(String.valueOf(i));
+			}
+		}
+		return matches;
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(StructureSpatialIndexBenchmark.class.getSimpleName()).build()).run();
+	}
+}
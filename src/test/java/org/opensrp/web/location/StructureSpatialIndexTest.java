@@ -0,0 +1,108 @@
+package org.opensrp.web.location;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opensrp.domain.StructureDetails;
+import org.opensrp.service.PhysicalLocationService;
+import org.opensrp.web.rest.LocationResource;
+import org.powermock.reflect.Whitebox;
+import org.smartregister.domain.LocationProperty;
+import org.smartregister.domain.PhysicalLocation;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class StructureSpatialIndexTest {
+
+	private StructureSpatialIndex index;
+
+	@Before
+	public void setUp() {
+		PhysicalLocationService locationService = mock(PhysicalLocationService.class);
+		when(locationService.findAllStructures(true, 0L, 2, null, null, null)).thenReturn(
+				Arrays.asList(point("near", 1, -14.1620, 32.5979), point("far", 2, -14.1700, 32.5979)));
+		when(locationService.findAllStructures(true, 3L, 2, null, null, null)).thenReturn(
+				Collections.singletonList(polygon("polygon", 3,
+						"[[32.5978,-14.1650],[32.5980,-14.1650],[32.5980,-14.1652],[32.5978,-14.1652],[32.5978,-14.1650]]")));
+		index = new StructureSpatialIndex();
+		index.setLocationService(locationService);
+		Whitebox.setInternalState(index, "enabled", true);
+		Whitebox.setInternalState(index, "cellSize", 0.01);
+		Whitebox.setInternalState(index, "pageSize", 2);
+		Whitebox.setInternalState(index, "refreshInterval", 60);
+		index.load();
+	}
+
+	@Test
+	public void testLoadsStructuresInPages() {
+		assertTrue(index.ensureLoaded());
+		assertEquals(3, index.size());
+	}
+
+	@Test
+	public void testFindWithinRadiusReturnsNearestFirst() {
+		assertEquals(Collections.singletonList("near"), ids(index.findWithinRadius(-14.1619809, 32.5978597, 100)));
+		assertEquals(Arrays.asList("near", "polygon", "far"),
+				ids(index.findWithinRadius(-14.1619809, 32.5978597, 1000)));
+		assertEquals("3221", index.findWithinRadius(-14.1619809, 32.5978597, 100).get(0).getStructureJurisdictionId());
+	}
+
+	@Test
+	public void testFindWithinBoundingBox() {
+		assertEquals(Collections.singletonList("far"),
+				ids(index.findWithinBoundingBox(-14.171, 32.597, -14.169, 32.599)));
+	}
+
+	@Test
+	public void testUpdateMovesAndRemovesStructures() {
+		index.update(Collections.singletonList(point("far", 4, -14.1621, 32.5979)));
+		assertEquals(Arrays.asList("near", "far"), ids(index.findWithinRadius(-14.1619809, 32.5978597, 100)));
+
+		PhysicalLocation inactive = point("near", 5, -14.1620, 32.5979);
+		inactive.getProperties().setStatus(LocationProperty.PropertyStatus.INACTIVE);
+		index.update(Collections.singletonList(inactive));
+		assertEquals(Collections.singletonList("far"), ids(index.findWithinRadius(-14.1619809, 32.5978597, 100)));
+		assertEquals(2, index.size());
+	}
+
+	@Test
+	public void testCentroidDoesNotCountClosingPositionTwice() {
+		assertArrayEquals(new double[] { 1, 1 }, StructureSpatialIndex.centroid(
+				polygon("square", 1, "[[0,0],[2,0],[2,2],[0,2],[0,0]]").getGeometry()),
+				0.0000001);
+	}
+
+	@Test
+	public void testIsNotUsedWhenDisabled() {
+		StructureSpatialIndex disabled = new StructureSpatialIndex();
+		assertFalse(disabled.ensureLoaded());
+	}
+
+	private static List<String> ids(List<StructureDetails> structures) {
+		return structures.stream().map(StructureDetails::getStructureId).collect(Collectors.toList());
+	}
+
+	private static PhysicalLocation point(String id, long serverVersion, double latitude, double longitude) {
+		return structure(id, serverVersion, "{\"type\":\"Point\",\"coordinates\":[" + longitude + "," + latitude + "]}");
+	}
+
+	private static PhysicalLocation polygon(String id, long serverVersion, String ring) {
+		return structure(id, serverVersion, "{\"type\":\"Polygon\",\"coordinates\":[" + ring + "]}");
+	}
+
+	private static PhysicalLocation structure(String id, long serverVersion, String geometry) {
+		return LocationResource.gson.fromJson("{\"type\":\"Feature\",\"id\":\"" + id + "\",\"geometry\":" + geometry
+				+ ",\"properties\":{\"status\":\"Active\",\"parentId\":\"3221\",\"name\":\"Structure " + id
+				+ "\",\"geographicLevel\":5,\"version\":0},\"serverVersion\":" + serverVersion + "}",
+			PhysicalLocation.class);
+	}
+}
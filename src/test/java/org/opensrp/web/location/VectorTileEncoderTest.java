@@ -0,0 +1,124 @@
+package org.opensrp.web.location;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class VectorTileEncoderTest {
+
+	@Test
+	public void testCommandsAndZigZag() {
+		assertEquals(9, VectorTileEncoder.command(1, 1));
+		assertEquals(26, VectorTileEncoder.command(2, 3));
+		assertEquals(15, VectorTileEncoder.command(7, 1));
+		assertEquals(0, VectorTileEncoder.zigZag(0));
+		assertEquals(1, VectorTileEncoder.zigZag(-1));
+		assertEquals(2, VectorTileEncoder.zigZag(1));
+		assertEquals(4095, VectorTileEncoder.zigZag(-2048));
+	}
+
+	@Test
+	public void testEncodesEmptyTile() {
+		assertEquals(0, new VectorTileEncoder(VectorTileEncoder.DEFAULT_EXTENT, 64).encode().length);
+	}
+
+	@Test
+	public void testEncodesPolygon() {
+		VectorTileEncoder encoder = new VectorTileEncoder(VectorTileEncoder.DEFAULT_EXTENT, 64);
+		assertTrue(encoder.addFeature("jurisdictions",
+			polygon(new double[] { 0.25, 0.25, 0.75, 0.25, 0.75, 0.75, 0.25, 0.75, 0.25, 0.25 }), 0, 0, 0));
+		byte[] tile = encoder.encode();
+
+		assertTrue(contains(tile, "jurisdictions".getBytes(StandardCharsets.UTF_8)));
+		assertTrue(contains(tile, "3734".getBytes(StandardCharsets.UTF_8)));
+		assertTrue(contains(tile, new byte[] { 34, 16, 9, (byte) 0x80, 0x10, (byte) 0x80, 0x10, 26, (byte) 0x80, 0x20, 0, 0,
+				(byte) 0x80, 0x20, (byte) 0xff, 0x1f, 0, 15 }));
+	}
+
+	@Test
+	public void testReversesCounterClockwiseExteriorRing() {
+		VectorTileEncoder clockwise = new VectorTileEncoder(VectorTileEncoder.DEFAULT_EXTENT, 64);
+		clockwise.addFeature("jurisdictions",
+			polygon(new double[] { 0.25, 0.25, 0.75, 0.25, 0.75, 0.75, 0.25, 0.75, 0.25, 0.25 }), 0, 0, 0);
+		VectorTileEncoder counterClockwise = new VectorTileEncoder(VectorTileEncoder.DEFAULT_EXTENT, 64);
+		counterClockwise.addFeature("jurisdictions",
+			polygon(new double[] { 0.25, 0.25, 0.25, 0.75, 0.75, 0.75, 0.75, 0.25, 0.25, 0.25 }), 0, 0, 0);
+
+		// reversed, the ring starts from its last distinct point and goes clockwise
+		assertTrue(contains(counterClockwise.encode(), new byte[] { 9, (byte) 0x80, 0x30, (byte) 0x80, 0x10, 26,
+				0, (byte) 0x80, 0x20, (byte) 0xff, 0x1f, 0, 0, (byte) 0xff, 0x1f, 15 }));
+		assertFalse(Arrays.equals(clockwise.encode(), counterClockwise.encode()));
+	}
+
+	@Test
+	public void testEncodesPointsRelativeToTile() {
+		VectorTileEncoder encoder = new VectorTileEncoder(VectorTileEncoder.DEFAULT_EXTENT, 64);
+		assertTrue(encoder.addFeature("structures", point(0.5, 0.5), 1, 1, 1));
+		assertTrue(contains(encoder.encode(), new byte[] { 34, 3, 9, 0, 0 }));
+	}
+
+	@Test
+	public void testSkipsFeaturesOutsideTileAndBuffer() {
+		VectorTileEncoder encoder = new VectorTileEncoder(VectorTileEncoder.DEFAULT_EXTENT, 64);
+		assertTrue(encoder.addFeature("structures", point(0.5 + 32.0 / 4096 / 2, 0.25), 1, 0, 0));
+		assertFalse(encoder.addFeature("structures", point(0.5 + 128.0 / 4096 / 2, 0.25), 1, 0, 0));
+		assertFalse(encoder.addFeature("structures", point(0.25, 0.75), 1, 0, 0));
+	}
+
+	@Test
+	public void testClipsFeaturesToTileAndBufferAtHighZoom() {
+		int tile = 1 << 21;
+		double row = 0.5 + 0.5 / (1 << 22);
+		VectorTileEncoder encoder = new VectorTileEncoder(VectorTileEncoder.DEFAULT_EXTENT, 64);
+		assertTrue(encoder.addFeature("jurisdictions",
+			polygon(new double[] { 0.25, 0.25, 0.75, 0.25, 0.75, 0.75, 0.25, 0.75, 0.25, 0.25 }), 22, tile, tile));
+		assertTrue(encoder.addFeature("roads", line(new double[] { 0.25, row, 0.75, row }), 22, tile, tile));
+		byte[] tile22 = encoder.encode();
+
+		// the ring is clipped to the buffer, a square from -64 to 4160 starting from its bottom left corner
+		assertTrue(contains(tile22, new byte[] { 34, 15, 9, 0x7f, (byte) 0x80, 0x41, 26, 0, (byte) 0xff, 0x41,
+				(byte) 0x80, 0x42, 0, 0, (byte) 0x80, 0x42, 15 }));
+		// the line is clipped from -64 to 4160 across the middle of the tile
+		assertTrue(contains(tile22, new byte[] { 34, 8, 9, 0x7f, (byte) 0x80, 0x20, 10, (byte) 0x80, 0x42, 0 }));
+	}
+
+	@Test
+	public void testProjectsToWebMercator() {
+		assertEquals(0.5, VectorTileEncoder.mercatorX(0), 0.0000001);
+		assertEquals(0.5, VectorTileEncoder.mercatorY(0), 0.0000001);
+		assertEquals(0, VectorTileEncoder.mercatorY(90), 0.0001);
+		assertEquals(1, VectorTileEncoder.mercatorY(-90), 0.0001);
+	}
+
+	private static VectorTileEncoder.Feature polygon(double[] ring) {
+		return new VectorTileEncoder.Feature(Collections.singletonMap("id", "3734"), VectorTileEncoder.POLYGON,
+				Collections.singletonList(ring), Collections.singletonList(true));
+	}
+
+	private static VectorTileEncoder.Feature line(double[] coordinates) {
+		return new VectorTileEncoder.Feature(Collections.singletonMap("id", "1"), VectorTileEncoder.LINESTRING,
+				Collections.singletonList(coordinates), Collections.emptyList());
+	}
+
+	private static VectorTileEncoder.Feature point(double x, double y) {
+		List<double[]> parts = Collections.singletonList(new double[] { x, y });
+		return new VectorTileEncoder.Feature(Collections.singletonMap("id", "1"), VectorTileEncoder.POINT, parts,
+				Collections.emptyList());
+	}
+
+	private static boolean contains(byte[] bytes, byte[] sequence) {
+		for (int i = 0; i + sequence.length <= bytes.length; i++) {
+			if (Arrays.equals(Arrays.copyOfRange(bytes, i, i + sequence.length), sequence)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
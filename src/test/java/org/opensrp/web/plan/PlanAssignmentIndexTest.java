@@ -0,0 +1,115 @@
+package org.opensrp.web.plan;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opensrp.domain.AssignedLocations;
+import org.opensrp.service.OrganizationService;
+import org.opensrp.service.PhysicalLocationService;
+import org.opensrp.web.acl.AssignedLocationsCache;
+import org.powermock.reflect.Whitebox;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PlanAssignmentIndexTest {
+
+	private OrganizationService organizationService;
+
+	private PhysicalLocationService locationService;
+
+	private PlanAssignmentIndex index;
+
+	@Before
+	public void setUp() {
+		organizationService = mock(OrganizationService.class);
+		locationService = mock(PhysicalLocationService.class);
+		index = new PlanAssignmentIndex();
+		index.setOrganizationService(organizationService);
+		index.setLocationService(locationService);
+		index.init();
+		when(organizationService.findAssignedLocationsAndPlans(Collections.singletonList(1l)))
+				.thenReturn(Arrays.asList(assignment("oa1", "1", "plan1"), assignment("oa2", "1", "plan1"),
+					assignment("oa3", "1", null)));
+		when(organizationService.findAssignedLocationsAndPlans(Collections.singletonList(2l)))
+				.thenReturn(Collections.singletonList(assignment("oa4", "2", "plan2")));
+		when(locationService.getAssignedLocations("janedoe"))
+				.thenReturn(Collections.singletonList(assignment("oa4", "2", "plan2")));
+	}
+
+	@Test
+	public void testGetsPlansOfOrganizationsFromMemory() {
+		assertEquals(new LinkedHashSet<>(Arrays.asList("plan1", "plan2")),
+			index.getPlanIdsByOrganizations(Arrays.asList(1l, 2l)));
+		assertEquals(Collections.singleton("plan1"), index.getPlanIdsByOrganizations(Collections.singletonList(1l)));
+
+		verify(organizationService).findAssignedLocationsAndPlans(Collections.singletonList(1l));
+		verify(organizationService).findAssignedLocationsAndPlans(Collections.singletonList(2l));
+	}
+
+	@Test
+	public void testReloadsPlansOfOrganizationsWhenAssignmentsChange() {
+		StringRedisTemplate redisTemplate = mock(StringRedisTemplate.class);
+		Whitebox.setInternalState(index, "redisTemplate", redisTemplate);
+		index.getPlanIdsByOrganizations(Collections.singletonList(2l));
+		when(organizationService.findAssignedLocationsAndPlans(Collections.singletonList(2l)))
+				.thenReturn(Collections.singletonList(assignment("oa4", "2", "plan3")));
+
+		index.invalidate(Collections.singleton(2l));
+
+		assertEquals(Collections.singleton("plan3"), index.getPlanIdsByOrganizations(Collections.singletonList(2l)));
+		verify(redisTemplate).convertAndSend(PlanAssignmentIndex.INVALIDATION_CHANNEL, "[2]");
+	}
+
+	@Test
+	public void testInvalidationMessageEvictsPlansOfOrganizations() {
+		index.getPlanIdsByOrganizations(Arrays.asList(1l, 2l));
+
+		index.onMessage(new DefaultMessage(PlanAssignmentIndex.INVALIDATION_CHANNEL.getBytes(StandardCharsets.UTF_8),
+				"[2]".getBytes(StandardCharsets.UTF_8)), null);
+		index.getPlanIdsByOrganizations(Arrays.asList(1l, 2l));
+
+		verify(organizationService).findAssignedLocationsAndPlans(Collections.singletonList(1l));
+		verify(organizationService, times(2)).findAssignedLocationsAndPlans(Collections.singletonList(2l));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testGetsPlansOfUsersFromAssignedLocationsCache() {
+		AssignedLocationsCache assignedLocationsCache = mock(AssignedLocationsCache.class);
+		List<AssignedLocations> assignedLocations = Collections.singletonList(assignment("oa1", "1", "plan3"));
+		when(assignedLocationsCache.get(eq("janedoe"), any(Function.class))).thenReturn(assignedLocations);
+		index.setAssignedLocationsCache(assignedLocationsCache);
+
+		assertEquals(Collections.singleton("plan3"), index.getPlanIdsByUsername("janedoe"));
+		verify(locationService, never()).getAssignedLocations("janedoe");
+	}
+
+	@Test
+	public void testGetsPlansOfUsersFromDatabaseWithoutAssignedLocationsCache() {
+		assertEquals(Collections.singleton("plan2"), index.getPlanIdsByUsername("janedoe"));
+		verify(locationService).getAssignedLocations("janedoe");
+	}
+
+	private static AssignedLocations assignment(String jurisdictionId, String organizationId, String planId) {
+		AssignedLocations assignedLocation = new AssignedLocations();
+		assignedLocation.setJurisdictionId(jurisdictionId);
+		assignedLocation.setOrganizationId(organizationId);
+		assignedLocation.setPlanId(planId);
+		return assignedLocation;
+	}
+}
@@ -0,0 +1,205 @@
+package org.opensrp.web.plan;
+
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opensrp.service.PhysicalLocationService;
+import org.opensrp.service.TaskService;
+import org.opensrp.web.ingest.IngestJob;
+import org.opensrp.web.rest.LocationResource;
+import org.smartregister.domain.PhysicalLocation;
+import org.smartregister.domain.Task;
+import org.smartregister.domain.Task.TaskPriority;
+import org.smartregister.domain.Task.TaskStatus;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PlanTaskGeneratorTest {
+
+	private static final String PLAN = "{\"identifier\":\"plan_1\",\"status\":\"active\",\"jurisdiction\":[{\"code\":\"district\"}],"
+			+ "\"action\":[" + action("bcc", "BCC", "Jurisdiction", "plan-activation", null) + ","
+			+ action("irs", "IRS", "Location", "plan-activation", "$this.is(FHIR.Location)") + ","
+			+ action("case", "RACD", "Location", "plan-activation", "$this.type.where(id='residential').exists()") + ","
+			+ action("mop-up", "IRS", "Location", "event-submission", null) + "]}";
+
+	private ExecutorService executor;
+
+	private TaskService taskService;
+
+	private PhysicalLocationService locationService;
+
+	private List<Task> savedTasks;
+
+	private List<Long> checkpoints;
+
+	private PlanTaskGenerator generator;
+
+	@Before
+	public void setUp() {
+		executor = Executors.newFixedThreadPool(2);
+		taskService = mock(TaskService.class);
+		locationService = mock(PhysicalLocationService.class);
+		savedTasks = new CopyOnWriteArrayList<>();
+		checkpoints = new ArrayList<>();
+		when(locationService.findLocationByIdWithChildren(eq(false), eq("district"), anyInt())).thenReturn(
+			Arrays.asList(location("district", "province"), location("oa2", "district"), location("oa1", "district")));
+		when(locationService.findStructuresByParentAndServerVersion("oa1", 0))
+				.thenReturn(Arrays.asList(location("s1", "oa1"), location("s2", "oa1")));
+		when(locationService.findStructuresByParentAndServerVersion("oa2", 0))
+				.thenReturn(Collections.singletonList(location("s3", "oa2")));
+		when(taskService.saveTasks(anyList())).thenAnswer(invocation -> {
+			List<Task> batch = invocation.getArgument(0);
+			savedTasks.addAll(batch);
+			return batch.stream().filter(task -> task.getForEntity().equals("s3")).map(Task::getIdentifier)
+					.collect(Collectors.toSet());
+		});
+		generator = new PlanTaskGenerator(taskService, locationService, null, executor, 1, 2);
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdown();
+	}
+
+	@Test
+	public void testGeneratesMissingTasksOfEachOperationalArea() throws Exception {
+		Task existing = PlanTaskGenerator.createTask("plan_1", "oa1", new JsonParser().parse(
+			action("irs", "IRS", "Location", "plan-activation", null)).getAsJsonObject(), "s1", "demo", DateTime.now());
+		when(taskService.getTasksByTaskAndGroup("plan_1", "oa1", 0)).thenReturn(Collections.singletonList(existing));
+
+		IngestJob job = new IngestJob("plantasks-0123456789abcdef0123456789abcdef", "plantasks", "demo");
+		Map<String, ?> result = generator.ingest(job, new StringReader(PLAN),
+			(recordsProcessed, progress) -> checkpoints.add(recordsProcessed));
+
+		assertEquals(Arrays.asList(1l, 2l), checkpoints);
+		assertEquals(2, result.get(PlanTaskGenerator.OPERATIONAL_AREAS));
+		assertEquals(3l, result.get(PlanTaskGenerator.TASKS_CREATED));
+		assertEquals(1l, result.get(PlanTaskGenerator.TASKS_EXISTING));
+		assertEquals(Collections.singletonList("case"), result.get(PlanTaskGenerator.SKIPPED_ACTIONS));
+		assertEquals(Arrays.asList("bcc:oa1", "irs:s2", "bcc:oa2", "irs:s3"), savedTasks.stream()
+				.map(task -> task.getFocus() + ":" + task.getForEntity()).collect(Collectors.toList()));
+		assertEquals(Collections.singletonList(savedTasks.get(3).getIdentifier()),
+			result.get(PlanTaskGenerator.FAILED_TASKS));
+
+		Task task = savedTasks.get(0);
+		assertEquals("oa1", task.getGroupIdentifier());
+		assertEquals(TaskStatus.READY, task.getStatus());
+		assertEquals(TaskPriority.ROUTINE, task.getPriority());
+		assertEquals("BCC", task.getCode());
+		assertEquals("demo", task.getOwner());
+		assertEquals(new DateTime(2020, 1, 1, 0, 0).getMillis(), task.getExecutionPeriod().getStart().getMillis());
+	}
+
+	@Test
+	public void testTaskIdentifiersAreStableAcrossRuns() throws Exception {
+		generator.ingest(PLAN, "demo");
+		List<String> identifiers = savedTasks.stream().map(Task::getIdentifier).collect(Collectors.toList());
+		savedTasks.clear();
+
+		generator.ingest(PLAN, "demo");
+
+		assertEquals(4, identifiers.size());
+		assertEquals(identifiers, savedTasks.stream().map(Task::getIdentifier).collect(Collectors.toList()));
+	}
+
+	@Test
+	public void testResumesAfterLastCheckpoint() throws Exception {
+		IngestJob job = new IngestJob("plantasks-0123456789abcdef0123456789abcdef", "plantasks", "demo");
+		job.setRecordsProcessed(1l);
+		Map<String, Object> checkpoint = new HashMap<>();
+		checkpoint.put(PlanTaskGenerator.TASKS_CREATED, 2);
+		checkpoint.put(PlanTaskGenerator.TASKS_EXISTING, 1);
+		checkpoint.put(PlanTaskGenerator.FAILED_TASKS, Collections.emptyList());
+		checkpoint.put(PlanTaskGenerator.COMPLETED_OPERATIONAL_AREAS, Collections.singletonList("oa1"));
+		job.setResult(checkpoint);
+
+		Map<String, ?> result = generator.ingest(job, new StringReader(PLAN),
+			(recordsProcessed, progress) -> checkpoints.add(recordsProcessed));
+
+		verify(taskService, never()).getTasksByTaskAndGroup(eq("plan_1"), eq("oa1"), anyLong());
+		assertTrue(savedTasks.stream().allMatch(task -> task.getGroupIdentifier().equals("oa2")));
+		assertEquals(Collections.singletonList(2l), checkpoints);
+		assertEquals(3l, result.get(PlanTaskGenerator.TASKS_CREATED));
+		assertEquals(Arrays.asList("oa1", "oa2"), result.get(PlanTaskGenerator.COMPLETED_OPERATIONAL_AREAS));
+	}
+
+	@Test
+	public void testResumesOperationalAreasAddedAfterLastCheckpoint() throws Exception {
+		when(locationService.findLocationByIdWithChildren(eq(false), eq("district"), anyInt())).thenReturn(Arrays.asList(
+			location("district", "province"), location("oa0", "district"), location("oa2", "district"),
+			location("oa1", "district")));
+		when(locationService.findStructuresByParentAndServerVersion("oa0", 0))
+				.thenReturn(Collections.singletonList(location("s0", "oa0")));
+		IngestJob job = new IngestJob("plantasks-0123456789abcdef0123456789abcdef", "plantasks", "demo");
+		job.setRecordsProcessed(1l);
+		Map<String, Object> checkpoint = new HashMap<>();
+		checkpoint.put(PlanTaskGenerator.TASKS_CREATED, 2);
+		checkpoint.put(PlanTaskGenerator.TASKS_EXISTING, 1);
+		checkpoint.put(PlanTaskGenerator.FAILED_TASKS, Collections.emptyList());
+		checkpoint.put(PlanTaskGenerator.COMPLETED_OPERATIONAL_AREAS, Collections.singletonList("oa1"));
+		job.setResult(checkpoint);
+
+		Map<String, ?> result = generator.ingest(job, new StringReader(PLAN),
+			(recordsProcessed, progress) -> checkpoints.add(recordsProcessed));
+
+		verify(taskService, never()).getTasksByTaskAndGroup(eq("plan_1"), eq("oa1"), anyLong());
+		assertEquals(Arrays.asList("oa0", "oa2"), savedTasks.stream().map(Task::getGroupIdentifier).distinct()
+				.collect(Collectors.toList()));
+		assertEquals(Arrays.asList(2l, 3l), checkpoints);
+		assertEquals(3, result.get(PlanTaskGenerator.OPERATIONAL_AREAS));
+	}
+
+	@Test
+	public void testPlanWithoutTriggeredActionsCreatesNoTasks() throws Exception {
+		JsonObject plan = new JsonParser().parse(PLAN).getAsJsonObject();
+		plan.add("action", new JsonParser().parse("[" + action("mop-up", "IRS", "Location", "event-submission", null) + "]"));
+
+		Map<String, ?> result = generator.ingest(plan.toString(), "demo");
+
+		verify(taskService, never()).saveTasks(anyList());
+		verify(taskService, never()).getTasksByTaskAndGroup(anyString(), anyString(), anyLong());
+		assertEquals(0l, result.get(PlanTaskGenerator.TASKS_CREATED));
+	}
+
+	private static String action(String identifier, String code, String subject, String trigger, String condition) {
+		return "{\"identifier\":\"" + identifier + "\",\"code\":\"" + code + "\",\"description\":\"" + code
+				+ " visit\",\"timingPeriod\":{\"start\":\"2020-01-01\",\"end\":\"2020-12-31\"},"
+				+ "\"subjectCodableConcept\":{\"text\":\"" + subject + "\"},\"trigger\":[{\"type\":\"named-event\",\"name\":\""
+				+ trigger + "\"}]" + (condition == null ? ""
+						: ",\"condition\":[{\"kind\":\"applicability\",\"expression\":{\"expression\":\"" + condition
+								+ "\"}}]")
+				+ "}";
+	}
+
+	private static PhysicalLocation location(String id, String parentId) {
+		return LocationResource.gson.fromJson("{\"type\":\"Feature\",\"id\":\"" + id
+				+ "\",\"properties\":{\"status\":\"Active\",\"parentId\":\"" + parentId + "\",\"version\":0}}",
+			PhysicalLocation.class);
+	}
+}
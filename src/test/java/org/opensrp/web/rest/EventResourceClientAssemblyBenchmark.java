@@ -0,0 +1,85 @@
+package org.opensrp.web.rest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.smartregister.domain.Client;
+import org.smartregister.domain.Event;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the client assembly stage of event sync, i.e. collecting the distinct client ids of
+ * an event page and finding the clients that were not returned. Time per operation should grow
+ * linearly with the page size.
+ * <p>
+ * Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.opensrp.web.rest.EventResourceClientAssemblyBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventResourceClientAssemblyBenchmark {
+
+	private static final int EVENTS_PER_CLIENT = 3;
+
+	@Param({ "1000", "10000", "50000" })
+	private int pageSize;
+
+	private List<Event> events;
+
+	private List<Client> clients;
+
+	private Set<String> clientIds;
+
+	@Setup
+	public void setUp() {
+		events = new ArrayList<>(pageSize);
+		for (int i = 0; i < pageSize; i++) {
+			Event event = new Event();
+			event.setBaseEntityId("client-" + (i % (pageSize / EVENTS_PER_CLIENT)));
+			events.add(event);
+		}
+		clientIds = EventResource.getClientIds(events);
+
+		// every tenth client is missing, e.g. archived
+		clients = new ArrayList<>(clientIds.size());
+		int i = 0;
+		for (String clientId : clientIds) {
+			if (i++ % 10 != 0) {
+				clients.add(new Client(clientId));
+			}
+		}
+	}
+
+	@Benchmark
+	public Set<String> getClientIds() {
+		return EventResource.getClientIds(events);
+	}
+
+	@Benchmark
+	public Set<String> getMissingClientIds() {
+		return EventResource.getMissingClientIds(clientIds, clients);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(EventResourceClientAssemblyBenchmark.class.getSimpleName()).build()).run();
+	}
+}
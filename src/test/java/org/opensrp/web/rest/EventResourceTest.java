@@ -8,6 +8,7 @@ import org.apache.commons.lang3.tuple.Pair;
 import org.joda.time.DateTime;
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
@@ -22,10 +23,16 @@ import org.opensrp.service.EventService;
 import org.opensrp.service.MultimediaService;
 import org.opensrp.web.bean.EventSyncBean;
 import org.opensrp.web.bean.Identifier;
+import org.opensrp.web.ingest.IngestJob;
+import org.opensrp.web.ingest.IngestJobService;
+import org.opensrp.web.metrics.Metrics;
+import org.opensrp.web.utils.SyncContinuationToken;
 import org.smartregister.domain.Client;
 import org.smartregister.domain.Event;
+import org.powermock.reflect.Whitebox;
 import org.smartregister.utils.DateTimeTypeConverter;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 
 import javax.servlet.http.HttpServletRequest;
@@ -40,7 +47,9 @@ import static org.mockito.Mockito.*;
 import static org.opensrp.common.AllConstants.BaseEntity.BASE_ENTITY_ID;
 import static org.opensrp.common.AllConstants.BaseEntity.SERVER_VERSIOIN;
 import static org.opensrp.common.AllConstants.Event.*;
+import static org.opensrp.web.Constants.CONTINUATION_TOKEN;
 import static org.opensrp.web.Constants.DEFAULT_GET_ALL_IDS_LIMIT;
+import static org.opensrp.web.Constants.STREAM;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 public class EventResourceTest extends BaseSecureResourceTest<Event> {
@@ -78,7 +87,7 @@ public class EventResourceTest extends BaseSecureResourceTest<Event> {
 
 	private EventResource eventResource;
 
-	private String ADD_REQUEST_PAYLOAD = "{\"clients\":[{\"birthdate\":\"1970-01-01T05:00:00.000Z\",\"firstName\":\"Test\",\"gender\":\"Male\",\"lastName\":\"User\",\"baseEntityId\":\"502f5f2d-5a06-4f71-8f8a-b19a846b9a93\"}],\"events\":[{\"baseEntityId\":\"502f5f2d-5a06-4f71-8f8a-b19a846b9a93\",\"entityType\":\"ec_family\",\"eventDate\":\"2020-05-02T23:26:21.685Z\"}]}";
+	private String ADD_REQUEST_PAYLOAD = "{\"clients\":[{\"birthdate\":\"1970-01-01T05:00:00.000Z\",\"firstName\":\"Test\",\"gender\":\"Male\",\"lastName\":\"User\",\"baseEntityId\":\"502f5f2d-5a06-4f71-8f8a-b19a846b9a93\"}],\"events\":[{\"baseEntityId\":\"502f5f2d-5a06-4f71-8f8a-b19a846b9a93\",\"entityType\":\"ec_family\",\"formSubmissionId\":\"c3b8d7b9-2c5e-4a3f-9a57-3a3c4bcc7cd1\",\"eventDate\":\"2020-05-02T23:26:21.685Z\"}]}";
 
 	private String POST_SYNC_REQUEST = "{\n"
 			+ "\t\"providerId\": \"test\",\n"
@@ -106,6 +115,11 @@ public class EventResourceTest extends BaseSecureResourceTest<Event> {
 		eventResource.setObjectMapper(mapper);
 	}
 
+	@After
+	public void tearDown() {
+		SecurityContextHolder.clearContext();
+	}
+
 	@Test
 	public void testFindAllEventIds() throws Exception {
 		List<String> expectedEventIdList = new ArrayList<>();
@@ -239,6 +253,7 @@ public class EventResourceTest extends BaseSecureResourceTest<Event> {
 		Gson gson = new GsonBuilder().setDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ")
 				.registerTypeAdapter(DateTime.class, new DateTimeTypeConverter()).create();
 
+		SecurityContextHolder.getContext().setAuthentication(authenticatedUser.getSecond());
 		eventResource = spy(eventResource);
 
 		String expectedEventString = "{\"identifiers\":{},\"baseEntityId\":\"5dd43b2e-a873-444b-b527-95c4b040a5bb\",\"locationId\":\"fb7ed5db-138d-4e6f-94d8-bc443b58dadb\",\"eventDate\":\"2020-02-14T03:00:00.000+03:00\",\"eventType\":\"Family Member Registration\",\"formSubmissionId\":\"a2fba8d2-42f5-4811-b982-57609f1815fe\",\"providerId\":\"unifiedchwone\",\"duration\":0,\"obs\":[{\"fieldType\":\"formsubmissionField\",\"fieldDataType\":\"text\",\"fieldCode\":\"same_as_fam_name\",\"parentCode\":\"\",\"values\":[\"true\"],\"set\":[],\"formSubmissionField\":\"same_as_fam_name\",\"humanReadableValues\":[]},{\"fieldType\":\"concept\",\"fieldDataType\":\"text\",\"fieldCode\":\"\",\"parentCode\":\"\",\"values\":[\"Baba\"],\"set\":[],\"formSubmissionField\":\"fam_name\",\"humanReadableValues\":[]},{\"fieldType\":\"concept\",\"fieldDataType\":\"text\",\"fieldCode\":\"\",\"parentCode\":\"\",\"values\":[\"43\"],\"set\":[],\"formSubmissionField\":\"age_calculated\",\"humanReadableValues\":[]},{\"fieldType\":\"formsubmissionField\",\"fieldDataType\":\"text\",\"fieldCode\":\"dob_unknown\",\"parentCode\":\"\",\"values\":[\"true\"],\"set\":[],\"formSubmissionField\":\"dob_unknown\",\"humanReadableValues\":[]},{\"fieldType\":\"concept\",\"fieldDataType\":\"text\",\"fieldCode\":\"\",\"parentCode\":\"\",\"values\":[\"1\"],\"set\":[],\"formSubmissionField\":\"wra\",\"humanReadableValues\":[]},{\"fieldType\":\"concept\",\"fieldDataType\":\"text\",\"fieldCode\":\"\",\"parentCode\":\"\",\"values\":[\"0\"],\"set\":[],\"formSubmissionField\":\"mra\",\"humanReadableValues\":[]},{\"fieldType\":\"concept\",\"fieldDataType\":\"text\",\"fieldCode\":\"160692AAAAAAAAAAAAAAAAAAAAAAAAAAAAAA\",\"parentCode\":\"\",\"values\":[\"1066AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA\"],\"set\":[],\"formSubmissionField\":\"preg_1yr\",\"humanReadableValues\":[\"No\"]},{\"fieldType\":\"concept\",\"fieldDataType\":\"text\",\"fieldCode\":\"162558AAAAAAAAAAAAAAAAAAAAAAAAAAAAAA\",\"parentCode\":\"\",\"values\":[\"1066AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA\"],\"set\":[],\"formSubmissionField\":\"disabilities\",\"humanReadableValues\":[\"No\"]},{\"fieldType\":\"concept\",\"fieldDataType\":\"text\",\"fieldCode\":\"\",\"parentCode\":\"\",\"values\":[null],\"set\":[],\"formSubmissionField\":\"is_primary_caregiver\",\"humanReadableValues\":[\"Yes\"]},{\"fieldType\":\"concept\",\"fieldDataType\":\"text\",\"fieldCode\":\"1542AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA\",\"parentCode\":\"1542AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA\",\"values\":[\"163096AAAAAAAAAAAAAAAAAAAAAAAAAAAAAA\"],\"set\":[],\"formSubmissionField\":\"service_provider\",\"humanReadableValues\":[\"Community IMCI\"]},{\"fieldType\":\"formsubmissionField\",\"fieldDataType\":\"text\",\"fieldCode\":\"last_interacted_with\",\"parentCode\":\"\",\"values\":[\"1581697252432\"],\"set\":[],\"formSubmissionField\":\"last_interacted_with\",\"humanReadableValues\":[]},{\"fieldType\":\"concept\",\"fieldDataType\":\"start\",\"fieldCode\":\"163137AAAAAAAAAAAAAAAAAAAAAAAAAAAAAA\",\"parentCode\":\"\",\"values\":[\"2020-02-14 19:19:58\"],\"set\":[],\"formSubmissionField\":\"start\",\"humanReadableValues\":[]},{\"fieldType\":\"concept\",\"fieldDataType\":\"end\",\"fieldCode\":\"163138AAAAAAAAAAAAAAAAAAAAAAAAAAAAAA\",\"parentCode\":\"\",\"values\":[\"2020-02-14 19:20:52\"],\"set\":[],\"formSubmissionField\":\"end\",\"humanReadableValues\":[]},{\"fieldType\":\"concept\",\"fieldDataType\":\"deviceid\",\"fieldCode\":\"163149AAAAAAAAAAAAAAAAAAAAAAAAAAAAAA\",\"parentCode\":\"\",\"values\":[\"359050095070928\"],\"set\":[],\"formSubmissionField\":\"deviceid\",\"humanReadableValues\":[]},{\"fieldType\":\"concept\",\"fieldDataType\":\"subscriberid\",\"fieldCode\":\"163150AAAAAAAAAAAAAAAAAAAAAAAAAAAAAA\",\"parentCode\":\"\",\"values\":[\"639070028267663\"],\"set\":[],\"formSubmissionField\":\"subscriberid\",\"humanReadableValues\":[]},{\"fieldType\":\"concept\",\"fieldDataType\":\"simserial\",\"fieldCode\":\"163151AAAAAAAAAAAAAAAAAAAAAAAAAAAAAA\",\"parentCode\":\"\",\"values\":[\"89254070000282676636\"],\"set\":[],\"formSubmissionField\":\"simserial\",\"humanReadableValues\":[]},{\"fieldType\":\"concept\",\"fieldDataType\":\"text\",\"fieldCode\":\"162849AAAAAAAAAAAAAAAAAAAAAAAAAAAAAA\",\"parentCode\":\"\",\"values\":[\"true\"],\"set\":[],\"formSubmissionField\":\"wra\",\"humanReadableValues\":[]}],\"entityType\":\"ec_family_member\",\"version\":1581697252446,\"teamId\":\"de7d5dbe-6d21-4300-a72e-6eee14712f62\",\"team\":\"Madona\",\"dateCreated\":\"2020-02-14T19:21:21.295+03:00\",\"serverVersion\":1581697281295,\"clientApplicationVersion\":2,\"clientDatabaseVersion\":13,\"type\":\"Event\",\"id\":\"24032715-7d65-434d-b50a-0b96ec63996a\",\"revision\":\"v1\"}";
@@ -249,11 +264,6 @@ public class EventResourceTest extends BaseSecureResourceTest<Event> {
 		Client expectedClient = gson.fromJson(expectedClientString, new TypeToken<Client>() {
 
 		}.getType());
-		EventSyncBean expectedEventSyncBean = new EventSyncBean();
-		expectedEventSyncBean.setNoOfEvents(1);
-		expectedEventSyncBean.setEvents(Collections.singletonList(expectedEvent));
-		expectedEventSyncBean.setClients(Collections.singletonList(expectedClient));
-
 		String expectedFamilyEventString = "{\"identifiers\":{},\"baseEntityId\":\"5dd43b2e-a873-444b-b527-95c4b040a5bb\",\"locationId\":\"fb7ed5db-138d-4e6f-94d8-bc443b58dadb\",\"eventDate\":\"2020-02-14T22:20:52.670+03:00\",\"eventType\":\"Update Family Member Relations\",\"formSubmissionId\":\"65523dec-0c65-42f9-a55a-ca0bba226fa8\",\"providerId\":\"unifiedchwone\",\"duration\":0,\"obs\":[{\"fieldType\":\"concept\",\"fieldDataType\":\"text\",\"fieldCode\":\"159635AAAAAAAAAAAAAAAAAAAAAAAAAAAAAA\",\"parentCode\":\"\",\"values\":[\"\"],\"set\":[],\"formSubmissionField\":\"phone_number\",\"humanReadableValues\":[]},{\"fieldType\":\"concept\",\"fieldDataType\":\"text\",\"fieldCode\":\"5622AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA\",\"parentCode\":\"159635AAAAAAAAAAAAAAAAAAAAAAAAAAAAAA\",\"values\":[\"\"],\"set\":[],\"formSubmissionField\":\"other_phone_number\",\"humanReadableValues\":[]},{\"fieldType\":\"concept\",\"fieldDataType\":\"text\",\"fieldCode\":\"1712AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA\",\"parentCode\":\"\",\"values\":[null],\"set\":[],\"formSubmissionField\":\"highest_edu_level\",\"humanReadableValues\":[\"\"]}],\"entityType\":\"ec_family_member\",\"version\":1581697252674,\"teamId\":\"de7d5dbe-6d21-4300-a72e-6eee14712f62\",\"team\":\"Madona\",\"dateCreated\":\"2020-02-14T19:21:21.314+03:00\",\"serverVersion\":1581697281295,\"clientApplicationVersion\":2,\"clientDatabaseVersion\":13,\"type\":\"Event\",\"id\":\"7cbc9761-75e3-4047-9f9f-7a30bc290b99\",\"revision\":\"v1\"}";
 		Event expectedFamilyEvent = gson.fromJson(expectedFamilyEventString, new TypeToken<Event>() {
 
@@ -263,17 +273,17 @@ public class EventResourceTest extends BaseSecureResourceTest<Event> {
 
 		}.getType());
 
-		EventSyncBean expectedFamilyEventSyncBean = new EventSyncBean();
-		expectedFamilyEventSyncBean.setNoOfEvents(1);
-		expectedFamilyEventSyncBean.setEvents(Collections.singletonList(expectedFamilyEvent));
-		expectedFamilyEventSyncBean.setClients(Collections.singletonList(expectedFamilyClient));
+		expectedFamilyEvent.setBaseEntityId("cf5d5fef-f120-4eb3-ab29-ed4d437e30c4");
+		expectedFamilyClient.setBaseEntityId("cf5d5fef-f120-4eb3-ab29-ed4d437e30c4");
 
 		String jsonObjectPayload = "{\"baseEntityIds\":[\"5dd43b2e-a873-444b-b527-95c4b040a5bb\"],\"withFamilyEvents\":true}";
 
-		doReturn(expectedEventSyncBean).when(eventResource).sync(null, null, "5dd43b2e-a873-444b-b527-95c4b040a5bb", "0",
-				null, null, null, false);
-		doReturn(expectedFamilyEventSyncBean).when(eventResource).sync(null, null, "cf5d5fef-f120-4eb3-ab29-ed4d437e30c4",
-				"0", null, null, null, false);
+		doReturn(Collections.singletonList(expectedClient)).when(clientService).findByFieldValue(BASE_ENTITY_ID,
+				Collections.singletonList("5dd43b2e-a873-444b-b527-95c4b040a5bb"));
+		doReturn(Collections.singletonList(expectedFamilyClient)).when(clientService).findByFieldValue(BASE_ENTITY_ID,
+				Collections.singletonList("cf5d5fef-f120-4eb3-ab29-ed4d437e30c4"));
+		doReturn(Arrays.asList(expectedFamilyEvent, expectedEvent)).when(eventService)
+				.findEvents(any(EventSearchBean.class), anyString(), anyString(), any(int.class));
 
 		ResponseEntity<String> clientEventsResponseEntity = eventResource
 				.syncClientsAndEventsByBaseEntityIds(jsonObjectPayload);
@@ -286,6 +296,11 @@ public class EventResourceTest extends BaseSecureResourceTest<Event> {
 
 		JSONArray eventsArray = clientEventsResponseObject.getJSONArray("events");
 		assertEquals(2, eventsArray.length());
+		assertEquals(expectedEvent.getId(), eventsArray.getJSONObject(0).getString("id"));
+		assertEquals(expectedFamilyEvent.getId(), eventsArray.getJSONObject(1).getString("id"));
+		verify(eventService).findEvents(eventSearchBeanArgumentCaptor.capture(), anyString(), anyString(), anyInt());
+		assertEquals("5dd43b2e-a873-444b-b527-95c4b040a5bb,cf5d5fef-f120-4eb3-ab29-ed4d437e30c4",
+				eventSearchBeanArgumentCaptor.getValue().getBaseEntityId());
 
 		JSONArray clientsArray = clientEventsResponseObject.getJSONArray("clients");
 		assertEquals(2, clientsArray.length());
@@ -366,11 +381,14 @@ public class EventResourceTest extends BaseSecureResourceTest<Event> {
 		doThrow(new IllegalArgumentException()).when(clientService).addorUpdate(any(Client.class));
 		doReturn(event).when(eventService).processOutOfArea(any(Event.class));
 		doReturn(event).when(eventService).addorUpdateEvent(any(Event.class), anyString());
-		postRequestWithJsonContent(BASE_URL + "/add", ADD_REQUEST_PAYLOAD, status().isBadRequest());
+		JsonNode response = postRequestWithJsonContent(BASE_URL + "/add", ADD_REQUEST_PAYLOAD, status().isCreated());
 		verify(clientService).addorUpdate(clientArgumentCaptor.capture());
 		assertEquals(clientArgumentCaptor.getValue().getFirstName(), "Test");
-		// verify(eventService).addorUpdateEvent(eventArgumentCaptor.capture(), anyString());
-		// assertEquals(eventArgumentCaptor.getValue().getEventType(), "Family Member Registration");
+		verify(eventService).addorUpdateEvent(eventArgumentCaptor.capture(), anyString());
+		assertEquals(eventArgumentCaptor.getValue().getEventType(), "Family Member Registration");
+		assertEquals(1, response.get("failed_clients").size());
+		assertEquals("502f5f2d-5a06-4f71-8f8a-b19a846b9a93", response.get("failed_clients").get(0).asText());
+		assertEquals(0, response.get("failed_events").size());
 	}
 
 	@Test
@@ -380,11 +398,61 @@ public class EventResourceTest extends BaseSecureResourceTest<Event> {
 		doReturn(client).when(clientService).addorUpdate(any(Client.class));
 		doReturn(event).when(eventService).processOutOfArea(any(Event.class));
 		doThrow(new IllegalArgumentException()).when(eventService).addorUpdateEvent(any(Event.class), anyString());
-		postRequestWithJsonContent(BASE_URL + "/add", ADD_REQUEST_PAYLOAD, status().isBadRequest());
+		JsonNode response = postRequestWithJsonContent(BASE_URL + "/add", ADD_REQUEST_PAYLOAD, status().isCreated());
 		verify(clientService).addorUpdate(clientArgumentCaptor.capture());
 		assertEquals(clientArgumentCaptor.getValue().getFirstName(), "Test");
 		verify(eventService).addorUpdateEvent(eventArgumentCaptor.capture(), anyString());
 		assertEquals(eventArgumentCaptor.getValue().getEventType(), "Family Member Registration");
+		assertEquals(0, response.get("failed_clients").size());
+		assertEquals(1, response.get("failed_events").size());
+		assertEquals("c3b8d7b9-2c5e-4a3f-9a57-3a3c4bcc7cd1", response.get("failed_events").get(0).asText());
+	}
+
+	@Test
+	public void testSaveAsyncSpoolsPayloadAndReturnsAccepted() throws Exception {
+		IngestJobService ingestJobService = mock(IngestJobService.class);
+		eventResource.setIngestJobService(ingestJobService);
+		eventResource.registerIngestHandler();
+		IngestJob job = new IngestJob("event-0123456789abcdef0123456789abcdef", EventResource.EVENT_INGEST_JOB, "demo");
+		doReturn(job).when(ingestJobService).submit(anyString(), anyString(), anyString());
+
+		JsonNode response = postRequestWithJsonContent(BASE_URL + "/add?async=true", ADD_REQUEST_PAYLOAD,
+				status().isAccepted());
+
+		verify(ingestJobService).registerHandler(eq(EventResource.EVENT_INGEST_JOB), any());
+		verify(ingestJobService).submit(eq(EventResource.EVENT_INGEST_JOB), stringArgumentCaptor.capture(), anyString());
+		assertEquals("event-0123456789abcdef0123456789abcdef", response.get("job_id").asText());
+		assertEquals("PENDING", response.get("status").asText());
+		verifyNoInteractions(clientService, eventService);
+	}
+
+	@Test
+	public void testSaveKeepsEventOrderPerClient() throws Exception {
+		StringBuilder events = new StringBuilder();
+		for (int i = 0; i < 120; i++) {
+			events.append(i == 0 ? "" : ",").append("{\"baseEntityId\":\"client-").append(i % 3)
+					.append("\",\"formSubmissionId\":\"").append(i).append("\"}");
+		}
+		doAnswer(invocation -> invocation.getArgument(0)).when(eventService).processOutOfArea(any(Event.class));
+		List<String> saved = Collections.synchronizedList(new ArrayList<>());
+		doAnswer(invocation -> {
+			saved.add(invocation.<Event>getArgument(0).getFormSubmissionId());
+			return invocation.getArgument(0);
+		}).when(eventService).addorUpdateEvent(any(Event.class), anyString());
+
+		postRequestWithJsonContent(BASE_URL + "/add", "{\"events\":[" + events + "]}", status().isCreated());
+
+		assertEquals(120, saved.size());
+		for (int client = 0; client < 3; client++) {
+			int previous = -1;
+			for (String formSubmissionId : saved) {
+				int index = Integer.parseInt(formSubmissionId);
+				if (index % 3 == client) {
+					assertTrue(index > previous);
+					previous = index;
+				}
+			}
+		}
 	}
 
 	@Test
@@ -447,6 +515,114 @@ public class EventResourceTest extends BaseSecureResourceTest<Event> {
 		assertEquals(actualObj.get("events").size(), 1);
 	}
 
+	@Test
+	public void testGetSyncWithStreamWritesEventsAndClients() throws Exception {
+		List<Event> expectedEvents = new ArrayList<>();
+		expectedEvents.add(createEvent());
+		List<Client> expectedClients = new ArrayList<>();
+		expectedClients.add(createClient());
+
+		doReturn(expectedEvents).when(eventService)
+				.findEvents(any(EventSearchBean.class), anyString(), anyString(), any(int.class));
+		doReturn(expectedClients).when(clientService).findByFieldValue(anyString(), anyList());
+
+		String parameter = PROVIDER_ID + "=providerId&" + SERVER_VERSIOIN + "=15421904649873&" + STREAM + "=true";
+		String response = getResponseAsString(BASE_URL + "/sync", parameter, status().isOk());
+		JsonNode actualObj = mapper.readTree(response);
+		verify(eventService).findEvents(eventSearchBeanArgumentCaptor.capture(), stringArgumentCaptor.capture(),
+				stringArgumentCaptor.capture(), integerArgumentCaptor.capture());
+		assertEquals(new Integer(25), integerArgumentCaptor.getValue());
+		assertEquals("providerId", eventSearchBeanArgumentCaptor.getValue().getProviderId());
+		assertEquals(4, actualObj.size());
+		assertEquals(1, actualObj.get("events").size());
+		assertEquals(1, actualObj.get("clients").size());
+		assertEquals(1, actualObj.get("no_of_events").asInt());
+		assertEquals("Test", actualObj.get("clients").get(0).get("firstName").asText());
+	}
+
+	@Test
+	public void testSyncWithContinuationTokenSkipsDeliveredEvents() {
+		Event deliveredEvent = createEvent();
+		deliveredEvent.setId("14032715-7d65-434d-b50a-0b96ec63996a");
+		Event event = createEvent();
+		doReturn(Arrays.asList(deliveredEvent, event)).when(eventService)
+				.findEvents(any(EventSearchBean.class), anyString(), anyString(), any(int.class));
+		doReturn(Collections.singletonList(createClient())).when(clientService).findByFieldValue(anyString(), anyList());
+		SyncContinuationToken token = new SyncContinuationToken(1581697281295l, deliveredEvent.getId(),
+				SyncContinuationToken.filterHash("providerId", null, null, null, null));
+		SecurityContextHolder.getContext().setAuthentication(authenticatedUser.getSecond());
+
+		EventSyncBean eventSyncBean = eventResource.sync("providerId", null, null, "0", null, null, 10, false, token);
+
+		verify(eventService).findEvents(eventSearchBeanArgumentCaptor.capture(), anyString(), anyString(),
+				integerArgumentCaptor.capture());
+		assertEquals(new Integer(10), integerArgumentCaptor.getValue());
+		assertEquals(new Long(1581697281295l), eventSearchBeanArgumentCaptor.getValue().getServerVersion());
+		assertEquals(1, eventSyncBean.getEvents().size());
+		assertEquals(event.getId(), eventSyncBean.getEvents().get(0).getId());
+		SyncContinuationToken nextToken = SyncContinuationToken.decode(eventSyncBean.getContinuationToken());
+		assertEquals(1581697281295l, nextToken.getServerVersion());
+		assertEquals(event.getId(), nextToken.getIdentifier());
+	}
+
+	@Test
+	public void testGetSyncWithContinuationTokenForOtherFiltersReturnsBadRequest() throws Exception {
+		SyncContinuationToken token = new SyncContinuationToken(1l, null,
+				SyncContinuationToken.filterHash("otherProvider", null, null, null, null));
+
+		String parameter = PROVIDER_ID + "=providerId&" + CONTINUATION_TOKEN + "=" + token.encode();
+		getResponseAsString(BASE_URL + "/sync", parameter, status().isBadRequest());
+
+		verifyNoInteractions(eventService);
+	}
+
+	@Test
+	public void testSyncSearchesMissingClientsInOneBatch() {
+		Event event = createEvent();
+		Event otherEvent = createEvent();
+		otherEvent.setBaseEntityId("other-base-entity-id");
+		doReturn(Arrays.asList(event, otherEvent)).when(eventService)
+				.findEvents(any(EventSearchBean.class), anyString(), anyString(), any(int.class));
+		doReturn(new ArrayList<>()).when(clientService).findByFieldValue(anyString(), anyList());
+		doReturn(Collections.singletonList(createClient())).when(clientService)
+				.findGlobalByFieldValue(anyString(), anyList());
+		long fallbackCount = Metrics.get(EventResource.MISSING_CLIENTS_FALLBACK_METRIC);
+		long searchedCount = Metrics.get(EventResource.MISSING_CLIENTS_SEARCHED_METRIC);
+
+		SecurityContextHolder.getContext().setAuthentication(authenticatedUser.getSecond());
+		Whitebox.setInternalState(eventResource, "searchMissingClients", true);
+		EventSyncBean eventSyncBean;
+		try {
+			eventSyncBean = eventResource.sync("providerId", null, null, "0", null, null, null, false);
+		}
+		finally {
+			Whitebox.setInternalState(eventResource, "searchMissingClients", false);
+		}
+
+		verify(clientService).findGlobalByFieldValue(eq(BASE_ENTITY_ID),
+				eq(Arrays.asList(event.getBaseEntityId(), "other-base-entity-id")));
+		verify(clientService, never()).getByBaseEntityId(anyString());
+		assertEquals(1, eventSyncBean.getClients().size());
+		assertEquals(fallbackCount + 1, Metrics.get(EventResource.MISSING_CLIENTS_FALLBACK_METRIC));
+		assertEquals(searchedCount + 2, Metrics.get(EventResource.MISSING_CLIENTS_SEARCHED_METRIC));
+	}
+
+	@Test
+	public void testGetClientIdsAndMissingClientIdsKeepEventOrder() {
+		List<Event> events = new ArrayList<>();
+		for (String baseEntityId : Arrays.asList("c", "a", "c", "", "b", "a")) {
+			Event event = new Event();
+			event.setBaseEntityId(baseEntityId);
+			events.add(event);
+		}
+
+		Set<String> clientIds = EventResource.getClientIds(events);
+
+		assertEquals(Arrays.asList("c", "a", "b"), new ArrayList<>(clientIds));
+		assertEquals(Arrays.asList("c", "b"),
+				new ArrayList<>(EventResource.getMissingClientIds(clientIds, Collections.singletonList(new Client("a")))));
+	}
+
 	@Test
 	public void testPostSync() throws Exception {
 		List<Event> expectedEvents = new ArrayList<>();
@@ -1,5 +1,6 @@
 package org.opensrp.web.rest;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
@@ -15,6 +16,7 @@ import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.ArgumentMatchers.nullable;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
@@ -24,12 +26,16 @@ import static org.springframework.test.web.AssertionErrors.fail;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -42,6 +48,9 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.keycloak.KeycloakPrincipal;
+import org.keycloak.adapters.RefreshableKeycloakSecurityContext;
+import org.keycloak.representations.AccessToken;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.InjectMocks;
@@ -64,7 +73,19 @@ import org.opensrp.web.GlobalExceptionHandler;
 import org.opensrp.web.bean.Identifier;
 import org.opensrp.web.bean.LocationSearchcBean;
 import org.opensrp.web.config.security.filter.CrossSiteScriptingPreventionFilter;
+import org.opensrp.web.exceptions.ResponseAbortedException;
+import org.opensrp.web.exceptions.TileSourceLoadingException;
+import org.opensrp.web.exceptions.TileSourceTooLargeException;
+import org.opensrp.web.Constants;
+import org.opensrp.web.ingest.IngestJob;
+import org.opensrp.web.ingest.IngestJobService;
+import org.opensrp.web.location.LocationImportHandler;
+import org.opensrp.web.location.LocationTileService;
+import org.opensrp.web.location.LocationTreeService;
+import org.opensrp.web.location.StructureSpatialIndex;
 import org.opensrp.web.rest.it.TestWebContextLoader;
+import org.opensrp.web.utils.TestData;
+import org.powermock.reflect.Whitebox;
 import org.skyscreamer.jsonassert.JSONAssert;
 import org.skyscreamer.jsonassert.JSONCompareMode;
 import org.smartregister.domain.Geometry;
@@ -72,12 +93,15 @@ import org.smartregister.domain.Jurisdiction;
 import org.smartregister.domain.PhysicalLocation;
 import org.smartregister.domain.PlanDefinition;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.security.core.Authentication;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.util.NestedServletException;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -132,6 +156,15 @@ public class LocationResourceTest {
 	@Mock
 	private PlanService planService;
 
+	@Mock
+	private LocationTreeService locationTreeService;
+
+	@Mock
+	private StructureSpatialIndex structureSpatialIndex;
+
+	@Mock
+	private LocationTileService locationTileService;
+
 	protected ObjectMapper mapper = new ObjectMapper();
 	private String MESSAGE = "The server encountered an error processing the request.";
 
@@ -220,6 +253,81 @@ public class LocationResourceTest {
 		JSONAssert.assertEquals(parentJson, jsonreponse.get(0).toString(), JSONCompareMode.STRICT_ORDER);
 	}
 
+	@Test
+	public void testGetSyncStructuresWithStreamQueriesOneBatchOfParentsAtATime() throws Exception {
+		Whitebox.setInternalState(locationResource, "streamBatchSize", 1);
+		when(locationService.findStructuresByParentAndServerVersion("3734", 10l))
+				.thenReturn(Collections.singletonList(createStructure()));
+		when(locationService.findStructuresByParentAndServerVersion("3735", 10l))
+				.thenReturn(Collections.singletonList(createStructure()));
+
+		MvcResult result = mockMvc.perform(get(BASE_URL + "/sync").param(BaseEntity.SERVER_VERSIOIN, "10")
+				.param(LocationResource.PARENT_ID, "3734,3735").param(Constants.STREAM, "true"))
+				.andExpect(status().isOk()).andReturn();
+		verify(locationService).findStructuresByParentAndServerVersion("3734", 10l);
+		verify(locationService).findStructuresByParentAndServerVersion("3735", 10l);
+		verifyNoMoreInteractions(locationService);
+
+		JSONArray jsonResponse = new JSONArray(result.getResponse().getContentAsString());
+		assertEquals(2, jsonResponse.length());
+		JSONAssert.assertEquals(structureJson, jsonResponse.get(0).toString(), JSONCompareMode.STRICT_ORDER);
+	}
+
+	@Test
+	public void testGetSyncStructuresWithStreamReturnsErrorWhenFirstBatchFails() throws Exception {
+		Whitebox.setInternalState(locationResource, "streamBatchSize", 1);
+		when(locationService.findStructuresByParentAndServerVersion("3734", 10l)).thenThrow(new IllegalStateException());
+
+		MvcResult result = mockMvc.perform(get(BASE_URL + "/sync").param(BaseEntity.SERVER_VERSIOIN, "10")
+				.param(LocationResource.PARENT_ID, "3734,3735").param(Constants.STREAM, "true"))
+				.andExpect(status().isInternalServerError()).andReturn();
+		verify(locationService, never()).findStructuresByParentAndServerVersion("3735", 10l);
+		assertFalse(result.getResponse().getContentAsString().startsWith("["));
+	}
+
+	@Test
+	public void testGetSyncStructuresWithStreamAbortsResponseWhenLaterBatchFails() throws Exception {
+		Whitebox.setInternalState(locationResource, "streamBatchSize", 1);
+		when(locationService.findStructuresByParentAndServerVersion("3734", 10l))
+				.thenReturn(Collections.singletonList(createStructure()));
+		when(locationService.findStructuresByParentAndServerVersion("3735", 10l)).thenThrow(new IllegalStateException());
+
+		try {
+			mockMvc.perform(get(BASE_URL + "/sync").param(BaseEntity.SERVER_VERSIOIN, "10")
+					.param(LocationResource.PARENT_ID, "3734,3735").param(Constants.STREAM, "true"));
+			fail("Expected the response to be aborted");
+		}
+		catch (NestedServletException e) {
+			assertTrue(e.getCause() instanceof ResponseAbortedException);
+		}
+	}
+
+	@Test
+	public void testPostSyncStructuresReducesCoordinatePrecision() throws Exception {
+		when(locationService.findStructuresByParentAndServerVersion("3734", 0l))
+				.thenReturn(Collections.singletonList(createStructure()));
+
+		MvcResult result = mockMvc.perform(post(BASE_URL + "/sync").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"serverVersion\":0,\"parent_id\":[\"3734\"],\"coordinate_precision\":4}".getBytes()))
+				.andExpect(status().isOk()).andReturn();
+
+		JsonNode ring = mapper.readTree(result.getResponse().getContentAsString()).get(0).get("geometry")
+				.get("coordinates").get(0);
+		assertEquals("[[32.5979,-14.1699],[32.5979,-14.17],[32.5978,-14.17],[32.5979,-14.1699]]", ring.toString());
+	}
+
+	@Test
+	public void testSyncRejectsCoordinatePrecisionOutOfRange() throws Exception {
+		mockMvc.perform(post(BASE_URL + "/sync").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"serverVersion\":0,\"parent_id\":[\"3734\"],\"coordinate_precision\":16}".getBytes()))
+				.andExpect(status().isBadRequest());
+		mockMvc.perform(get(BASE_URL + "/sync").param(BaseEntity.SERVER_VERSIOIN, "0")
+				.param(LocationResource.PARENT_ID, "3734").param(LocationResource.COORDINATE_PRECISION, "-1"))
+				.andExpect(status().isBadRequest());
+
+		verifyNoMoreInteractions(locationService);
+	}
+
 	@Test
 	public void testGetSyncLocationsByServerVersions() throws Exception {
 		List<PhysicalLocation> expected = new ArrayList<>();
@@ -526,6 +634,22 @@ public class LocationResourceTest {
 		assertEquals(parentJson, LocationResource.gson.toJson(argumentCaptor.getValue()));
 	}
 
+	@Test
+	public void testSaveLocationsUpdatesLocationIndexes() throws Exception {
+		mockMvc.perform(put(BASE_URL).contentType(MediaType.APPLICATION_JSON)
+				.param(LocationResource.IS_JURISDICTION, "true").content(parentJson.getBytes()))
+				.andExpect(status().isCreated());
+		mockMvc.perform(post(BASE_URL).contentType(MediaType.APPLICATION_JSON)
+				.param(LocationResource.IS_JURISDICTION, "false").content(structureJson.getBytes()))
+				.andExpect(status().isCreated());
+
+		verify(locationService).update(argumentCaptor.capture());
+		verify(locationTreeService).update(Collections.singletonList(argumentCaptor.getValue()));
+		verifyNoMoreInteractions(locationTreeService);
+		verify(locationService).add(argumentCaptor.capture());
+		verify(structureSpatialIndex).update(Collections.singletonList(argumentCaptor.getValue()));
+	}
+
 	@Test
 	public void testUpdateLocationWithInvalidJson() throws Exception {
 		mockMvc.perform(put(BASE_URL).contentType(MediaType.APPLICATION_JSON)
@@ -616,6 +740,31 @@ public class LocationResourceTest {
 
 	}
 
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testSaveBatchAsyncSpoolsLocationsForImport() throws Exception {
+		IngestJobService ingestJobService = mock(IngestJobService.class);
+		locationResource.setIngestJobService(ingestJobService);
+		locationResource.registerImportHandlers();
+		IngestJob job = new IngestJob("structure-0123456789abcdef0123456789abcdef", LocationResource.STRUCTURE_IMPORT_JOB,
+				"test_user1");
+		when(ingestJobService.submit(eq(LocationResource.STRUCTURE_IMPORT_JOB), any(InputStream.class), eq("test_user1")))
+				.thenReturn(job);
+		Authentication authentication = TestData.getAuthentication(mock(AccessToken.class),
+			mock(KeycloakPrincipal.class), mock(RefreshableKeycloakSecurityContext.class)).getSecond();
+
+		MvcResult result = mockMvc.perform(post(BASE_URL + "add").param(Constants.ASYNC, "true").principal(authentication)
+				.contentType(MediaType.APPLICATION_JSON).content(("[" + structureJson + "]").getBytes()))
+				.andExpect(status().isAccepted()).andReturn();
+
+		assertEquals("structure-0123456789abcdef0123456789abcdef",
+			new JSONObject(result.getResponse().getContentAsString()).getString("job_id"));
+		verify(ingestJobService).registerHandler(eq(LocationResource.JURISDICTION_IMPORT_JOB), any(LocationImportHandler.class));
+		verify(ingestJobService).registerHandler(eq(LocationResource.STRUCTURE_IMPORT_JOB), any(LocationImportHandler.class));
+		verify(locationService, never()).saveLocations(anyList(), anyBoolean());
+		locationResource.shutdownImportExecutor();
+	}
+
 	@Test
 	public void testGetStructuresWithinCordinatesWithoutAllParamsReturns400() throws Exception {
 		Collection<StructureDetails> expectedDetails = new ArrayList<>();
@@ -661,6 +810,70 @@ public class LocationResourceTest {
 
 	}
 
+	@Test
+	public void testGetStructuresWithinCordinatesUsesSpatialIndexWhenLoaded() throws Exception {
+		List<StructureDetails> expectedDetails = Collections
+				.singletonList(new StructureDetails(UUID.randomUUID().toString(), "3221", "Mosquito Point"));
+		double latitude = -14.1619809;
+		double longitude = 32.5978597;
+		double radius = 100;
+		when(structureSpatialIndex.ensureLoaded()).thenReturn(true);
+		when(structureSpatialIndex.findWithinRadius(latitude, longitude, radius)).thenReturn(expectedDetails);
+
+		MvcResult result = mockMvc
+				.perform(get(BASE_URL + "/findWithCordinates").param(LocationResource.LATITUDE, latitude + "")
+						.param(LocationResource.LONGITUDE, longitude + "").param(LocationResource.RADIUS, radius + ""))
+				.andExpect(status().isOk()).andReturn();
+		assertEquals(LocationResource.gson.toJson(expectedDetails), result.getResponse().getContentAsString());
+		verify(locationService, never()).findStructuresWithinRadius(latitude, longitude, radius);
+	}
+
+	@Test
+	public void testGetTileReturnsTileAndNotModifiedForCurrentETag() throws Exception {
+		byte[] tile = new byte[] { 26, 4, 120, 2, 40, 0 };
+		when(locationTileService.getVersion("3734")).thenReturn(1586160969806l);
+		when(locationTileService.getTile("3734", 14, 9677, 8846)).thenReturn(tile);
+
+		MvcResult result = mockMvc.perform(get(BASE_URL + "/{id}/tiles/{z}/{x}/{y}", "3734", 14, 9677, 8846))
+				.andExpect(status().isOk()).andReturn();
+		assertArrayEquals(tile, result.getResponse().getContentAsByteArray());
+		assertEquals(LocationResource.VECTOR_TILE_MEDIA_TYPE, result.getResponse().getContentType());
+		assertEquals("\"1586160969806\"", result.getResponse().getHeader(HttpHeaders.ETAG));
+
+		mockMvc.perform(get(BASE_URL + "/{id}/tiles/{z}/{x}/{y}", "3734", 14, 9677, 8846)
+				.header(HttpHeaders.IF_NONE_MATCH, "\"1586160969806\"")).andExpect(status().isNotModified());
+		verify(locationTileService).getTile("3734", 14, 9677, 8846);
+	}
+
+	@Test
+	public void testGetTileWithInvalidCoordinatesReturnsBadRequest() throws Exception {
+		mockMvc.perform(get(BASE_URL + "/{id}/tiles/{z}/{x}/{y}", "3734", 2, 4, 0)).andExpect(status().isBadRequest());
+		mockMvc.perform(get(BASE_URL + "/{id}/tiles/{z}/{x}/{y}", "3734", 23, 0, 0)).andExpect(status().isBadRequest());
+		verifyNoMoreInteractions(locationTileService);
+	}
+
+	@Test
+	public void testGetTileWhileJurisdictionLoadsReturnsServiceUnavailable() throws Exception {
+		when(locationTileService.getVersion("3734")).thenThrow(new TileSourceLoadingException("loading"));
+		mockMvc.perform(get(BASE_URL + "/{id}/tiles/{z}/{x}/{y}", "3734", 0, 0, 0))
+				.andExpect(status().isServiceUnavailable())
+				.andExpect(header().string(HttpHeaders.RETRY_AFTER, LocationResource.TILE_RETRY_AFTER_SECONDS));
+		verify(locationTileService, never()).getTile(anyString(), anyInt(), anyInt(), anyInt());
+	}
+
+	@Test
+	public void testGetTileOfTooLargeJurisdictionReturnsBadRequest() throws Exception {
+		when(locationTileService.getVersion("3734")).thenThrow(new TileSourceTooLargeException("too large"));
+		mockMvc.perform(get(BASE_URL + "/{id}/tiles/{z}/{x}/{y}", "3734", 0, 0, 0)).andExpect(status().isBadRequest());
+		verify(locationTileService, never()).getTile(anyString(), anyInt(), anyInt(), anyInt());
+	}
+
+	@Test
+	public void testGetTileOfUnknownJurisdictionReturnsNotFound() throws Exception {
+		mockMvc.perform(get(BASE_URL + "/{id}/tiles/{z}/{x}/{y}", "unknown", 0, 0, 0)).andExpect(status().isNotFound());
+		verify(locationTileService, never()).getTile(anyString(), anyInt(), anyInt(), anyInt());
+	}
+
 	@Test
 	public void testFindByLocationPropertiesWithoutParamsQueriesStructures() throws Exception {
 		List<PhysicalLocation> locations = Collections.singletonList(createStructure());
@@ -1145,4 +1358,22 @@ public class LocationResourceTest {
 
 	}
 
+	@Test
+	public void testFindStructuresByAncestorUsesAncestorClosureAndServerVersion() throws Exception {
+		Whitebox.setInternalState(locationResource, "streamBatchSize", 2);
+		when(locationTreeService.isLoaded()).thenReturn(true);
+		when(locationTreeService.findDescendantIds("3734"))
+				.thenReturn(new LinkedHashSet<>(Arrays.asList("3734", "3735", "3736")));
+		when(locationService.findStructuresByParentAndServerVersion("3734,3735", 15l))
+				.thenReturn(Collections.singletonList(createStructure()));
+		when(locationService.findStructuresByParentAndServerVersion("3736", 15l)).thenReturn(Collections.emptyList());
+
+		MvcResult result = mockMvc.perform(get(BASE_URL + "/findStructuresByAncestor").param("id", "3734")
+				.param(BaseEntity.SERVER_VERSIOIN, "15")).andExpect(status().isOk()).andReturn();
+
+		assertEquals("[" + structureJson + "]", result.getResponse().getContentAsString());
+		verify(locationService).findStructuresByParentAndServerVersion("3736", 15l);
+		verify(locationService, never()).findLocationByIdWithChildren(anyBoolean(), anyString(), anyInt());
+	}
+
 }
@@ -0,0 +1,39 @@
+package org.opensrp.web.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opensrp.web.metrics.Metrics;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class MetricsResourceTest {
+
+	private MockMvc mockMvc;
+
+	@Before
+	public void setUp() {
+		mockMvc = MockMvcBuilders.standaloneSetup(new MetricsResource()).build();
+	}
+
+	@Test
+	public void testGetMetricsReturnsCounters() throws Exception {
+		long fallbacks = Metrics.get(EventResource.MISSING_CLIENTS_FALLBACK_METRIC);
+		long searched = Metrics.get(EventResource.MISSING_CLIENTS_SEARCHED_METRIC);
+		Metrics.increment(EventResource.MISSING_CLIENTS_FALLBACK_METRIC);
+		Metrics.add(EventResource.MISSING_CLIENTS_SEARCHED_METRIC, 3);
+
+		MvcResult result = mockMvc.perform(get("/rest/metrics")).andExpect(status().isOk()).andReturn();
+
+		JsonNode metrics = new ObjectMapper().readTree(result.getResponse().getContentAsString());
+		assertEquals(fallbacks + 1, metrics.get(EventResource.MISSING_CLIENTS_FALLBACK_METRIC).asLong());
+		assertEquals(searched + 3, metrics.get(EventResource.MISSING_CLIENTS_SEARCHED_METRIC).asLong());
+	}
+}
@@ -25,6 +25,9 @@ import org.opensrp.service.OrganizationService;
 import org.opensrp.service.PhysicalLocationService;
 import org.opensrp.service.PlanService;
 import org.opensrp.service.PractitionerService;
+import org.opensrp.web.acl.AssignedLocationsCache;
+import org.opensrp.web.controller.AuthenticationPayloadCache;
+import org.opensrp.web.plan.PlanAssignmentIndex;
 import org.opensrp.web.bean.OrganizationAssigmentBean;
 import org.opensrp.web.bean.UserAssignmentBean;
 import org.opensrp.web.config.security.filter.CrossSiteScriptingPreventionFilter;
@@ -97,6 +100,12 @@ public class OrganizationResourceTest {
 	@Mock
 	private PlanService planService;
 
+	@Mock
+	private AssignedLocationsCache assignedLocationsCache;
+
+	@Mock
+	private AuthenticationPayloadCache authenticationPayloadCache;
+
 	@Mock
 	private KeycloakPrincipal<KeycloakSecurityContext> keycloakPrincipal;
 
@@ -129,6 +138,8 @@ public class OrganizationResourceTest {
 		organizationResource.setPractitionerService(practitionerService);
 		organizationResource.setLocationService(locationService);
 		organizationResource.setPlanService(planService);
+		organizationResource.setAssignedLocationsCache(assignedLocationsCache);
+		organizationResource.setAuthenticationPayloadCache(authenticationPayloadCache);
 		objectMapper = new ObjectMapper();
 	}
 
@@ -210,6 +221,21 @@ public class OrganizationResourceTest {
 
 	}
 
+	@Test
+	public void testUpdateOrganizationInvalidatesAssignedLocationsOfPractitioners() throws Exception {
+		Practitioner practitioner = new Practitioner();
+		practitioner.setUsername("janedoe");
+		when(practitionerService.getPractitionersByOrgIdentifier(getOrganization().getIdentifier()))
+				.thenReturn(Collections.singletonList(practitioner));
+
+		mockMvc.perform(put(BASE_URL + "/{identifier}", getOrganization().getIdentifier())
+				.contentType(MediaType.APPLICATION_JSON).content(organizationJSON.getBytes()))
+				.andExpect(status().isCreated());
+
+		verify(assignedLocationsCache).invalidate(Collections.singleton("janedoe"));
+		verify(authenticationPayloadCache).invalidate(Collections.singleton("janedoe"));
+	}
+
 	@Test
 	public void testUpdateOrganizationWithoutIdentifier() throws Exception {
 		doThrow(new IllegalArgumentException()).when(organizationService).updateOrganization(any(Organization.class));
@@ -243,6 +269,53 @@ public class OrganizationResourceTest {
 
 	}
 
+	@Test
+	public void testAssignLocationAndPlanInvalidatesAssignedLocationsOfPractitioners() throws Exception {
+		OrganizationAssigmentBean bean = new OrganizationAssigmentBean();
+		bean.setOrganization("org1");
+		bean.setJurisdiction("loc1");
+		bean.setPlan("plan1");
+		Practitioner practitioner = new Practitioner();
+		practitioner.setUsername("janedoe");
+		when(practitionerService.getPractitionersByOrgIdentifier("org1"))
+				.thenReturn(Collections.singletonList(practitioner));
+
+		mockMvc.perform(post(BASE_URL + "/assignLocationsAndPlans").contentType(MediaType.APPLICATION_JSON)
+				.content(objectMapper.writeValueAsBytes(new OrganizationAssigmentBean[] { bean })))
+				.andExpect(status().isOk());
+
+		verify(organizationService).assignLocationAndPlan("org1", "loc1", "plan1", null, null);
+		verify(assignedLocationsCache).invalidate(Collections.singleton("janedoe"));
+		verify(authenticationPayloadCache).invalidate(Collections.singleton("janedoe"));
+	}
+
+	@Test
+	public void testAssignLocationAndPlanInvalidatesPlanAssignmentIndex() throws Exception {
+		OrganizationAssigmentBean bean = new OrganizationAssigmentBean();
+		bean.setOrganization("org1");
+		bean.setJurisdiction("loc1");
+		bean.setPlan("plan1");
+		Practitioner practitioner = new Practitioner();
+		practitioner.setUsername("janedoe");
+		Organization organization = new Organization();
+		organization.setId(12l);
+		when(practitionerService.getPractitionersByOrgIdentifier("org1"))
+				.thenReturn(Collections.singletonList(practitioner));
+		when(organizationService.getOrganization("org1")).thenReturn(organization);
+		PlanAssignmentIndex planAssignmentIndex = mock(PlanAssignmentIndex.class);
+		organizationResource.setPlanAssignmentIndex(planAssignmentIndex);
+		try {
+			mockMvc.perform(post(BASE_URL + "/assignLocationsAndPlans").contentType(MediaType.APPLICATION_JSON)
+					.content(objectMapper.writeValueAsBytes(new OrganizationAssigmentBean[] { bean })))
+					.andExpect(status().isOk());
+
+			verify(planAssignmentIndex).invalidate(Collections.singleton(12l));
+		}
+		finally {
+			organizationResource.setPlanAssignmentIndex(null);
+		}
+	}
+
 	@Test
 	public void testAssignLocationAndPlanWithMissingParams() throws Exception {
 		doThrow(new IllegalArgumentException()).when(organizationService).assignLocationAndPlan(null, null, null, null,
@@ -1,6 +1,8 @@
 package org.opensrp.web.rest;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
@@ -9,6 +11,7 @@ import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.doReturn;
@@ -19,14 +22,18 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 import static org.opensrp.common.AllConstants.BaseEntity.SERVER_VERSIOIN;
+import static org.opensrp.web.Constants.TOTAL_RECORDS;
 import static org.opensrp.web.rest.PlanResource.OPERATIONAL_AREA_ID;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.authentication;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -35,6 +42,7 @@ import org.json.JSONObject;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.junit.MockitoJUnit;
@@ -43,7 +51,12 @@ import org.opensrp.domain.LocationDetail;
 import org.opensrp.search.PlanSearchBean;
 import org.opensrp.service.PhysicalLocationService;
 import org.opensrp.service.PlanService;
+import org.opensrp.service.TaskService;
 import org.opensrp.web.bean.Identifier;
+import org.opensrp.web.ingest.IngestJob;
+import org.opensrp.web.ingest.IngestJobService;
+import org.opensrp.web.plan.PlanAssignmentIndex;
+import org.powermock.reflect.Whitebox;
 import org.smartregister.domain.Jurisdiction;
 import org.smartregister.domain.PlanDefinition;
 import org.springframework.http.MediaType;
@@ -63,6 +76,9 @@ public class PlanResourceTest extends BaseSecureResourceTest<PlanDefinition> {
 	@Rule
 	public MockitoRule rule = MockitoJUnit.rule();
 	
+	@Rule
+	public TemporaryFolder spool = new TemporaryFolder();
+	
 	private final static String BASE_URL = "/rest/plans/";
 	
 	private PlanService planService;
@@ -197,6 +213,59 @@ public class PlanResourceTest extends BaseSecureResourceTest<PlanDefinition> {
 		assertEquals(argumentCaptor.getValue().getIdentifier(), expectedPlan.getIdentifier());
 	}
 	
+	@Test
+	public void testGenerateTasksQueuesANewJobOnEveryRequest() throws Exception {
+		PlanDefinition plan = new PlanDefinition();
+		plan.setIdentifier("plan_1");
+		doReturn(plan).when(planService).getPlan("plan_1");
+		IngestJobService ingestJobService = new IngestJobService();
+		Whitebox.setInternalState(ingestJobService, "spoolDirectory", spool.getRoot().getAbsolutePath());
+		Whitebox.setInternalState(ingestJobService, "threads", 1);
+		Whitebox.setInternalState(ingestJobService, "retentionHours", 72);
+		ingestJobService.init();
+		PlanResource planResource = webApplicationContext.getBean(PlanResource.class);
+		planResource.setIngestJobService(ingestJobService);
+		planResource.setTaskService(mock(TaskService.class));
+		try {
+			JsonNode firstJob = postRequestWithJsonContent(BASE_URL + "plan_1/tasks", "", status().isAccepted());
+			JsonNode secondJob = postRequestWithJsonContent(BASE_URL + "plan_1/tasks", "", status().isAccepted());
+			
+			assertFalse(secondJob.get("duplicate").asBoolean());
+			assertNotEquals(firstJob.get("job_id").asText(), secondJob.get("job_id").asText());
+			assertNotNull(ingestJobService.getJob(firstJob.get("job_id").asText()));
+			assertNotNull(ingestJobService.getJob(secondJob.get("job_id").asText()));
+		}
+		finally {
+			planResource.setIngestJobService(null);
+			planResource.setTaskService(null);
+			ingestJobService.shutdown();
+		}
+	}
+	
+	@Test
+	public void testCreateActivePlanShouldQueueTaskGeneration() throws Exception {
+		doReturn(new PlanDefinition()).when(planService).addPlan(any(PlanDefinition.class), anyString());
+		String username = authenticatedUser.getFirst().getUsername();
+		IngestJobService ingestJobService = mock(IngestJobService.class);
+		when(ingestJobService.submit(eq(PlanResource.PLAN_TASKS_JOB), anyString(), anyString()))
+		        .thenReturn(new IngestJob("plantasks-0123456789abcdef0123456789abcdef", PlanResource.PLAN_TASKS_JOB, username));
+		PlanResource planResource = webApplicationContext.getBean(PlanResource.class);
+		planResource.setIngestJobService(ingestJobService);
+		planResource.setTaskService(mock(TaskService.class));
+		Whitebox.setInternalState(planResource, "taskGenerationEnabled", true);
+		try {
+			postRequestWithJsonContent(BASE_URL, plansJson.replace("\"status\": \"\"", "\"status\": \"active\""),
+			    status().isCreated());
+			
+			verify(ingestJobService).submit(eq(PlanResource.PLAN_TASKS_JOB), contains("plan_1"), eq(username));
+		}
+		finally {
+			Whitebox.setInternalState(planResource, "taskGenerationEnabled", false);
+			planResource.setIngestJobService(null);
+			planResource.setTaskService(null);
+		}
+	}
+	
 	@Test
 	public void testCreateShouldThrowException() throws Exception {
 		doThrow(new JsonSyntaxException("Unable to parse exception")).when(planService).addPlan(any(PlanDefinition.class),
@@ -598,6 +667,101 @@ public class PlanResourceTest extends BaseSecureResourceTest<PlanDefinition> {
 
 	}
 	
+	@Test
+	public void testSyncDoesNotUsePlanAssignmentIndexUnlessEnabled() throws Exception {
+		PlanAssignmentIndex planAssignmentIndex = mock(PlanAssignmentIndex.class);
+		doReturn(Collections.emptyList()).when(planService).getPlansByOrganizationsAndServerVersion(anyList(), anyLong(),
+		    anyBoolean());
+		PlanResource planResource = webApplicationContext.getBean(PlanResource.class);
+		planResource.setPlanAssignmentIndex(planAssignmentIndex);
+		try {
+			postRequestWithJsonContentAndReturnString(BASE_URL + "sync", "{\"serverVersion\":1,\"organizations\":[2]}",
+			    status().isOk());
+			
+			verify(planService).getPlansByOrganizationsAndServerVersion(anyList(), anyLong(), anyBoolean());
+			verifyNoMoreInteractions(planAssignmentIndex);
+		}
+		finally {
+			planResource.setPlanAssignmentIndex(null);
+		}
+	}
+	
+	@Test
+	public void testSyncAssignedPlansFromIndexReturnsOnlyChangedPlans() throws Exception {
+		PlanDefinition unchangedPlan = new PlanDefinition();
+		unchangedPlan.setIdentifier("plan_1");
+		unchangedPlan.setServerVersion(0l);
+		PlanDefinition changedPlan = new PlanDefinition();
+		changedPlan.setIdentifier("plan_2");
+		changedPlan.setServerVersion(3l);
+		PlanDefinition expectedPlan = new PlanDefinition();
+		expectedPlan.setIdentifier("plan_2");
+		expectedPlan.setName("IRS 2020");
+		expectedPlan.setServerVersion(3l);
+		PlanAssignmentIndex planAssignmentIndex = mock(PlanAssignmentIndex.class);
+		when(planAssignmentIndex.getPlanIdsByOrganizations(Collections.singletonList(2l)))
+		        .thenReturn(new LinkedHashSet<>(Arrays.asList("plan_1", "plan_2")));
+		when(planService.getPlansByIdsReturnOptionalFields(Arrays.asList("plan_1", "plan_2"),
+		    Arrays.asList("identifier", "serverVersion"), false)).thenReturn(Arrays.asList(unchangedPlan, changedPlan));
+		when(planService.getPlansByIdsReturnOptionalFields(Collections.singletonList("plan_2"), null, false))
+		        .thenReturn(Collections.singletonList(expectedPlan));
+		PlanResource planResource = webApplicationContext.getBean(PlanResource.class);
+		planResource.setPlanAssignmentIndex(planAssignmentIndex);
+		Whitebox.setInternalState(planResource, "planAssignmentIndexEnabled", true);
+		try {
+			MvcResult result = mockMvc
+			        .perform(post(BASE_URL + "sync").contentType(MediaType.APPLICATION_JSON)
+			                .content("{\"serverVersion\":1,\"organizations\":[2],\"return_count\":true}".getBytes())
+			                .with(authentication(authenticatedUser.getSecond())))
+			        .andExpect(status().isOk()).andReturn();
+			
+			List<PlanDefinition> actualPlans = PlanResource.gson.fromJson(result.getResponse().getContentAsString(),
+			    new TypeToken<List<PlanDefinition>>() {}.getType());
+			assertEquals(1, actualPlans.size());
+			assertEquals("IRS 2020", actualPlans.get(0).getName());
+			assertEquals("1", result.getResponse().getHeader(TOTAL_RECORDS));
+			verify(planService, never()).getPlansByOrganizationsAndServerVersion(anyList(), anyLong(), anyBoolean());
+			verify(planService, never()).countPlansByOrganizationsAndServerVersion(anyList(), anyLong());
+		}
+		finally {
+			planResource.setPlanAssignmentIndex(null);
+			Whitebox.setInternalState(planResource, "planAssignmentIndexEnabled", false);
+		}
+	}
+	
+	@Test
+	public void testSyncAssignedPlansFromIndexReturnsRequestedFields() throws Exception {
+		PlanDefinition plan = new PlanDefinition();
+		plan.setIdentifier("plan_1");
+		plan.setName("IRS 2020");
+		plan.setServerVersion(2l);
+		PlanAssignmentIndex planAssignmentIndex = mock(PlanAssignmentIndex.class);
+		when(planAssignmentIndex.getPlanIdsByUsername(anyString()))
+		        .thenReturn(Collections.singleton("plan_1"));
+		when(planService.getPlansByIdsReturnOptionalFields(Collections.singletonList("plan_1"),
+		    Arrays.asList("name", "identifier", "serverVersion"), false)).thenReturn(Collections.singletonList(plan));
+		PlanResource planResource = webApplicationContext.getBean(PlanResource.class);
+		planResource.setPlanAssignmentIndex(planAssignmentIndex);
+		Whitebox.setInternalState(planResource, "planAssignmentIndexEnabled", true);
+		try {
+			String actualPlansString = postRequestWithJsonContentAndReturnString(BASE_URL + "sync",
+			    "{\"serverVersion\":1,\"fields\":[\"name\"]}", status().isOk());
+			
+			List<PlanDefinition> actualPlans = PlanResource.gson.fromJson(actualPlansString,
+			    new TypeToken<List<PlanDefinition>>() {}.getType());
+			assertEquals(1, actualPlans.size());
+			assertEquals("IRS 2020", actualPlans.get(0).getName());
+			verify(planService).getPlansByIdsReturnOptionalFields(anyList(), anyList(), anyBoolean());
+			
+			postRequestWithJsonContentAndReturnString(BASE_URL + "sync", "{\"serverVersion\":1,\"fields\":[\"invalid\"]}",
+			    status().isBadRequest());
+		}
+		finally {
+			planResource.setPlanAssignmentIndex(null);
+			Whitebox.setInternalState(planResource, "planAssignmentIndexEnabled", false);
+		}
+	}
+	
 	@Test
 	public void testCreateCaseTriggeredPlanShouldReturnErrorForPlanWithExistingOpensrpEventId() throws Exception {
 		doReturn(new PlanDefinition()).when(planService).addPlan(any(PlanDefinition.class), anyString());
@@ -7,7 +7,10 @@ import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 import org.opensrp.search.PractitionerRoleSearchBean;
+import org.opensrp.service.PractitionerService;
 import org.opensrp.service.PractitionerRoleService;
+import org.opensrp.web.acl.AssignedLocationsCache;
+import org.smartregister.domain.Practitioner;
 import org.smartregister.domain.PractitionerRole;
 import org.smartregister.domain.PractitionerRoleCode;
 import org.springframework.http.HttpStatus;
@@ -16,6 +19,8 @@ import org.springframework.test.web.server.MvcResult;
 import org.springframework.test.web.server.result.MockMvcResultMatchers;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -166,6 +171,51 @@ public class PractitionerRoleResourceTest extends BaseResourceTest<PractitionerR
         assertEquals(stringArgumentCaptor.getAllValues().get(1), "pract1");
     }
 
+    @Test
+    public void testUpdateInvalidatesAssignedLocationsOfPreviousAndNewPractitioners() throws Exception {
+        PractitionerRoleResource practitionerRoleResource = webApplicationContext.getBean(PractitionerRoleResource.class);
+        AssignedLocationsCache assignedLocationsCache = mock(AssignedLocationsCache.class);
+        PractitionerService practitionerService = mock(PractitionerService.class);
+        practitionerRoleResource.setAssignedLocationsCache(assignedLocationsCache);
+        practitionerRoleResource.setPractitionerService(practitionerService);
+        try {
+            PractitionerRole existingRole = initTestPractitionerRole1();
+            existingRole.setPractitionerIdentifier("p0-identifier");
+            doReturn(existingRole).when(practitionerRoleService).getPractitionerRole("pr1-identifier");
+            doReturn(initPractitioner("johndoe")).when(practitionerService).getPractitioner("p0-identifier");
+            doReturn(initPractitioner("janedoe")).when(practitionerService).getPractitioner("p1-identifier");
+
+            postRequestWithJsonContent(BASE_URL, practitionerRoleJson, MockMvcResultMatchers.status().isCreated());
+
+            verify(assignedLocationsCache).invalidate(new HashSet<>(Arrays.asList("johndoe", "janedoe")));
+        }
+        finally {
+            practitionerRoleResource.setAssignedLocationsCache(null);
+            practitionerRoleResource.setPractitionerService(null);
+        }
+    }
+
+    @Test
+    public void testDeleteByPractitionerInvalidatesAssignedLocationsOfPractitioner() throws Exception {
+        PractitionerRoleResource practitionerRoleResource = webApplicationContext.getBean(PractitionerRoleResource.class);
+        AssignedLocationsCache assignedLocationsCache = mock(AssignedLocationsCache.class);
+        PractitionerService practitionerService = mock(PractitionerService.class);
+        practitionerRoleResource.setAssignedLocationsCache(assignedLocationsCache);
+        practitionerRoleResource.setPractitionerService(practitionerService);
+        try {
+            doReturn(initPractitioner("janedoe")).when(practitionerService).getPractitioner("pract1");
+
+            deleteRequestWithParams(BASE_URL + DELETE_BY_PRACTITIONER_ENDPOINT, "organization=org1&practitioner=pract1",
+                    MockMvcResultMatchers.status().isNoContent());
+
+            verify(assignedLocationsCache).invalidate(Collections.singleton("janedoe"));
+        }
+        finally {
+            practitionerRoleResource.setAssignedLocationsCache(null);
+            practitionerRoleResource.setPractitionerService(null);
+        }
+    }
+
     @Test
     public void testCreateWithInternalError() throws Exception {
         doThrow(new IllegalArgumentException()).when(practitionerRoleService).addOrUpdatePractitionerRole(any());
@@ -216,6 +266,12 @@ public class PractitionerRoleResourceTest extends BaseResourceTest<PractitionerR
     }
 
 
+    private static Practitioner initPractitioner(String username) {
+        Practitioner practitioner = new Practitioner();
+        practitioner.setUsername(username);
+        return practitioner;
+    }
+
     private static PractitionerRole initTestPractitionerRole1(){
         PractitionerRole practitionerRole = new PractitionerRole();
         practitionerRole.setIdentifier("pr1-identifier");
@@ -0,0 +1,109 @@
+package org.opensrp.web.rest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.opensrp.web.dto.TaskDto;
+import org.opensrp.web.rest.v2.TaskResourceV2Test;
+import org.smartregister.domain.Period;
+import org.smartregister.domain.Task;
+import org.springframework.beans.BeanUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks converting 100k tasks to the V1 DTO and back with the generated copiers of
+ * {@link TaskResource} against {@link BeanUtils#copyProperties(Object, Object)}, which introspects
+ * and invokes the task accessors reflectively for every task.
+ * <p>
+ * Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.opensrp.web.rest.TaskMappingBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TaskMappingBenchmark {
+
+	private static final int TASK_COUNT = 100000;
+
+	private TaskResource taskResource;
+
+	private List<Task> tasks;
+
+	private List<TaskDto> taskDtos;
+
+	@Setup
+	public void setUp() {
+		org.opensrp.web.rest.v2.TaskResource taskResourceV2 = new org.opensrp.web.rest.v2.TaskResource();
+		taskResourceV2.init();
+		taskResource = new TaskResource();
+		tasks = new ArrayList<>(TASK_COUNT);
+		taskDtos = new ArrayList<>(TASK_COUNT);
+		for (int i = 0; i < TASK_COUNT; i++) {
+			Task task = taskResourceV2.gson.fromJson(TaskResourceV2Test.taskJson, Task.class);
+			task.setIdentifier("task-" + i);
+			task.setServerVersion((long) i);
+			tasks.add(task);
+			taskDtos.add((TaskDto) taskResource.convertToDTO(task));
+		}
+	}
+
+	@Benchmark
+	public List<Task> convertToDTO() {
+		return taskResource.convertToDTO(tasks);
+	}
+
+	@Benchmark
+	public List<Task> convertToDTOWithBeanUtils() {
+		List<Task> converted = new ArrayList<>(tasks.size());
+		for (Task task : tasks) {
+			TaskDto taskDto = new TaskDto();
+			BeanUtils.copyProperties(task, taskDto);
+			if (task.getExecutionPeriod() != null) {
+				taskDto.setExecutionStartDate(task.getExecutionPeriod().getStart());
+				taskDto.setExecutionEndDate(task.getExecutionPeriod().getEnd());
+			}
+			taskDto.setExecutionPeriod(null);
+			converted.add(taskDto);
+		}
+		return converted;
+	}
+
+	@Benchmark
+	public List<Task> convertToDomain() {
+		return taskResource.convertToDomain(taskDtos);
+	}
+
+	@Benchmark
+	public List<Task> convertToDomainWithBeanUtils() {
+		List<Task> converted = new ArrayList<>(taskDtos.size());
+		for (TaskDto taskDto : taskDtos) {
+			Task task = new Task();
+			BeanUtils.copyProperties(taskDto, task);
+			if (taskDto.getExecutionStartDate() != null || taskDto.getExecutionEndDate() != null) {
+				task.setExecutionPeriod(new Period(taskDto.getExecutionStartDate(), taskDto.getExecutionEndDate()));
+			}
+			converted.add(task);
+		}
+		return converted;
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(TaskMappingBenchmark.class.getSimpleName()).build()).run();
+	}
+}
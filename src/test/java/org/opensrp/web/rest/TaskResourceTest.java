@@ -1,7 +1,9 @@
 package org.opensrp.web.rest;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyList;
@@ -14,6 +16,8 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
+import static org.opensrp.web.Constants.CONTINUATION_TOKEN;
+import static org.opensrp.web.Constants.LIMIT;
 import static org.springframework.test.web.AssertionErrors.fail;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
@@ -21,8 +25,10 @@ import static org.springframework.test.web.servlet.request.MockMvcRequestBuilder
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.stream.Collectors;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -49,13 +55,18 @@ import org.opensrp.service.TaskService;
 import org.opensrp.web.GlobalExceptionHandler;
 import org.opensrp.web.bean.Identifier;
 import org.opensrp.web.config.security.filter.CrossSiteScriptingPreventionFilter;
+import org.opensrp.web.dto.TaskDto;
+import org.opensrp.web.metrics.Metrics;
 import org.opensrp.web.rest.it.TestWebContextLoader;
 import org.opensrp.web.rest.v2.TaskResourceV2Test;
+import org.opensrp.web.utils.SyncContinuationToken;
+import org.powermock.reflect.Whitebox;
 import org.skyscreamer.jsonassert.JSONAssert;
 import org.skyscreamer.jsonassert.JSONCompareMode;
 import org.smartregister.domain.Task;
 import org.smartregister.domain.Task.TaskPriority;
 import org.smartregister.domain.Task.TaskStatus;
+import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.ContextConfiguration;
@@ -255,6 +266,85 @@ public class TaskResourceTest {
 		verifyNoMoreInteractions(taskService);
 	}
 	
+	@Test
+	public void testGetTasksByTaskAndGroupPagesAcrossGroupsWithContinuationToken() throws Exception {
+		when(taskService.getTasksByTaskAndGroup("IRS_2018_S1", "2018_IRS-3734", 0l))
+		        .thenReturn(new ArrayList<>(Arrays.asList(getTask("t2", 2l), getTask("t1", 1l), getTask("t3", 2l))));
+		when(taskService.getTasksByTaskAndGroup("IRS_2018_S1", "2018_IRS-3734", 2l))
+		        .thenReturn(new ArrayList<>(Arrays.asList(getTask("t2", 2l), getTask("t3", 2l))));
+		when(taskService.getTasksByTaskAndGroup("IRS_2018_S1", "2018_IRS-3735", 0l))
+		        .thenReturn(new ArrayList<>(Collections.singletonList(getTask("t4", 5l))));
+		
+		MvcResult result = mockMvc.perform(get(BASE_URL + "/sync").param(TaskResource.PLAN, "IRS_2018_S1")
+		        .param(TaskResource.GROUP, "2018_IRS-3734,2018_IRS-3735").param(BaseEntity.SERVER_VERSIOIN, "0")
+		        .param(LIMIT, "2")).andExpect(status().isOk()).andReturn();
+		JSONArray page = new JSONArray(result.getResponse().getContentAsString());
+		assertEquals(2, page.length());
+		assertEquals("t1", page.getJSONObject(0).getString("identifier"));
+		assertEquals("t2", page.getJSONObject(1).getString("identifier"));
+		String token = result.getResponse().getHeader(CONTINUATION_TOKEN);
+		assertNotNull(token);
+		
+		result = mockMvc.perform(get(BASE_URL + "/sync").param(TaskResource.PLAN, "IRS_2018_S1")
+		        .param(TaskResource.GROUP, "2018_IRS-3734,2018_IRS-3735").param(BaseEntity.SERVER_VERSIOIN, "0")
+		        .param(LIMIT, "2").param(CONTINUATION_TOKEN, token)).andExpect(status().isOk()).andReturn();
+		page = new JSONArray(result.getResponse().getContentAsString());
+		assertEquals(2, page.length());
+		assertEquals("t3", page.getJSONObject(0).getString("identifier"));
+		assertEquals("t4", page.getJSONObject(1).getString("identifier"));
+		assertNull(result.getResponse().getHeader(CONTINUATION_TOKEN));
+		verify(taskService, never()).getTasksByTaskAndGroup("IRS_2018_S1", "2018_IRS-3734,2018_IRS-3735", 0l);
+	}
+	
+	@Test
+	public void testGetTasksByTaskAndGroupWithoutLimitReturnsSyncPageWithContinuationToken() throws Exception {
+		Whitebox.setInternalState(taskResource, "syncPageSize", 2);
+		when(taskService.getTasksByTaskAndGroup("IRS_2018_S1", "2018_IRS-3734", 0l))
+		        .thenReturn(new ArrayList<>(Arrays.asList(getTask("t2", 2l), getTask("t1", 1l), getTask("t3", 3l))));
+		
+		MvcResult result = mockMvc.perform(post(BASE_URL + "/sync").contentType(MediaType.APPLICATION_JSON).content(
+		    "{\"plan\":[\"IRS_2018_S1\"],\"group\":[\"2018_IRS-3734\"], \"serverVersion\":0}".getBytes()))
+		        .andExpect(status().isOk()).andReturn();
+		JSONArray page = new JSONArray(result.getResponse().getContentAsString());
+		assertEquals(2, page.length());
+		assertEquals("t1", page.getJSONObject(0).getString("identifier"));
+		assertEquals("t2", page.getJSONObject(1).getString("identifier"));
+		SyncContinuationToken token = SyncContinuationToken.decode(result.getResponse().getHeader(CONTINUATION_TOKEN));
+		assertEquals(2l, token.getServerVersion());
+		assertEquals("t2", token.getIdentifier());
+	}
+	
+	@Test
+	public void testGetTasksByTaskAndGroupWithContinuationTokenOfOtherFiltersShouldReturnBadRequest() throws Exception {
+		String token = new SyncContinuationToken(0l, null,
+		        SyncContinuationToken.filterHash("IRS_2018_S1", "2018_IRS-3735", null, "0"), "2018_IRS-3735").encode();
+		mockMvc.perform(get(BASE_URL + "/sync").param(TaskResource.PLAN, "IRS_2018_S1")
+		        .param(TaskResource.GROUP, "2018_IRS-3734").param(BaseEntity.SERVER_VERSIOIN, "0")
+		        .param(CONTINUATION_TOKEN, token)).andExpect(status().isBadRequest());
+		verifyNoMoreInteractions(taskService);
+	}
+	
+	@Test
+	public void testConvertToDTOAndDomainCopyTheSamePropertiesAsBeanUtils() {
+		Task task = getTask();
+		TaskDto expectedDto = new TaskDto();
+		BeanUtils.copyProperties(task, expectedDto);
+		expectedDto.setExecutionStartDate(task.getExecutionPeriod().getStart());
+		expectedDto.setExecutionEndDate(task.getExecutionPeriod().getEnd());
+		expectedDto.setExecutionPeriod(null);
+		
+		Task dto = taskResource.convertToDTO(task);
+		assertEquals(taskResource.gson.toJson(expectedDto), taskResource.gson.toJson(dto));
+		
+		Task expectedTask = new Task();
+		BeanUtils.copyProperties(dto, expectedTask);
+		expectedTask.setExecutionPeriod(task.getExecutionPeriod());
+		assertEquals(taskResourceV2.gson.toJson(expectedTask),
+		    taskResourceV2.gson.toJson(taskResource.convertToDomain((TaskDto) dto)));
+		assertEquals(taskResourceV2.gson.toJson(task),
+		    taskResourceV2.gson.toJson(taskResource.convertToDomain((TaskDto) dto)));
+	}
+	
 	@Test
 	public void testCreate() throws Exception {
 		mockMvc.perform(post(BASE_URL).contentType(MediaType.APPLICATION_JSON).content(taskJson.getBytes()))
@@ -386,6 +476,13 @@ public class TaskResourceTest {
 		return taskResourceV2.gson.fromJson(TaskResourceV2Test.taskJson, Task.class);
 	}
 	
+	private Task getTask(String identifier, long serverVersion) {
+		Task task = getTask();
+		task.setIdentifier(identifier);
+		task.setServerVersion(serverVersion);
+		return task;
+	}
+	
 	private TaskUpdate getTaskUpdates() {
 		return new Gson().fromJson(taskUpdateJson, TaskUpdate.class);
 	}
@@ -409,6 +506,104 @@ public class TaskResourceTest {
 		assertEquals(ids.get(0), taskUpdatelistArguments.getValue().get(0).getIdentifier());
 	}
 	
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testBulkUpdateStatusGroupsLastUpdatesByStatus() throws Exception {
+		taskResource.initBulkExecutor();
+		when(taskService.updateTaskStatus(anyList())).thenAnswer(invocation -> ((List<TaskUpdate>) invocation
+		        .getArgument(0)).stream().map(TaskUpdate::getIdentifier).filter(id -> !id.equals("t3"))
+		        .collect(Collectors.toList()));
+		long received = Metrics.get(TaskResource.STATUS_UPDATE_METRIC + ".received");
+		String content = "[" + taskUpdate("t1", "In Progress") + "," + taskUpdate("t2", "In Progress") + ","
+		        + taskUpdate("t3", "Completed") + "," + taskUpdate("t1", "Completed") + "]";
+		
+		MvcResult result = mockMvc
+		        .perform(post(BASE_URL + "/update_status").param(TaskResource.BULK, "true")
+		                .contentType(MediaType.APPLICATION_JSON).content(content.getBytes()))
+		        .andExpect(status().isCreated()).andReturn();
+		
+		verify(taskService, times(2)).updateTaskStatus(taskUpdatelistArguments.capture());
+		verifyNoMoreInteractions(taskService);
+		List<List<String>> batches = taskUpdatelistArguments.getAllValues().stream()
+		        .map(batch -> batch.stream().map(update -> update.getIdentifier() + ":" + update.getStatus())
+		                .collect(Collectors.toList()))
+		        .collect(Collectors.toList());
+		assertTrue(batches.contains(Collections.singletonList("t2:In Progress")));
+		assertTrue(batches.contains(Arrays.asList("t3:Completed", "t1:Completed")));
+		JSONObject response = new JSONObject(result.getResponse().getContentAsString());
+		assertEquals(2, response.getJSONArray("task_ids").length());
+		assertEquals("t3", response.getJSONArray("failed_task_ids").getString(0));
+		assertEquals(received + 4, Metrics.get(TaskResource.STATUS_UPDATE_METRIC + ".received"));
+		taskResource.shutdownBulkExecutor();
+	}
+	
+	@Test
+	public void testBulkUpdateStatusReportsFailedTasksWhenNoneAreUpdated() throws Exception {
+		taskResource.initBulkExecutor();
+		when(taskService.updateTaskStatus(anyList())).thenReturn(Collections.emptyList());
+		String content = "[" + taskUpdate("t1", "Completed") + "]";
+		
+		MvcResult result = mockMvc
+		        .perform(post(BASE_URL + "/update_status").param(TaskResource.BULK, "true")
+		                .contentType(MediaType.APPLICATION_JSON).content(content.getBytes()))
+		        .andExpect(status().isCreated()).andReturn();
+		
+		JSONObject response = new JSONObject(result.getResponse().getContentAsString());
+		assertEquals(0, response.getJSONArray("task_ids").length());
+		assertEquals("t1", response.getJSONArray("failed_task_ids").getString(0));
+		taskResource.shutdownBulkExecutor();
+	}
+	
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testBulkSaveReportsTasksOfFailedBatches() throws Exception {
+		taskResource.initBulkExecutor();
+		Whitebox.setInternalState(taskResource, "bulkBatchSize", 2);
+		when(taskService.saveTasks(anyList())).thenAnswer(invocation -> {
+			List<Task> batch = invocation.getArgument(0);
+			if (batch.stream().anyMatch(task -> task.getIdentifier().equals("t3"))) {
+				throw new IllegalStateException();
+			}
+			return Collections.emptySet();
+		});
+		String content = "[" + taskJson.replace("tsk11231jh22", "t1") + "," + taskJson.replace("tsk11231jh22", "t2")
+		        + "," + taskJson.replace("tsk11231jh22", "t3") + "]";
+		
+		MvcResult result = mockMvc.perform(post(BASE_URL + "/add").param(TaskResource.BULK, "true")
+		        .contentType(MediaType.APPLICATION_JSON).content(content.getBytes())).andExpect(status().isCreated())
+		        .andReturn();
+		
+		verify(taskService, times(2)).saveTasks(listArgumentCaptor.capture());
+		assertEquals("Tasks with identifiers not processed: t3", result.getResponse().getContentAsString());
+		taskResource.shutdownBulkExecutor();
+	}
+	
+	@Test
+	public void testBulkSaveSavesOnlyLastVersionOfDuplicateTasks() throws Exception {
+		taskResource.initBulkExecutor();
+		Whitebox.setInternalState(taskResource, "bulkBatchSize", 2);
+		when(taskService.saveTasks(anyList())).thenReturn(Collections.emptySet());
+		String content = "[" + taskJson.replace("tsk11231jh22", "t1") + "," + taskJson.replace("tsk11231jh22", "t2")
+		        + "," + taskJson.replace("tsk11231jh22", "t3") + ","
+		        + taskJson.replace("tsk11231jh22", "t1").replace("Not Visited", "Sprayed") + "]";
+		
+		mockMvc.perform(post(BASE_URL + "/add").param(TaskResource.BULK, "true").contentType(MediaType.APPLICATION_JSON)
+		        .content(content.getBytes())).andExpect(status().isCreated());
+		
+		verify(taskService, times(2)).saveTasks(listArgumentCaptor.capture());
+		List<Task> saved = listArgumentCaptor.getAllValues().stream().flatMap(List::stream).collect(Collectors.toList());
+		assertEquals(3, saved.size());
+		List<Task> savedT1 = saved.stream().filter(task -> task.getIdentifier().equals("t1")).collect(Collectors.toList());
+		assertEquals(1, savedT1.size());
+		assertEquals("Sprayed", savedT1.get(0).getBusinessStatus());
+		taskResource.shutdownBulkExecutor();
+	}
+	
+	private String taskUpdate(String identifier, String status) {
+		return "{\"identifier\":\"" + identifier + "\",\"status\":\"" + status
+		        + "\",\"businessStatus\":\"Sprayed\"}";
+	}
+	
 	@Test
 	public void testGetAll() throws Exception {
 		
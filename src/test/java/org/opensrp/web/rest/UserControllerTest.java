@@ -18,6 +18,7 @@ import java.util.UUID;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.joda.time.format.ISODateTimeFormat;
 import org.json.JSONObject;
 import org.junit.Before;
 import org.junit.Rule;
@@ -253,6 +254,16 @@ public class UserControllerTest {
 		    actualObj.get("jurisdictions").toString());
 		assertEquals(objectMapper.writeValueAsString(new String[] { location.getId() }),
 		    actualObj.get("jurisdictionIds").toString());
+		assertEquals("[12233.0]", actualObj.get("team").get("team").get("organizationIds").toString());
+
+		
+		ResponseEntity<String> notModified = userController.authenticate(authentication,
+		    result.getHeaders().getETag());
+		assertEquals(HttpStatus.NOT_MODIFIED, notModified.getStatusCode());
+		assertNull(notModified.getBody());
+		assertEquals(result.getHeaders().getETag(), notModified.getHeaders().getETag());
+		String serverTime = notModified.getHeaders().getFirst(UserController.SERVER_TIME);
+		assertEquals(serverTime, ISODateTimeFormat.dateTime().parseDateTime(serverTime).toString());
 	}
 
 
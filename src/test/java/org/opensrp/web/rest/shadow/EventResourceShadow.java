@@ -4,6 +4,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import org.opensrp.service.ClientService;
 import org.opensrp.service.EventService;
 import org.opensrp.service.MultimediaService;
+import org.opensrp.web.ingest.IngestJobService;
 import org.opensrp.web.rest.EventResource;
 import org.springframework.stereotype.Component;
 
@@ -22,4 +23,9 @@ public class EventResourceShadow extends EventResource {
     public void setObjectMapper(ObjectMapper objectMapper) {
         super.setObjectMapper(objectMapper);
     }
+
+    @Override
+    public void setIngestJobService(IngestJobService ingestJobService) {
+        super.setIngestJobService(ingestJobService);
+    }
 }
@@ -5,6 +5,10 @@ import org.opensrp.connector.dhis2.location.DHIS2ImportOrganizationUnits;
 import org.opensrp.service.PhysicalLocationService;
 import org.opensrp.service.PlanService;
 import org.opensrp.web.rest.LocationResource;
+import org.opensrp.web.ingest.IngestJobService;
+import org.opensrp.web.location.LocationTileService;
+import org.opensrp.web.location.LocationTreeService;
+import org.opensrp.web.location.StructureSpatialIndex;
 import org.springframework.stereotype.Component;
 
 @Component
@@ -31,4 +35,23 @@ public class LocationResourseShadow extends LocationResource {
 		super.setDhis2ImportOrganizationUnits(dhis2ImportOrganizationUnits);
 	}
 
+	@Override
+	public void setLocationTreeService(LocationTreeService locationTreeService) {
+		super.setLocationTreeService(locationTreeService);
+	}
+
+	@Override
+	public void setStructureSpatialIndex(StructureSpatialIndex structureSpatialIndex) {
+		super.setStructureSpatialIndex(structureSpatialIndex);
+	}
+
+	@Override
+	public void setLocationTileService(LocationTileService locationTileService) {
+		super.setLocationTileService(locationTileService);
+	}
+
+	@Override
+	public void setIngestJobService(IngestJobService ingestJobService) {
+		super.setIngestJobService(ingestJobService);
+	}
 }
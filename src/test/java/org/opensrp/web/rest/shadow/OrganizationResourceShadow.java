@@ -7,6 +7,9 @@ import org.opensrp.service.OrganizationService;
 import org.opensrp.service.PhysicalLocationService;
 import org.opensrp.service.PlanService;
 import org.opensrp.service.PractitionerService;
+import org.opensrp.web.acl.AssignedLocationsCache;
+import org.opensrp.web.controller.AuthenticationPayloadCache;
+import org.opensrp.web.plan.PlanAssignmentIndex;
 import org.opensrp.web.rest.OrganizationResource;
 import org.springframework.stereotype.Component;
 
@@ -35,4 +38,19 @@ public class OrganizationResourceShadow extends OrganizationResource {
 	public void setPlanService(PlanService planService) {
 		super.setPlanService(planService);
 	}
+
+	@Override
+	public void setAssignedLocationsCache(AssignedLocationsCache assignedLocationsCache) {
+		super.setAssignedLocationsCache(assignedLocationsCache);
+	}
+
+	@Override
+	public void setAuthenticationPayloadCache(AuthenticationPayloadCache authenticationPayloadCache) {
+		super.setAuthenticationPayloadCache(authenticationPayloadCache);
+	}
+
+	@Override
+	public void setPlanAssignmentIndex(PlanAssignmentIndex planAssignmentIndex) {
+		super.setPlanAssignmentIndex(planAssignmentIndex);
+	}
 }
@@ -2,6 +2,10 @@ package org.opensrp.web.rest.shadow;
 
 import org.opensrp.service.PhysicalLocationService;
 import org.opensrp.service.PlanService;
+import org.opensrp.service.TaskService;
+import org.opensrp.web.controller.AuthenticationPayloadCache;
+import org.opensrp.web.ingest.IngestJobService;
+import org.opensrp.web.plan.PlanAssignmentIndex;
 import org.opensrp.web.rest.PlanResource;
 import org.springframework.stereotype.Component;
 
@@ -20,4 +24,24 @@ public class PlanResourceShadow extends PlanResource {
     public void setLocationService(PhysicalLocationService locationService) {
         super.setLocationService(locationService);
     }
+
+    @Override
+    public void setAuthenticationPayloadCache(AuthenticationPayloadCache authenticationPayloadCache) {
+        super.setAuthenticationPayloadCache(authenticationPayloadCache);
+    }
+
+    @Override
+    public void setIngestJobService(IngestJobService ingestJobService) {
+        super.setIngestJobService(ingestJobService);
+    }
+
+    @Override
+    public void setTaskService(TaskService taskService) {
+        super.setTaskService(taskService);
+    }
+
+    @Override
+    public void setPlanAssignmentIndex(PlanAssignmentIndex planAssignmentIndex) {
+        super.setPlanAssignmentIndex(planAssignmentIndex);
+    }
 }
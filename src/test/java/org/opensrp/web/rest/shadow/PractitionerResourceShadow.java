@@ -1,6 +1,7 @@
 package org.opensrp.web.rest.shadow;
 
 import org.opensrp.service.PractitionerService;
+import org.opensrp.web.controller.AuthenticationPayloadCache;
 import org.opensrp.web.rest.PractitionerResource;
 import org.springframework.stereotype.Component;
 
@@ -11,4 +12,9 @@ public class PractitionerResourceShadow extends PractitionerResource {
     public void setPractitionerService(PractitionerService practitionerService) {
         super.setPractitionerService(practitionerService);
     }
-}
\ No newline at end of file
+
+    @Override
+    public void setAuthenticationPayloadCache(AuthenticationPayloadCache authenticationPayloadCache) {
+        super.setAuthenticationPayloadCache(authenticationPayloadCache);
+    }
+}
@@ -1,6 +1,9 @@
 package org.opensrp.web.rest.shadow;
 
 import org.opensrp.service.PractitionerRoleService;
+import org.opensrp.service.PractitionerService;
+import org.opensrp.web.acl.AssignedLocationsCache;
+import org.opensrp.web.controller.AuthenticationPayloadCache;
 import org.opensrp.web.rest.PractitionerRoleResource;
 import org.springframework.stereotype.Component;
 
@@ -11,4 +14,19 @@ public class PractitionerRoleResourceShadow extends PractitionerRoleResource {
     public void setPractitionerRoleService(PractitionerRoleService practitionerRoleService) {
         super.setPractitionerRoleService(practitionerRoleService);
     }
+
+    @Override
+    public void setPractitionerService(PractitionerService practitionerService) {
+        super.setPractitionerService(practitionerService);
+    }
+
+    @Override
+    public void setAssignedLocationsCache(AssignedLocationsCache assignedLocationsCache) {
+        super.setAssignedLocationsCache(assignedLocationsCache);
+    }
+
+    @Override
+    public void setAuthenticationPayloadCache(AuthenticationPayloadCache authenticationPayloadCache) {
+        super.setAuthenticationPayloadCache(authenticationPayloadCache);
+    }
 }
@@ -4,7 +4,9 @@ import org.opensrp.service.OrganizationService;
 import org.opensrp.service.PhysicalLocationService;
 import org.opensrp.service.PlanService;
 import org.opensrp.service.PractitionerService;
+import org.opensrp.web.controller.AuthenticationPayloadCache;
 import org.opensrp.web.controller.UserController;
+import org.opensrp.web.location.LocationTreeService;
 import org.springframework.stereotype.Component;
 
 @Component
@@ -29,4 +31,14 @@ public class UserControllerShadow extends UserController {
 	public void setPlanService(PlanService planService) {
 		super.setPlanService(planService);
 	}
+
+	@Override
+	public void setLocationTreeService(LocationTreeService locationTreeService) {
+		super.setLocationTreeService(locationTreeService);
+	}
+
+	@Override
+	public void setAuthenticationPayloadCache(AuthenticationPayloadCache authenticationPayloadCache) {
+		super.setAuthenticationPayloadCache(authenticationPayloadCache);
+	}
 }
@@ -4,7 +4,10 @@
 package org.opensrp.web.utils;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.util.HashMap;
 import java.util.Iterator;
@@ -13,6 +16,10 @@ import java.util.Set;
 
 import org.junit.Test;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
 /**
  * @author Samuel Githengi created on 10/09/19
  */
@@ -65,4 +72,69 @@ public class LocationUtilsTest {
 		assertEquals("Choma", iterator.next());
 	}
 
+	@Test
+	public void testReduceCoordinatePrecisionDropsDuplicatePositions() {
+		JsonArray coordinates = new JsonParser()
+				.parse("[[[1.00001,2.00001],[1.00002,2.00002],[1.5,2],[1.5,2.5],[1.00001,2.00001]]]")
+				.getAsJsonArray();
+		assertEquals("[[[1.0,2.0],[1.5,2.0],[1.5,2.5],[1.0,2.0]]]",
+				LocationUtils.reduceCoordinatePrecision(coordinates, 2).toString());
+	}
+
+	@Test
+	public void testReduceCoordinatePrecisionKeepsValidRings() {
+		JsonArray coordinates = new JsonParser()
+				.parse("[[[1.00001,2.00001],[1.00002,2.00002],[1.00003,2.00003],[1.00001,2.00001]]]")
+				.getAsJsonArray();
+		assertEquals("[[[1.0,2.0],[1.0,2.0],[1.0,2.0],[1.0,2.0]]]",
+				LocationUtils.reduceCoordinatePrecision(coordinates, 2).toString());
+		assertEquals("[1.23,4.57]",
+				LocationUtils.reduceCoordinatePrecision(new JsonParser().parse("[1.234,4.567]").getAsJsonArray(), 2)
+						.toString());
+	}
+
+	@Test
+	public void testReduceCoordinatePrecisionRejectsPrecisionOutOfRange() {
+		JsonArray position = new JsonParser().parse("[1.234,4.567]").getAsJsonArray();
+		assertEquals("[1.0,5.0]", LocationUtils.reduceCoordinatePrecision(position, 0).toString());
+		assertEquals("[1.234,4.567]",
+			LocationUtils.reduceCoordinatePrecision(position, LocationUtils.MAX_COORDINATE_PRECISION).toString());
+		for (int precision : new int[] { -1, LocationUtils.MAX_COORDINATE_PRECISION + 1 }) {
+			try {
+				LocationUtils.reduceCoordinatePrecision(position, precision);
+				fail("precision " + precision + " should be rejected");
+			}
+			catch (IllegalArgumentException e) {
+				assertFalse(LocationUtils.isValidCoordinatePrecision(precision));
+			}
+		}
+	}
+
+	@Test
+	public void testNormalizeGeometryClosesRingsAndDropsDuplicatePositions() {
+		JsonObject geometry = new JsonParser()
+				.parse("{\"type\":\"MultiPolygon\",\"coordinates\":[[[[1,2],[1.5,2],[1.5,2],[1.5,2.5]]]]}")
+				.getAsJsonObject();
+		LocationUtils.normalizeGeometry(geometry);
+		assertEquals("[[[[1,2],[1.5,2],[1.5,2.5],[1,2]]]]", geometry.get("coordinates").toString());
+	}
+
+	@Test
+	public void testNormalizeGeometryRejectsInvalidGeometries() {
+		String[] geometries = { "{\"type\":\"Point\",\"coordinates\":[181,2]}",
+				"{\"type\":\"Point\",\"coordinates\":[\"1\",2]}",
+				"{\"type\":\"LineString\",\"coordinates\":[[1,2],[1,2]]}",
+				"{\"type\":\"Polygon\",\"coordinates\":[[[1,2],[1.5,2],[1,2]]]}",
+				"{\"type\":\"Polygon\",\"coordinates\":[]}", "{\"type\":\"Circle\",\"coordinates\":[1,2]}",
+				"{\"type\":\"Point\"}" };
+		for (String geometry : geometries) {
+			try {
+				LocationUtils.normalizeGeometry(new JsonParser().parse(geometry).getAsJsonObject());
+				fail("Expected " + geometry + " to be rejected");
+			}
+			catch (IllegalArgumentException e) {
+				assertNotNull(e.getMessage());
+			}
+		}
+	}
 }
@@ -0,0 +1,123 @@
+package org.opensrp.web.utils;
+
+import org.junit.Test;
+import org.opensrp.web.exceptions.SyncPageLimitExceededException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SyncContinuationTokenTest {
+
+	@Test
+	public void testEncodeAndDecode() {
+		String filterHash = SyncContinuationToken.filterHash("provider", null, "team");
+		SyncContinuationToken token = new SyncContinuationToken(12l, "b", filterHash);
+
+		SyncContinuationToken decoded = SyncContinuationToken.decode(token.encode());
+
+		assertEquals(12l, decoded.getServerVersion());
+		assertEquals("b", decoded.getIdentifier());
+		assertTrue(decoded.matches(filterHash));
+		assertFalse(decoded.matches(SyncContinuationToken.filterHash("provider", "team", null)));
+	}
+
+	@Test
+	public void testDecodePartitionTokenWithoutIdentifier() {
+		SyncContinuationToken token = SyncContinuationToken
+				.decode(new SyncContinuationToken(5l, null, "hash", "group").encode());
+
+		assertNull(token.getIdentifier());
+		assertEquals("group", token.getPartition());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDecodeTokenWithoutIdentifierOrPartitionThrowsException() {
+		SyncContinuationToken.decode(Base64.getUrlEncoder()
+				.encodeToString("{\"v\":5,\"h\":\"hash\"}".getBytes(StandardCharsets.UTF_8)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDecodeInvalidTokenThrowsException() {
+		SyncContinuationToken.decode("not-a-token");
+	}
+
+	@Test
+	public void testFetchPageAndNext() {
+		SyncContinuationToken previous = new SyncContinuationToken(5l, "5a", "hash");
+		List<Integer> fetchSizes = new ArrayList<>();
+		List<String> records = Arrays.asList("5b", "5a", "6b", "6a", "7a", "8a");
+
+		List<String> page = SyncContinuationToken.fetchPage(fetchSize -> {
+			fetchSizes.add(fetchSize);
+			return records.subList(0, Math.min(fetchSize, records.size()));
+		}, SyncContinuationTokenTest::serverVersion, record -> record, previous, 5, 100);
+		assertEquals(Arrays.asList("5b", "6a", "6b"), page);
+		assertEquals(Collections.singletonList(5), fetchSizes);
+
+		SyncContinuationToken next = SyncContinuationToken.next(page, SyncContinuationTokenTest::serverVersion,
+				record -> record, previous, "hash");
+		assertEquals(6l, next.getServerVersion());
+		assertEquals("6b", next.getIdentifier());
+	}
+
+	@Test
+	public void testFetchPageLeavesIncompleteServerVersionForNextPage() {
+		List<Integer> fetchSizes = new ArrayList<>();
+		// records sharing a serverVersion are returned in any order by the query
+		List<String> records = Arrays.asList("5c", "5a", "5b", "6a");
+
+		List<String> page = SyncContinuationToken.fetchPage(fetchSize -> {
+			fetchSizes.add(fetchSize);
+			return records.subList(0, Math.min(fetchSize, records.size()));
+		}, SyncContinuationTokenTest::serverVersion, record -> record, null, 2, 100);
+
+		assertEquals(Arrays.asList("5a", "5b"), page);
+		assertEquals(Arrays.asList(2, 4), fetchSizes);
+
+		SyncContinuationToken next = SyncContinuationToken.next(page, SyncContinuationTokenTest::serverVersion,
+				record -> record, null, "hash");
+		page = SyncContinuationToken.fetchPage(fetchSize -> records.subList(0, Math.min(fetchSize, records.size())),
+				SyncContinuationTokenTest::serverVersion, record -> record, next, 2, 100);
+		assertEquals(Collections.singletonList("5c"), page);
+	}
+
+	@Test
+	public void testFetchPageStopsRepeatingQueryAtMaxFetchSize() {
+		List<Integer> fetchSizes = new ArrayList<>();
+		List<String> records = Arrays.asList("5a", "5b", "5c", "5d", "5e", "5f", "6a");
+
+		try {
+			SyncContinuationToken.fetchPage(fetchSize -> {
+				fetchSizes.add(fetchSize);
+				return records.subList(0, Math.min(fetchSize, records.size()));
+			}, SyncContinuationTokenTest::serverVersion, record -> record, null, 2, 5);
+			fail("Expected the page to exceed the maximum fetch size");
+		}
+		catch (SyncPageLimitExceededException e) {
+			assertEquals(Arrays.asList(2, 4, 5), fetchSizes);
+		}
+	}
+
+	@Test
+	public void testNextWithEmptyPageReturnsPreviousToken() {
+		SyncContinuationToken previous = new SyncContinuationToken(5l, null, "hash");
+		assertSame(previous, SyncContinuationToken.next(new ArrayList<String>(), record -> 0, record -> record, previous,
+				"hash"));
+		assertNull(SyncContinuationToken.next(new ArrayList<String>(), record -> 0, record -> record, null, "hash"));
+	}
+
+	private static long serverVersion(String record) {
+		return record.charAt(0) - '0';
+	}
+}